@@ -48,6 +48,8 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     private PluginRegistry pluginRgty;
     @Autowired
     private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
 
     public HostAllocatorSpec getAllocationSpec() {
         return allocationSpec;
@@ -74,6 +76,13 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     }
 
     void reserveCapacity(final String hostUuid, final long cpu, final long memory) {
+        if (capacityIndex.isEnabled()) {
+            if (!capacityIndex.reserveCapacity(hostUuid, cpu, memory)) {
+                throw new UnableToReserveHostCapacityException(String.format("no enough CPU[%s] or memory[%s] on the host[uuid:%s]", cpu, memory, hostUuid));
+            }
+            return;
+        }
+
         HostCapacityUpdater updater = new HostCapacityUpdater(hostUuid);
         updater.run(new HostCapacityUpdaterRunnable() {
             @Override
@@ -20,4 +20,8 @@ public class HostAllocatorGlobalConfig {
     public static GlobalConfig USE_PAGINATION = new GlobalConfig(CATEGORY, "usePagination");
     @GlobalConfigValidation
     public static GlobalConfig PAGINATION_LIMIT = new GlobalConfig(CATEGORY, "paginationLimit");
+    @GlobalConfigValidation
+    public static GlobalConfig USE_CAPACITY_INDEX = new GlobalConfig(CATEGORY, "capacityIndex.enable");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig CAPACITY_INDEX_REFRESH_INTERVAL = new GlobalConfig(CATEGORY, "capacityIndex.refreshInterval");
 }
@@ -12,6 +12,7 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.allocator.*;
 import org.zstack.header.cluster.ReportHostCapacityMessage;
+import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.Flow;
 import org.zstack.header.core.workflow.FlowRollback;
@@ -56,6 +57,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     private HostCpuOverProvisioningManager cpuRatioMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
 
 	@Override
     @MessageSafe
@@ -70,6 +73,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 	private void handleLocalMessage(Message msg) {
 		if (msg instanceof AllocateHostMsg) {
 			handle((AllocateHostMsg) msg);
+		} else if (msg instanceof BatchAllocateHostMsg) {
+			handle((BatchAllocateHostMsg) msg);
 		} else if (msg instanceof ReportHostCapacityMessage) {
 			handle((ReportHostCapacityMessage) msg);
 		} else if (msg instanceof ReturnHostCapacityMsg) {
@@ -227,10 +232,35 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
             }
             dbf.update(vo);
         }
+
+        capacityIndex.capacityChanged(vo);
     }
 
-	private void handle(final AllocateHostMsg msg) {
-        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+    private void handle(final BatchAllocateHostMsg msg) {
+        final List<HostBatchAllocator.Request> requests = new ArrayList<HostBatchAllocator.Request>();
+        for (AllocateHostMsg amsg : msg.getAllocateHostMsgs()) {
+            HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(amsg);
+            String allocatorStrategyType = getAllocatorStrategyType(spec, amsg);
+            HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(HostAllocatorStrategyType.valueOf(allocatorStrategyType));
+            factory.marshalSpec(spec, amsg);
+            requests.add(new HostBatchAllocator.Request(amsg, spec, factory, allocatorStrategyType));
+        }
+
+        new HostBatchAllocator(requests, msg.getPlacementStrategy()).allocate(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                BatchAllocateHostReply reply = new BatchAllocateHostReply();
+                List<AllocateHostReply> replies = new ArrayList<AllocateHostReply>();
+                for (HostBatchAllocator.Request r : requests) {
+                    replies.add(r.getReply());
+                }
+                reply.setReplies(replies);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
+    private String getAllocatorStrategyType(HostAllocatorSpec spec, AllocateHostMsg msg) {
         String allocatorStrategyType = null;
         for (HostAllocatorStrategyExtensionPoint ext : pluginRgty.getExtensionList(HostAllocatorStrategyExtensionPoint.class)) {
             allocatorStrategyType = ext.getHostAllocatorStrategyName(spec);
@@ -244,6 +274,12 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
             allocatorStrategyType = msg.getAllocatorStrategy();
         }
 
+        return allocatorStrategyType;
+    }
+
+	private void handle(final AllocateHostMsg msg) {
+        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(msg);
+        String allocatorStrategyType = getAllocatorStrategyType(spec, msg);
         HostAllocatorStrategyFactory factory = getHostAllocatorStrategyFactory(HostAllocatorStrategyType.valueOf(allocatorStrategyType));
         HostAllocatorStrategy strategy = factory.getHostAllocatorStrategy();
         factory.marshalSpec(spec, msg);
@@ -0,0 +1,317 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.allocator.*;
+import org.zstack.header.configuration.DiskOfferingInventory;
+import org.zstack.header.core.NoErrorCompletion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.host.HostInventory;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Query;
+import java.util.*;
+
+/**
+ * allocates hosts for a BatchAllocateHostMsg.
+ *
+ * requests having the same allocation conditions are put in a group, the allocator flows run once
+ * per group with the smallest cpu/memory of the group to get the shared candidates. The vms are then
+ * placed on the candidates in memory and the capacity of all chosen hosts is reserved in one transaction.
+ * Vms whose host cannot be reserved because the capacity was taken by others in the meantime fall back to
+ * the normal allocation one by one
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public class HostBatchAllocator {
+    private static final CLogger logger = Utils.getLogger(HostBatchAllocator.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private HostCapacityReserveManager reserveMgr;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
+
+    public static class Request {
+        private AllocateHostMsg msg;
+        private HostAllocatorSpec spec;
+        private HostAllocatorStrategyFactory factory;
+        private String strategyType;
+        private AllocateHostReply reply = new AllocateHostReply();
+
+        public Request(AllocateHostMsg msg, HostAllocatorSpec spec, HostAllocatorStrategyFactory factory, String strategyType) {
+            this.msg = msg;
+            this.spec = spec;
+            this.factory = factory;
+            this.strategyType = strategyType;
+        }
+
+        public AllocateHostReply getReply() {
+            return reply;
+        }
+    }
+
+    private class Slot {
+        HostInventory host;
+        long availableCpu;
+        long availableMemory;
+    }
+
+    private final List<Request> requests;
+    private final String placementStrategy;
+
+    public HostBatchAllocator(List<Request> requests, String placementStrategy) {
+        if (!HostAllocatorConstant.BATCH_PLACEMENT_SPREAD.equals(placementStrategy)
+                && !HostAllocatorConstant.BATCH_PLACEMENT_BIN_PACKING.equals(placementStrategy)) {
+            throw new CloudRuntimeException(String.format("unknown placement strategy[%s], valid values are [%s, %s]", placementStrategy,
+                    HostAllocatorConstant.BATCH_PLACEMENT_SPREAD, HostAllocatorConstant.BATCH_PLACEMENT_BIN_PACKING));
+        }
+
+        this.requests = requests;
+        this.placementStrategy = placementStrategy;
+    }
+
+    private static List<String> sorted(Collection<String> lst) {
+        List<String> ret = lst == null ? new ArrayList<String>() : new ArrayList<String>(lst);
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private String getGroupKey(Request r) {
+        HostAllocatorSpec spec = r.spec;
+
+        List<String> diskOfferingUuids = new ArrayList<String>();
+        if (spec.getDiskOfferings() != null) {
+            for (DiskOfferingInventory dinv : spec.getDiskOfferings()) {
+                diskOfferingUuids.add(dinv.getUuid());
+            }
+        }
+
+        List<String> extraData = new ArrayList<String>();
+        for (Map.Entry<Object, Object> e : spec.getExtraData().entrySet()) {
+            extraData.add(String.format("%s=%s", e.getKey(), e.getValue()));
+        }
+
+        return String.format("%s|%s|%s|%s|%s|%s|%s|%s|%s|%s", r.strategyType, spec.getHypervisorType(),
+                spec.getImage() == null ? null : spec.getImage().getUuid(), spec.getDiskSize(), spec.getVmOperation(),
+                spec.isAllowNoL3Networks(), sorted(spec.getL3NetworkUuids()), sorted(spec.getAvoidHostUuids()),
+                diskOfferingUuids, sorted(extraData));
+    }
+
+    public void allocate(final NoErrorCompletion completion) {
+        Map<String, List<Request>> groups = new LinkedHashMap<String, List<Request>>();
+        for (Request r : requests) {
+            String key = getGroupKey(r);
+            List<Request> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<Request>();
+                groups.put(key, group);
+            }
+            group.add(r);
+        }
+
+        logger.debug(String.format("[Host Allocation]: batch allocating hosts for %s vms in %s groups with the placement strategy[%s]",
+                requests.size(), groups.size(), placementStrategy));
+        allocateGroups(groups.values().iterator(), completion);
+    }
+
+    private void allocateGroups(final Iterator<List<Request>> it, final NoErrorCompletion completion) {
+        if (!it.hasNext()) {
+            completion.done();
+            return;
+        }
+
+        allocateGroup(it.next(), new NoErrorCompletion(completion) {
+            @Override
+            public void done() {
+                allocateGroups(it, completion);
+            }
+        });
+    }
+
+    private void allocateGroup(final List<Request> group, final NoErrorCompletion completion) {
+        Request first = group.get(0);
+        long minCpu = Long.MAX_VALUE;
+        long minMemory = Long.MAX_VALUE;
+        for (Request r : group) {
+            minCpu = Math.min(minCpu, r.spec.getCpuCapacity());
+            minMemory = Math.min(minMemory, r.spec.getMemoryCapacity());
+        }
+
+        HostAllocatorSpec spec = HostAllocatorSpec.fromAllocationMsg(first.msg);
+        first.factory.marshalSpec(spec, first.msg);
+        spec.setCpuCapacity(minCpu);
+        spec.setMemoryCapacity(minMemory);
+
+        first.factory.getHostAllocatorStrategy().dryRun(spec, new ReturnValueCompletion<List<HostInventory>>(completion) {
+            @Override
+            public void success(List<HostInventory> candidates) {
+                List<Request> retries = place(group, candidates);
+                allocateOneByOne(retries.iterator(), completion);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                for (Request r : group) {
+                    r.reply.setError(errorCode);
+                }
+                completion.done();
+            }
+        });
+    }
+
+    private long getMemoryByRatio(Slot slot, long memory) {
+        return ratioMgr.calculateMemoryByRatio(slot.host.getUuid(), memory);
+    }
+
+    private Slot choose(List<Slot> slots, long cpu, long memory) {
+        Slot ret = null;
+        for (Slot slot : slots) {
+            if (slot.availableCpu < cpu || slot.availableMemory <= getMemoryByRatio(slot, memory)) {
+                continue;
+            }
+
+            if (ret == null) {
+                ret = slot;
+            } else if (HostAllocatorConstant.BATCH_PLACEMENT_SPREAD.equals(placementStrategy)) {
+                ret = slot.availableMemory > ret.availableMemory ? slot : ret;
+            } else {
+                ret = slot.availableMemory < ret.availableMemory ? slot : ret;
+            }
+        }
+
+        return ret;
+    }
+
+    // returns the requests whose chosen host failed to be reserved
+    private List<Request> place(List<Request> group, List<HostInventory> candidates) {
+        List<String> huuids = new ArrayList<String>();
+        for (HostInventory h : candidates) {
+            huuids.add(h.getUuid());
+        }
+        Map<String, ReservedHostCapacity> reserves = huuids.isEmpty() ? new HashMap<String, ReservedHostCapacity>()
+                : reserveMgr.getReservedHostCapacityOfHosts(huuids);
+
+        List<Slot> slots = new ArrayList<Slot>();
+        for (HostInventory h : candidates) {
+            Slot slot = new Slot();
+            slot.host = h;
+            slot.availableCpu = h.getAvailableCpuCapacity();
+            ReservedHostCapacity rc = reserves.get(h.getUuid());
+            slot.availableMemory = h.getAvailableMemoryCapacity() - (rc == null ? 0 : rc.getReservedMemoryCapacity());
+            slots.add(slot);
+        }
+
+        // place big vms first so they are not left without a host by small ones
+        List<Request> ordered = new ArrayList<Request>(group);
+        Collections.sort(ordered, new Comparator<Request>() {
+            @Override
+            public int compare(Request o1, Request o2) {
+                return Long.compare(o2.spec.getMemoryCapacity(), o1.spec.getMemoryCapacity());
+            }
+        });
+
+        Map<Request, Slot> placements = new LinkedHashMap<Request, Slot>();
+        Map<String, long[]> capacities = new LinkedHashMap<String, long[]>();
+        for (Request r : ordered) {
+            long cpu = r.spec.getCpuCapacity();
+            Slot slot = choose(slots, cpu, r.spec.getMemoryCapacity());
+            if (slot == null) {
+                r.reply.setError(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST,
+                        String.format("no host having cpu[%s], memory[%s bytes] left for the vm[uuid:%s] in the batch allocation",
+                                cpu, r.spec.getMemoryCapacity(), r.spec.getVmInstance().getUuid())));
+                continue;
+            }
+
+            long memory = getMemoryByRatio(slot, r.spec.getMemoryCapacity());
+            slot.availableCpu -= cpu;
+            slot.availableMemory -= memory;
+            placements.put(r, slot);
+
+            long[] c = capacities.get(slot.host.getUuid());
+            if (c == null) {
+                c = new long[2];
+                capacities.put(slot.host.getUuid(), c);
+            }
+            c[0] += cpu;
+            c[1] += memory;
+        }
+
+        Set<String> failedHosts = capacities.isEmpty() ? new HashSet<String>() : reserveCapacityInDb(capacities);
+        if (capacityIndex.isEnabled()) {
+            for (String huuid : capacities.keySet()) {
+                HostCapacityVO cap = dbf.findByUuid(huuid, HostCapacityVO.class);
+                if (cap != null) {
+                    capacityIndex.capacityChanged(cap);
+                }
+            }
+        }
+
+        List<Request> retries = new ArrayList<Request>();
+        for (Map.Entry<Request, Slot> e : placements.entrySet()) {
+            Request r = e.getKey();
+            HostInventory host = e.getValue().host;
+            if (failedHosts.contains(host.getUuid())) {
+                retries.add(r);
+            } else {
+                logger.debug(String.format("[Host Allocation]: successfully reserved cpu[%s], memory[%s bytes] on host[uuid:%s] for vm[uuid:%s] in the batch allocation",
+                        r.spec.getCpuCapacity(), r.spec.getMemoryCapacity(), host.getUuid(), r.spec.getVmInstance().getUuid()));
+                r.reply.setHost(host);
+            }
+        }
+
+        return retries;
+    }
+
+    @Transactional
+    private Set<String> reserveCapacityInDb(Map<String, long[]> capacities) {
+        String sql = "update HostCapacityVO cap set cap.availableCpu = cap.availableCpu - :cpu, cap.availableMemory = cap.availableMemory - :memory" +
+                " where cap.uuid = :huuid and cap.availableCpu >= :cpu and cap.availableMemory >= :memory";
+        Set<String> failed = new HashSet<String>();
+        for (Map.Entry<String, long[]> e : capacities.entrySet()) {
+            Query q = dbf.getEntityManager().createQuery(sql);
+            q.setParameter("cpu", e.getValue()[0]);
+            q.setParameter("memory", e.getValue()[1]);
+            q.setParameter("huuid", e.getKey());
+            if (q.executeUpdate() == 0) {
+                logger.debug(String.format("[Host Allocation]: unable to reserve cpu[%s], memory[%s bytes] on host[uuid:%s] in the batch allocation," +
+                        " the vms placed on it will be allocated one by one", e.getValue()[0], e.getValue()[1], e.getKey()));
+                failed.add(e.getKey());
+            }
+        }
+        return failed;
+    }
+
+    private void allocateOneByOne(final Iterator<Request> it, final NoErrorCompletion completion) {
+        if (!it.hasNext()) {
+            completion.done();
+            return;
+        }
+
+        final Request r = it.next();
+        r.factory.getHostAllocatorStrategy().allocate(r.spec, new ReturnValueCompletion<HostInventory>(completion) {
+            @Override
+            public void success(HostInventory returnValue) {
+                r.reply.setHost(returnValue);
+                allocateOneByOne(it, completion);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                r.reply.setError(errorCode);
+                allocateOneByOne(it, completion);
+            }
+        });
+    }
+}
@@ -28,6 +28,8 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     private HostCapacityOverProvisioningManager ratioMgr;
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
 
 	private List<HostVO> allocate(List<HostVO> vos, long cpu, long memory) {
         List<HostVO> ret = new ArrayList<HostVO>();
@@ -54,12 +56,13 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
         List<HostVO> ret;
         if (amITheFirstFlow()) {
             throw new CloudRuntimeException("HostCapacityAllocatorFlow cannot be the first allocator flow");
+        } else if (capacityIndex.isEnabled()) {
+            ret = capacityIndex.filterOutHostsByCapacity(candidates, spec.getCpuCapacity(), spec.getMemoryCapacity());
         } else {
             ret = allocate(candidates, spec.getCpuCapacity(), spec.getMemoryCapacity());
+            ret = reserveMgr.filterOutHostsByReservedCapacity(ret, spec.getCpuCapacity(), spec.getMemoryCapacity());
         }
 
-        ret = reserveMgr.filterOutHostsByReservedCapacity(ret, spec.getCpuCapacity(), spec.getMemoryCapacity());
-
         if (ret.isEmpty()) {
             fail(String.format("no host having cpu[%s], memory[%s bytes] found",
                     spec.getCpuCapacity(), spec.getMemoryCapacity()));
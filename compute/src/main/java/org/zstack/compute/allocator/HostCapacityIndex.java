@@ -0,0 +1,29 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.host.HostVO;
+
+import java.util.List;
+
+/**
+ * in-memory view of host state and capacity kept by each management node. it's a hint for
+ * the allocator flows, the database stays the source of truth for reservations
+ */
+public interface HostCapacityIndex {
+    boolean isEnabled();
+
+    /**
+     * @return HostVOs held by the index, not copies; callers must treat them as read-only, changing them
+     * or their capacity corrupts the index for every allocation on this management node
+     */
+    List<HostVO> getEnabledConnectedHosts(String hypervisorType);
+
+    List<HostVO> filterOutHostsByCapacity(List<HostVO> candidates, long requiredCpu, long requiredMemory);
+
+    boolean reserveCapacity(String hostUuid, long cpu, long memory);
+
+    /**
+     * when called in a transaction, the change is applied and announced to other management nodes after it commits
+     */
+    void capacityChanged(HostCapacityVO capacity);
+}
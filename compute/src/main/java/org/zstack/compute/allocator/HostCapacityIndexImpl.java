@@ -0,0 +1,548 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.compute.cluster.ClusterSystemTags;
+import org.zstack.compute.host.HostSystemTags;
+import org.zstack.compute.zone.ZoneSystemTags;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.ReservedHostCapacity;
+import org.zstack.header.host.*;
+import org.zstack.header.host.HostCanonicalEvents.HostCapacityChangedData;
+import org.zstack.header.host.HostCanonicalEvents.HostDeletedData;
+import org.zstack.header.host.HostCanonicalEvents.HostStateChangedData;
+import org.zstack.header.host.HostCanonicalEvents.HostStatusChangedData;
+import org.zstack.header.tag.SystemTagInventory;
+import org.zstack.header.tag.SystemTagLifeCycleListener;
+import org.zstack.tag.SystemTag;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Query;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * hosts are partitioned by hypervisor type, cluster and whether they are Enabled and Connected.
+ * each partition keeps the capacity of its hosts in primitive arrays so the allocator flows
+ * filter thousands of hosts without touching the database.
+ *
+ * the index is kept fresh by host state/status/capacity canonical events and reloaded
+ * periodically in case an event is lost. a stale entry at most makes a reservation fail,
+ * HostAllocatorChain then tries the next candidate.
+ */
+public class HostCapacityIndexImpl implements HostCapacityIndex, Component {
+    private static final CLogger logger = Utils.getLogger(HostCapacityIndexImpl.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private HostCapacityReserveManager reserveMgr;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    private volatile boolean enabled;
+    private volatile boolean reservedCapacityStale = true;
+    private Future<Void> refreshTask;
+
+    // replaced as a whole on reload so readers never see a half-built index
+    private volatile Index index = new Index();
+
+    private static class Slots {
+        final HostVO[] hosts;
+        final long[] availableCpu;
+        final long[] availableMemory;
+        final long[] reservedMemory;
+
+        Slots(int size) {
+            hosts = new HostVO[size];
+            availableCpu = new long[size];
+            availableMemory = new long[size];
+            reservedMemory = new long[size];
+        }
+
+        int size() {
+            return hosts.length;
+        }
+
+        Slots copy(int size) {
+            Slots s = new Slots(size);
+            int len = Math.min(size, hosts.length);
+            System.arraycopy(hosts, 0, s.hosts, 0, len);
+            System.arraycopy(availableCpu, 0, s.availableCpu, 0, len);
+            System.arraycopy(availableMemory, 0, s.availableMemory, 0, len);
+            System.arraycopy(reservedMemory, 0, s.reservedMemory, 0, len);
+            return s;
+        }
+    }
+
+    private static class Partition {
+        final String hypervisorType;
+        final boolean schedulable;
+        // replaced as a whole when a host joins or leaves, updated in place when capacity changes
+        volatile Slots slots = new Slots(0);
+
+        Partition(String hypervisorType, boolean schedulable) {
+            this.hypervisorType = hypervisorType;
+            this.schedulable = schedulable;
+        }
+    }
+
+    private static class Location {
+        final Partition partition;
+        volatile int slot;
+
+        Location(Partition partition, int slot) {
+            this.partition = partition;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * modified only with the lock of HostCapacityIndexImpl held
+     */
+    private static class Index {
+        final Map<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+        final Map<String, Location> locations = new ConcurrentHashMap<String, Location>();
+
+        void remove(String hostUuid) {
+            Location loc = locations.remove(hostUuid);
+            if (loc == null) {
+                return;
+            }
+
+            Slots old = loc.partition.slots;
+            int last = old.size() - 1;
+            Slots s = old.copy(last);
+            if (loc.slot != last) {
+                // move the last host into the hole
+                s.hosts[loc.slot] = old.hosts[last];
+                s.availableCpu[loc.slot] = old.availableCpu[last];
+                s.availableMemory[loc.slot] = old.availableMemory[last];
+                s.reservedMemory[loc.slot] = old.reservedMemory[last];
+                locations.get(old.hosts[last].getUuid()).slot = loc.slot;
+            }
+            loc.partition.slots = s;
+        }
+
+        void put(HostVO host, long reservedMemory) {
+            remove(host.getUuid());
+
+            boolean schedulable = isSchedulable(host);
+            String key = partitionKey(host, schedulable);
+            Partition p = partitions.get(key);
+            if (p == null) {
+                p = new Partition(host.getHypervisorType(), schedulable);
+                partitions.put(key, p);
+            }
+
+            HostCapacityVO cap = host.getCapacity();
+            Slots s = p.slots.copy(p.slots.size() + 1);
+            int slot = s.size() - 1;
+            s.hosts[slot] = host;
+            s.availableCpu[slot] = cap == null ? 0 : cap.getAvailableCpu();
+            s.availableMemory[slot] = cap == null ? 0 : cap.getAvailableMemory();
+            s.reservedMemory[slot] = reservedMemory;
+            p.slots = s;
+            locations.put(host.getUuid(), new Location(p, slot));
+        }
+    }
+
+    private static String partitionKey(HostVO host, boolean schedulable) {
+        return String.format("%s/%s/%s", host.getHypervisorType(), host.getClusterUuid(), schedulable);
+    }
+
+    private static boolean isSchedulable(HostVO host) {
+        return host.getState() == HostState.Enabled && host.getStatus() == HostStatus.Connected;
+    }
+
+    private synchronized void removeHost(String hostUuid) {
+        index.remove(hostUuid);
+    }
+
+    private List<HostVO> queryHosts(List<String> hostUuids) {
+        SimpleQuery<HostVO> q = dbf.createQuery(HostVO.class);
+        if (hostUuids != null) {
+            q.add(HostVO_.uuid, Op.IN, hostUuids);
+        }
+        return q.list();
+    }
+
+    private void reload() {
+        List<HostVO> hosts = queryHosts(null);
+        synchronized (this) {
+            // keep the reserved capacity known so far, it's recomputed in one batch when the index is used next time
+            Index old = index;
+            Index fresh = new Index();
+            for (HostVO h : hosts) {
+                Location loc = old.locations.get(h.getUuid());
+                fresh.put(h, loc == null ? 0 : loc.partition.slots.reservedMemory[loc.slot]);
+            }
+            index = fresh;
+        }
+
+        reservedCapacityStale = true;
+        logger.debug(String.format("[Host Capacity Index]: loaded %s hosts", hosts.size()));
+    }
+
+    private void load(List<String> hostUuids) {
+        List<HostVO> hosts = queryHosts(hostUuids);
+        Map<String, ReservedHostCapacity> reserves = hosts.isEmpty() ? new HashMap<String, ReservedHostCapacity>() :
+                reserveMgr.getReservedHostCapacityOfHosts(hostUuids);
+
+        synchronized (this) {
+            Set<String> found = new HashSet<String>();
+            for (HostVO h : hosts) {
+                ReservedHostCapacity rc = reserves.get(h.getUuid());
+                index.put(h, rc == null ? 0 : rc.getReservedMemoryCapacity());
+                found.add(h.getUuid());
+            }
+
+            for (String uuid : hostUuids) {
+                if (!found.contains(uuid)) {
+                    index.remove(uuid);
+                }
+            }
+        }
+    }
+
+    private void refreshReservedCapacityIfStale() {
+        if (!reservedCapacityStale) {
+            return;
+        }
+
+        reservedCapacityStale = false;
+        List<String> hostUuids = new ArrayList<String>(index.locations.keySet());
+        if (hostUuids.isEmpty()) {
+            return;
+        }
+
+        Map<String, ReservedHostCapacity> reserves = reserveMgr.getReservedHostCapacityOfHosts(hostUuids);
+        synchronized (this) {
+            for (Map.Entry<String, ReservedHostCapacity> e : reserves.entrySet()) {
+                Location loc = index.locations.get(e.getKey());
+                if (loc != null) {
+                    loc.partition.slots.reservedMemory[loc.slot] = e.getValue().getReservedMemoryCapacity();
+                }
+            }
+        }
+    }
+
+    private synchronized void updateCapacity(String hostUuid, long availableCpu, long availableMemory, long totalCpu, long totalMemory) {
+        Location loc = index.locations.get(hostUuid);
+        if (loc == null) {
+            return;
+        }
+
+        Slots s = loc.partition.slots;
+        s.availableCpu[loc.slot] = availableCpu;
+        s.availableMemory[loc.slot] = availableMemory;
+
+        HostCapacityVO cap = s.hosts[loc.slot].getCapacity();
+        if (cap != null) {
+            cap.setAvailableCpu(availableCpu);
+            cap.setAvailableMemory(availableMemory);
+            cap.setTotalCpu(totalCpu);
+            cap.setTotalMemory(totalMemory);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * the returned HostVOs are shared by the index, see HostCapacityIndex
+     */
+    @Override
+    public List<HostVO> getEnabledConnectedHosts(String hypervisorType) {
+        List<HostVO> ret = new ArrayList<HostVO>();
+        for (Partition p : index.partitions.values()) {
+            if (!p.schedulable || (hypervisorType != null && !hypervisorType.equals(p.hypervisorType))) {
+                continue;
+            }
+
+            Collections.addAll(ret, p.slots.hosts);
+        }
+        return ret;
+    }
+
+    @Override
+    public List<HostVO> filterOutHostsByCapacity(List<HostVO> candidates, long requiredCpu, long requiredMemory) {
+        List<String> missing = new ArrayList<String>();
+        for (HostVO h : candidates) {
+            if (!index.locations.containsKey(h.getUuid())) {
+                missing.add(h.getUuid());
+            }
+        }
+        if (!missing.isEmpty()) {
+            load(missing);
+        }
+
+        refreshReservedCapacityIfStale();
+
+        List<HostVO> ret = new ArrayList<HostVO>(candidates.size());
+        for (HostVO h : candidates) {
+            String uuid = h.getUuid();
+            Location loc = index.locations.get(uuid);
+            if (loc == null) {
+                // deleted
+                continue;
+            }
+
+            Slots s = loc.partition.slots;
+            int i = loc.slot;
+            if (i >= s.size() || !uuid.equals(s.hosts[i].getUuid())) {
+                // the host is moving between partitions, read it again under the lock
+                synchronized (this) {
+                    loc = index.locations.get(uuid);
+                    if (loc == null) {
+                        continue;
+                    }
+                    s = loc.partition.slots;
+                    i = loc.slot;
+                }
+            }
+
+            long availableMemory = s.availableMemory[i];
+            if (s.availableCpu[i] >= requiredCpu
+                    && ratioMgr.calculateHostAvailableMemoryByRatio(uuid, availableMemory) >= requiredMemory
+                    && availableMemory - s.reservedMemory[i] > ratioMgr.calculateMemoryByRatio(uuid, requiredMemory)) {
+                ret.add(h);
+            } else if (logger.isTraceEnabled()) {
+                logger.trace(String.format("remove host[uuid:%s] from candidates; available cpu[%s], available memory[%s bytes], reserved memory[%s bytes]" +
+                        " cannot provide required cpu[%s], memory[%s bytes]", uuid, s.availableCpu[i], availableMemory, s.reservedMemory[i], requiredCpu, requiredMemory));
+            }
+        }
+
+        return ret;
+    }
+
+    @Transactional
+    private int reserveCapacityInDb(String hostUuid, long cpu, long memory) {
+        String sql = "update HostCapacityVO cap set cap.availableCpu = cap.availableCpu - :cpu, cap.availableMemory = cap.availableMemory - :memory" +
+                " where cap.uuid = :huuid and cap.availableCpu >= :cpu and cap.availableMemory >= :memory";
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("cpu", cpu);
+        q.setParameter("memory", memory);
+        q.setParameter("huuid", hostUuid);
+        return q.executeUpdate();
+    }
+
+    @Override
+    public boolean reserveCapacity(String hostUuid, long cpu, long memory) {
+        if (reserveCapacityInDb(hostUuid, cpu, ratioMgr.calculateMemoryByRatio(hostUuid, memory)) == 0) {
+            // somebody else took the capacity, refresh our view of the host
+            load(list(hostUuid));
+            return false;
+        }
+
+        HostCapacityVO cap = dbf.findByUuid(hostUuid, HostCapacityVO.class);
+        if (cap != null) {
+            capacityChanged(cap);
+        }
+        return true;
+    }
+
+    @Override
+    public void capacityChanged(HostCapacityVO capacity) {
+        if (!enabled) {
+            return;
+        }
+
+        final HostCapacityChangedData d = new HostCapacityChangedData();
+        d.setHostUuid(capacity.getUuid());
+        d.setAvailableCpu(capacity.getAvailableCpu());
+        d.setAvailableMemory(capacity.getAvailableMemory());
+        d.setTotalCpu(capacity.getTotalCpu());
+        d.setTotalMemory(capacity.getTotalMemory());
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // the change may be rolled back, neither this index nor other management nodes see it until committed
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    applyCapacityChange(d);
+                }
+            });
+        } else {
+            applyCapacityChange(d);
+        }
+    }
+
+    private void applyCapacityChange(HostCapacityChangedData d) {
+        if (!index.locations.containsKey(d.getHostUuid())) {
+            // a new host reports its capacity the first time
+            load(list(d.getHostUuid()));
+        } else {
+            updateCapacity(d.getHostUuid(), d.getAvailableCpu(), d.getAvailableMemory(), d.getTotalCpu(), d.getTotalMemory());
+        }
+
+        evtf.fire(HostCanonicalEvents.HOST_CAPACITY_CHANGED_PATH, d);
+    }
+
+    private void setupCanonicalEvents() {
+        evtf.on(HostCanonicalEvents.HOST_CAPACITY_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (!enabled || evtf.isFromThisManagementNode(tokens)) {
+                    return;
+                }
+
+                HostCapacityChangedData d = (HostCapacityChangedData) data;
+                if (!index.locations.containsKey(d.getHostUuid())) {
+                    load(list(d.getHostUuid()));
+                } else {
+                    updateCapacity(d.getHostUuid(), d.getAvailableCpu(), d.getAvailableMemory(), d.getTotalCpu(), d.getTotalMemory());
+                }
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_STATUS_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (enabled) {
+                    load(list(((HostStatusChangedData) data).getHostUuid()));
+                }
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (enabled) {
+                    load(list(((HostStateChangedData) data).getHostUuid()));
+                }
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                removeHost(((HostDeletedData) data).getHostUuid());
+            }
+        });
+    }
+
+    private void installReservedCapacityListeners() {
+        SystemTagLifeCycleListener listener = new SystemTagLifeCycleListener() {
+            @Override
+            public void tagCreated(SystemTagInventory tag) {
+                reservedCapacityStale = true;
+            }
+
+            @Override
+            public void tagDeleted(SystemTagInventory tag) {
+                reservedCapacityStale = true;
+            }
+
+            @Override
+            public void tagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+                reservedCapacityStale = true;
+            }
+        };
+
+        for (SystemTag tag : list(HostSystemTags.RESERVED_CPU_CAPACITY, HostSystemTags.RESERVED_MEMORY_CAPACITY,
+                ClusterSystemTags.HOST_RESERVED_CPU_CAPACITY, ClusterSystemTags.HOST_RESERVED_MEMORY_CAPACITY,
+                ZoneSystemTags.HOST_RESERVED_CPU_CAPACITY, ZoneSystemTags.HOST_RESERVED_MEMORY_CAPACITY)) {
+            tag.installLifeCycleListener(listener);
+        }
+
+        GlobalConfigUpdateExtensionPoint onReserveConfigChange = new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                reservedCapacityStale = true;
+            }
+        };
+        HostAllocatorGlobalConfig.HOST_LEVEL_RESERVE_CAPACITY.installUpdateExtension(onReserveConfigChange);
+        HostAllocatorGlobalConfig.CLUSTER_LEVEL_RESERVE_CAPACITY.installUpdateExtension(onReserveConfigChange);
+        HostAllocatorGlobalConfig.ZONE_LEVEL_RESERVE_CAPACITY.installUpdateExtension(onReserveConfigChange);
+    }
+
+    private synchronized void startRefreshTask() {
+        if (refreshTask != null) {
+            refreshTask.cancel(true);
+            refreshTask = null;
+        }
+
+        if (!HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.value(Boolean.class)) {
+            enabled = false;
+            index = new Index();
+            return;
+        }
+
+        reload();
+        enabled = true;
+
+        final long interval = HostAllocatorGlobalConfig.CAPACITY_INDEX_REFRESH_INTERVAL.value(Long.class);
+        refreshTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return interval;
+            }
+
+            @Override
+            public String getName() {
+                return "refresh-host-capacity-index";
+            }
+
+            @Override
+            public void run() {
+                reload();
+            }
+        }, interval);
+    }
+
+    @Override
+    public boolean start() {
+        setupCanonicalEvents();
+        installReservedCapacityListeners();
+
+        GlobalConfigUpdateExtensionPoint onIndexConfigChange = new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startRefreshTask();
+            }
+        };
+        HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.installUpdateExtension(onIndexConfigChange);
+        HostAllocatorGlobalConfig.CAPACITY_INDEX_REFRESH_INTERVAL.installUpdateExtension(onIndexConfigChange);
+
+        startRefreshTask();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (refreshTask != null) {
+            refreshTask.cancel(true);
+        }
+        return true;
+    }
+}
@@ -306,6 +306,14 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         return ret;
     }
 
+    @Override
+    public Map<String, ReservedHostCapacity> getReservedHostCapacityOfHosts(List<String> hostUuids) {
+        ReservedCapacityFinder finder = new ReservedCapacityFinder();
+        // the finder removes resolved hosts from the list
+        finder.hostUuids = new ArrayList<String>(hostUuids);
+        return finder.find();
+    }
+
     @Override
     public ReservedHostCapacity getReservedHostCapacityByZones(List<String> zoneUuids) {
         ReservedHostCapacity ret = new ReservedHostCapacity();
@@ -23,6 +23,8 @@ public class HostCapacityUpdater {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
 
     private String hostUuid;
     private TypedQuery<HostCapacityVO> query;
@@ -94,6 +96,7 @@ public class HostCapacityUpdater {
     private void merge() {
         capacityVO = dbf.getEntityManager().merge(capacityVO);
         logCapacityChange();
+        capacityIndex.capacityChanged(capacityVO);
     }
 
     @Transactional
@@ -24,8 +24,14 @@ public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFl
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
 
 	private List<HostVO> allocate(String hypervisorType) {
+        if (capacityIndex.isEnabled() && !usePagination()) {
+            return capacityIndex.getEnabledConnectedHosts(hypervisorType);
+        }
+
 		SimpleQuery<HostVO> query = dbf.createQuery(HostVO.class);
 		query.add(HostVO_.state, Op.EQ, HostState.Enabled);
 		query.add(HostVO_.status, Op.EQ, HostStatus.Connected);
@@ -31,6 +31,7 @@ import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.errorcode.SysErrors;
 import org.zstack.header.host.*;
 import org.zstack.header.host.HostCanonicalEvents.HostDeletedData;
+import org.zstack.header.host.HostCanonicalEvents.HostStateChangedData;
 import org.zstack.header.host.HostCanonicalEvents.HostStatusChangedData;
 import org.zstack.header.host.HostMaintenancePolicyExtensionPoint.HostMaintenancePolicy;
 import org.zstack.header.message.APIDeleteMessage;
@@ -426,6 +427,13 @@ public abstract class HostBase extends AbstractHost {
 		self = dbf.updateAndRefresh(self);
 		extpEmitter.afterChange(self, event, currentState);
 		logger.debug(String.format("Host[%s]'s state changed from %s to %s", self.getUuid(), currentState, self.getState()));
+
+        HostStateChangedData data = new HostStateChangedData();
+        data.setHostUuid(self.getUuid());
+        data.setOldState(currentState.toString());
+        data.setNewState(self.getState().toString());
+        data.setInventory(HostInventory.valueOf(self));
+        evtf.fire(HostCanonicalEvents.HOST_STATE_CHANGED_PATH, data);
         return self.getState();
 	}
 
@@ -1,16 +1,15 @@
 package org.zstack.compute.host;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
-import org.zstack.core.cloudbus.CloudBusSteppingCallback;
 import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SimpleQuery;
-import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.tacker.PingScheduler;
+import org.zstack.core.tacker.PingTrackerStatistic;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.host.*;
@@ -21,18 +20,14 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  */
 public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component {
     private final static CLogger logger = Utils.getLogger(HostTrackImpl.class);
 
-    private final List<String> hostUuids = Collections.synchronizedList(new ArrayList<String>());
-    private Set<String> hostInTracking = Collections.synchronizedSet(new HashSet<String>());
-    private Future<Void> trackerThread = null;
-    private final List<String> inReconnectingHost = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> inReconnectingHost = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     @Autowired
     private DatabaseFacade dbf;
@@ -43,23 +38,37 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     @Autowired
     private ThreadFacade thdf;
 
-    private class Tracker implements PeriodicTask {
+    private final PingScheduler tracker = new PingScheduler() {
         @Override
-        public TimeUnit getTimeUnit() {
-            return TimeUnit.SECONDS;
+        protected String getName() {
+            return "hostTrack";
         }
 
         @Override
-        public long getInterval() {
+        protected long getPingInterval() {
             return HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class);
         }
 
         @Override
-        public String getName() {
-            return "hostTrack-for-managementNode-" + Platform.getManagementServerId();
+        protected int getParallelismDegree() {
+            return HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class);
         }
 
-        private void handleReply(final String hostUuid, MessageReply reply) {
+        @Override
+        protected NeedReplyMessage getPingMessage(String hostUuid) {
+            PingHostMsg msg = new PingHostMsg();
+            msg.setHostUuid(hostUuid);
+            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, hostUuid);
+            return msg;
+        }
+
+        @Override
+        protected boolean isHealthy(MessageReply reply) {
+            return reply.isSuccess() && reply.<PingHostReply>castReply().isConnected();
+        }
+
+        @Override
+        protected void handleReply(final String hostUuid, MessageReply reply) {
             if (!reply.isSuccess()) {
                 logger.warn(String.format("[Host Tracker]: unable track host[uuid:%s], %s", hostUuid, reply.getError()));
                 return;
@@ -79,8 +88,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
             //TODO: implement stopping PING after failing specific times
 
-            if (needReconnect && !inReconnectingHost.contains(hostUuid)) {
-                inReconnectingHost.add(hostUuid);
+            if (needReconnect && inReconnectingHost.add(hostUuid)) {
                 logger.debug(String.format("[Host Tracker]: detected host[uuid:%s] connection lost, issue a reconnect because %s is set to true",
                         hostUuid, HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.getCanonicalName()));
                 ReconnectHostMsg msg = new ReconnectHostMsg();
@@ -99,105 +107,67 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                 });
             }
         }
-
-        @Override
-        public void run() {
-            try {
-                List<PingHostMsg> msgs;
-                synchronized (hostUuids) {
-                    msgs = new ArrayList<PingHostMsg>();
-                    for (String huuid : hostUuids) {
-                        if (hostInTracking.contains(huuid)) {
-                            continue;
-                        }
-
-                        PingHostMsg msg = new PingHostMsg();
-                        msg.setHostUuid(huuid);
-                        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, huuid);
-                        msgs.add(msg);
-                        hostInTracking.add(huuid);
-                    }
-                }
-
-                if (msgs.isEmpty()) {
-                    return;
-                }
-
-                bus.send(msgs, HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class), new CloudBusSteppingCallback() {
-                    @Override
-                    public void run(NeedReplyMessage msg, MessageReply reply) {
-                        PingHostMsg pmsg = (PingHostMsg)msg;
-                        handleReply(pmsg.getHostUuid(), reply);
-                        hostInTracking.remove(pmsg.getHostUuid());
-                    }
-                });
-            } catch (Throwable t) {
-                logger.warn("unhandled exception", t);
-            }
-        }
-    }
+    };
 
     public void trackHost(String hostUuid) {
-        synchronized (hostUuids) {
-            if (!hostUuids.contains(hostUuid)) {
-                hostUuids.add(hostUuid);
-                logger.debug(String.format("start tracking host[uuid:%s]", hostUuid));
-            }
+        if (tracker.track(hostUuid)) {
+            logger.debug(String.format("start tracking host[uuid:%s]", hostUuid));
         }
     }
 
     @Override
     public void untrackHost(String hostUuid) {
-        synchronized (hostUuids) {
-            hostUuids.remove(hostUuid);
-            logger.debug(String.format("stop tracking host[uuid:%s]", hostUuid));
-        }
+        tracker.untrack(hostUuid);
+        logger.debug(String.format("stop tracking host[uuid:%s]", hostUuid));
     }
 
     @Override
     public void trackHost(Collection<String> huuids) {
-        synchronized (hostUuids) {
-            for (String huuid : huuids) {
-                if (!hostUuids.contains(huuid)) {
-                    hostUuids.add(huuid);
-                    logger.debug(String.format("start tracking host[uuid:%s]", huuid));
-                }
-            }
+        for (String huuid : huuids) {
+            trackHost(huuid);
         }
     }
 
     @Override
     public void untrackHost(Collection<String> huuids) {
-        synchronized (hostUuids) {
-            for (String huuid : huuids) {
-                hostUuids.remove(huuid);
-                logger.debug(String.format("stop tracking host[uuid:%s]", huuid));
-            }
+        for (String huuid : huuids) {
+            untrackHost(huuid);
         }
     }
 
-    private void reScanHost() {
-        synchronized (hostUuids) {
-            hostUuids.clear();
-
-            long count = dbf.count(HostVO.class);
-            int times = (int)count / 10000 + (count%10000 == 0 ? 0 : 1);
-            int offset = 0;
-            for (int i=0; i<times; i++) {
-                SimpleQuery<HostVO> q = dbf.createQuery(HostVO.class);
-                q.select(HostVO_.uuid);
-                q.setStart(offset);
-                q.setLimit(10000);
-                List<String> huuids = q.listValue();
-                for (String h : huuids) {
-                    if (destMaker.isManagedByUs(h)) {
-                        hostUuids.add(h);
-                    }
+    public PingTrackerStatistic getStatistic() {
+        return tracker.getStatistic();
+    }
+
+    private synchronized void reScanHost() {
+        Set<String> managed = new HashSet<String>();
+        long count = dbf.count(HostVO.class);
+        int times = (int)count / 10000 + (count%10000 == 0 ? 0 : 1);
+        int offset = 0;
+        for (int i=0; i<times; i++) {
+            SimpleQuery<HostVO> q = dbf.createQuery(HostVO.class);
+            q.select(HostVO_.uuid);
+            q.setStart(offset);
+            q.setLimit(10000);
+            List<String> huuids = q.listValue();
+            for (String h : huuids) {
+                if (destMaker.isManagedByUs(h)) {
+                    managed.add(h);
                 }
+            }
 
-                offset += 10000;
+            offset += 10000;
+        }
+
+        // keep the schedule of hosts still managed by us
+        for (String h : tracker.getTrackedResources()) {
+            if (!managed.contains(h)) {
+                tracker.untrack(h);
             }
         }
+        for (String h : managed) {
+            tracker.track(h);
+        }
     }
 
     @Override
@@ -220,23 +190,15 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     }
 
-    private void startTracker() {
-        if (trackerThread != null) {
-            trackerThread.cancel(true);
-        }
-
-        trackerThread = thdf.submitPeriodicTask(new Tracker());
-    }
-
     private void setupTracker() {
-        startTracker();
+        tracker.start(bus, thdf);
 
         HostGlobalConfig.PING_HOST_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
             @Override
             public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
-                logger.debug(String.format("%s change from %s to %s, restart tracker thread",
+                logger.debug(String.format("%s change from %s to %s, reschedule host pings",
                         oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
-                startTracker();
+                tracker.reschedule();
             }
         });
     }
@@ -249,7 +211,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     @Override
     public boolean stop() {
-        trackerThread.cancel(true);
+        tracker.stop();
         return true;
     }
 }
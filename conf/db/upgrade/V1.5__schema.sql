@@ -6,3 +6,5 @@ CREATE TABLE  `zstack`.`ImageStoreBackupStorageVO` (
     `sshPort` int unsigned NOT NULL,
     PRIMARY KEY  (`uuid`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+ALTER TABLE SecurityGroupVO ADD ruleVersion bigint unsigned NOT NULL DEFAULT 0;
@@ -34,8 +34,28 @@ public class CoreGlobalProperty {
     public static int REST_FACADE_READ_TIMEOUT;
     @GlobalProperty(name="RESTFacade.connectTimeout", defaultValue = "300000")
     public static int REST_FACADE_CONNECT_TIMEOUT;
+    @GlobalProperty(name="RESTFacade.nioClient", defaultValue = "false")
+    public static boolean REST_FACADE_NIO_CLIENT;
+    @GlobalProperty(name="RESTFacade.nioMaxConnectionsPerHost", defaultValue = "2")
+    public static int REST_FACADE_NIO_MAX_CONNECTIONS_PER_HOST;
+    @GlobalProperty(name="RESTFacade.nioMaxPipelinedRequests", defaultValue = "8")
+    public static int REST_FACADE_NIO_MAX_PIPELINED_REQUESTS;
+    @GlobalProperty(name="RESTApiFacade.resultStore.maxSize", defaultValue = "10000")
+    public static int REST_API_RESULT_STORE_MAX_SIZE;
+    @GlobalProperty(name="RESTApiFacade.resultStore.ttl", defaultValue = "3600")
+    public static long REST_API_RESULT_STORE_TTL;
+    @GlobalProperty(name="RESTApiFacade.resultStore.flushInterval", defaultValue = "500")
+    public static long REST_API_RESULT_STORE_FLUSH_INTERVAL;
+    @GlobalProperty(name="RESTApiFacade.resultStore.flushBatchSize", defaultValue = "500")
+    public static int REST_API_RESULT_STORE_FLUSH_BATCH_SIZE;
+    @GlobalProperty(name="RESTApiFacade.maxLongPollTimeout", defaultValue = "60")
+    public static long REST_API_MAX_LONG_POLL_TIMEOUT;
     @GlobalProperty(name="upgradeStartOn", defaultValue = "false")
     public static boolean IS_UPGRADE_START;
     @GlobalProperty(name="shadowEntityOn", defaultValue = "false")
     public static boolean SHADOW_ENTITY_ON;
+    @GlobalProperty(name="pingTracker.adaptiveInterval", defaultValue = "true")
+    public static boolean PING_TRACKER_ADAPTIVE_INTERVAL;
+    @GlobalProperty(name="pingTracker.maxBackoff", defaultValue = "2")
+    public static int PING_TRACKER_MAX_BACKOFF;
 }
@@ -0,0 +1,81 @@
+package org.zstack.core.asyncbatch;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.thread.ThreadFacade;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * collects items of a key(e.g. a host or a primary storage uuid) for getWindow() milliseconds, or until
+ * there are getMaxItems() of them, and hands them to send() as one batch.
+ *
+ * Items of different keys are never put in the same batch
+ */
+public abstract class KeyedBatcher<T> {
+    @Autowired
+    protected ThreadFacade thdf;
+
+    private Map<String, List<T>> batches = new HashMap<String, List<T>>();
+
+    /**
+     * @return milliseconds to wait for more items after the first item of a batch; batching is off if <= 0
+     */
+    protected abstract long getWindow();
+
+    protected abstract int getMaxItems();
+
+    /**
+     * called out of the batcher lock, with at least one item
+     */
+    protected abstract void send(String key, List<T> items);
+
+    public boolean isEnabled() {
+        return getWindow() > 0;
+    }
+
+    protected void add(final String key, T item) {
+        List<T> full = null;
+        synchronized (this) {
+            List<T> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<T>();
+                batches.put(key, batch);
+
+                final List<T> fbatch = batch;
+                thdf.submitTimeoutTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(key, fbatch);
+                    }
+                }, TimeUnit.MILLISECONDS, getWindow());
+            }
+
+            batch.add(item);
+            if (batch.size() >= getMaxItems()) {
+                batches.remove(key);
+                full = batch;
+            }
+        }
+
+        if (full != null) {
+            send(key, full);
+        }
+    }
+
+    private void flush(String key, List<T> batch) {
+        synchronized (this) {
+            if (batches.get(key) != batch) {
+                // sent when it was full
+                return;
+            }
+
+            batches.remove(key);
+        }
+
+        send(key, batch);
+    }
+}
@@ -2,13 +2,11 @@ package org.zstack.core.cascade;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.componentloader.PluginRegistry;
-import org.zstack.core.workflow.*;
+import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
-import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.exception.CloudRuntimeException;
-import org.zstack.utils.Bucket;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
@@ -55,8 +53,162 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         private HashSet<TreeNode> leafs;
     }
 
+    /**
+     * an extension call of an async cascade. It runs after the calls of its child resources, and after the earlier
+     * calls of the same extension so calls on the same kind of resources keep the order of the sequential cascade
+     */
+    private static class AsyncCascadeTask {
+        private int index;
+        private Node node;
+        private CascadeAction action;
+        private int pendingDependencies;
+        private List<AsyncCascadeTask> dependents = new ArrayList<AsyncCascadeTask>();
+        private long startTime;
+        private long cost;
+
+        void addDependent(AsyncCascadeTask t) {
+            dependents.add(t);
+            t.pendingDependencies++;
+        }
+    }
+
+    /**
+     * runs tasks of an async cascade as a DAG, up to CascadeGlobalProperty.ASYNC_CASCADE_PARALLELISM tasks at a time.
+     * Ready tasks start in the order of the sequential cascade, so a parallelism of 1 runs the cascade as before.
+     * After a failure no more task is started, the completion fails with the first error once running tasks finish
+     */
+    private class AsyncCascadeScheduler {
+        private final List<AsyncCascadeTask> tasks;
+        private final CascadeAction action;
+        private final Completion completion;
+        private final int parallelism = Math.max(1, CascadeGlobalProperty.ASYNC_CASCADE_PARALLELISM);
+        private final PriorityQueue<AsyncCascadeTask> readyTasks = new PriorityQueue<AsyncCascadeTask>(11, new Comparator<AsyncCascadeTask>() {
+            @Override
+            public int compare(AsyncCascadeTask t1, AsyncCascadeTask t2) {
+                return t1.index - t2.index;
+            }
+        });
+        private final long startTime = System.currentTimeMillis();
+        private int running;
+        private int finished;
+        private ErrorCode error;
+        private boolean done;
+
+        AsyncCascadeScheduler(List<AsyncCascadeTask> tasks, CascadeAction action, Completion completion) {
+            this.tasks = tasks;
+            this.action = action;
+            this.completion = completion;
+            for (AsyncCascadeTask t : tasks) {
+                if (t.pendingDependencies == 0) {
+                    readyTasks.add(t);
+                }
+            }
+        }
+
+        void start() {
+            schedule();
+        }
+
+        private void schedule() {
+            List<AsyncCascadeTask> toRun = new ArrayList<AsyncCascadeTask>();
+            boolean complete = false;
+            synchronized (this) {
+                while (error == null && running < parallelism && !readyTasks.isEmpty()) {
+                    toRun.add(readyTasks.poll());
+                    running++;
+                }
+
+                if (!done && running == 0 && (error != null || finished == tasks.size())) {
+                    done = true;
+                    complete = true;
+                }
+            }
+
+            if (complete) {
+                report();
+                return;
+            }
+
+            for (AsyncCascadeTask t : toRun) {
+                run(t);
+            }
+        }
+
+        private void run(final AsyncCascadeTask t) {
+            logger.debug(String.format("[Async cascade (%s)]: %s --> %s", t.action.getActionCode(), t.action.getParentIssuer(), t.node.getName()));
+            t.startTime = System.currentTimeMillis();
+            try {
+                t.node.getExtension().asyncCascade(t.action, new Completion() {
+                    @Override
+                    public void success() {
+                        finish(t, null);
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        finish(t, errorCode);
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn(String.format("unhandled exception when cascading %s --> %s", t.action.getParentIssuer(), t.node.getName()), e);
+                finish(t, errf.throwableToInternalError(e));
+            }
+        }
+
+        private void finish(AsyncCascadeTask t, ErrorCode errorCode) {
+            t.cost = System.currentTimeMillis() - t.startTime;
+            logger.debug(String.format("[Async cascade (%s)]: %s --> %s %s in %sms", t.action.getActionCode(), t.action.getParentIssuer(),
+                    t.node.getName(), errorCode == null ? "succeeded" : "failed", t.cost));
+
+            synchronized (this) {
+                running--;
+                finished++;
+                if (errorCode != null) {
+                    if (error == null) {
+                        error = errorCode;
+                    }
+                } else {
+                    for (AsyncCascadeTask d : t.dependents) {
+                        if (--d.pendingDependencies == 0) {
+                            readyTasks.add(d);
+                        }
+                    }
+                }
+            }
+
+            schedule();
+        }
+
+        private void report() {
+            Map<String, Long> costs = new HashMap<String, Long>();
+            for (AsyncCascadeTask t : tasks) {
+                Long c = costs.get(t.node.getName());
+                costs.put(t.node.getName(), c == null ? t.cost : c + t.cost);
+            }
+            List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(costs.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+                    return e2.getValue().compareTo(e1.getValue());
+                }
+            });
+
+            logger.debug(String.format("Cascade: %s of %s ran %s of %s extension calls in %sms with parallelism %s, time spent by extensions: %s",
+                    action.getActionCode(), action.getRootIssuer(), finished, tasks.size(), System.currentTimeMillis() - startTime,
+                    parallelism, entries.subList(0, Math.min(entries.size(), 5))));
+
+            if (error == null) {
+                completion.success();
+            } else {
+                completion.fail(error);
+            }
+        }
+    }
+
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ErrorFacade errf;
 
     private Map<String, Node> nodes = new HashMap<String, Node>();
     private Map<String, TreeNode> cascadeTree = new HashMap<String, TreeNode>();
@@ -120,7 +272,8 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
         }
     }
 
-    private void collectPathsForAsyncCascade(TreeNode treeNode, boolean init, boolean fullTraverse, CascadeAction action, List<Bucket> result) {
+    private AsyncCascadeTask collectPathsForAsyncCascade(TreeNode treeNode, boolean init, boolean fullTraverse, CascadeAction action, List<AsyncCascadeTask> result) {
+        List<AsyncCascadeTask> children = new ArrayList<AsyncCascadeTask>();
         CascadeAction currentAction;
         Node node = treeNode.node;
         if (!init) {
@@ -140,19 +293,27 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
             }
 
             for (TreeNode tn : treeNode.leafs) {
-                collectPathsForAsyncCascade(tn, false, true, currentAction, result);
+                children.add(collectPathsForAsyncCascade(tn, false, true, currentAction, result));
             }
         } else {
             if (currentAction != null) {
                 checkForNullElement(node, currentAction);
 
                 for (TreeNode tn : treeNode.leafs) {
-                    collectPathsForAsyncCascade(tn, false, false, currentAction, result);
+                    children.add(collectPathsForAsyncCascade(tn, false, false, currentAction, result));
                 }
             }
         }
 
-        result.add(Bucket.newBucket(node, action));
+        AsyncCascadeTask task = new AsyncCascadeTask();
+        task.index = result.size();
+        task.node = node;
+        task.action = action;
+        for (AsyncCascadeTask c : children) {
+            c.addDependent(task);
+        }
+        result.add(task);
+        return task;
     }
 
     @Override
@@ -178,42 +339,19 @@ public class CascadeFacadeImpl implements CascadeFacade, Component {
 
         TreeNode root = cascadeTree.get(action.getRootIssuer());
         DebugUtils.Assert(root!=null, String.format("found no CascadeExtension for %s", action.getRootIssuer()));
-        List<Bucket> paths = new ArrayList<Bucket>();
-        collectPathsForAsyncCascade(root, true, action.isFullTraverse(), action, paths);
-        FlowChain chain = FlowChainBuilder.newSimpleFlowChain();
-        for (Bucket path : paths) {
-            final Node node = path.get(0);
-            final CascadeAction caction = path.get(1);
-            chain.then(new NoRollbackFlow() {
-                @Override
-                public void run(final FlowTrigger trigger, Map data) {
-                    logger.debug(String.format("[Async cascade (%s)]: %s --> %s", caction.getActionCode(), caction.getParentIssuer(), node.getName()));
-                    node.getExtension().asyncCascade(caction, new Completion() {
-                        @Override
-                        public void success() {
-                            trigger.next();
-                        }
-
-                        @Override
-                        public void fail(ErrorCode errorCode) {
-                            trigger.fail(errorCode);
-                        }
-                    });
-                }
-            });
+        List<AsyncCascadeTask> tasks = new ArrayList<AsyncCascadeTask>();
+        collectPathsForAsyncCascade(root, true, action.isFullTraverse(), action, tasks);
+
+        Map<String, AsyncCascadeTask> lastTasks = new HashMap<String, AsyncCascadeTask>();
+        for (AsyncCascadeTask t : tasks) {
+            AsyncCascadeTask last = lastTasks.get(t.node.getName());
+            if (last != null) {
+                last.addDependent(t);
+            }
+            lastTasks.put(t.node.getName(), t);
         }
 
-        chain.done(new FlowDoneHandler() {
-            @Override
-            public void handle(Map data) {
-                completion.success();
-            }
-        }).error(new FlowErrorHandler() {
-            @Override
-            public void handle(ErrorCode errCode, Map data) {
-                completion.fail(errCode);
-            }
-        }).setName(String.format("Cascade: %s", action.getActionCode())).start();
+        new AsyncCascadeScheduler(tasks, action, completion).start();
     }
 
     @Override
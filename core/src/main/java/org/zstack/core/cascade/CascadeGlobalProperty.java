@@ -0,0 +1,14 @@
+package org.zstack.core.cascade;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class CascadeGlobalProperty {
+    // sibling subtrees of a cascade may touch the same resources, e.g. VMs and volumes under a primary storage,
+    // so they run one by one unless set greater than 1
+    @GlobalProperty(name = "Cascade.asyncParallelism", defaultValue = "1")
+    public static int ASYNC_CASCADE_PARALLELISM;
+}
@@ -0,0 +1,499 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.GsonTransient;
+import org.zstack.header.message.Message;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a compact binary codec.
+ *
+ * Field layouts are computed once per class and every value is written with its
+ * runtime class, so unlike the JSON codec no schema has to be built on sending and
+ * restored on receiving. Class names are written once per message and referenced
+ * by index afterwards; for each class not in the JDK, a hash of its layout follows the
+ * name so a receiver built from different source fails loudly instead of decoding garbage.
+ *
+ * Semantics follow the JSON codec: static, transient and @GsonTransient fields are skipped,
+ * null fields keep the value assigned by the default constructor, and objects of anonymous
+ * or local classes are dropped. Values of JDK classes not handled natively and objects without
+ * a default constructor are embedded as JSON.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final String ID = "binary";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte SHORT = 8;
+    private static final byte BYTE = 9;
+    private static final byte CHAR = 10;
+    private static final byte ENUM = 11;
+    private static final byte DATE = 12;
+    private static final byte TIMESTAMP = 13;
+    private static final byte BYTES = 14;
+    private static final byte ARRAY = 15;
+    private static final byte COLLECTION = 16;
+    private static final byte MAP = 17;
+    private static final byte OBJECT = 18;
+    private static final byte JSON = 19;
+
+    private static final Map<String, Class> primitives = new HashMap<String, Class>();
+
+    static {
+        for (Class clz : new Class[]{int.class, long.class, boolean.class, double.class, float.class, short.class, byte.class, char.class}) {
+            primitives.put(clz.getName(), clz);
+        }
+    }
+
+    private static class ClassLayout {
+        Field[] fields;
+        Constructor constructor;
+        int hash;
+    }
+
+    private Map<Class, ClassLayout> layouts = new ConcurrentHashMap<Class, ClassLayout>();
+    private Map<String, Class> classes = new ConcurrentHashMap<String, Class>();
+    private Map<Class, Constructor> containerConstructors = new ConcurrentHashMap<Class, Constructor>();
+    private Set<Class> noContainerConstructors = Collections.newSetFromMap(new ConcurrentHashMap<Class, Boolean>());
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        try {
+            Encoder encoder = new Encoder();
+            encoder.writeValue(msg);
+            return encoder.toByteArray();
+        } catch (IOException e) {
+            throw new CloudRuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        try {
+            Object obj = new Decoder(data).readValue();
+            if (!(obj instanceof Message)) {
+                throw new CloudRuntimeException(String.format("the decoded object[%s] is not a message", obj == null ? null : obj.getClass().getName()));
+            }
+
+            return (Message) obj;
+        } catch (IOException e) {
+            throw new CloudRuntimeException(e);
+        } catch (ReflectiveOperationException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    private static boolean isJdkClass(Class clz) {
+        String name = clz.getName();
+        return clz.isPrimitive() || name.startsWith("java.") || name.startsWith("javax.");
+    }
+
+    private ClassLayout getLayout(Class clz) {
+        ClassLayout layout = layouts.get(clz);
+        if (layout != null) {
+            return layout;
+        }
+
+        List<Class> hierarchy = new ArrayList<Class>();
+        for (Class c = clz; c != null && !isJdkClass(c); c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+
+        List<Field> fields = new ArrayList<Field>();
+        StringBuilder signature = new StringBuilder();
+        for (Class c : hierarchy) {
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic() || f.isAnnotationPresent(GsonTransient.class)) {
+                    continue;
+                }
+
+                f.setAccessible(true);
+                fields.add(f);
+                signature.append(c.getName()).append('.').append(f.getName()).append(':').append(f.getType().getName()).append(';');
+            }
+        }
+
+        layout = new ClassLayout();
+        layout.fields = fields.toArray(new Field[fields.size()]);
+        layout.hash = signature.toString().hashCode();
+        if (!Modifier.isAbstract(clz.getModifiers()) && !clz.isEnum()) {
+            try {
+                Constructor ctor = clz.getDeclaredConstructor();
+                ctor.setAccessible(true);
+                layout.constructor = ctor;
+            } catch (NoSuchMethodException e) {
+                // objects of this class are embedded as JSON
+            }
+        }
+
+        layouts.put(clz, layout);
+        return layout;
+    }
+
+    private Class resolveClass(String name) {
+        Class clz = classes.get(name);
+        if (clz != null) {
+            return clz;
+        }
+
+        clz = primitives.get(name);
+        if (clz == null) {
+            try {
+                clz = Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new CloudRuntimeException(String.format("unable to decode class[%s]", name), e);
+            }
+        }
+
+        classes.put(name, clz);
+        return clz;
+    }
+
+    private Constructor getContainerConstructor(Class clz) {
+        Constructor ctor = containerConstructors.get(clz);
+        if (ctor != null || noContainerConstructors.contains(clz)) {
+            return ctor;
+        }
+
+        // never rebuild persistent collections of hibernate, they are detached from any session here
+        if (!clz.getName().startsWith("org.hibernate.") && Modifier.isPublic(clz.getModifiers())) {
+            try {
+                ctor = clz.getConstructor();
+            } catch (NoSuchMethodException e) {
+                ctor = null;
+            }
+        }
+
+        if (ctor == null) {
+            noContainerConstructors.add(clz);
+        } else {
+            containerConstructors.put(clz, ctor);
+        }
+
+        return ctor;
+    }
+
+    private Collection newCollection(Class clz) throws ReflectiveOperationException {
+        Constructor ctor = getContainerConstructor(clz);
+        if (ctor != null) {
+            return (Collection) ctor.newInstance();
+        } else if (SortedSet.class.isAssignableFrom(clz)) {
+            return new TreeSet();
+        } else if (Set.class.isAssignableFrom(clz)) {
+            return new LinkedHashSet();
+        } else {
+            return new ArrayList();
+        }
+    }
+
+    private Map newMap(Class clz) throws ReflectiveOperationException {
+        Constructor ctor = getContainerConstructor(clz);
+        if (ctor != null) {
+            return (Map) ctor.newInstance();
+        } else if (SortedMap.class.isAssignableFrom(clz)) {
+            return new TreeMap();
+        } else {
+            return new LinkedHashMap();
+        }
+    }
+
+    private class Encoder {
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        private DataOutputStream out = new DataOutputStream(bytes);
+        private Map<String, Integer> names = new HashMap<String, Integer>();
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private void writeVarLong(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                out.writeByte((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.writeByte((int) v);
+        }
+
+        private void writeString(String s) throws IOException {
+            byte[] b = s.getBytes(UTF8);
+            writeVarLong(b.length);
+            out.write(b);
+        }
+
+        private void writeClass(Class clz) throws IOException {
+            String name = clz.getName();
+            Integer index = names.get(name);
+            if (index != null) {
+                writeVarLong(index + 1);
+                return;
+            }
+
+            writeVarLong(0);
+            writeString(name);
+            if (!isJdkClass(clz)) {
+                out.writeInt(getLayout(clz).hash);
+            }
+            names.put(name, names.size());
+        }
+
+        void writeValue(Object v) throws IOException, IllegalAccessException {
+            if (v == null) {
+                out.writeByte(NULL);
+                return;
+            }
+
+            Class clz = v.getClass();
+            if (clz == String.class) {
+                out.writeByte(STRING);
+                writeString((String) v);
+            } else if (clz == Integer.class) {
+                int n = (Integer) v;
+                out.writeByte(INT);
+                writeVarLong(((n << 1) ^ (n >> 31)) & 0xFFFFFFFFL);
+            } else if (clz == Long.class) {
+                long n = (Long) v;
+                out.writeByte(LONG);
+                writeVarLong((n << 1) ^ (n >> 63));
+            } else if (clz == Boolean.class) {
+                out.writeByte((Boolean) v ? TRUE : FALSE);
+            } else if (clz == Double.class) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) v);
+            } else if (clz == Float.class) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) v);
+            } else if (clz == Short.class) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) v);
+            } else if (clz == Byte.class) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) v);
+            } else if (clz == Character.class) {
+                out.writeByte(CHAR);
+                out.writeChar((Character) v);
+            } else if (v instanceof Enum) {
+                out.writeByte(ENUM);
+                writeClass(((Enum) v).getDeclaringClass());
+                writeString(((Enum) v).name());
+            } else if (clz == Timestamp.class) {
+                out.writeByte(TIMESTAMP);
+                out.writeLong(((Timestamp) v).getTime());
+                out.writeInt(((Timestamp) v).getNanos());
+            } else if (clz == Date.class) {
+                out.writeByte(DATE);
+                out.writeLong(((Date) v).getTime());
+            } else if (clz == byte[].class) {
+                byte[] b = (byte[]) v;
+                out.writeByte(BYTES);
+                writeVarLong(b.length);
+                out.write(b);
+            } else if (clz.isArray()) {
+                int len = Array.getLength(v);
+                out.writeByte(ARRAY);
+                writeClass(clz.getComponentType());
+                writeVarLong(len);
+                for (int i = 0; i < len; i++) {
+                    writeValue(Array.get(v, i));
+                }
+            } else if (v instanceof Collection) {
+                Collection c = (Collection) v;
+                out.writeByte(COLLECTION);
+                writeClass(clz);
+                writeVarLong(c.size());
+                for (Object item : c) {
+                    writeValue(item);
+                }
+            } else if (v instanceof Map) {
+                Map<Object, Object> m = (Map<Object, Object>) v;
+                out.writeByte(MAP);
+                writeClass(clz);
+                writeVarLong(m.size());
+                for (Map.Entry<Object, Object> e : m.entrySet()) {
+                    writeValue(e.getKey());
+                    writeValue(e.getValue());
+                }
+            } else if (clz.isAnonymousClass() || clz.isLocalClass()) {
+                // the JSON codec drops them as well
+                out.writeByte(NULL);
+            } else if (isJdkClass(clz) || getLayout(clz).constructor == null) {
+                out.writeByte(JSON);
+                writeClass(clz);
+                writeString(JSONObjectUtil.toJsonString(v));
+            } else {
+                out.writeByte(OBJECT);
+                writeClass(clz);
+                for (Field f : getLayout(clz).fields) {
+                    writeValue(f.get(v));
+                }
+            }
+        }
+    }
+
+    private class Decoder {
+        private DataInputStream in;
+        private List<Class> names = new ArrayList<Class>();
+
+        Decoder(byte[] data) {
+            in = new DataInputStream(new ByteArrayInputStream(data));
+        }
+
+        private long readVarLong() throws IOException {
+            long v = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        private int readLength() throws IOException {
+            return (int) readVarLong();
+        }
+
+        private String readString() throws IOException {
+            byte[] b = new byte[readLength()];
+            in.readFully(b);
+            return new String(b, UTF8);
+        }
+
+        private Class readClass() throws IOException {
+            int index = readLength();
+            if (index != 0) {
+                return names.get(index - 1);
+            }
+
+            Class clz = resolveClass(readString());
+            if (!isJdkClass(clz)) {
+                int hash = in.readInt();
+                if (hash != getLayout(clz).hash) {
+                    throw new CloudRuntimeException(String.format("the layout of class[%s] differs from the sender's, the management nodes" +
+                            " may run different versions; use the JSON codec until all of them are upgraded", clz.getName()));
+                }
+            }
+
+            names.add(clz);
+            return clz;
+        }
+
+        Object readValue() throws IOException, ReflectiveOperationException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case INT: {
+                    int n = (int) readVarLong();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+                case LONG: {
+                    long n = readVarLong();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case CHAR:
+                    return in.readChar();
+                case ENUM: {
+                    Class clz = readClass();
+                    return Enum.valueOf(clz, readString());
+                }
+                case TIMESTAMP: {
+                    Timestamp t = new Timestamp(in.readLong());
+                    t.setNanos(in.readInt());
+                    return t;
+                }
+                case DATE:
+                    return new Date(in.readLong());
+                case BYTES: {
+                    byte[] b = new byte[readLength()];
+                    in.readFully(b);
+                    return b;
+                }
+                case ARRAY: {
+                    Class component = readClass();
+                    int len = readLength();
+                    Object arr = Array.newInstance(component, len);
+                    for (int i = 0; i < len; i++) {
+                        Array.set(arr, i, readValue());
+                    }
+                    return arr;
+                }
+                case COLLECTION: {
+                    Collection c = newCollection(readClass());
+                    int size = readLength();
+                    for (int i = 0; i < size; i++) {
+                        c.add(readValue());
+                    }
+                    return c;
+                }
+                case MAP: {
+                    Map m = newMap(readClass());
+                    int size = readLength();
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue();
+                        m.put(key, readValue());
+                    }
+                    return m;
+                }
+                case JSON: {
+                    Class clz = readClass();
+                    return JSONObjectUtil.toObject(readString(), clz);
+                }
+                case OBJECT: {
+                    ClassLayout layout = getLayout(readClass());
+                    Object obj = layout.constructor.newInstance();
+                    for (Field f : layout.fields) {
+                        Object value = readValue();
+                        if (value != null) {
+                            f.set(obj, value);
+                        }
+                    }
+                    return obj;
+                }
+                default:
+                    throw new CloudRuntimeException(String.format("unknown type tag[%s] in binary message", tag));
+            }
+        }
+    }
+}
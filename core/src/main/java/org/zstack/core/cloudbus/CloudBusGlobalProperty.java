@@ -41,4 +41,12 @@ public class CloudBusGlobalProperty {
     public static int CHANNEL_POOL_SIZE;
     @GlobalProperty(name="CloudBus.messageTTL", defaultValue = "300")
     public static int MESSAGE_TTL;
+    @GlobalProperty(name="CloudBus.messageCodec", defaultValue = "json")
+    public static String MESSAGE_CODEC;
+    @GlobalProperty(name="CloudBus.localDelivery", defaultValue = "false")
+    public static boolean LOCAL_DELIVERY;
+    @GlobalProperty(name="CloudBus.localDeliveryCopyMessage", defaultValue = "true")
+    public static boolean LOCAL_DELIVERY_COPY_MESSAGE;
+    @GlobalProperty(name="EventFacade.dispatchThreadNum", defaultValue = "0")
+    public static int EVENT_DISPATCH_THREAD_NUM;
 }
@@ -1,11 +1,9 @@
 package org.zstack.core.cloudbus;
 
-import com.google.gson.*;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.impl.recovery.AutorecoveringConnection;
 import com.rabbitmq.client.impl.recovery.RecoveryAwareAMQConnection;
 import org.apache.commons.lang.StringUtils;
-import org.mvel2.MVEL;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.MessageCommandRecorder;
 import org.zstack.core.Platform;
@@ -31,8 +29,6 @@ import org.zstack.header.search.APISearchMessage;
 import org.zstack.header.search.APISearchReply;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
-import org.zstack.utils.gson.GsonTypeCoder;
-import org.zstack.utils.gson.GsonUtil;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
@@ -40,11 +36,11 @@ import javax.management.MXBean;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Field;
-import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.map;
@@ -79,11 +75,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private Map<String, Envelope> envelopes = new ConcurrentHashMap<String, Envelope>();
     private Map<String, EndPoint> endpoints = new ConcurrentHashMap<String, EndPoint>();
+    private Map<String, LocalReceiver> localReceivers = new ConcurrentHashMap<String, LocalReceiver>();
+    private AtomicLong localDeliveryCount = new AtomicLong(0);
+    private AtomicLong remoteDeliveryCount = new AtomicLong(0);
     private AtomicBoolean stopped = new AtomicBoolean(false);
     private boolean trackerClose = false;
     private Map<String, MessageStatistic> statistics = new HashMap<String, MessageStatistic>();
 
-    private Map<Class, Map<String, Serializable>> mvelExpressions = new ConcurrentHashMap<Class, Map<String, Serializable>>();
     private Map<Class, List<ReplyMessagePreSendingExtensionPoint>> replyMessageMarshaller = new ConcurrentHashMap<Class, List<ReplyMessagePreSendingExtensionPoint>>();
 
     private Map<Class, List<BeforeDeliveryMessageInterceptor>> beforeDeliveryMessageInterceptors = new HashMap<Class, List<BeforeDeliveryMessageInterceptor>>();
@@ -103,6 +101,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private final String DEAD_LETTER = "dead-message";
 
     private final String AMQP_PROPERTY_HEADER__COMPRESSED = "compressed";
+    private final String AMQP_PROPERTY_HEADER__CODEC = "codec";
 
     private String SERVICE_ID = makeLocalServiceId("cloudbus");
 
@@ -328,7 +327,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private NoRouteEndPoint noRouteEndPoint = new NoRouteEndPoint();
 
-    private Consumer consumer = new AbstractConsumer() {
+    private interface LocalReceiver {
+        void receiveLocally(Message msg);
+    }
+
+    private class OutboundQueueConsumer extends AbstractConsumer implements LocalReceiver {
         @AsyncThread
         @MessageSafe
         private void handle(Message msg) {
@@ -351,6 +354,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        @Override
+        public void receiveLocally(Message msg) {
+            handle(msg);
+        }
+
         @Override
         public void handleDelivery(String s, com.rabbitmq.client.Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
             try {
@@ -361,11 +369,15 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 logger.warn("unhandled throwable", t);
             }
         }
-    };
+    }
 
+    private OutboundQueueConsumer consumer = new OutboundQueueConsumer();
 
-    private class Wire implements GsonTypeCoder<Message> {
+
+    private class Wire {
         private List<String> filterMsgNames = new ArrayList<String>();
+        private Map<String, MessageCodec> codecs = new ConcurrentHashMap<String, MessageCodec>();
+        private final JsonMessageCodec jsonCodec = new JsonMessageCodec();
 
         {
             if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -374,21 +386,48 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     filterMsgNames.add(name.trim());
                 }
             }
+
+            registerCodec(jsonCodec);
+            registerCodec(new BinaryMessageCodec());
         }
 
-        private final Gson gson = new GsonUtil().setCoder(Message.class, this).setExclusionStrategies(new ExclusionStrategy[]{
-                new ExclusionStrategy() {
-                    @Override
-                    public boolean shouldSkipField(FieldAttributes fieldAttributes) {
-                        return fieldAttributes.getAnnotation(GsonTransient.class) != null;
-                    }
+        void registerCodec(MessageCodec codec) {
+            MessageCodec old = codecs.get(codec.getId());
+            if (old != null) {
+                throw new CloudRuntimeException(String.format("duplicate message codec[id:%s], %s and %s",
+                        codec.getId(), old.getClass().getName(), codec.getClass().getName()));
+            }
 
-                    @Override
-                    public boolean shouldSkipClass(Class<?> aClass) {
-                        return false;
-                    }
-                }
-        }).create();
+            codecs.put(codec.getId(), codec);
+        }
+
+        MessageCodec getCodec(String id) {
+            MessageCodec codec = codecs.get(id);
+            if (codec == null) {
+                throw new CloudRuntimeException(String.format("cannot find message codec[id:%s], available codecs are %s", id, codecs.keySet()));
+            }
+            return codec;
+        }
+
+        private MessageCodec selectCodec(Message msg) {
+            // API messages and events may be produced or consumed by non-Java clients, always use JSON
+            if (msg instanceof APIEvent || msg instanceof APIMessage) {
+                return jsonCodec;
+            }
+
+            return getCodec(CloudBusGlobalProperty.MESSAGE_CODEC);
+        }
+
+        private byte[] encode(Message msg) {
+            MessageCodec codec = selectCodec(msg);
+            if (codec != jsonCodec) {
+                msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__CODEC, codec.getId());
+            } else {
+                // a routed message may still carry the header it was received with
+                msg.getAMQPHeaders().remove(AMQP_PROPERTY_HEADER__CODEC);
+            }
+            return codec.encode(msg);
+        }
 
         private class RecoverableSend {
             Channel chan;
@@ -426,11 +465,11 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
             private byte[] compressMessageIfNeeded(Message msg) throws IOException {
                 if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
-                    return gson.toJson(msg, Message.class).getBytes();
+                    return encode(msg);
                 }
 
                 msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
-                return Compresser.deflate(gson.toJson(msg, Message.class).getBytes());
+                return Compresser.deflate(encode(msg));
             }
 
             private boolean recoverSend() throws IOException {
@@ -473,27 +512,6 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        @Override
-        public Message deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            JsonObject jObj = jsonElement.getAsJsonObject();
-            Map.Entry<String, JsonElement> entry = jObj.entrySet().iterator().next();
-            String className = entry.getKey();
-            Class<?> clazz;
-            try {
-                clazz = Class.forName(className);
-            } catch (ClassNotFoundException e) {
-                throw new JsonParseException(String.format("Unable to deserialize class[%s]", className), e);
-            }
-            return (Message) gson.fromJson(entry.getValue(), clazz);
-        }
-
-        @Override
-        public JsonElement serialize(Message message, Type type, JsonSerializationContext jsonSerializationContext) {
-            JsonObject jObj = new JsonObject();
-            jObj.add(message.getClass().getName(), gson.toJsonTree(message));
-            return jObj;
-        }
-
         public void send(Message msg) {
             // for unit test finding invocation chain
             MessageCommandRecorder.record(msg.getClass());
@@ -528,10 +546,6 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        private void buildSchema(Message msg) {
-            msg.putHeaderEntry("schema", MessageJsonSchemaBuilder.buildSchema(msg));
-        }
-
         public void send(final Message msg, boolean makeQueueName) {
             /*
             StopWatch watch = new StopWatch();
@@ -542,12 +556,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 serviceId = makeMessageQueueName(serviceId);
             }
 
-            buildSchema(msg);
+            if (CloudBusGlobalProperty.LOCAL_DELIVERY && deliverLocally(msg, serviceId)) {
+                return;
+            }
 
             if (logger.isTraceEnabled() && logMessage(msg)) {
                 logger.trace(String.format("[msg send]: %s", wire.dumpMessage(msg)));
             }
 
+            remoteDeliveryCount.incrementAndGet();
+
             Channel chan = channelPool.acquire();
             try {
                 new RecoverableSend(chan, msg, serviceId, outboundQueue.getBusExchange()).send();
@@ -562,14 +580,39 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
+        private boolean deliverLocally(Message msg, String queueName) {
+            LocalReceiver receiver = localReceivers.get(queueName);
+            if (receiver == null) {
+                return false;
+            }
+
+            Message m = CloudBusGlobalProperty.LOCAL_DELIVERY_COPY_MESSAGE ? copyMessage(msg) : msg;
+
+            if (logger.isTraceEnabled() && logMessage(m)) {
+                logger.trace(String.format("[msg send locally]: %s", wire.dumpMessage(m)));
+            }
+
+            localDeliveryCount.incrementAndGet();
+            receiver.receiveLocally(m);
+            return true;
+        }
+
+        // the receiver must not share the object with the sender, as it would
+        // if the message went through the broker. Skip compression and AMQP but
+        // encode with the codec the message would be sent with
+        private Message copyMessage(Message msg) {
+            MessageCodec codec = selectCodec(msg);
+            Message copy = codec.decode(codec.encode(msg));
+            copy.setAMQPProperties(msg.getAMQPProperties());
+            return copy;
+        }
+
         public void publish(Event evt) {
             /*
             StopWatch watch = new StopWatch();
             watch.start();
             */
 
-            buildSchema(evt);
-
             if (logger.isTraceEnabled() && logMessage(evt)) {
                 logger.trace(String.format("[event publish]: %s", wire.dumpMessage(evt)));
             }
@@ -588,64 +631,6 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        private Serializable getMVELExpression(Message msg, String express, String prefix) {
-            Map<String, Serializable> exps = mvelExpressions.get(msg.getClass());
-            if (exps == null) {
-                exps = new ConcurrentHashMap<String, Serializable>();
-                mvelExpressions.put(msg.getClass(), exps);
-            }
-
-            String key = String.format("%s:%s", express, prefix);
-            Serializable exp = exps.get(key);
-            if (exp == null) {
-                if (prefix.equals("msg:get")) {
-                    exp = MVEL.compileGetExpression(express);
-                } else if (prefix.equals("raw:get")) {
-                    exp = MVEL.compileGetExpression(express);
-                } else if (prefix.equals("msg:set")) {
-                    exp = MVEL.compileSetExpression(express);
-                } else {
-                    throw new CloudRuntimeException(String.format("unknown prefix[%s]", prefix));
-                }
-
-                exps.put(key, exp);
-            }
-            return exp;
-        }
-
-        private void restoreFromSchema(Message msg, byte[] binary) throws ClassNotFoundException {
-            Map<String, List<String>> schema = msg.getHeaderEntry("schema");
-            if (schema == null) {
-                return;
-            }
-
-            Map raw = JSONObjectUtil.toObject(new String(binary), LinkedHashMap.class);
-            raw = (Map) raw.values().iterator().next();
-            for (Map.Entry<String, List<String>> e : schema.entrySet()) {
-                String rawClassName = e.getKey();
-                List<String> paths = e.getValue();
-
-                for (String path : paths) {
-                    Serializable exp = getMVELExpression(msg, path, "msg:get");
-                    Object obj = MVEL.executeExpression(exp, msg);
-                    if (obj.getClass().getName().equals(rawClassName)) {
-                        continue;
-                    }
-
-                    exp = getMVELExpression(msg, path, "raw:get");
-                    Object rawData = MVEL.executeExpression(exp, raw);
-                    Class rawClass = Class.forName(rawClassName);
-                    Object newValue = JSONObjectUtil.rehashObject(rawData, rawClass);
-                    exp = getMVELExpression(msg, path, "msg:set");
-                    // Note MVEL context is
-                    // not meant for write but rather for read. Use a Map context to
-                    // force MVEL to assign newValue on msg, not to create a new variable
-                    // in vars map
-                    MVEL.executeSetExpression(exp, msg, newValue);
-                }
-            }
-        }
-
         private void tryBestToReplyError(byte[] binary, String errMsg) {
             // try best to reply an error message to invalid JSON formed message
             String msgStr = new String(binary);
@@ -682,23 +667,24 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             StopWatch watch = new StopWatch();
             watch.start();
             */
+            Map<String, Object> headers = basicProperties.getHeaders();
+            MessageCodec codec = jsonCodec;
             try {
+                // messages from nodes not aware of codecs have no codec header and are always JSON
+                if (headers != null && headers.containsKey(AMQP_PROPERTY_HEADER__CODEC)) {
+                    codec = getCodec(headers.get(AMQP_PROPERTY_HEADER__CODEC).toString());
+                }
+
                 byte[] data;
-                if (basicProperties.getHeaders() != null && basicProperties.getHeaders().containsKey(AMQP_PROPERTY_HEADER__COMPRESSED)) {
+                if (headers != null && headers.containsKey(AMQP_PROPERTY_HEADER__COMPRESSED)) {
                     data = Compresser.inflate(binary);
                 } else {
                     data = binary;
                 }
 
-                Message msg = gson.fromJson(new String(data), Message.class);
+                Message msg = codec.decode(data);
                 msg.setAMQPProperties(basicProperties);
 
-                try {
-                    restoreFromSchema(msg, data);
-                } catch (ClassNotFoundException e) {
-                    throw new CloudRuntimeException(e);
-                }
-
             /*
             watch.stop();
             logger.debug(String.mediaType("receive %s cost %sms", msg.getClass().getName(), watch.getTime()));
@@ -706,7 +692,9 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 return msg;
             } catch (RuntimeException je) {
                 logger.warn(je.getMessage(), je);
-                tryBestToReplyError(binary, je.getMessage());
+                if (codec == jsonCodec) {
+                    tryBestToReplyError(binary, je.getMessage());
+                }
                 throw je;
             } catch (IOException e) {
                 throw new CloudRuntimeException(e);
@@ -714,7 +702,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
 
         public String dumpMessage(Message msg) {
-            return gson.toJson(msg, Message.class);
+            return jsonCodec.dumpMessage(msg);
         }
     }
 
@@ -861,7 +849,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         abstract List<Message> getRequests();
     }
 
-    private interface EndPoint {
+    private interface EndPoint extends LocalReceiver {
         void active();
 
         void inactive();
@@ -1216,6 +1204,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             chan.basicConsume(outboundQueue.getName(), true, consumer);
             chan.queueBind(outboundQueue.getName(), outboundQueue.getBusExchange().toString(), outboundQueue.getBindingKey());
             channelPool.returnChannel(chan);
+            localReceivers.put(outboundQueue.getBindingKey(), consumer);
             maid.construct();
             noRouteEndPoint.construct();
             tracker.construct();
@@ -1962,64 +1951,77 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                                 logger.trace(String.format("[msg received]: %s", wire.dumpMessage(msg)));
                             }
 
-                            SyncTask<Void> task = new SyncTask<Void>() {
-                                @Override
-                                public String getSyncSignature() {
-                                    return serv.getId();
-                                }
+                            dispatch(msg);
+                        } catch (Throwable t) {
+                            logger.warn("unhandled throwable", t);
+                        }
+                    }
+                };
+            }
 
-                                @Override
-                                public int getSyncLevel() {
-                                    return syncLevel;
-                                }
+            private void dispatch(final Message msg) {
+                SyncTask<Void> task = new SyncTask<Void>() {
+                    @Override
+                    public String getSyncSignature() {
+                        return serv.getId();
+                    }
 
-                                @Override
-                                public String getName() {
-                                    return String.format("CloudBus EndPoint[%s]", serv.getId());
-                                }
+                    @Override
+                    public int getSyncLevel() {
+                        return syncLevel;
+                    }
 
-                                @Override
-                                public Void call() throws Exception {
-                                    try {
-                                        List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
-                                        if (is != null) {
-                                            for (BeforeDeliveryMessageInterceptor i : is) {
-                                                i.intercept(msg);
-
-                                                if (logger.isTraceEnabled()) {
-                                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                                }
-                                            }
-                                        }
-
-                                        for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
-                                            i.intercept(msg);
-
-                                            if (logger.isTraceEnabled()) {
-                                                logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
-                                            }
-                                        }
-
-                                        serv.handleMessage(msg);
-                                    } catch (Throwable t) {
-                                        logExceptionWithMessageDump(msg, t);
-                                        replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
-                                    }
+                    @Override
+                    public String getName() {
+                        return String.format("CloudBus EndPoint[%s]", serv.getId());
+                    }
+
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            List<BeforeDeliveryMessageInterceptor> is = beforeDeliveryMessageInterceptors.get(msg.getClass());
+                            if (is != null) {
+                                for (BeforeDeliveryMessageInterceptor i : is) {
+                                    i.intercept(msg);
 
-                                    return null;
+                                    if (logger.isTraceEnabled()) {
+                                        logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
+                                    }
                                 }
-                            };
+                            }
+
+                            for (BeforeDeliveryMessageInterceptor i : beforeDeliveryMessageInterceptorsForAll) {
+                                i.intercept(msg);
 
-                            if (syncLevel == 0) {
-                                thdf.submit(task);
-                            } else {
-                                thdf.syncSubmit(task);
+                                if (logger.isTraceEnabled()) {
+                                    logger.trace(String.format("called BeforeDeliveryMessageInterceptor[%s] for message[%s]", i.getClass(), msg.getClass()));
+                                }
                             }
+
+                            serv.handleMessage(msg);
                         } catch (Throwable t) {
-                            logger.warn("unhandled throwable", t);
+                            logExceptionWithMessageDump(msg, t);
+                            replyErrorByMessageType(msg, errf.stringToInternalError(t.getMessage()));
                         }
+
+                        return null;
                     }
                 };
+
+                if (syncLevel == 0) {
+                    thdf.submit(task);
+                } else {
+                    thdf.syncSubmit(task);
+                }
+            }
+
+            @Override
+            public void receiveLocally(Message msg) {
+                try {
+                    dispatch(msg);
+                } catch (Throwable t) {
+                    logger.warn("unhandled throwable", t);
+                }
             }
 
             @Override
@@ -2029,11 +2031,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                     echan.queueDeclare(baseName, false, false, true, null);
                     echan.basicConsume(baseName, true, handler);
                     echan.queueBind(baseName, BusExchange.P2P.toString(), baseName);
+                    registerLocalReceiver(baseName, this);
 
                     for (String aliasName : aliasNames) {
                         echan.queueDeclare(aliasName, false, false, true, null);
                         echan.basicConsume(aliasName, true, handler);
                         echan.queueBind(aliasName, BusExchange.P2P.toString(), aliasName);
+                        registerLocalReceiver(aliasName, this);
                     }
                 } catch (IOException e1) {
                     throw new CloudRuntimeException(e1);
@@ -2042,6 +2046,8 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
             @Override
             public void inactive() {
+                unregisterLocalReceivers();
+
                 try {
                     echan.queueUnbind(baseName, BusExchange.P2P.toString(), baseName);
                     for (String aliasName: aliasNames) {
@@ -2063,8 +2069,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
             @Override
             public void dismiss() {
+                unregisterLocalReceivers();
                 endpoints.remove(serv.getId());
             }
+
+            private void unregisterLocalReceivers() {
+                localReceivers.remove(baseName);
+                for (String aliasName : aliasNames) {
+                    localReceivers.remove(aliasName);
+                }
+            }
         };
 
         EndPoint s = endpoints.get(serv.getId());
@@ -2085,6 +2099,14 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         }
     }
 
+    private void registerLocalReceiver(String queueName, LocalReceiver receiver) {
+        // only queues named after this management node are consumed by this JVM alone,
+        // queues shared by all management nodes are still load-balanced by the broker
+        if (queueName.endsWith("." + Platform.getManagementServerId())) {
+            localReceivers.put(queueName, receiver);
+        }
+    }
+
     @Override
     public void unregisterService(Service serv) {
         EndPoint e = endpoints.get(serv.getId());
@@ -2376,6 +2398,12 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
 
     private void populateExtension() {
         services = pluginRgty.getExtensionList(Service.class);
+        for (MessageCodec codec : pluginRgty.getExtensionList(MessageCodec.class)) {
+            wire.registerCodec(codec);
+        }
+        // fail early if the configured codec doesn't exist
+        wire.getCodec(CloudBusGlobalProperty.MESSAGE_CODEC);
+
         for (ReplyMessagePreSendingExtensionPoint extp : pluginRgty.getExtensionList(ReplyMessagePreSendingExtensionPoint.class)) {
             List<Class> clazzs = extp.getReplyMessageClassForPreSendingExtensionPoint();
             if (clazzs == null || clazzs.isEmpty()) {
@@ -2488,6 +2516,16 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         return statistics;
     }
 
+    @Override
+    public long getLocalDeliveryCount() {
+        return localDeliveryCount.get();
+    }
+
+    @Override
+    public long getRemoteDeliveryCount() {
+        return remoteDeliveryCount.get();
+    }
+
     @Override
     public List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic() {
         List<WaitingReplyMessageStatistic> ret = new ArrayList<WaitingReplyMessageStatistic>();
@@ -11,4 +11,8 @@ public interface CloudBusMXBean {
     List<WaitingReplyMessageStatistic> getWaitingReplyMessageStatistic();
 
     WaitingMessageSummaryStatistic getWaitingReplyMessageSummaryStatistic();
+
+    long getLocalDeliveryCount();
+
+    long getRemoteDeliveryCount();
 }
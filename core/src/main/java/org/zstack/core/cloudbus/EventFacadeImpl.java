@@ -2,15 +2,20 @@ package org.zstack.core.cloudbus;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.header.Component;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.Event;
 import org.zstack.header.message.NeedJsonSchema;
 import org.zstack.utils.TypeUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created with IntelliJ IDEA.
@@ -18,12 +23,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Time: 11:39 PM
  * To change this template use File | Settings | File Templates.
  */
-public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Component {
+public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Component, EventFacadeMXBean {
+    private static final CLogger logger = Utils.getLogger(EventFacadeImpl.class);
+
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private JmxFacade jmxf;
 
-    private final Map<String, CallbackWrapper> global = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, CallbackWrapper> local =  Collections.synchronizedMap(new HashMap<>());
+    private final EventRouter<CallbackWrapper> global = new EventRouter<>();
+    private final EventRouter<CallbackWrapper> local = new EventRouter<>();
+    private final Map<String, EventStatistic> statistics = new ConcurrentHashMap<>();
+    // null to dispatch events on the ThreadFacade pool
+    private ExecutorService dispatchExecutor;
 
     private EventSubscriberReceipt unsubscriber;
 
@@ -35,7 +47,7 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
         CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
             this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
+            this.glob = path.replaceAll("\\{.*\\}", ".*");
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
@@ -51,7 +63,19 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
 
         @AsyncThread
-        void call(CanonicalEvent e) {
+        void call(CanonicalEvent e, long arrivedTime) {
+            run(e, arrivedTime);
+        }
+
+        void run(CanonicalEvent e, long arrivedTime) {
+            EventStatistic stat = statistics.get(path);
+            if (stat == null) {
+                stat = new EventStatistic(path);
+                EventStatistic old = statistics.putIfAbsent(path, stat);
+                stat = old == null ? stat : old;
+            }
+            stat.count(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - arrivedTime));
+
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
@@ -123,40 +147,45 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         return ret;
     }
 
+    private void subscribe(EventRouter<CallbackWrapper> router, String path, AbstractEventFacadeCallback cb) {
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        router.subscribe(cb.uniqueIdentity, w.getGlob(), createRegexFromGlob(w.getGlob()), w);
+    }
+
     @Override
     public void on(String path, AutoOffEventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, path, cb);
     }
 
     @Override
     public void on(String path, final EventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, path, cb);
     }
 
     @Override
     public void on(String path, EventRunnable cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, path, cb);
     }
 
     @Override
     public void off(AbstractEventFacadeCallback cb) {
-        global.remove(cb.uniqueIdentity);
-        local.remove(cb.uniqueIdentity);
+        global.unsubscribe(cb.uniqueIdentity);
+        local.unsubscribe(cb.uniqueIdentity);
     }
 
     @Override
     public void onLocal(String path, AutoOffEventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, path, cb);
     }
 
     @Override
     public void onLocal(String path, EventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, path, cb);
     }
 
     @Override
     public void onLocal(String path, EventRunnable cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, path, cb);
     }
 
     @Override
@@ -178,17 +207,31 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         bus.publish(evt);
     }
 
-    private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
-
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
+    private void dispatch(EventRouter<CallbackWrapper> router, final CanonicalEvent cevt) {
+        final long arrivedTime = System.nanoTime();
+        for (final CallbackWrapper w : router.route(cevt.getPath())) {
+            if (dispatchExecutor == null) {
+                w.call(cevt, arrivedTime);
+                continue;
             }
+
+            dispatchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        w.run(cevt, arrivedTime);
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception when calling the callback of the event path[%s]", w.path), t);
+                    }
+                }
+            });
         }
     }
 
+    private void fireLocal(CanonicalEvent cevt) {
+        dispatch(local, cevt);
+    }
+
     @Override
     public boolean isFromThisManagementNode(Map tokens) {
         return Platform.getManagementServerId().equals(tokens.get(EventFacade.META_DATA_MANAGEMENT_NODE_ID));
@@ -200,21 +243,44 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             return false;
         }
 
-        CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
-        }
-
+        dispatch(global, (CanonicalEvent) evt);
         return false;
     }
 
+    @Override
+    public Map<String, EventStatistic> getEventStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public int getSubscriptionCount() {
+        return global.size() + local.size();
+    }
+
     @Override
     public boolean start() {
+        int threadNum = CloudBusGlobalProperty.EVENT_DISPATCH_THREAD_NUM;
+        if (threadNum > 0) {
+            final AtomicInteger count = new AtomicInteger();
+            dispatchExecutor = Executors.newFixedThreadPool(threadNum, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, String.format("zs-event-dispatch-%s", count.incrementAndGet()));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            logger.debug(String.format("dispatch canonical events on a dedicated pool of %s threads", threadNum));
+        }
+
         unsubscriber =  bus.subscribeEvent(this, new CanonicalEvent());
+
+        try {
+            jmxf.registerBean("EventFacade", this);
+        } catch (CloudRuntimeException e) {
+            // start() is called again in some unit tests
+            logger.warn(String.format("unable to register the EventFacade mBean, %s", e.getMessage()));
+        }
         return true;
     }
 
@@ -223,6 +289,9 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         if (unsubscriber != null) {
             unsubscriber.unsubscribeAll();
         }
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown();
+        }
         return true;
     }
 }
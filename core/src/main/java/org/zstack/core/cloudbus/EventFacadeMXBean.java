@@ -0,0 +1,11 @@
+package org.zstack.core.cloudbus;
+
+import java.util.Map;
+
+/**
+ */
+public interface EventFacadeMXBean {
+    Map<String, EventStatistic> getEventStatistics();
+
+    int getSubscriptionCount();
+}
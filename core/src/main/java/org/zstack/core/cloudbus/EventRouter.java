@@ -0,0 +1,164 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * routes canonical event paths to subscriptions.
+ *
+ * Subscriptions are kept in a trie keyed by the leading literal segments of their paths, the rest of a path is
+ * matched by a regex compiled when subscribing. An event path is only matched against the subscriptions on the
+ * trie nodes along its own segments.
+ *
+ * The trie is immutable, a subscription change copies the nodes on its way and replaces the root, so routing
+ * doesn't lock.
+ */
+class EventRouter<T> {
+    private static final Pattern LITERAL_SEGMENT = Pattern.compile("[\\w\\-]+");
+
+    private static class Subscription<T> {
+        final String identity;
+        final List<String> prefix;
+        final Pattern pattern;
+        final T value;
+
+        Subscription(String identity, List<String> prefix, Pattern pattern, T value) {
+            this.identity = identity;
+            this.prefix = prefix;
+            this.pattern = pattern;
+            this.value = value;
+        }
+    }
+
+    private static class Node<T> {
+        final Map<String, Node<T>> children;
+        final List<Subscription<T>> subscriptions;
+
+        Node(Map<String, Node<T>> children, List<Subscription<T>> subscriptions) {
+            this.children = children;
+            this.subscriptions = subscriptions;
+        }
+
+        boolean isEmpty() {
+            return children.isEmpty() && subscriptions.isEmpty();
+        }
+    }
+
+    private volatile Node<T> root = emptyNode();
+    // guarded by this
+    private final Map<String, Subscription<T>> subscriptions = new HashMap<String, Subscription<T>>();
+
+    private static <T> Node<T> emptyNode() {
+        return new Node<T>(Collections.<String, Node<T>>emptyMap(), Collections.<Subscription<T>>emptyList());
+    }
+
+    private static List<String> split(String path) {
+        List<String> ret = new ArrayList<String>();
+        StringTokenizer token = new StringTokenizer(path, "/");
+        while (token.hasMoreTokens()) {
+            ret.add(token.nextToken());
+        }
+        return ret;
+    }
+
+    /**
+     * @param glob the path of the subscription, a segment containing anything other than word characters and '-'
+     *             is a wildcard segment
+     * @param regex the regex matching the whole event path
+     */
+    synchronized void subscribe(String identity, String glob, String regex, T value) {
+        unsubscribe(identity);
+
+        List<String> prefix = new ArrayList<String>();
+        for (String seg : split(glob)) {
+            if (!LITERAL_SEGMENT.matcher(seg).matches()) {
+                break;
+            }
+            prefix.add(seg);
+        }
+
+        Subscription<T> s = new Subscription<T>(identity, prefix, Pattern.compile(regex), value);
+        root = add(root, s, 0);
+        subscriptions.put(identity, s);
+    }
+
+    synchronized void unsubscribe(String identity) {
+        Subscription<T> s = subscriptions.remove(identity);
+        if (s == null) {
+            return;
+        }
+
+        Node<T> n = remove(root, s, 0);
+        root = n == null ? EventRouter.<T>emptyNode() : n;
+    }
+
+    private Node<T> add(Node<T> node, Subscription<T> s, int depth) {
+        if (depth == s.prefix.size()) {
+            List<Subscription<T>> subs = new ArrayList<Subscription<T>>(node.subscriptions);
+            subs.add(s);
+            return new Node<T>(node.children, subs);
+        }
+
+        String seg = s.prefix.get(depth);
+        Node<T> child = node.children.get(seg);
+        Map<String, Node<T>> children = new HashMap<String, Node<T>>(node.children);
+        children.put(seg, add(child == null ? EventRouter.<T>emptyNode() : child, s, depth + 1));
+        return new Node<T>(children, node.subscriptions);
+    }
+
+    // returns null if the node becomes empty
+    private Node<T> remove(Node<T> node, Subscription<T> s, int depth) {
+        Node<T> ret;
+        if (depth == s.prefix.size()) {
+            List<Subscription<T>> subs = new ArrayList<Subscription<T>>(node.subscriptions);
+            subs.remove(s);
+            ret = new Node<T>(node.children, subs);
+        } else {
+            String seg = s.prefix.get(depth);
+            Node<T> child = node.children.get(seg);
+            if (child == null) {
+                return node;
+            }
+
+            Map<String, Node<T>> children = new HashMap<String, Node<T>>(node.children);
+            Node<T> n = remove(child, s, depth + 1);
+            if (n == null) {
+                children.remove(seg);
+            } else {
+                children.put(seg, n);
+            }
+            ret = new Node<T>(children, node.subscriptions);
+        }
+
+        return ret.isEmpty() ? null : ret;
+    }
+
+    private void match(Node<T> node, String path, List<T> result) {
+        for (Subscription<T> s : node.subscriptions) {
+            if (s.pattern.matcher(path).matches()) {
+                result.add(s.value);
+            }
+        }
+    }
+
+    List<T> route(String path) {
+        List<T> ret = new ArrayList<T>();
+        Node<T> node = root;
+        match(node, path, ret);
+
+        StringTokenizer token = new StringTokenizer(path, "/");
+        while (token.hasMoreTokens()) {
+            node = node.children.get(token.nextToken());
+            if (node == null) {
+                break;
+            }
+            match(node, path, ret);
+        }
+
+        return ret;
+    }
+
+    synchronized int size() {
+        return subscriptions.size();
+    }
+}
@@ -0,0 +1,79 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.core.AbstractCompositeType;
+import org.zstack.header.exception.CloudRuntimeException;
+
+import javax.management.MXBean;
+import javax.management.openmbean.*;
+
+/**
+ * dispatch statistic of a subscribed event path, times are in microseconds from the event
+ * arriving at the EventFacade to the callback starting
+ */
+@MXBean
+public class EventStatistic extends AbstractCompositeType {
+    private String path;
+    private long count;
+    private long totalTime;
+    private long averageTime;
+    private long maxTime;
+
+    static String[] fieldNames = new String[] {"path", "count", "totalTime", "averageTime", "maxTime"};
+
+    public EventStatistic(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getAverageTime() {
+        return averageTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public synchronized void count(long cost) {
+        if (Long.MAX_VALUE - cost < totalTime) {
+            totalTime = cost;
+            count = 1;
+        } else {
+            totalTime += cost;
+            count ++;
+        }
+
+        averageTime = totalTime / count;
+        maxTime = Math.max(cost, maxTime);
+    }
+
+    @Override
+    protected String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    @Override
+    public CompositeType getCompositeType() {
+        try {
+            return new CompositeType(
+                    "EventStatistic",
+                    "canonical event dispatch statistic struct",
+                    fieldNames,
+                    fieldNames,
+                    new OpenType[] {SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG}
+            );
+        } catch (OpenDataException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+}
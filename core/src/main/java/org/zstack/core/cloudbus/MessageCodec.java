@@ -0,0 +1,18 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.Message;
+
+/**
+ * encodes a message into the body of an AMQP message and decodes it back.
+ *
+ * The id of the codec is carried in the AMQP header "codec" of every message
+ * not encoded by the default JSON codec, so a receiver can always pick the right
+ * codec regardless of what the sender is configured to use.
+ */
+public interface MessageCodec {
+    String getId();
+
+    byte[] encode(Message msg);
+
+    Message decode(byte[] data);
+}
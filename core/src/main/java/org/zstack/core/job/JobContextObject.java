@@ -1,12 +1,15 @@
 package org.zstack.core.job;
 
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.serializable.SerializableHelper;
 
-import java.io.Serializable;
+import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 final class JobContextObject implements Serializable {
     private final String className;
@@ -17,6 +20,52 @@ final class JobContextObject implements Serializable {
         save(job);
     }
 
+    private JobContextObject(String className, Map<String, Object> args) {
+        this.className = className;
+        this.args = args;
+    }
+
+    /**
+     * the compact form stored in JobQueueEntryVO.context: the class name and the fields are written
+     * without the descriptors of this class and its map, then deflated
+     */
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bstream = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bstream));
+        try {
+            out.writeUTF(className);
+            out.writeInt(args.size());
+            for (Map.Entry<String, Object> e : args.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeObject(e.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        return bstream.toByteArray();
+    }
+
+    static JobContextObject fromBytes(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (bytes.length > 1 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED) {
+            // the stream magic of java serialization, the job was saved before the compact form
+            return SerializableHelper.readObject(bytes);
+        }
+
+        ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+        try {
+            String className = in.readUTF();
+            int num = in.readInt();
+            Map<String, Object> args = new HashMap<String, Object>(num);
+            for (int i = 0; i < num; i++) {
+                String name = in.readUTF();
+                args.put(name, in.readObject());
+            }
+            return new JobContextObject(className, args);
+        } finally {
+            in.close();
+        }
+    }
+
     private void save(Job obj) {
         Class<?> currClass = obj.getClass();
         Field debugField = null;
@@ -17,4 +17,6 @@ public class JobGlobalProperty {
     public static String QUARTZ_DB_PASSWORD;
     @GlobalProperty(name = "QuartzJdbcJobFacade.maxDbConnection", defaultValue = "10")
     public static int QUARTZ_DB_MAX_CONNECTIONS;
+    @GlobalProperty(name = "JobQueueFacade.lockStripes", defaultValue = "64")
+    public static int JOB_QUEUE_LOCK_STRIPES;
 }
@@ -27,4 +27,9 @@ public interface JobQueueFacade {
    boolean startQueueIfPendingJob(String queueName, String owner);
    
    boolean startQueueIfPendingJob(String queueName, String owner, boolean newThread);
+
+   /**
+    * @return depths of all queues and how fast jobs are claimed on this management node
+    */
+   JobQueueStatistic getStatistic();
 }
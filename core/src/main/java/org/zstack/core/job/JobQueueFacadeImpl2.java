@@ -25,15 +25,21 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.JsonWrapper;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
-import org.zstack.utils.serializable.SerializableHelper;
 
+import javax.persistence.Query;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Jobs are claimed by a conditional update of their state from Pending to Processing, so no lock is held
+ * when taking jobs. A queue is created by the first job added and deleted by its worker when no pending
+ * job remains; the two are serialized by a DB lock picked by the hash of the queue name out of
+ * JobQueueFacade.lockStripes locks, so queues of different stripes don't wait for each other.
  */
 public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListener, Component, ManagementNodeChangeListener {
     private static final CLogger logger = Utils.getLogger(JobQueueFacadeImpl2.class);
@@ -43,6 +49,10 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
 
     private Map<Long, JobWrapper> wrappers = Collections.synchronizedMap(new HashMap<Long, JobWrapper>());
 
+    private final AtomicLong claimCount = new AtomicLong();
+    private final AtomicLong claimTime = new AtomicLong();
+    private volatile long maxClaimLatency;
+
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
@@ -53,6 +63,30 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
     private volatile boolean stopped = false;
     private EventSubscriberReceipt unsubscriber;
 
+    private GLock getQueueLock(String queueName) {
+        int stripe = (queueName.hashCode() & Integer.MAX_VALUE) % JobGlobalProperty.JOB_QUEUE_LOCK_STRIPES;
+        return new GLock(String.format("%s-%s", LOCK_NAME, stripe), LOCK_TIMEOUT);
+    }
+
+    @Transactional
+    private boolean claimJob(long jobId) {
+        String sql = "update JobQueueEntryVO e set e.state = :processing where e.id = :id and e.state = :pending";
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("processing", JobState.Processing);
+        q.setParameter("pending", JobState.Pending);
+        q.setParameter("id", jobId);
+        return q.executeUpdate() == 1;
+    }
+
+    private void recordClaim(long nanos) {
+        claimCount.incrementAndGet();
+        claimTime.addAndGet(nanos);
+        long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (ms > maxClaimLatency) {
+            maxClaimLatency = ms;
+        }
+    }
+
     @Override
     public boolean handleEvent(Event e) {
         if (!(e instanceof JobEvent)) {
@@ -262,36 +296,53 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
                 return q.find();
             }
 
-            private Bucket takeJob(final JobQueueVO qvo) {
-                GLock lock = new GLock(LOCK_NAME, LOCK_TIMEOUT);
+            private boolean releaseQueue(JobQueueVO qvo) {
+                // a job may be added to the queue since we looked, check again under the lock saveJob() takes
+                GLock lock = getQueueLock(qvo.getName());
                 lock.lock();
                 try {
+                    if (findJob(qvo) != null) {
+                        return false;
+                    }
+
+                    dbf.remove(qvo);
+                    logger.debug(String.format("[JobQueue released, no pending task, delete the queue] last owner: %s, queue name: %s, queue id: %s",
+                            qvo.getOwner(), qvo.getName(), qvo.getId()));
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            private Bucket takeJob(final JobQueueVO qvo) {
+                long start = System.nanoTime();
+                while (true) {
                     JobQueueEntryVO jobe = findJob(qvo);
                     if (jobe == null) {
-                        // nothing to do, release queue
-                        dbf.remove(qvo);
-                        logger.debug(String.format("[JobQueue released, no pending task, delete the queue] last owner: %s, queue name: %s, queue id: %s",
-                                qvo.getOwner(), qvo.getName(), qvo.getId()));
-                        return null;
+                        if (releaseQueue(qvo)) {
+                            return null;
+                        }
+
+                        continue;
                     }
 
-                    while (true) {
-                        try {
-                            JobContextObject ctx = SerializableHelper.readObject(jobe.getContext());
-                            Job theJob = ctx.load();
-                            jobe.setState(JobState.Processing);
-                            jobe = dbf.updateAndRefresh(jobe);
-                            return Bucket.newBucket(jobe, theJob);
-                        } catch (Exception e1) {
-                            String err = String.format("[Job de-serialize failed, the job will be marked as Error] queue name: %s, job id: %s, %s", qvo.getName(),
-                                    jobe.getId(), e1.getMessage());
-                            logger.warn(err, e1);
-                            jobFail(jobe, errf.stringToInternalError(err));
-                            jobe = findJob(qvo);
-                        }
+                    if (!claimJob(jobe.getId())) {
+                        logger.debug(String.format("[Job claimed by others] queue name: %s, job id: %s", qvo.getName(), jobe.getId()));
+                        continue;
+                    }
+
+                    jobe.setState(JobState.Processing);
+                    try {
+                        JobContextObject ctx = JobContextObject.fromBytes(jobe.getContext());
+                        Job theJob = ctx.load();
+                        recordClaim(System.nanoTime() - start);
+                        return Bucket.newBucket(jobe, theJob);
+                    } catch (Exception e1) {
+                        String err = String.format("[Job de-serialize failed, the job will be marked as Error] queue name: %s, job id: %s, %s", qvo.getName(),
+                                jobe.getId(), e1.getMessage());
+                        logger.warn(err, e1);
+                        jobFail(jobe, errf.stringToInternalError(err));
                     }
-                } finally {
-                    lock.unlock();
                 }
             }
 
@@ -349,7 +400,7 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
                 }
 
                 try {
-                    GLock lock = new GLock(LOCK_NAME, LOCK_TIMEOUT);
+                    GLock lock = getQueueLock(queueName);
                     JobQueueVO qvo = null;
                     lock.lock();
                     try {
@@ -387,8 +438,7 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
         try {
             JobQueueEntryVO e = new JobQueueEntryVO();
             JobContextObject ctx = new JobContextObject(job);
-            byte[] bits = SerializableHelper.writeObject(ctx);
-            e.setContext(bits);
+            e.setContext(ctx.toBytes());
             e.setRestartable(job.getClass().isAnnotationPresent(RestartableJob.class));
             e.setName(job.getClass().getName());
             execute(queueName, owner, e, completion, returnType);
@@ -433,8 +483,13 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
     }
 
     @Override
+    @Transactional(readOnly = true)
     public long getPendingJobNumber(String queueName) {
-        return 0;
+        String sql = "select count(e) from JobQueueEntryVO e, JobQueueVO q where e.jobQueueId = q.id and q.name = :name and e.state = :state";
+        TypedQuery<Long> q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("name", queueName);
+        q.setParameter("state", JobState.Pending);
+        return q.getSingleResult();
     }
 
     @Override
@@ -451,4 +506,24 @@ public class JobQueueFacadeImpl2 implements JobQueueFacade, CloudBusEventListene
     public boolean startQueueIfPendingJob(String queueName, String owner, boolean newThread) {
         return false;
     }
+
+    @Override
+    public JobQueueStatistic getStatistic() {
+        JobQueueStatistic s = new JobQueueStatistic();
+        s.setQueueNum(dbf.count(JobQueueVO.class));
+
+        SimpleQuery<JobQueueEntryVO> q = dbf.createQuery(JobQueueEntryVO.class);
+        q.add(JobQueueEntryVO_.state, SimpleQuery.Op.EQ, JobState.Pending);
+        s.setPendingJobs(q.count());
+        q = dbf.createQuery(JobQueueEntryVO.class);
+        q.add(JobQueueEntryVO_.state, SimpleQuery.Op.EQ, JobState.Processing);
+        s.setProcessingJobs(q.count());
+
+        long count = claimCount.get();
+        s.setClaimCount(count);
+        s.setAverageClaimLatency(count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(claimTime.get()) / count / 1000);
+        s.setMaxClaimLatency(maxClaimLatency);
+        return s;
+    }
+
 }
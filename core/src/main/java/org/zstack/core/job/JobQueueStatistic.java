@@ -0,0 +1,66 @@
+package org.zstack.core.job;
+
+/**
+ */
+public class JobQueueStatistic {
+    private long queueNum;
+    private long pendingJobs;
+    private long processingJobs;
+    private long claimCount;
+    private double averageClaimLatency;
+    private long maxClaimLatency;
+
+    public long getQueueNum() {
+        return queueNum;
+    }
+
+    public void setQueueNum(long queueNum) {
+        this.queueNum = queueNum;
+    }
+
+    public long getPendingJobs() {
+        return pendingJobs;
+    }
+
+    public void setPendingJobs(long pendingJobs) {
+        this.pendingJobs = pendingJobs;
+    }
+
+    public long getProcessingJobs() {
+        return processingJobs;
+    }
+
+    public void setProcessingJobs(long processingJobs) {
+        this.processingJobs = processingJobs;
+    }
+
+    /**
+     * @return how many jobs have been claimed by this management node
+     */
+    public long getClaimCount() {
+        return claimCount;
+    }
+
+    public void setClaimCount(long claimCount) {
+        this.claimCount = claimCount;
+    }
+
+    /**
+     * @return in milliseconds, the average time from looking for the next job of a queue to owning it
+     */
+    public double getAverageClaimLatency() {
+        return averageClaimLatency;
+    }
+
+    public void setAverageClaimLatency(double averageClaimLatency) {
+        this.averageClaimLatency = averageClaimLatency;
+    }
+
+    public long getMaxClaimLatency() {
+        return maxClaimLatency;
+    }
+
+    public void setMaxClaimLatency(long maxClaimLatency) {
+        this.maxClaimLatency = maxClaimLatency;
+    }
+}
@@ -0,0 +1,49 @@
+package org.zstack.core.logging;
+
+import org.zstack.header.message.APIParam;
+import org.zstack.header.message.APISyncCallMessage;
+
+/**
+ */
+public class APIGetResourceLogMsg extends APISyncCallMessage {
+    @APIParam(required = false)
+    private String resourceUuid;
+    @APIParam(required = false)
+    private Long startTime;
+    @APIParam(required = false)
+    private Long endTime;
+    @APIParam(required = false, numberRange = {1, 10000})
+    private Integer limit = 1000;
+
+    public String getResourceUuid() {
+        return resourceUuid;
+    }
+
+    public void setResourceUuid(String resourceUuid) {
+        this.resourceUuid = resourceUuid;
+    }
+
+    public Long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+        this.startTime = startTime;
+    }
+
+    public Long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Long endTime) {
+        this.endTime = endTime;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,19 @@
+package org.zstack.core.logging;
+
+import org.zstack.header.message.APIReply;
+
+import java.util.List;
+
+/**
+ */
+public class APIGetResourceLogReply extends APIReply {
+    private List<ResourceLogContent> inventories;
+
+    public List<ResourceLogContent> getInventories() {
+        return inventories;
+    }
+
+    public void setInventories(List<ResourceLogContent> inventories) {
+        this.inventories = inventories;
+    }
+}
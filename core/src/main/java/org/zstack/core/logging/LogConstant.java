@@ -0,0 +1,10 @@
+package org.zstack.core.logging;
+
+/**
+ */
+public interface LogConstant {
+    String SERVICE_ID = "log";
+
+    String RESOURCE_LOG_PATH = "/logging/resource/{uuid}";
+    String RESOURCE_LOG_DIR = "resourceLog";
+}
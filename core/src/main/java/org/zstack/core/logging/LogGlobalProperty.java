@@ -9,6 +9,18 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class LogGlobalProperty {
     @GlobalProperty(name="Log.log4jBackendOn", defaultValue = "true")
     public static boolean LOG4j_BACKEND_ON;
-    @GlobalProperty(name="Log.backend", defaultValue = "org.zstack.core.logging.LogBackend")
+    @GlobalProperty(name="Log.backend", defaultValue = "org.zstack.core.logging.Log4jBackend")
     public static String LOGGING_BACKEND;
+    @GlobalProperty(name="Log.store.dir", defaultValue = "")
+    public static String STORE_DIR;
+    @GlobalProperty(name="Log.store.segmentSize", defaultValue = "16777216")
+    public static int STORE_SEGMENT_SIZE;
+    @GlobalProperty(name="Log.store.maxSize", defaultValue = "1073741824")
+    public static long STORE_MAX_SIZE;
+    @GlobalProperty(name="Log.store.retentionHours", defaultValue = "168")
+    public static long STORE_RETENTION_HOURS;
+    @GlobalProperty(name="Log.store.retentionCheckInterval", defaultValue = "600")
+    public static long STORE_RETENTION_CHECK_INTERVAL;
+    @GlobalProperty(name="Log.store.ringBufferSize", defaultValue = "65536")
+    public static int STORE_RING_BUFFER_SIZE;
 }
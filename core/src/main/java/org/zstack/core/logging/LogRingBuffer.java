@@ -0,0 +1,80 @@
+package org.zstack.core.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * a bounded lock-free ring buffer, producers never block: offer() fails when the buffer is full.
+ *
+ * each slot carries a sequence telling whether it's ready to be written or read in the current lap,
+ * so producers and consumers only contend on the head/tail counters
+ */
+class LogRingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    // the next position to poll
+    private final AtomicLong head = new AtomicLong();
+    // the next position to offer
+    private final AtomicLong tail = new AtomicLong();
+
+    LogRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(E e) {
+        while (true) {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long diff = sequences.get(index) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    elements.set(index, e);
+                    sequences.set(index, t + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // the slot of the last lap is not consumed yet, full
+                return false;
+            }
+        }
+    }
+
+    E poll() {
+        while (true) {
+            long h = head.get();
+            int index = (int) (h & mask);
+            long diff = sequences.get(index) - (h + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(h, h + 1)) {
+                    E e = elements.get(index);
+                    elements.set(index, null);
+                    sequences.set(index, h + mask + 1);
+                    return e;
+                }
+            } else if (diff < 0) {
+                // the slot is not written yet, empty
+                return null;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
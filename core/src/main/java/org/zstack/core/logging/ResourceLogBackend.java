@@ -0,0 +1,260 @@
+package org.zstack.core.logging;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.MessageSafe;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.AbstractService;
+import org.zstack.header.message.APIMessage;
+import org.zstack.header.message.Message;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.path.PathUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a LogBackend keeping log entries in a ResourceLogStore on the local disk so entries of a resource
+ * can be queried by APIGetResourceLogMsg or streamed from ResourceLogController. Entries are still written
+ * to Log4jBackend.
+ *
+ * Callers only put entries in a lock-free ring buffer, a single drain task writes them to the store;
+ * entries are dropped when the ring buffer is full. Enabled by setting Log.backend to this class.
+ */
+public class ResourceLogBackend extends AbstractService implements LogBackend {
+    private static final CLogger logger = Utils.getLogger(ResourceLogBackend.class);
+
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private Log4jBackend log4jBackend;
+
+    private volatile ResourceLogStore store;
+    private LogRingBuffer<Log> ringBuffer;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicLong droppedNum = new AtomicLong();
+    private Future<Void> retentionThread;
+
+    @Override
+    public void writeLog(Log log) {
+        log4jBackend.writeLog(log);
+
+        if (store == null) {
+            return;
+        }
+
+        if (!ringBuffer.offer(log)) {
+            droppedNum.incrementAndGet();
+            return;
+        }
+
+        scheduleDrain();
+    }
+
+    @Override
+    public Locale getCurrentLocale() {
+        return log4jBackend.getCurrentLocale();
+    }
+
+    private void drain() {
+        while (true) {
+            Log log;
+            while ((log = ringBuffer.poll()) != null) {
+                try {
+                    if (!store.append(log.getType(), log.getContent())) {
+                        droppedNum.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    droppedNum.incrementAndGet();
+                    logger.warn(String.format("failed to write log[uuid:%s] to the resource log store", log.getUuid()), t);
+                }
+            }
+
+            draining.set(false);
+            // an entry may be offered after the last poll
+            if (ringBuffer.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            thdf.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "drain-resource-log";
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    drain();
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            draining.set(false);
+            throw e;
+        }
+    }
+
+    private void applyRetention() {
+        int deleted = store.applyRetention(LogGlobalProperty.STORE_MAX_SIZE,
+                TimeUnit.HOURS.toMillis(LogGlobalProperty.STORE_RETENTION_HOURS), System.currentTimeMillis());
+        long dropped = droppedNum.getAndSet(0);
+        if (dropped != 0) {
+            logger.warn(String.format("%s log entries are not written to the resource log store since last check," +
+                    " the ring buffer[size:%s] may be too small", dropped, ringBuffer.capacity()));
+        }
+        if (deleted != 0) {
+            logger.debug(String.format("the resource log store takes %s bytes after deleting %s segments", store.getSize(), deleted));
+        }
+    }
+
+    @Override
+    @MessageSafe
+    public void handleMessage(Message msg) {
+        if (msg instanceof APIMessage) {
+            handleApiMessage((APIMessage) msg);
+        } else {
+            bus.dealWithUnknownMessage(msg);
+        }
+    }
+
+    private void handleApiMessage(APIMessage msg) {
+        if (msg instanceof APIGetResourceLogMsg) {
+            handle((APIGetResourceLogMsg) msg);
+        } else {
+            bus.dealWithUnknownMessage(msg);
+        }
+    }
+
+    private void handle(APIGetResourceLogMsg msg) {
+        APIGetResourceLogReply reply = new APIGetResourceLogReply();
+        if (store == null) {
+            reply.setError(errf.stringToOperationError(String.format("the resource log store is not enabled, set Log.backend to %s",
+                    ResourceLogBackend.class.getName())));
+            bus.reply(msg, reply);
+            return;
+        }
+
+        final List<ResourceLogContent> contents = new ArrayList<ResourceLogContent>();
+        final int limit = msg.getLimit();
+        query(msg.getResourceUuid(), msg.getStartTime(), msg.getEndTime(), new ResourceLogStore.Visitor() {
+            @Override
+            public boolean visit(ResourceLogContent content) {
+                contents.add(content);
+                return contents.size() < limit;
+            }
+        });
+
+        reply.setInventories(contents);
+        bus.reply(msg, reply);
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    public void query(String resourceUuid, Long startTime, Long endTime, ResourceLogStore.Visitor visitor) {
+        store.query(resourceUuid, startTime == null ? 0 : startTime, endTime == null ? Long.MAX_VALUE : endTime, visitor);
+    }
+
+    @Override
+    public String getId() {
+        return bus.makeLocalServiceId(LogConstant.SERVICE_ID);
+    }
+
+    @Override
+    public boolean start() {
+        if (!ResourceLogBackend.class.getName().equals(LogGlobalProperty.LOGGING_BACKEND)) {
+            return true;
+        }
+
+        String dir = LogGlobalProperty.STORE_DIR;
+        if (dir == null || dir.isEmpty()) {
+            dir = PathUtil.getFolderUnderZStackHomeFolder(LogConstant.RESOURCE_LOG_DIR);
+        }
+
+        ringBuffer = new LogRingBuffer<Log>(LogGlobalProperty.STORE_RING_BUFFER_SIZE);
+        ResourceLogStore s = new ResourceLogStore(new File(dir), LogGlobalProperty.STORE_SEGMENT_SIZE);
+        s.open();
+        store = s;
+
+        retentionThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return LogGlobalProperty.STORE_RETENTION_CHECK_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "resource-log-retention";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    applyRetention();
+                } catch (Throwable t) {
+                    logger.warn("unhandled throwable", t);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (store == null) {
+            return true;
+        }
+
+        if (retentionThread != null) {
+            retentionThread.cancel(true);
+        }
+
+        ResourceLogStore s = store;
+        store = null;
+        // wait for the running drain task, then write what's left
+        while (!draining.compareAndSet(false, true)) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        Log log;
+        while ((log = ringBuffer.poll()) != null) {
+            s.append(log.getType(), log.getContent());
+        }
+        s.close();
+        return true;
+    }
+}
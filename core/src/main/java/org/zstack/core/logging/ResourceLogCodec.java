@@ -0,0 +1,185 @@
+package org.zstack.core.logging;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * binary encoding of log entries in the ResourceLogStore:
+ *
+ * version(1) type(1) level(1) dateInLong(8) uuid resourceUuid text parameters opaque
+ *
+ * uuids in 32 hex digits take 16 bytes, strings are var-int length prefixed UTF-8,
+ * the opaque is stored as JSON
+ */
+class ResourceLogCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte VERSION = 1;
+    private static final byte ID_NULL = 0;
+    private static final byte ID_HEX = 1;
+    private static final byte ID_STRING = 2;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // offset of dateInLong in an encoded entry
+    static final int DATE_OFFSET = 3;
+
+    static byte[] encode(LogType type, Log.Content content) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeByte(VERSION);
+            out.writeByte(type == null ? -1 : type.ordinal());
+            out.writeByte(content.level == null ? -1 : content.level.ordinal());
+            out.writeLong(content.dateInLong);
+            writeId(out, content.uuid);
+            writeId(out, content.resourceUuid);
+            writeString(out, content.text);
+            if (content.parameters == null) {
+                writeVarInt(out, 0);
+            } else {
+                writeVarInt(out, content.parameters.size() + 1);
+                for (Object p : content.parameters) {
+                    writeString(out, p == null ? null : p.toString());
+                }
+            }
+            writeString(out, content.opaque == null ? null : JSONObjectUtil.toJsonString(content.opaque));
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    static ResourceLogContent decode(ByteBuffer buf) {
+        byte version = buf.get();
+        if (version != VERSION) {
+            throw new CloudRuntimeException(String.format("unknown log entry version[%s]", version));
+        }
+
+        ResourceLogContent c = new ResourceLogContent();
+        byte type = buf.get();
+        c.type = type < 0 ? null : LogType.values()[type];
+        byte level = buf.get();
+        c.level = level < 0 ? null : LogLevel.values()[level];
+        c.dateInLong = buf.getLong();
+        c.date = new Date(c.dateInLong);
+        c.uuid = readId(buf);
+        c.resourceUuid = readId(buf);
+        c.text = readString(buf);
+        int num = readVarInt(buf);
+        if (num > 0) {
+            List<String> params = new ArrayList<String>(num - 1);
+            for (int i = 0; i < num - 1; i++) {
+                params.add(readString(buf));
+            }
+            c.parameters = params;
+        }
+        String opaque = readString(buf);
+        c.opaque = opaque == null ? null : JSONObjectUtil.toObject(opaque, Object.class);
+        return c;
+    }
+
+    /**
+     * reads only the resourceUuid, used to rebuild the index of a segment
+     */
+    static String decodeResourceUuid(ByteBuffer buf) {
+        buf.position(buf.position() + DATE_OFFSET + 8);
+        readId(buf);
+        return readId(buf);
+    }
+
+    private static boolean isHexId(String id) {
+        if (id.length() != 32) {
+            return false;
+        }
+
+        for (int i = 0; i < id.length(); i++) {
+            char ch = id.charAt(i);
+            if (!((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(ID_NULL);
+        } else if (isHexId(id)) {
+            out.writeByte(ID_HEX);
+            for (int i = 0; i < id.length(); i += 2) {
+                out.writeByte(Character.digit(id.charAt(i), 16) << 4 | Character.digit(id.charAt(i + 1), 16));
+            }
+        } else {
+            out.writeByte(ID_STRING);
+            writeString(out, id);
+        }
+    }
+
+    private static String readId(ByteBuffer buf) {
+        byte kind = buf.get();
+        if (kind == ID_NULL) {
+            return null;
+        } else if (kind == ID_HEX) {
+            char[] chars = new char[32];
+            for (int i = 0; i < 16; i++) {
+                int b = buf.get() & 0xff;
+                chars[i * 2] = HEX[b >>> 4];
+                chars[i * 2 + 1] = HEX[b & 0x0f];
+            }
+            return new String(chars);
+        } else {
+            return readString(buf);
+        }
+    }
+
+    // null is written as length 0, a string as its length + 1
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        byte[] bytes = str.getBytes(UTF8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = readVarInt(buf);
+        if (len == 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[len - 1];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,18 @@
+package org.zstack.core.logging;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+/**
+ * a log entry read back from the ResourceLogStore
+ */
+@NeedJsonSchema
+public class ResourceLogContent extends Log.Content {
+    public LogType type;
+
+    public ResourceLogContent() {
+    }
+
+    public ResourceLogContent(Log.Content other) {
+        super(other);
+    }
+}
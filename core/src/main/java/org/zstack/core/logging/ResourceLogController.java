@@ -0,0 +1,95 @@
+package org.zstack.core.logging;
+
+import org.apache.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.*;
+import org.zstack.header.message.MessageReply;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * streams log entries of a resource as one JSON object per line, in the order they were written.
+ * Only sessions of the system admin are allowed.
+ */
+@Controller
+public class ResourceLogController {
+    private static final CLogger logger = Utils.getLogger(ResourceLogController.class);
+
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ResourceLogBackend backend;
+
+    private boolean isAdminSession(String sessionUuid) {
+        APIValidateSessionMsg msg = new APIValidateSessionMsg();
+        msg.setSessionUuid(sessionUuid);
+        bus.makeLocalServiceId(msg, AccountConstant.SERVICE_ID);
+        MessageReply reply = bus.call(msg);
+        if (!reply.isSuccess() || !((APIValidateSessionReply) reply).isValidSession()) {
+            return false;
+        }
+
+        SessionVO session = dbf.findByUuid(sessionUuid, SessionVO.class);
+        AccountVO account = session == null ? null : dbf.findByUuid(session.getAccountUuid(), AccountVO.class);
+        return account != null && account.getType() == AccountType.SystemAdmin;
+    }
+
+    @RequestMapping(value = LogConstant.RESOURCE_LOG_PATH, method = RequestMethod.GET)
+    public void query(@PathVariable String uuid,
+                      @RequestParam String sessionUuid,
+                      @RequestParam(required = false) Long startTime,
+                      @RequestParam(required = false) Long endTime,
+                      @RequestParam(required = false) final Integer limit,
+                      HttpServletResponse rsp) throws IOException {
+        try {
+            if (!isAdminSession(sessionUuid)) {
+                rsp.sendError(HttpStatus.SC_UNAUTHORIZED, String.format("session[uuid:%s] is invalid or not of the admin", sessionUuid));
+                return;
+            }
+
+            if (!backend.isEnabled()) {
+                rsp.sendError(HttpStatus.SC_NOT_FOUND, String.format("the resource log store is not enabled, set Log.backend to %s",
+                        ResourceLogBackend.class.getName()));
+                return;
+            }
+
+            rsp.setStatus(HttpStatus.SC_OK);
+            rsp.setContentType("application/json");
+            final PrintWriter writer = rsp.getWriter();
+            backend.query(uuid, startTime, endTime, new ResourceLogStore.Visitor() {
+                int count;
+
+                @Override
+                public boolean visit(ResourceLogContent content) {
+                    writer.write(JSONObjectUtil.toJsonString(content));
+                    writer.write("\n");
+                    // checkError() flushes the writer, stop if the client has gone
+                    if (++count % 100 == 0 && writer.checkError()) {
+                        return false;
+                    }
+                    return limit == null || count < limit;
+                }
+            });
+            writer.flush();
+        } catch (Throwable t) {
+            logger.warn(t.getMessage(), t);
+            if (!rsp.isCommitted()) {
+                rsp.sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR, t.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.zstack.core.logging;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * a memory-mapped, append-only file of log entries. Each entry is written as a 4 bytes length followed by
+ * the encoded entry; a zero length marks the end of the segment.
+ *
+ * The segment keeps the offsets of entries of each resource, and the time range of every BLOCK_SIZE entries
+ * so scans by time can skip blocks out of the range. The index is rebuilt by scanning the file when it's opened.
+ */
+class ResourceLogSegment {
+    private static final CLogger logger = Utils.getLogger(ResourceLogSegment.class);
+
+    static final String SUFFIX = ".seg";
+    private static final int BLOCK_SIZE = 256;
+
+    private static class OffsetList {
+        int[] offsets = new int[4];
+        int size;
+
+        void add(int offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+    private final long id;
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // bytes of entries written
+    private int limit;
+    private int count;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private final Map<String, OffsetList> resourceIndex = new HashMap<String, OffsetList>();
+    private int[] blockOffsets = new int[16];
+    private long[] blockMinTimes = new long[16];
+    private long[] blockMaxTimes = new long[16];
+    private int blockNum;
+
+    private ResourceLogSegment(long id, File file, int capacity) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.capacity = capacity;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    static String fileName(long id) {
+        return String.format("%020d%s", id, SUFFIX);
+    }
+
+    static ResourceLogSegment create(File dir, long id, int capacity) {
+        File file = new File(dir, fileName(id));
+        try {
+            return new ResourceLogSegment(id, file, capacity);
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("unable to create log segment %s", file.getAbsolutePath()), e);
+        }
+    }
+
+    static ResourceLogSegment open(File file, long id) {
+        try {
+            ResourceLogSegment seg = new ResourceLogSegment(id, file, (int) file.length());
+            seg.recover();
+            return seg;
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("unable to open log segment %s", file.getAbsolutePath()), e);
+        }
+    }
+
+    private void recover() {
+        int pos = 0;
+        while (pos + 4 <= capacity) {
+            int len = buffer.getInt(pos);
+            if (len <= 0 || pos + 4 + len > capacity) {
+                break;
+            }
+
+            try {
+                String resourceUuid = ResourceLogCodec.decodeResourceUuid(slice(pos, len));
+                index(pos, resourceUuid, buffer.getLong(pos + 4 + ResourceLogCodec.DATE_OFFSET));
+            } catch (RuntimeException e) {
+                logger.warn(String.format("broken log entry at %s of %s, ignore the rest of the segment", pos, file.getAbsolutePath()), e);
+                break;
+            }
+
+            pos += 4 + len;
+            limit = pos;
+        }
+    }
+
+    private ByteBuffer slice(int pos, int len) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(pos + 4);
+        dup.limit(pos + 4 + len);
+        return dup.slice();
+    }
+
+    private void index(int offset, String resourceUuid, long time) {
+        if (count % BLOCK_SIZE == 0) {
+            if (blockNum == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockNum * 2);
+                blockMinTimes = Arrays.copyOf(blockMinTimes, blockNum * 2);
+                blockMaxTimes = Arrays.copyOf(blockMaxTimes, blockNum * 2);
+            }
+            blockOffsets[blockNum] = offset;
+            blockMinTimes[blockNum] = time;
+            blockMaxTimes[blockNum] = time;
+            blockNum++;
+        } else {
+            blockMinTimes[blockNum - 1] = Math.min(blockMinTimes[blockNum - 1], time);
+            blockMaxTimes[blockNum - 1] = Math.max(blockMaxTimes[blockNum - 1], time);
+        }
+
+        if (resourceUuid != null) {
+            OffsetList lst = resourceIndex.get(resourceUuid);
+            if (lst == null) {
+                lst = new OffsetList();
+                resourceIndex.put(resourceUuid, lst);
+            }
+            lst.add(offset);
+        }
+
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        count++;
+    }
+
+    /**
+     * @return false if the segment has no room for the entry
+     */
+    synchronized boolean append(byte[] entry, String resourceUuid, long time) {
+        if (limit + 4 + entry.length > capacity) {
+            return false;
+        }
+
+        // the length is written last so a partially written entry is never read
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(limit + 4);
+        dup.put(entry);
+        buffer.putInt(limit, entry.length);
+        index(limit, resourceUuid, time);
+        limit += 4 + entry.length;
+        return true;
+    }
+
+    synchronized int[] getOffsets(String resourceUuid) {
+        OffsetList lst = resourceIndex.get(resourceUuid);
+        return lst == null ? new int[0] : Arrays.copyOf(lst.offsets, lst.size);
+    }
+
+    /**
+     * @return offsets of entries in blocks overlapping [startTime, endTime]
+     */
+    synchronized int[] getOffsets(long startTime, long endTime) {
+        int[] ret = new int[count];
+        int num = 0;
+        for (int i = 0; i < blockNum; i++) {
+            if (blockMaxTimes[i] < startTime || blockMinTimes[i] > endTime) {
+                continue;
+            }
+
+            int end = i + 1 < blockNum ? blockOffsets[i + 1] : limit;
+            int pos = blockOffsets[i];
+            while (pos < end) {
+                ret[num++] = pos;
+                pos += 4 + buffer.getInt(pos);
+            }
+        }
+        return Arrays.copyOf(ret, num);
+    }
+
+    long getTime(int offset) {
+        return buffer.getLong(offset + 4 + ResourceLogCodec.DATE_OFFSET);
+    }
+
+    ResourceLogContent read(int offset) {
+        return ResourceLogCodec.decode(slice(offset, buffer.getInt(offset)));
+    }
+
+    synchronized boolean overlaps(long startTime, long endTime) {
+        return count != 0 && maxTime >= startTime && minTime <= endTime;
+    }
+
+    synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getSize() {
+        return capacity;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warn(String.format("failed to close log segment %s", file.getAbsolutePath()), e);
+        }
+    }
+
+    void delete() {
+        close();
+        if (!file.delete()) {
+            logger.warn(String.format("failed to delete log segment %s", file.getAbsolutePath()));
+        }
+    }
+}
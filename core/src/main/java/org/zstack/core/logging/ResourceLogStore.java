@@ -0,0 +1,179 @@
+package org.zstack.core.logging;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * an append-only store of log entries made of ResourceLogSegment files in a folder. Entries are appended to
+ * the newest segment, a new segment is created when it's full; the oldest segments are deleted when the store
+ * exceeds its size or age limit.
+ *
+ * append() is meant to be called by a single writer, queries can run concurrently
+ */
+public class ResourceLogStore {
+    private static final CLogger logger = Utils.getLogger(ResourceLogStore.class);
+
+    public interface Visitor {
+        /**
+         * @return false to stop the query
+         */
+        boolean visit(ResourceLogContent content);
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    // ordered from the oldest
+    private final List<ResourceLogSegment> segments = new ArrayList<ResourceLogSegment>();
+    private ResourceLogSegment active;
+
+    public ResourceLogStore(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized void open() {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(ResourceLogSegment.SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+
+        for (File f : files) {
+            long id = Long.valueOf(f.getName().substring(0, f.getName().length() - ResourceLogSegment.SUFFIX.length()));
+            segments.add(ResourceLogSegment.open(f, id));
+        }
+
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            active = segments.get(segments.size() - 1);
+        }
+
+        logger.debug(String.format("opened resource log store at %s with %s segments", dir.getAbsolutePath(), segments.size()));
+    }
+
+    private void roll() {
+        if (active != null) {
+            active.force();
+        }
+
+        long id = active == null ? 1 : active.getId() + 1;
+        active = ResourceLogSegment.create(dir, id, segmentSize);
+        segments.add(active);
+    }
+
+    /**
+     * @return false if the entry is too large to fit in a segment
+     */
+    public boolean append(LogType type, Log.Content content) {
+        byte[] entry = ResourceLogCodec.encode(type, content);
+        if (entry.length + 4 > segmentSize) {
+            return false;
+        }
+
+        ResourceLogSegment seg;
+        synchronized (this) {
+            seg = active;
+        }
+
+        if (!seg.append(entry, content.resourceUuid, content.dateInLong)) {
+            synchronized (this) {
+                roll();
+                seg = active;
+            }
+            seg.append(entry, content.resourceUuid, content.dateInLong);
+        }
+
+        return true;
+    }
+
+    /**
+     * visits entries written in [startTime, endTime] in the order they were written
+     *
+     * @param resourceUuid entries of the resource only, or all entries if null
+     */
+    public void query(String resourceUuid, long startTime, long endTime, Visitor visitor) {
+        List<ResourceLogSegment> segs;
+        synchronized (this) {
+            segs = new ArrayList<ResourceLogSegment>(segments);
+        }
+
+        for (ResourceLogSegment seg : segs) {
+            if (!seg.overlaps(startTime, endTime)) {
+                continue;
+            }
+
+            int[] offsets = resourceUuid == null ? seg.getOffsets(startTime, endTime) : seg.getOffsets(resourceUuid);
+            for (int offset : offsets) {
+                long time = seg.getTime(offset);
+                if (time < startTime || time > endTime) {
+                    continue;
+                }
+
+                if (!visitor.visit(seg.read(offset))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * deletes the oldest segments until the store is not larger than maxSize and has no segment of entries
+     * all older than maxAge. The segment being written is never deleted
+     *
+     * @return the number of segments deleted
+     */
+    public synchronized int applyRetention(long maxSize, long maxAge, long now) {
+        long total = getSize();
+        int deleted = 0;
+        while (segments.size() > 1) {
+            ResourceLogSegment seg = segments.get(0);
+            if (total <= maxSize && seg.getMaxTime() >= now - maxAge) {
+                break;
+            }
+
+            segments.remove(0);
+            seg.delete();
+            total -= seg.getSize();
+            deleted++;
+        }
+
+        if (deleted != 0) {
+            logger.debug(String.format("deleted %s resource log segments, %s segments[%s bytes] left", deleted, segments.size(), total));
+        }
+
+        return deleted;
+    }
+
+    public synchronized long getSize() {
+        long total = 0;
+        for (ResourceLogSegment seg : segments) {
+            total += seg.getSize();
+        }
+        return total;
+    }
+
+    public synchronized int getSegmentNumber() {
+        return segments.size();
+    }
+
+    public synchronized void close() {
+        for (ResourceLogSegment seg : segments) {
+            seg.close();
+        }
+        segments.clear();
+        active = null;
+    }
+}
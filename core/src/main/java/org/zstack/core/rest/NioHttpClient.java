@@ -0,0 +1,241 @@
+package org.zstack.core.rest;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.rest.HttpCallStatistic;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * an event-driven HTTP client posting to agents without blocking the caller.
+ *
+ * Connections to a host are pooled and kept alive, at most maxConnectionsPerHost of them. Requests to a host
+ * are queued; a connection takes at most maxPipelinedRequests requests from the queue and pipelines them.
+ * Callbacks are called in the IO threads, so they must not block
+ */
+class NioHttpClient {
+    private static final CLogger logger = Utils.getLogger(NioHttpClient.class);
+
+    interface Callback {
+        void complete(int statusCode, String body);
+
+        void fail(Exception e);
+    }
+
+    private static class Request {
+        HttpPost post;
+        Callback callback;
+    }
+
+    private class HostQueue {
+        private final HttpHost host;
+        private final Queue<Request> pending = new LinkedList<Request>();
+        private int sendingBatches;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        HostQueue(HttpHost host) {
+            this.host = host;
+        }
+
+        void add(Request req) {
+            inFlight.incrementAndGet();
+            synchronized (this) {
+                pending.add(req);
+            }
+            send();
+        }
+
+        private void send() {
+            List<List<Request>> batches = new ArrayList<List<Request>>();
+            synchronized (this) {
+                while (sendingBatches < maxConnectionsPerHost && !pending.isEmpty()) {
+                    List<Request> batch = new ArrayList<Request>();
+                    while (batch.size() < maxPipelinedRequests && !pending.isEmpty()) {
+                        batch.add(pending.poll());
+                    }
+                    batches.add(batch);
+                    sendingBatches ++;
+                }
+            }
+
+            for (List<Request> batch : batches) {
+                send(batch);
+            }
+        }
+
+        private void done(List<Request> batch) {
+            inFlight.addAndGet(-batch.size());
+            synchronized (this) {
+                sendingBatches --;
+            }
+            send();
+        }
+
+        private void send(final List<Request> batch) {
+            if (batch.size() == 1) {
+                final Request req = batch.get(0);
+                client.execute(host, req.post, new FutureCallback<HttpResponse>() {
+                    @Override
+                    public void completed(HttpResponse rsp) {
+                        done(batch);
+                        complete(req, rsp);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        done(batch);
+                        req.callback.fail(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        failed(new IOException(String.format("the request to %s is cancelled", host)));
+                    }
+                });
+
+                return;
+            }
+
+            List<HttpRequest> posts = new ArrayList<HttpRequest>();
+            for (Request req : batch) {
+                posts.add(req.post);
+            }
+
+            client.execute(host, posts, new FutureCallback<List<HttpResponse>>() {
+                @Override
+                public void completed(List<HttpResponse> rsps) {
+                    done(batch);
+                    for (int i = 0; i < batch.size(); i++) {
+                        complete(batch.get(i), rsps.get(i));
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    done(batch);
+                    for (Request req : batch) {
+                        req.callback.fail(e);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    failed(new IOException(String.format("the requests to %s are cancelled", host)));
+                }
+            });
+        }
+    }
+
+    private final int maxConnectionsPerHost;
+    private final int maxPipelinedRequests;
+    private final PoolingNHttpClientConnectionManager connManager;
+    private final CloseableHttpPipeliningClient client;
+    private final ConcurrentHashMap<HttpHost, HostQueue> queues = new ConcurrentHashMap<HttpHost, HostQueue>();
+
+    NioHttpClient(int connectTimeout, int readTimeout, int maxConnectionsPerHost, int maxPipelinedRequests) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+
+        IOReactorConfig config = IOReactorConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSoTimeout(readTimeout)
+                .setSoKeepAlive(true)
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .build();
+
+        try {
+            connManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(config));
+        } catch (IOReactorException e) {
+            throw new CloudRuntimeException(e);
+        }
+        connManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connManager.setMaxTotal(Integer.MAX_VALUE);
+
+        client = HttpAsyncClients.createPipelining(connManager);
+        client.start();
+    }
+
+    private void complete(Request req, HttpResponse rsp) {
+        String body;
+        try {
+            body = rsp.getEntity() == null ? null : EntityUtils.toString(rsp.getEntity());
+        } catch (IOException e) {
+            req.callback.fail(e);
+            return;
+        }
+
+        req.callback.complete(rsp.getStatusLine().getStatusCode(), body);
+    }
+
+    void post(String url, String body, Map<String, String> headers, Callback callback) {
+        HttpHost host = URIUtils.extractHost(URI.create(url));
+        if (host == null) {
+            throw new CloudRuntimeException(String.format("invalid url[%s], no host found", url));
+        }
+
+        Request req = new Request();
+        req.post = new HttpPost(url);
+        req.post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            req.post.setHeader(e.getKey(), e.getValue());
+        }
+        req.callback = callback;
+
+        HostQueue queue = queues.get(host);
+        if (queue == null) {
+            queue = new HostQueue(host);
+            HostQueue old = queues.putIfAbsent(host, queue);
+            if (old != null) {
+                queue = old;
+            }
+        }
+
+        queue.add(req);
+    }
+
+    /**
+     * @return connections and in-flight requests of each host
+     */
+    Map<String, HttpCallStatistic> getHostStatistics() {
+        Map<String, HttpCallStatistic> ret = new HashMap<String, HttpCallStatistic>();
+        for (HostQueue queue : queues.values()) {
+            PoolStats stats = connManager.getStats(new HttpRoute(queue.host));
+            HttpCallStatistic stat = new HttpCallStatistic();
+            stat.setUrl(queue.host.toURI());
+            stat.setConnections(stats.getLeased() + stats.getAvailable());
+            stat.setInFlight(queue.inFlight.get());
+            ret.put(queue.host.toHostString(), stat);
+        }
+        return ret;
+    }
+
+    void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+}
@@ -3,10 +3,18 @@ package org.zstack.core.rest;
 import org.apache.http.HttpStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.APISyncCallMessage;
 import org.zstack.header.rest.RESTApiFacade;
@@ -21,6 +29,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 public class RESTApiController {
@@ -30,23 +39,45 @@ public class RESTApiController {
     @Autowired
     private RESTFacade restf;
 
+    private ResponseEntity<String> response(int status, String body) {
+        HttpHeaders headers = new HttpHeaders();
+        if (status == HttpStatus.SC_OK) {
+            headers.setContentType(MediaType.APPLICATION_JSON);
+        }
+        return new ResponseEntity<String>(body, headers, org.springframework.http.HttpStatus.valueOf(status));
+    }
+
+    /**
+     * the long-poll doesn't hold a servlet thread while waiting, the result is set when the request is done
+     * or the timeout expires
+     */
     @RequestMapping(value = RESTConstant.REST_API_RESULT + "{uuid}", method = { RequestMethod.GET, RequestMethod.PUT })
-    public void queryResult(@PathVariable String uuid, HttpServletResponse rsp) throws IOException {
+    public DeferredResult<ResponseEntity<String>> queryResult(@PathVariable final String uuid,
+                                                              @RequestParam(value = "timeout", required = false) Long timeout) {
+        // RESTApiFacade returns within maxLongPollTimeout, the async request only times out if something goes wrong
+        long asyncTimeout = TimeUnit.SECONDS.toMillis(CoreGlobalProperty.REST_API_MAX_LONG_POLL_TIMEOUT + 30);
+        final DeferredResult<ResponseEntity<String>> ret = new DeferredResult<ResponseEntity<String>>(asyncTimeout);
         try {
-            RestAPIResponse apiRsp = restApi.getResult(uuid);
-            if (apiRsp == null) {
-                rsp.sendError(HttpStatus.SC_NOT_FOUND, String.format("No api result[uuid:%s] found", uuid));
-                return;
-            }
+            restApi.getResult(uuid, timeout == null ? 0 : timeout, new ReturnValueCompletion<RestAPIResponse>() {
+                @Override
+                public void success(RestAPIResponse apiRsp) {
+                    if (apiRsp == null) {
+                        ret.setResult(response(HttpStatus.SC_NOT_FOUND, String.format("No api result[uuid:%s] found", uuid)));
+                    } else {
+                        ret.setResult(response(HttpStatus.SC_OK, JSONObjectUtil.toJsonString(apiRsp)));
+                    }
+                }
 
-            PrintWriter writer = rsp.getWriter();
-            String res = JSONObjectUtil.toJsonString(apiRsp);
-            rsp.setStatus(HttpStatus.SC_OK);
-            writer.write(res);
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    ret.setResult(response(HttpStatus.SC_INTERNAL_SERVER_ERROR, errorCode.toString()));
+                }
+            });
         } catch (Throwable t) {
             logger.warn(t.getMessage(), t);
-            rsp.sendError(HttpStatus.SC_INTERNAL_SERVER_ERROR, t.getMessage());
+            ret.setResult(response(HttpStatus.SC_INTERNAL_SERVER_ERROR, t.getMessage()));
         }
+        return ret;
     }
 
     private String handleByMessageType(String body) {
@@ -4,9 +4,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
 import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusEventListener;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.header.apimediator.ApiMediatorConstant;
+import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.*;
 import org.zstack.header.rest.RESTApiFacade;
@@ -20,8 +26,10 @@ import org.zstack.utils.logging.CLogger;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
-import javax.persistence.Query;
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
     private static final CLogger logger = Utils.getLogger(RESTApiFacadeImpl.class);
@@ -29,12 +37,85 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
     private EntityManagerFactory entityManagerFactory;
     private EntityManager entityManager = null;
     private Set<String> basePkgNames;
-    private List<String> processingRequests = Collections.synchronizedList(new ArrayList<String>(100));
+    private RestAPIResultStore store;
+    private Future<Void> flushThread;
 
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ErrorFacade errf;
+
+    /**
+     * a long-poll waiting for a request done without a thread; it returns when the request is done or the timeout
+     * task runs, whichever comes first
+     */
+    private class LongPoll implements Runnable {
+        final String uuid;
+        final ReturnValueCompletion<RestAPIResponse> completion;
+        final AtomicBoolean returned = new AtomicBoolean(false);
+        volatile TimeoutTaskReceipt timeoutTask;
+
+        LongPoll(String uuid, ReturnValueCompletion<RestAPIResponse> completion) {
+            this.uuid = uuid;
+            this.completion = completion;
+        }
+
+        @Override
+        public void run() {
+            if (!returned.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (timeoutTask != null) {
+                timeoutTask.cancel();
+            }
+            store.removeListener(uuid, this);
+
+            RestAPIResponse rsp;
+            try {
+                rsp = getResult(uuid);
+            } catch (Throwable t) {
+                logger.warn(t.getMessage(), t);
+                completion.fail(errf.throwableToInternalError(t));
+                return;
+            }
+            completion.success(rsp);
+        }
+    }
 
     void init() throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        store = new RestAPIResultStore(entityManagerFactory);
+        store.setMaxSize(CoreGlobalProperty.REST_API_RESULT_STORE_MAX_SIZE);
+        store.setTtl(TimeUnit.SECONDS.toMillis(CoreGlobalProperty.REST_API_RESULT_STORE_TTL));
+        store.setFlushBatchSize(CoreGlobalProperty.REST_API_RESULT_STORE_FLUSH_BATCH_SIZE);
+        flushThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return CoreGlobalProperty.REST_API_RESULT_STORE_FLUSH_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "rest-api-result-flush";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    store.flush();
+                } catch (Throwable t) {
+                    logger.warn("unhandled throwable", t);
+                }
+            }
+        });
+
         Set<APIEvent> boundEvents = new HashSet<APIEvent>(100);
         ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(true);
         scanner.resetFilters(false);
@@ -59,38 +140,11 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
         this.entityManagerFactory = entityManagerFactory;
     }
 
-    private RestAPIVO persist(APIMessage msg) {
-        RestAPIVO vo = new RestAPIVO();
-        vo.setUuid(msg.getId());
-        vo.setApiMessageName(msg.getMessageName());
-        vo.setState(RestAPIState.Processing);
-        EntityManager mgr = getEntityManager();
-        EntityTransaction tran = mgr.getTransaction();
-        try {
-            tran.begin();
-            mgr.persist(vo);
-            mgr.flush();
-            mgr.refresh(vo);
-            tran.commit();
-            return vo;
-        } catch (Exception e) {
-            tran.rollback();
-            throw new CloudRuntimeException(e);
-        } finally {
-            mgr.close();
-        }
-    }
-
     @Override
     public RestAPIResponse send(APIMessage msg) {
         assert !(msg instanceof APIListMessage) && !(msg instanceof APISearchMessage) : "You must invoke call(APIMessage) for APIListMessage or APISearchMsg, the message you pass is "
                 + msg.getMessageName();
-        RestAPIResponse rsp = new RestAPIResponse();
-        RestAPIVO vo = persist(msg);
-        processingRequests.add(vo.getUuid());
-        rsp.setCreatedDate(vo.getCreateDate());
-        rsp.setState(vo.getState().toString());
-        rsp.setUuid(vo.getUuid());
+        RestAPIResponse rsp = store.add(msg.getId(), msg.getMessageName());
         msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
         bus.send(msg);
         return rsp;
@@ -126,6 +180,22 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
     
     @Override
     public RestAPIResponse getResult(String uuid) {
+        return getResult(uuid, 0);
+    }
+
+    @Override
+    public RestAPIResponse getResult(String uuid, long timeout) {
+        try {
+            RestAPIResponse rsp = store.get(uuid, Math.min(timeout, TimeUnit.SECONDS.toMillis(CoreGlobalProperty.REST_API_MAX_LONG_POLL_TIMEOUT)));
+            if (rsp != null) {
+                return rsp;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException(e);
+        }
+
+        // sent by other management nodes or evicted
         RestAPIVO vo = find(uuid);
         if (vo == null) {
             return null;
@@ -139,43 +209,32 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
         return rsp;
     }
 
-    private EntityManager getEntityManager() {
-        return entityManagerFactory.createEntityManager();
-    }
+    @Override
+    public void getResult(String uuid, long timeout, ReturnValueCompletion<RestAPIResponse> completion) {
+        timeout = Math.min(timeout, TimeUnit.SECONDS.toMillis(CoreGlobalProperty.REST_API_MAX_LONG_POLL_TIMEOUT));
+        LongPoll poll = new LongPoll(uuid, completion);
+        if (timeout <= 0) {
+            poll.run();
+            return;
+        }
 
-    private boolean update(APIEvent e) {
-        String sql = "update RestAPIVO r set r.result = :result, r.state = :state where r.uuid = :uuid";
-        EntityManager mgr = getEntityManager();
-        EntityTransaction tran = mgr.getTransaction();
-        try {
-            tran.begin();
-            Query query = mgr.createQuery(sql);
-            query.setParameter("result", RESTApiDecoder.dump(e));
-            query.setParameter("state", RestAPIState.Done);
-            query.setParameter("uuid", e.getApiId());
-            int ret = query.executeUpdate();
-            tran.commit();
-            return ret > 0;
-        } catch (Exception ex) {
-            tran.rollback();
-            throw new CloudRuntimeException(ex);
-        } finally {
-            mgr.close();
+        poll.timeoutTask = thdf.submitTimeoutTask(poll, TimeUnit.MILLISECONDS, timeout);
+        if (!store.whenDone(uuid, poll)) {
+            // sent by other management nodes or evicted
+            poll.run();
         }
     }
 
+    private EntityManager getEntityManager() {
+        return entityManagerFactory.createEntityManager();
+    }
+
     @Override
     public boolean handleEvent(Event e) {
         try {
             if (e instanceof APIEvent) {
                 APIEvent ae = (APIEvent) e;
-                if (processingRequests.contains(ae.getApiId())) {
-                    boolean ret = update(ae);
-                    processingRequests.remove(ae.getApiId());
-                    if (!ret) {
-                        logger.warn(String.format("Cannot find RestAPIVO[uuid:%s], something wrong happened", ae.getApiId()));
-                    }
-                }
+                store.complete(ae.getApiId(), RESTApiDecoder.dump(ae));
             } else {
                 bus.dealWithUnknownMessage(e);
             }
@@ -186,6 +245,13 @@ public class RESTApiFacadeImpl implements RESTApiFacade, CloudBusEventListener {
         return false;
     }
 
+    void destroy() {
+        if (flushThread != null) {
+            flushThread.cancel(false);
+        }
+        store.flush();
+    }
+
     public Set<String> getBasePkgNames() {
         if (basePkgNames == null) {
             basePkgNames = new HashSet<String>();
@@ -15,6 +15,7 @@ import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.CancelablePeriodicTask;
+import org.zstack.core.thread.HashedWheelTimer;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
@@ -36,6 +37,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,6 +63,8 @@ public class RESTFacadeImpl implements RESTFacade {
     private RestTemplate template;
     private String baseUrl;
     private String sendCommandUrl;
+    private NioHttpClient nioClient;
+    private HashedWheelTimer timer;
 
     private Map<String, HttpCallStatistic> statistics = new ConcurrentHashMap<String, HttpCallStatistic>();
     private Map<String, HttpCallHandlerWrapper> httpCallhandlers = new ConcurrentHashMap<String, HttpCallHandlerWrapper>();
@@ -70,6 +74,8 @@ public class RESTFacadeImpl implements RESTFacade {
         void fail(ErrorCode err);
 
         void success(HttpEntity<String> responseEntity);
+
+        boolean isDone();
     }
 
     private interface HttpCallHandlerWrapper {
@@ -112,6 +118,67 @@ public class RESTFacadeImpl implements RESTFacade {
         factory.setReadTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
         factory.setConnectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
         template = new RestTemplate(factory);
+
+        if (CoreGlobalProperty.REST_FACADE_NIO_CLIENT) {
+            timer = new HashedWheelTimer("rest-facade-timer", 100, TimeUnit.MILLISECONDS, 512);
+            nioClient = new NioHttpClient(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT, CoreGlobalProperty.REST_FACADE_READ_TIMEOUT,
+                    CoreGlobalProperty.REST_FACADE_NIO_MAX_CONNECTIONS_PER_HOST, CoreGlobalProperty.REST_FACADE_NIO_MAX_PIPELINED_REQUESTS);
+            logger.debug("RESTFacade uses the NIO HTTP client for async json posts");
+        }
+    }
+
+    void destroy() {
+        if (nioClient != null) {
+            nioClient.close();
+            timer.stop();
+        }
+    }
+
+    private TimeoutTaskReceipt submitTimeoutTask(Runnable task, TimeUnit unit, long timeout) {
+        // with lots of calls in flight, one wheel timer is much cheaper than a timer task for each
+        return timer != null ? timer.newTimeout(task, unit, timeout) : thdf.submitTimeoutTask(task, unit, timeout);
+    }
+
+    @AsyncThread
+    private void failAsync(AsyncHttpWrapper wrapper, ErrorCode err) {
+        wrapper.fail(err);
+    }
+
+    private void nioJsonPost(final String url, final String body, final String taskUuid, final AsyncHttpWrapper wrapper, final int retry) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(RESTConstant.TASK_UUID, taskUuid);
+        headers.put(RESTConstant.CALLBACK_URL, callbackUrl);
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("json post[%s], headers: %s, body: %s", url, headers, body));
+        }
+
+        nioClient.post(url, body, headers, new NioHttpClient.Callback() {
+            @Override
+            public void complete(int statusCode, String rspBody) {
+                if (statusCode != HttpStatus.SC_OK) {
+                    String err = String.format("http status: %s, response body:%s", statusCode, rspBody);
+                    logger.warn(err);
+                    failAsync(wrapper, errf.instantiateErrorCode(SysErrors.HTTP_ERROR, err));
+                }
+            }
+
+            @Override
+            public void fail(Exception e) {
+                if (e instanceof IOException && retry > 0 && !wrapper.isDone()) {
+                    logger.debug(String.format("unable to post to %s, %s, will retry %s times", url, e.getMessage(), retry));
+                    timer.newTimeout(new Runnable() {
+                        @Override
+                        public void run() {
+                            nioJsonPost(url, body, taskUuid, wrapper, retry - 1);
+                        }
+                    }, TimeUnit.SECONDS, 1);
+                    return;
+                }
+
+                logger.warn(String.format("Unable to post to %s", url), e);
+                failAsync(wrapper, e instanceof IOException ? errf.instantiateErrorCode(SysErrors.IO_ERROR, e.getMessage()) : errf.throwableToInternalError(e));
+            }
+        });
     }
 
     void notifyCallback(HttpServletRequest req, HttpServletResponse rsp) {
@@ -210,6 +277,76 @@ public class RESTFacadeImpl implements RESTFacade {
             ic.beforeAsyncJsonPost(url, body, unit, timeout);
         }
 
+        String taskUuid = Platform.getUuid();
+        AsyncHttpWrapper wrapper = createWrapper(taskUuid, url, body, callback, unit, timeout);
+        wrappers.put(taskUuid, wrapper);
+        post(url, body, taskUuid, wrapper);
+    }
+
+    @Override
+    public void asyncJsonPostBatch(String url, List<BatchJsonPostItem> items) {
+        BatchJsonPostCmd cmd = new BatchJsonPostCmd();
+        final List<AsyncHttpWrapper> itemWrappers = new ArrayList<AsyncHttpWrapper>();
+        for (BatchJsonPostItem item : items) {
+            String body;
+            if (item.getBody() instanceof String) {
+                body = (String) item.getBody();
+            } else {
+                for (BeforeAsyncJsonPostInterceptor ic : interceptors) {
+                    ic.beforeAsyncJsonPost(item.getUrl(), item.getBody(), item.getUnit(), item.getTimeout());
+                }
+
+                // for unit test finding invocation chain
+                MessageCommandRecorder.record(item.getBody().getClass());
+                body = JSONObjectUtil.toJsonString(item.getBody());
+            }
+
+            for (BeforeAsyncJsonPostInterceptor ic : interceptors) {
+                ic.beforeAsyncJsonPost(item.getUrl(), body, item.getUnit(), item.getTimeout());
+            }
+
+            String taskUuid = Platform.getUuid();
+            AsyncHttpWrapper wrapper = createWrapper(taskUuid, item.getUrl(), body, item.getCallback(), item.getUnit(), item.getTimeout());
+            wrappers.put(taskUuid, wrapper);
+            itemWrappers.add(wrapper);
+
+            BatchJsonPostCmd.Command c = new BatchJsonPostCmd.Command();
+            c.setPath(UriComponentsBuilder.fromHttpUrl(item.getUrl()).build().getPath());
+            c.setTaskUuid(taskUuid);
+            c.setBody(body);
+            cmd.getCommands().add(c);
+        }
+
+        // the batch request itself has no reply, each command is replied with its own taskUuid;
+        // failing to post the batch fails all commands
+        AsyncHttpWrapper batchWrapper = new AsyncHttpWrapper() {
+            @Override
+            public void fail(ErrorCode err) {
+                for (AsyncHttpWrapper w : itemWrappers) {
+                    w.fail(err);
+                }
+            }
+
+            @Override
+            public void success(HttpEntity<String> responseEntity) {
+            }
+
+            @Override
+            public boolean isDone() {
+                for (AsyncHttpWrapper w : itemWrappers) {
+                    if (!w.isDone()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+
+        post(url, JSONObjectUtil.toJsonString(cmd), Platform.getUuid(), batchWrapper);
+    }
+
+    private AsyncHttpWrapper createWrapper(final String taskUuid, final String url, final String body, final AsyncRESTCallback callback,
+                                           final TimeUnit unit, final long timeout) {
         long stime = 0;
         if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
             stime = System.currentTimeMillis();
@@ -221,13 +358,12 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         }
 
-        final String taskUuid = Platform.getUuid();
         final long finalStime = stime;
-        AsyncHttpWrapper wrapper = new AsyncHttpWrapper() {
+        return new AsyncHttpWrapper() {
             AtomicBoolean called = new AtomicBoolean(false);
 
             final AsyncHttpWrapper self = this;
-            TimeoutTaskReceipt timeoutTaskReceipt = thdf.submitTimeoutTask(new Runnable() {
+            TimeoutTaskReceipt timeoutTaskReceipt = submitTimeoutTask(new Runnable() {
                 @Override
                 public void run() {
                     self.fail(errf.stringToTimeoutError(
@@ -292,10 +428,21 @@ public class RESTFacadeImpl implements RESTFacade {
                     callback.success(responseEntity);
                 }
             }
+
+            @Override
+            public boolean isDone() {
+                return called.get();
+            }
         };
+    }
 
+    private void post(final String url, String body, String taskUuid, AsyncHttpWrapper wrapper) {
         try {
-            wrappers.put(taskUuid, wrapper);
+            if (nioClient != null) {
+                nioJsonPost(url, body, taskUuid, wrapper, 5);
+                return;
+            }
+
             HttpHeaders requestHeaders = new HttpHeaders();
             requestHeaders.setContentType(MediaType.APPLICATION_JSON);
             requestHeaders.setContentLength(body.length());
@@ -477,6 +624,11 @@ public class RESTFacadeImpl implements RESTFacade {
         return statistics;
     }
 
+    @Override
+    public Map<String, HttpCallStatistic> getHostStatistics() {
+        return nioClient != null ? nioClient.getHostStatistics() : new HashMap<String, HttpCallStatistic>();
+    }
+
     @Override
     public <T> void registerSyncHttpCallHandler(String path, final Class<T> objectType, final SyncHttpCallHandler<T> handler) {
         HttpCallHandlerWrapper wrapper = httpCallhandlers.get(path);
@@ -0,0 +1,333 @@
+package org.zstack.core.rest;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.rest.RestAPIResponse;
+import org.zstack.header.rest.RestAPIState;
+import org.zstack.header.rest.RestAPIVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * results of the async REST API calls sent by this management node.
+ *
+ * A result is served from memory until it has been done for ttl or the store is full, so polling it doesn't
+ * touch the database. Changes are written to RestAPIVO behind by flush() in batches, for the results to survive
+ * a restart and to be read by other management nodes, which only see a result after it's flushed.
+ *
+ * A long-poll can either block on get() or register a listener by whenDone(), which runs when the request is done.
+ *
+ * When a batch fails to be written, its results are written one by one, so a bad result(e.g. too large for the
+ * column) doesn't keep the others of the batch from the database. A result failing by itself is retried by the next
+ * MAX_WRITE_RETRIES flushes, then dropped: it's served from memory until evicted but never written.
+ */
+class RestAPIResultStore {
+    private static final CLogger logger = Utils.getLogger(RestAPIResultStore.class);
+    private static final int MAX_WRITE_RETRIES = 3;
+
+    private static class Entry {
+        final String uuid;
+        final String apiMessageName;
+        final Timestamp createDate = new Timestamp(System.currentTimeMillis());
+        final CountDownLatch done = new CountDownLatch(1);
+        // guarded by the entry
+        final List<Runnable> listeners = new ArrayList<Runnable>();
+        volatile String result;
+        volatile Timestamp finishedDate;
+        // the state written to the database, null if not written yet; only accessed by flush()
+        RestAPIState persistedState;
+        // times the entry failed to be written by itself, and whether it's given up; only accessed by flush()
+        int writeFailures;
+        boolean dropped;
+
+        Entry(String uuid, String apiMessageName) {
+            this.uuid = uuid;
+            this.apiMessageName = apiMessageName;
+        }
+
+        RestAPIState getState() {
+            return done.getCount() == 0 ? RestAPIState.Done : RestAPIState.Processing;
+        }
+
+        RestAPIResponse toResponse() {
+            RestAPIResponse rsp = new RestAPIResponse();
+            rsp.setUuid(uuid);
+            rsp.setCreatedDate(createDate);
+            rsp.setFinishedDate(finishedDate);
+            rsp.setResult(result);
+            rsp.setState(getState().toString());
+            return rsp;
+        }
+    }
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Queue<Entry> dirty = new ConcurrentLinkedQueue<Entry>();
+
+    private int maxSize = 10000;
+    private long ttl = TimeUnit.HOURS.toMillis(1);
+    private int flushBatchSize = 500;
+
+    RestAPIResultStore(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    void setFlushBatchSize(int flushBatchSize) {
+        this.flushBatchSize = flushBatchSize;
+    }
+
+    RestAPIResponse add(String uuid, String apiMessageName) {
+        Entry e = new Entry(uuid, apiMessageName);
+        entries.put(uuid, e);
+        dirty.add(e);
+        return e.toResponse();
+    }
+
+    /**
+     * @return false if the request is not sent by this management node
+     */
+    boolean complete(String uuid, String result) {
+        Entry e = entries.get(uuid);
+        if (e == null) {
+            return false;
+        }
+
+        e.result = result;
+        e.finishedDate = new Timestamp(System.currentTimeMillis());
+        List<Runnable> listeners;
+        synchronized (e) {
+            e.done.countDown();
+            listeners = new ArrayList<Runnable>(e.listeners);
+            e.listeners.clear();
+        }
+        dirty.add(e);
+
+        for (Runnable l : listeners) {
+            try {
+                l.run();
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when notifying the result of the REST API request[uuid:%s]", uuid), t);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * runs the listener once the request is done, at once if it's done already
+     *
+     * @return false if the result is not in memory
+     */
+    boolean whenDone(String uuid, Runnable listener) {
+        Entry e = entries.get(uuid);
+        if (e == null) {
+            return false;
+        }
+
+        synchronized (e) {
+            if (e.getState() != RestAPIState.Done) {
+                e.listeners.add(listener);
+                return true;
+            }
+        }
+
+        listener.run();
+        return true;
+    }
+
+    /**
+     * removes a listener added by whenDone(), e.g. when the long-poll times out
+     */
+    void removeListener(String uuid, Runnable listener) {
+        Entry e = entries.get(uuid);
+        if (e == null) {
+            return;
+        }
+
+        synchronized (e) {
+            e.listeners.remove(listener);
+        }
+    }
+
+    /**
+     * @param timeout milliseconds to wait for a processing request done, 0 to return at once
+     * @return null if the result is not in memory
+     */
+    RestAPIResponse get(String uuid, long timeout) throws InterruptedException {
+        Entry e = entries.get(uuid);
+        if (e == null) {
+            return null;
+        }
+
+        if (timeout > 0) {
+            e.done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        return e.toResponse();
+    }
+
+    private EntityManager getEntityManager() {
+        return entityManagerFactory.createEntityManager();
+    }
+
+    private void write(Collection<Entry> batch) {
+        String sql = "update RestAPIVO r set r.result = :result, r.state = :state, r.lastOpDate = :lastOpDate where r.uuid = :uuid";
+        Map<Entry, RestAPIState> written = new HashMap<Entry, RestAPIState>();
+        EntityManager mgr = getEntityManager();
+        EntityTransaction tran = mgr.getTransaction();
+        try {
+            tran.begin();
+            for (Entry e : batch) {
+                RestAPIState state = e.getState();
+                if (e.persistedState == null) {
+                    RestAPIVO vo = new RestAPIVO();
+                    vo.setUuid(e.uuid);
+                    vo.setApiMessageName(e.apiMessageName);
+                    vo.setState(state);
+                    vo.setResult(e.result);
+                    vo.setCreateDate(e.createDate);
+                    vo.setLastOpDate(e.finishedDate);
+                    mgr.persist(vo);
+                } else if (e.persistedState != state) {
+                    Query query = mgr.createQuery(sql);
+                    query.setParameter("result", e.result);
+                    query.setParameter("state", state);
+                    query.setParameter("lastOpDate", e.finishedDate);
+                    query.setParameter("uuid", e.uuid);
+                    query.executeUpdate();
+                }
+                written.put(e, state);
+            }
+            tran.commit();
+        } catch (Exception ex) {
+            tran.rollback();
+            throw new CloudRuntimeException(ex);
+        } finally {
+            mgr.close();
+        }
+
+        for (Map.Entry<Entry, RestAPIState> w : written.entrySet()) {
+            w.getKey().persistedState = w.getValue();
+        }
+    }
+
+    /**
+     * writes entries of a failed batch one by one, entries failing by themselves are added to retry
+     * or dropped after MAX_WRITE_RETRIES flushes
+     *
+     * @return false if none of several entries is written, the database is likely unavailable then and
+     * no failure is counted
+     */
+    private boolean writeOneByOne(Collection<Entry> batch, List<Entry> retry) {
+        List<Entry> failed = new ArrayList<Entry>();
+        Map<Entry, CloudRuntimeException> errors = new HashMap<Entry, CloudRuntimeException>();
+        for (Entry e : batch) {
+            try {
+                write(Collections.singletonList(e));
+                e.writeFailures = 0;
+            } catch (CloudRuntimeException ex) {
+                failed.add(e);
+                errors.put(e, ex);
+            }
+        }
+
+        if (batch.size() > 1 && failed.size() == batch.size()) {
+            retry.addAll(batch);
+            return false;
+        }
+
+        for (Entry e : failed) {
+            if (++e.writeFailures > MAX_WRITE_RETRIES) {
+                logger.warn(String.format("failed to write the result of the REST API request[uuid:%s, api:%s] %s times, drop it",
+                        e.uuid, e.apiMessageName, e.writeFailures), errors.get(e));
+                e.dropped = true;
+            } else {
+                logger.warn(String.format("failed to write the result of the REST API request[uuid:%s, api:%s], retry it in next flush",
+                        e.uuid, e.apiMessageName), errors.get(e));
+                retry.add(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * writes the changed results to the database in batches, then evicts the results done for ttl
+     * and the oldest done results beyond maxSize
+     */
+    synchronized void flush() {
+        List<Entry> retry = new ArrayList<Entry>();
+        Set<Entry> batch = new LinkedHashSet<Entry>();
+        Entry e;
+        while ((e = dirty.poll()) != null) {
+            batch.add(e);
+            if (batch.size() < flushBatchSize && !dirty.isEmpty()) {
+                continue;
+            }
+
+            try {
+                write(batch);
+            } catch (CloudRuntimeException ex) {
+                logger.warn(String.format("failed to write %s REST API results, write them one by one", batch.size()), ex);
+                if (!writeOneByOne(batch, retry)) {
+                    logger.warn("failed to write any of the REST API results, retry them in next flush");
+                    break;
+                }
+            }
+            batch.clear();
+        }
+        dirty.addAll(retry);
+
+        evict();
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        List<Entry> done = new ArrayList<Entry>();
+        for (Entry e : entries.values()) {
+            if (e.persistedState != RestAPIState.Done && !(e.dropped && e.getState() == RestAPIState.Done)) {
+                continue;
+            }
+
+            if (now - e.finishedDate.getTime() > ttl) {
+                entries.remove(e.uuid);
+            } else {
+                done.add(e);
+            }
+        }
+
+        int over = entries.size() - maxSize;
+        if (over <= 0) {
+            return;
+        }
+
+        Collections.sort(done, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return o1.finishedDate.compareTo(o2.finishedDate);
+            }
+        });
+        for (int i = 0; i < over && i < done.size(); i++) {
+            entries.remove(done.get(i).uuid);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
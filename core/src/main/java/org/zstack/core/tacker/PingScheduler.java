@@ -0,0 +1,345 @@
+package org.zstack.core.tacker;
+
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * pings tracked resources without sending all pings at once every interval.
+ *
+ * Each resource has its own due time, resources are kept in one-second buckets by the due time and a tick
+ * every second pings the resources of due buckets. A newly tracked resource gets a random due time within
+ * the interval, so pings of an interval are spread across it.
+ *
+ * The interval adapts to each resource: after several healthy pings in a row the interval of the resource grows
+ * until pingTracker.maxBackoff times of the ping interval; after an unhealthy ping the resource is probed
+ * every third of the ping interval until it's healthy again. At most getParallelismDegree() pings are in flight,
+ * resources over that wait for the next tick, which shows as lag in the statistic.
+ *
+ * With pingTracker.adaptiveInterval on(the default), a healthy resource going down is therefore detected up to
+ * pingTracker.maxBackoff times of the ping interval later(2x by default) instead of one interval; turn it off
+ * if every resource must be pinged at the ping interval.
+ *
+ * Resources can be tracked before start(), they are pinged once the scheduler starts
+ */
+public abstract class PingScheduler {
+    private static final CLogger logger = Utils.getLogger(PingScheduler.class);
+
+    private static final int HEALTHY_PINGS_BEFORE_BACKOFF = 3;
+    private static final int FAILURE_PROBE_DIVISOR = 3;
+
+    private static final Map<String, PingScheduler> schedulers = new ConcurrentHashMap<String, PingScheduler>();
+
+    private CloudBus bus;
+    private ThreadFacade thdf;
+
+    /**
+     * @return the name of the scheduler, which is also the key of its statistic
+     */
+    protected abstract String getName();
+
+    /**
+     * @return the ping interval in seconds
+     */
+    protected abstract long getPingInterval();
+
+    protected abstract int getParallelismDegree();
+
+    protected abstract NeedReplyMessage getPingMessage(String resourceUuid);
+
+    protected abstract void handleReply(String resourceUuid, MessageReply reply);
+
+    /**
+     * decides whether the resource is healthy by the ping reply, which adapts the ping interval of the resource
+     */
+    protected boolean isHealthy(MessageReply reply) {
+        return reply.isSuccess();
+    }
+
+    private static class Resource {
+        final String uuid;
+        long interval;
+        int healthyPings;
+        long due;
+        long version;
+
+        Resource(String uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private static class BucketEntry {
+        final Resource resource;
+        final long version;
+
+        BucketEntry(Resource resource, long version) {
+            this.resource = resource;
+            this.version = version;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+    // the second of due time -> resources due in the second
+    private final TreeMap<Long, List<BucketEntry>> buckets = new TreeMap<Long, List<BucketEntry>>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Random random = new Random();
+    private volatile long lag;
+    private volatile long maxLag;
+    private volatile long pingCount;
+    private Future<Void> tickThread;
+
+    private long getBaseInterval() {
+        return TimeUnit.SECONDS.toMillis(Math.max(1, getPingInterval()));
+    }
+
+    private void schedule(Resource r, long due) {
+        synchronized (buckets) {
+            r.due = due;
+            r.version++;
+            putInBucket(new BucketEntry(r, r.version), TimeUnit.MILLISECONDS.toSeconds(due));
+        }
+    }
+
+    private void putInBucket(BucketEntry e, long second) {
+        List<BucketEntry> bucket = buckets.get(second);
+        if (bucket == null) {
+            bucket = new ArrayList<BucketEntry>();
+            buckets.put(second, bucket);
+        }
+        bucket.add(e);
+    }
+
+    private void adapt(Resource r, boolean healthy) {
+        long base = getBaseInterval();
+        synchronized (buckets) {
+            if (!healthy) {
+                r.healthyPings = 0;
+                r.interval = CoreGlobalProperty.PING_TRACKER_ADAPTIVE_INTERVAL ?
+                        Math.max(TimeUnit.SECONDS.toMillis(1), base / FAILURE_PROBE_DIVISOR) : base;
+                return;
+            }
+
+            r.healthyPings++;
+            if (!CoreGlobalProperty.PING_TRACKER_ADAPTIVE_INTERVAL || r.healthyPings <= HEALTHY_PINGS_BEFORE_BACKOFF) {
+                r.interval = base;
+            } else {
+                long max = base * Math.max(1, CoreGlobalProperty.PING_TRACKER_MAX_BACKOFF);
+                r.interval = Math.min(max, Math.max(base, r.interval) + base / 2);
+            }
+        }
+    }
+
+    private void pingDone(Resource r, MessageReply reply) {
+        inFlight.decrementAndGet();
+
+        boolean healthy = false;
+        try {
+            healthy = isHealthy(reply);
+            handleReply(r.uuid, reply);
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception when handling the ping reply of resource[uuid:%s]", r.uuid), t);
+        } finally {
+            adapt(r, healthy);
+            if (resources.get(r.uuid) == r) {
+                schedule(r, System.currentTimeMillis() + r.interval);
+            }
+        }
+    }
+
+    private void ping(final Resource r) {
+        inFlight.incrementAndGet();
+        try {
+            NeedReplyMessage msg = getPingMessage(r.uuid);
+            bus.send(msg, new CloudBusCallBack() {
+                @Override
+                public void run(MessageReply reply) {
+                    pingDone(r, reply);
+                }
+            });
+        } catch (Throwable t) {
+            inFlight.decrementAndGet();
+            logger.warn(String.format("failed to ping resource[uuid:%s]", r.uuid), t);
+            if (resources.get(r.uuid) == r) {
+                schedule(r, System.currentTimeMillis() + getBaseInterval());
+            }
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long second = TimeUnit.MILLISECONDS.toSeconds(now);
+
+        List<BucketEntry> due = new ArrayList<BucketEntry>();
+        synchronized (buckets) {
+            while (!buckets.isEmpty() && buckets.firstKey() <= second) {
+                due.addAll(buckets.pollFirstEntry().getValue());
+            }
+        }
+
+        long tickLag = 0;
+        List<BucketEntry> deferred = new ArrayList<BucketEntry>();
+        int parallelism = getParallelismDegree();
+        for (BucketEntry e : due) {
+            Resource r = e.resource;
+            if (resources.get(r.uuid) != r || r.version != e.version) {
+                // untracked or rescheduled
+                continue;
+            }
+
+            tickLag = Math.max(tickLag, now - r.due);
+            if (parallelism > 0 && inFlight.get() >= parallelism) {
+                deferred.add(e);
+                continue;
+            }
+
+            pingCount++;
+            ping(r);
+        }
+
+        if (!deferred.isEmpty()) {
+            // keep the due time, so the lag of deferred resources keeps growing
+            synchronized (buckets) {
+                for (BucketEntry e : deferred) {
+                    putInBucket(e, second + 1);
+                }
+            }
+        }
+
+        lag = tickLag;
+        if (tickLag > maxLag) {
+            maxLag = tickLag;
+        }
+    }
+
+    /**
+     * @return false if the resource is already tracked
+     */
+    public boolean track(String resourceUuid) {
+        if (resources.containsKey(resourceUuid)) {
+            return false;
+        }
+
+        long base = getBaseInterval();
+        Resource r = new Resource(resourceUuid);
+        r.interval = base;
+        if (resources.putIfAbsent(resourceUuid, r) != null) {
+            return false;
+        }
+
+        schedule(r, System.currentTimeMillis() + (long) (random.nextDouble() * base));
+        return true;
+    }
+
+    public void untrack(String resourceUuid) {
+        resources.remove(resourceUuid);
+    }
+
+    public void untrackAll() {
+        resources.clear();
+        synchronized (buckets) {
+            buckets.clear();
+        }
+    }
+
+    public boolean isTracked(String resourceUuid) {
+        return resources.containsKey(resourceUuid);
+    }
+
+    public Set<String> getTrackedResources() {
+        return new HashSet<String>(resources.keySet());
+    }
+
+    /**
+     * resets the interval of all resources to the ping interval and spreads them across the interval again
+     */
+    public void reschedule() {
+        long base = getBaseInterval();
+        long now = System.currentTimeMillis();
+        for (Resource r : resources.values()) {
+            synchronized (buckets) {
+                r.interval = base;
+                r.healthyPings = 0;
+            }
+            schedule(r, now + (long) (random.nextDouble() * base));
+        }
+    }
+
+    public PingTrackerStatistic getStatistic() {
+        PingTrackerStatistic s = new PingTrackerStatistic();
+        s.setName(getName());
+        s.setTrackedResources(resources.size());
+        s.setInFlight(inFlight.get());
+        s.setLag(lag);
+        s.setMaxLag(maxLag);
+        s.setPingCount(pingCount);
+        return s;
+    }
+
+    /**
+     * @return statistics of all running schedulers, keyed by the scheduler name
+     */
+    public static Map<String, PingTrackerStatistic> getStatistics() {
+        Map<String, PingTrackerStatistic> ret = new HashMap<String, PingTrackerStatistic>();
+        for (PingScheduler s : schedulers.values()) {
+            PingTrackerStatistic stat = s.getStatistic();
+            ret.put(stat.getName(), stat);
+        }
+        return ret;
+    }
+
+    public synchronized void start(CloudBus bus, ThreadFacade thdf) {
+        this.bus = bus;
+        this.thdf = thdf;
+
+        if (tickThread != null) {
+            tickThread.cancel(true);
+        }
+
+        tickThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return 1;
+            }
+
+            @Override
+            public String getName() {
+                return PingScheduler.this.getName();
+            }
+
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Throwable t) {
+                    logger.warn("unhandled throwable", t);
+                }
+            }
+        });
+        schedulers.put(getName(), this);
+    }
+
+    public synchronized void stop() {
+        if (tickThread != null) {
+            tickThread.cancel(true);
+            tickThread = null;
+        }
+        schedulers.remove(getName());
+    }
+}
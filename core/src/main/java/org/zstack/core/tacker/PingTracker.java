@@ -1,24 +1,18 @@
 package org.zstack.core.tacker;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.zstack.core.CoreGlobalProperty;
-import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
-import org.zstack.core.cloudbus.CloudBusSteppingCallback;
-import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.message.NeedReplyMessage;
-import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import java.util.*;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.Collection;
 
 /**
+ * pings tracked resources by a PingScheduler, see PingScheduler for how pings are spread across the interval
  */
 public abstract class PingTracker implements Component {
     public abstract String getResourceName();
@@ -29,71 +23,48 @@ public abstract class PingTracker implements Component {
 
     private final static CLogger logger = Utils.getLogger(PingTracker.class);
 
-    private final List<String> resourceUuids = Collections.synchronizedList(new ArrayList<String>());
-    private Set<String> resourceInTracking = Collections.synchronizedSet(new HashSet<String>());
-    private Future<Void> trackerThread = null;
-
     @Autowired
     protected CloudBus bus;
     @Autowired
     protected ThreadFacade thdf;
 
-    private class Tracker implements PeriodicTask {
+    private final PingScheduler scheduler = new PingScheduler() {
+        @Override
+        protected String getName() {
+            return String.format("pingTracker-for-%s", getResourceName());
+        }
+
         @Override
-        public TimeUnit getTimeUnit() {
-            return TimeUnit.SECONDS;
+        protected long getPingInterval() {
+            return PingTracker.this.getPingInterval();
         }
 
         @Override
-        public long getInterval() {
-            return getPingInterval();
+        protected int getParallelismDegree() {
+            return PingTracker.this.getParallelismDegree();
         }
 
         @Override
-        public String getName() {
-            return String.format("pingTracker-for-%s-managementNode-%s", getResourceName(), Platform.getManagementServerId());
+        protected NeedReplyMessage getPingMessage(String resourceUuid) {
+            return PingTracker.this.getPingMessage(resourceUuid);
         }
 
         @Override
-        public void run() {
-            try {
-                List<NeedReplyMessage> msgs = null;
-                synchronized (resourceUuids) {
-                    final Map<NeedReplyMessage, String> tmp = new HashMap<NeedReplyMessage, String>();
-
-                    msgs = new ArrayList<NeedReplyMessage>();
-                    for (String resUuid : resourceUuids) {
-                        if (resourceInTracking.contains(resUuid)) {
-                            continue;
-                        }
-
-                        NeedReplyMessage msg = getPingMessage(resUuid);
-                        msgs.add(msg);
-                        resourceInTracking.add(resUuid);
-                        tmp.put(msg, resUuid);
-                    }
-
-                    if (msgs.isEmpty()) {
-                        return;
-                    }
-
-                    bus.send(msgs, getParallelismDegree(), new CloudBusSteppingCallback() {
-                        @Override
-                        public void run(NeedReplyMessage msg, MessageReply reply) {
-                            String resUuid = tmp.get(msg);
-                            DebugUtils.Assert(resUuid!=null, "where is my resource uuid???");
-                            try {
-                                handleReply(resUuid, reply);
-                            } finally {
-                                resourceInTracking.remove(resUuid);
-                            }
-                        }
-                    });
-                }
-            } catch (Throwable t) {
-                logger.warn("unhandled throwable", t);
-            }
+        protected void handleReply(String resourceUuid, MessageReply reply) {
+            PingTracker.this.handleReply(resourceUuid, reply);
         }
+
+        @Override
+        protected boolean isHealthy(MessageReply reply) {
+            return PingTracker.this.isHealthy(reply);
+        }
+    };
+
+    /**
+     * a healthy resource is pinged less often, an unhealthy one more often
+     */
+    protected boolean isHealthy(MessageReply reply) {
+        return reply.isSuccess();
     }
 
     protected void trackHook(String resourceUuid) {
@@ -106,66 +77,45 @@ public abstract class PingTracker implements Component {
     }
 
     protected void pingIntervalChanged() {
-        startTracker();
+        scheduler.reschedule();
     }
     
     public void track(String resUuid) {
-        synchronized (resourceUuids) {
-            if (!resourceUuids.contains(resUuid)) {
-                resourceUuids.add(resUuid);
-                trackHook(resUuid);
-                logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
-            }
+        if (scheduler.track(resUuid)) {
+            trackHook(resUuid);
+            logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
         }
     }
 
     public void untrackAll() {
-        synchronized (resourceUuids) {
-            resourceUuids.clear();
-            logger.debug(String.format("untrack all %s", getResourceName()));
-        }
+        scheduler.untrackAll();
+        logger.debug(String.format("untrack all %s", getResourceName()));
     }
 
     public void untrack(String resUuid) {
-        synchronized (resourceUuids) {
-            resourceUuids.remove(resUuid);
-            untrackHook(resUuid);
-            logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
-        }
+        scheduler.untrack(resUuid);
+        untrackHook(resUuid);
+        logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
     }
 
     public void track(Collection<String> resUuids) {
-        synchronized (resourceUuids) {
-            for (String resUuid : resUuids) {
-                if (!resourceUuids.contains(resUuid)) {
-                    resourceUuids.add(resUuid);
-                    trackHook(resUuid);
-                    logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
-                }
-            }
+        for (String resUuid : resUuids) {
+            track(resUuid);
         }
     }
 
     public void untrack(Collection<String> resUuids) {
-        synchronized (resourceUuids) {
-            for (String resUuid : resUuids) {
-                resourceUuids.remove(resUuid);
-                untrackHook(resUuid);
-                logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
-            }
+        for (String resUuid : resUuids) {
+            untrack(resUuid);
         }
     }
 
-    protected void startTracker() {
-        if (trackerThread != null) {
-            trackerThread.cancel(true);
-        }
+    public PingTrackerStatistic getStatistic() {
+        return scheduler.getStatistic();
+    }
 
-        if (CoreGlobalProperty.UNIT_TEST_ON) {
-            trackerThread = thdf.submitPeriodicTask(new Tracker(), getPingInterval());
-        } else {
-            trackerThread = thdf.submitPeriodicTask(new Tracker(), getPingInterval() + new Random().nextInt(30));
-        }
+    protected void startTracker() {
+        scheduler.start(bus, thdf);
     }
 
     @Override
@@ -177,7 +127,7 @@ public abstract class PingTracker implements Component {
 
     @Override
     public boolean stop() {
-        trackerThread.cancel(true);
+        scheduler.stop();
         return true;
     }
 }
@@ -0,0 +1,63 @@
+package org.zstack.core.tacker;
+
+/**
+ */
+public class PingTrackerStatistic {
+    private String name;
+    private long trackedResources;
+    private long inFlight;
+    private long lag;
+    private long maxLag;
+    private long pingCount;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getTrackedResources() {
+        return trackedResources;
+    }
+
+    public void setTrackedResources(long trackedResources) {
+        this.trackedResources = trackedResources;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(long inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * @return in milliseconds, how late the most late ping of the last tick was sent
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    public void setLag(long lag) {
+        this.lag = lag;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public void setMaxLag(long maxLag) {
+        this.maxLag = maxLag;
+    }
+
+    public long getPingCount() {
+        return pingCount;
+    }
+
+    public void setPingCount(long pingCount) {
+        this.pingCount = pingCount;
+    }
+}
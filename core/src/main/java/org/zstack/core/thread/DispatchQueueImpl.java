@@ -10,9 +10,10 @@ import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,8 +25,8 @@ class DispatchQueueImpl implements DispatchQueue {
 	@Autowired
 	ThreadFacade _threadFacade;
 
-	private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<String, SyncTaskQueueWrapper>();
-	private final HashMap<String, ChainTaskQueueWrapper> chainTasks = new HashMap<String, ChainTaskQueueWrapper>();
+	private final ConcurrentMap<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<String, SyncTaskQueueWrapper>();
+	private final ConcurrentMap<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<String, ChainTaskQueueWrapper>();
 	private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
 
@@ -35,6 +36,84 @@ class DispatchQueueImpl implements DispatchQueue {
 	public void destroy() {
 	}
 
+    /**
+     * a queue of tasks sharing one sync signature.
+     *
+     * Submitters and workers coordinate through the CAS-ed counter of running workers
+     * only; no lock is taken while the queue is busy. When the last worker finds the queue
+     * empty, it retires the wrapper by swapping the counter from 0 to -1 and removes it from
+     * the map; a task that slipped into a retired wrapper is moved to a new wrapper, under the
+     * monitor of the retired one so tasks from the same submitter keep their order.
+     */
+    private abstract class TaskQueueWrapper<T> {
+        final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<T>();
+        final AtomicInteger counter = new AtomicInteger(0);
+        final int maxThreadNum;
+        final String syncSignature;
+
+        TaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            this.syncSignature = syncSignature;
+            this.maxThreadNum = maxThreadNum;
+        }
+
+        abstract void startThread();
+
+        abstract void removeFromMap();
+
+        abstract void resubmit(T task);
+
+        private boolean acquireThread() {
+            while (true) {
+                int n = counter.get();
+                if (n < 0 || n >= maxThreadNum) {
+                    return false;
+                }
+
+                if (counter.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void addTask(T task) {
+            queue.offer(task);
+            if (acquireThread()) {
+                startThread();
+            } else if (counter.get() < 0) {
+                retire();
+            }
+        }
+
+        // called by a thread finding the queue empty, returns true if the thread should go on with the queue
+        boolean releaseThread() {
+            int n = counter.decrementAndGet();
+            if (!queue.isEmpty()) {
+                return acquireThread();
+            }
+
+            if (n == 0 && counter.compareAndSet(0, -1)) {
+                retire();
+            }
+
+            return false;
+        }
+
+        private void retire() {
+            removeFromMap();
+
+            synchronized (this) {
+                T task;
+                while ((task = queue.poll()) != null) {
+                    resubmit(task);
+                }
+            }
+        }
+
+        int getRunningThreadNum() {
+            return Math.max(counter.get(), 0);
+        }
+    }
+
     private class SyncTaskFuture<T> extends AbstractFuture<T> {
         public SyncTaskFuture(SyncTask<T> task) {
             super(task);
@@ -79,28 +158,13 @@ class DispatchQueueImpl implements DispatchQueue {
         }
     }
 
-    private class SyncTaskQueueWrapper {
-        ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
-        AtomicInteger counter = new AtomicInteger(0);
-        int maxThreadNum = -1;
-        String syncSignature;
-
-        void addTask(SyncTaskFuture task) {
-            queue.offer(task);
-            if (maxThreadNum == -1) {
-                maxThreadNum = task.getSyncLevel();
-            }
-            if (syncSignature == null) {
-                syncSignature = task.getSyncSignature();
-            }
+    private class SyncTaskQueueWrapper extends TaskQueueWrapper<SyncTaskFuture> {
+        SyncTaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            super(syncSignature, maxThreadNum);
         }
 
-        void startThreadIfNeeded() {
-            if (counter.get() >= maxThreadNum) {
-                return;
-            }
-
-            counter.incrementAndGet();
+        @Override
+        void startThread() {
             _threadFacade.submit(new Task<Void>() {
                 @Override
                 public String getName() {
@@ -108,23 +172,12 @@ class DispatchQueueImpl implements DispatchQueue {
                 }
 
                 void run() {
-                    SyncTaskFuture stask;
-                    while (true) {
-                        while ((stask = (SyncTaskFuture) queue.poll()) != null) {
+                    do {
+                        SyncTaskFuture stask;
+                        while ((stask = queue.poll()) != null) {
                             stask.run();
                         }
-
-                        synchronized (syncTasks) {
-                            if (queue.isEmpty()) {
-                                if (counter.decrementAndGet() == 0) {
-                                    syncTasks.remove(syncSignature);
-                                }
-
-                                break;
-                            }
-                        }
-                    }
-
+                    } while (releaseThread());
                 }
 
                 @Override
@@ -134,23 +187,37 @@ class DispatchQueueImpl implements DispatchQueue {
                 }
             });
         }
-    }
 
-	private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
-		assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
+        @Override
+        void removeFromMap() {
+            syncTasks.remove(syncSignature, this);
+        }
+
+        @Override
+        void resubmit(SyncTaskFuture task) {
+            addSyncTask(task);
+        }
+    }
 
-        SyncTaskFuture f;
-        synchronized (syncTasks) {
-            SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
-            if (wrapper == null) {
-                wrapper = new SyncTaskQueueWrapper();
-                syncTasks.put(syncTask.getSyncSignature(), wrapper);
+    private void addSyncTask(SyncTaskFuture f) {
+        String signature = f.getSyncSignature();
+        SyncTaskQueueWrapper wrapper = syncTasks.get(signature);
+        if (wrapper == null) {
+            wrapper = new SyncTaskQueueWrapper(signature, f.getSyncLevel());
+            SyncTaskQueueWrapper old = syncTasks.putIfAbsent(signature, wrapper);
+            if (old != null) {
+                wrapper = old;
             }
-            f = new SyncTaskFuture(syncTask);
-            wrapper.addTask(f);
-            wrapper.startThreadIfNeeded();
         }
 
+        wrapper.addTask(f);
+    }
+
+	private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
+		assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
+
+        SyncTaskFuture f = new SyncTaskFuture(syncTask);
+        addSyncTask(f);
 		return f;
 	}
 
@@ -225,28 +292,13 @@ class DispatchQueueImpl implements DispatchQueue {
         }
     }
 
-    private class ChainTaskQueueWrapper {
-        LinkedList queue = new LinkedList();
-        AtomicInteger counter = new AtomicInteger(0);
-        int maxThreadNum = -1;
-        String syncSignature;
-
-        void addTask(ChainFuture task) {
-            queue.offer(task);
-            if (maxThreadNum == -1) {
-                maxThreadNum = task.getSyncLevel();
-            }
-            if (syncSignature == null) {
-                syncSignature = task.getSyncSignature();
-            }
+    private class ChainTaskQueueWrapper extends TaskQueueWrapper<ChainFuture> {
+        ChainTaskQueueWrapper(String syncSignature, int maxThreadNum) {
+            super(syncSignature, maxThreadNum);
         }
 
-        void startThreadIfNeeded() {
-            if (counter.get() >= maxThreadNum) {
-                return;
-            }
-
-            counter.incrementAndGet();
+        @Override
+        void startThread() {
             _threadFacade.submit(new Task<Void>() {
                 @Override
                 public String getName() {
@@ -256,16 +308,13 @@ class DispatchQueueImpl implements DispatchQueue {
                 // start a new thread every time to avoid stack overflow
                 @AsyncThread
                 private void runQueue() {
-                    ChainFuture cf;
-                    synchronized (chainTasks) {
-                        cf = (ChainFuture) queue.poll();
-                        if (cf == null) {
-                            if (counter.decrementAndGet() == 0) {
-                                chainTasks.remove(syncSignature);
-                            }
-
-                            return;
+                    ChainFuture cf = queue.poll();
+                    if (cf == null) {
+                        if (releaseThread()) {
+                            runQueue();
                         }
+
+                        return;
                     }
 
                     cf.run(new SyncTaskChain() {
@@ -283,26 +332,39 @@ class DispatchQueueImpl implements DispatchQueue {
                 }
             });
         }
+
+        @Override
+        void removeFromMap() {
+            chainTasks.remove(syncSignature, this);
+        }
+
+        @Override
+        void resubmit(ChainFuture task) {
+            addChainTask(task);
+        }
     }
 
+    private void addChainTask(ChainFuture cf) {
+        String signature = cf.getSyncSignature();
+        ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
+        if (wrapper == null) {
+            wrapper = new ChainTaskQueueWrapper(signature, cf.getSyncLevel());
+            ChainTaskQueueWrapper old = chainTasks.putIfAbsent(signature, wrapper);
+            if (old != null) {
+                wrapper = old;
+            }
+        }
+
+        wrapper.addTask(cf);
+    }
 
 	private <T> Future<T> doChainSyncSubmit(final ChainTask task) {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, String.format("getSyncLevel() must return more than 1"));
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
-            ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
-            if (wrapper == null) {
-                wrapper = new ChainTaskQueueWrapper();
-                chainTasks.put(signature, wrapper);
-            }
-
-            ChainFuture cf = new ChainFuture(task);
-            wrapper.addTask(cf);
-            wrapper.startThreadIfNeeded();
-            return cf;
-        }
+        ChainFuture cf = new ChainFuture(task);
+        addChainTask(cf);
+        return cf;
     }
 	
 
@@ -318,7 +380,7 @@ class DispatchQueueImpl implements DispatchQueue {
             SyncTaskStatistic statistic = new SyncTaskStatistic(
                     wrapper.syncSignature,
                     wrapper.maxThreadNum,
-                    wrapper.counter.intValue(),
+                    wrapper.getRunningThreadNum(),
                     wrapper.queue.size()
             );
             ret.put(statistic.getSyncSignature(), statistic);
@@ -336,7 +398,7 @@ class DispatchQueueImpl implements DispatchQueue {
             ChainTaskStatistic statistic = new ChainTaskStatistic(
                     wrapper.syncSignature,
                     wrapper.maxThreadNum,
-                    wrapper.counter.intValue(),
+                    wrapper.getRunningThreadNum(),
                     wrapper.queue.size()
             );
             ret.put(statistic.getSyncSignature(), statistic);
@@ -0,0 +1,159 @@
+package org.zstack.core.thread;
+
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a timer for lots of timeouts which are mostly cancelled before expiring, e.g. timeouts of HTTP calls.
+ *
+ * Timeouts are put in the slots of a wheel which one thread turns every tick, so adding and cancelling
+ * a timeout is cheap and no timer thread is needed for each timeout; a timeout expires at most one tick late.
+ * Cancelled timeouts are removed when the wheel turns to their slots. Expired tasks run in the thread pool
+ */
+public class HashedWheelTimer {
+    private static final CLogger logger = Utils.getLogger(HashedWheelTimer.class);
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final List<Set<WheelTimeout>> wheel;
+    private final int mask;
+    private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final Thread worker;
+    private volatile boolean stopped;
+    private long startTime;
+    private long tick;
+
+    private class WheelTimeout implements TimeoutTaskReceipt {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private AtomicInteger state = new AtomicInteger(INIT);
+
+        WheelTimeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            return state.compareAndSet(INIT, CANCELLED);
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        void expire() {
+            if (state.compareAndSet(INIT, EXPIRED)) {
+                run();
+            }
+        }
+
+        @AsyncThread
+        private void run() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
+            }
+        }
+    }
+
+    /**
+     * @param tickDuration how often the wheel turns, which is also the precision of timeouts
+     * @param ticksPerWheel slots of the wheel, rounded up to a power of 2
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        tickNanos = unit.toNanos(tickDuration);
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        mask = size - 1;
+
+        wheel = new ArrayList<Set<WheelTimeout>>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new HashSet<WheelTimeout>());
+        }
+
+        startTime = System.nanoTime();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                turn();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public TimeoutTaskReceipt newTimeout(Runnable task, TimeUnit unit, long delay) {
+        WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() + unit.toNanos(delay));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void transferNewTimeouts() {
+        WheelTimeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+
+            long ticks = Math.max((timeout.deadline - startTime) / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / wheel.size();
+            wheel.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    private void expireTimeouts(Set<WheelTimeout> slot) {
+        Iterator<WheelTimeout> it = slot.iterator();
+        while (it.hasNext()) {
+            WheelTimeout timeout = it.next();
+            if (timeout.isCancelled()) {
+                it.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds --;
+            } else {
+                it.remove();
+                timeout.expire();
+            }
+        }
+    }
+
+    private void turn() {
+        while (!stopped) {
+            long sleep = startTime + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            try {
+                transferNewTimeouts();
+                expireTimeouts(wheel.get((int) (tick & mask)));
+            } catch (Throwable t) {
+                logger.warn("unhandled exception in the hashed wheel timer", t);
+            }
+
+            tick ++;
+        }
+    }
+}
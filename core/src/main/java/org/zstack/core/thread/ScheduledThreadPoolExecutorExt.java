@@ -34,6 +34,15 @@ public class ScheduledThreadPoolExecutorExt extends ScheduledThreadPoolExecutor
     
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
+        runBeforeHooks(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        runAfterHooks(r, t);
+    }
+
+    void runBeforeHooks(Thread t, Runnable r) {
         ThreadAroundHook debugHook = null;
         List<ThreadAroundHook> tmpHooks;       
         synchronized (_hooks) {
@@ -50,8 +59,7 @@ public class ScheduledThreadPoolExecutorExt extends ScheduledThreadPoolExecutor
         }
     }
     
-    @Override
-    protected void afterExecute(Runnable r, Throwable t) {
+    void runAfterHooks(Runnable r, Throwable t) {
         ThreadAroundHook debugHook = null;
         List<ThreadAroundHook> tmpHooks;       
         synchronized (_hooks) {
@@ -9,6 +9,7 @@ import org.zstack.utils.logging.CLoggerImpl;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedExecutionHandler, ThreadFacadeMXBean {
 	private static final CLogger _logger = CLoggerImpl.getLogger(ThreadFacadeImpl.class);
@@ -19,6 +20,19 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 	private Map<CancelablePeriodicTask, ScheduledFuture<?>> cancelablePeriodicTasks = new ConcurrentHashMap<CancelablePeriodicTask, ScheduledFuture<?>>();
 	private static AtomicInteger seqNum = new AtomicInteger(0);
 	private ScheduledThreadPoolExecutorExt _pool;
+	/**
+	 * runs Task, SyncTask and ChainTask bodies when ThreadFacade.executor is not "pool";
+	 * periodic tasks are always scheduled by _pool
+	 */
+	private ExecutorService taskExecutor;
+	private String executorType = EXECUTOR_POOL;
+	private final AtomicLong submittedTaskNum = new AtomicLong();
+	private final AtomicLong completedTaskNum = new AtomicLong();
+	private final AtomicInteger activeTaskNum = new AtomicInteger();
+
+	public static final String EXECUTOR_POOL = "pool";
+	public static final String EXECUTOR_FORK_JOIN = "forkJoin";
+	public static final String EXECUTOR_VIRTUAL = "virtual";
 	private DispatchQueue dpq;
     private TimerPool timerPool = new TimerPool(5);
 
@@ -84,6 +98,10 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public ThreadPoolStatistic getThreadPoolStatistic() {
+        if (taskExecutor != null) {
+            return getTaskExecutorStatistic();
+        }
+
         long completedTask = _pool.getCompletedTaskCount();
         long pendingTask = _pool.getTaskCount() - completedTask;
         return new ThreadPoolStatistic(
@@ -97,6 +115,35 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         );
     }
 
+    private ThreadPoolStatistic getTaskExecutorStatistic() {
+        long completedTask = completedTaskNum.get();
+        long pendingTask = submittedTaskNum.get() - completedTask;
+        int activeTask = activeTaskNum.get();
+        if (taskExecutor instanceof ForkJoinPool) {
+            ForkJoinPool fjp = (ForkJoinPool) taskExecutor;
+            return new ThreadPoolStatistic(
+                    fjp.getPoolSize(),
+                    activeTask,
+                    completedTask,
+                    pendingTask,
+                    fjp.getParallelism(),
+                    totalThreadNum,
+                    fjp.getQueuedSubmissionCount() + fjp.getQueuedTaskCount()
+            );
+        }
+
+        // every task starts its own virtual thread, the ones not yet running are waiting for a carrier
+        return new ThreadPoolStatistic(
+                activeTask,
+                activeTask,
+                completedTask,
+                pendingTask,
+                0,
+                Integer.MAX_VALUE,
+                pendingTask - activeTask
+        );
+    }
+
     public static class Worker<T> implements Callable<T> {
 		private final Task<T> _task;
 
@@ -126,19 +173,95 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
             totalThreadNum = 10;
         }
 		_pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
-        _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
+        taskExecutor = createTaskExecutor();
+        _logger.debug(String.format("create ThreadFacade with max thread number:%s, executor:%s", totalThreadNum, executorType));
 		dpq = new DispatchQueueImpl();
 
         jmxf.registerBean("ThreadFacade", this);
 	}
 
+    private ExecutorService createTaskExecutor() {
+        String type = ThreadGlobalProperty.EXECUTOR == null ? EXECUTOR_POOL : ThreadGlobalProperty.EXECUTOR.trim();
+        if (EXECUTOR_POOL.equals(type)) {
+            executorType = EXECUTOR_POOL;
+            return null;
+        }
+
+        if (EXECUTOR_VIRTUAL.equals(type)) {
+            ExecutorService executor = createVirtualThreadExecutor();
+            if (executor != null) {
+                executorType = EXECUTOR_VIRTUAL;
+                return executor;
+            }
+
+            _logger.warn("ThreadFacade.executor is configured to virtual but the JVM doesn't support virtual threads, use forkJoin instead");
+        } else if (!EXECUTOR_FORK_JOIN.equals(type)) {
+            throw new CloudRuntimeException(String.format("unknown ThreadFacade.executor[%s], valid values are %s, %s, %s",
+                    type, EXECUTOR_POOL, EXECUTOR_FORK_JOIN, EXECUTOR_VIRTUAL));
+        }
+
+        executorType = EXECUTOR_FORK_JOIN;
+        // asyncMode keeps submitted tasks in FIFO order as the pool does; the parallelism is the
+        // same as the pool size because task bodies may block on messages or HTTP calls
+        return new ForkJoinPool(totalThreadNum, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("zs-thread-" + String.valueOf(seqNum.getAndIncrement()));
+                return t;
+            }
+        }, null, true);
+    }
+
+    private ExecutorService createVirtualThreadExecutor() {
+        // the source level is Java 8, look up the Java 21 API reflectively
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            _logger.warn("unable to create the virtual thread executor", e);
+            return null;
+        }
+    }
+
 	public void destroy() {
 		_pool.shutdownNow();
+		if (taskExecutor != null) {
+			taskExecutor.shutdownNow();
+		}
 	}
 
 	@Override
 	public <T> Future<T> submit(Task<T> task) {
-		return _pool.submit(new Worker<T>(task));
+		if (taskExecutor == null) {
+			return _pool.submit(new Worker<T>(task));
+		}
+
+		final FutureTask<T> future = new FutureTask<T>(new Worker<T>(task));
+		submittedTaskNum.incrementAndGet();
+		try {
+			taskExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					activeTaskNum.incrementAndGet();
+					_pool.runBeforeHooks(Thread.currentThread(), future);
+					try {
+						// FutureTask keeps the exception of the task to itself, same as the pool
+						future.run();
+					} finally {
+						_pool.runAfterHooks(future, null);
+						activeTaskNum.decrementAndGet();
+						completedTaskNum.incrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			submittedTaskNum.decrementAndGet();
+			_logger.warn(String.format("Task %s got rejected by the %s executor, the executor looks shut down", task.getName(), executorType));
+		}
+
+		return future;
 	}
 
 	@Override
@@ -276,6 +399,9 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 	@Override
 	public boolean stop() {
 		_pool.shutdown();
+		if (taskExecutor != null) {
+			taskExecutor.shutdown();
+		}
         timerPool.stop();
 		return true;
 	}
@@ -9,4 +9,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "100")
     public static int MAX_THREAD_NUM;
+    /**
+     * backend running Task, SyncTask and ChainTask bodies: pool, forkJoin or virtual.
+     * virtual falls back to forkJoin on a JVM without virtual threads
+     */
+    @GlobalProperty(name="ThreadFacade.executor", defaultValue = "pool")
+    public static String EXECUTOR;
 }
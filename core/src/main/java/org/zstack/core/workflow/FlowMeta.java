@@ -0,0 +1,134 @@
+package org.zstack.core.workflow;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.NotFoundException;
+import org.zstack.header.core.workflow.AfterDone;
+import org.zstack.header.core.workflow.AfterError;
+import org.zstack.header.core.workflow.AfterFinal;
+import org.zstack.header.core.workflow.Flow;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * reflection results of a Flow class, resolved the first time the class is run by a flow chain
+ */
+class FlowMeta {
+    private static final CLogger logger = Utils.getLogger(FlowMeta.class);
+    private static final Map<Class, FlowMeta> metas = new ConcurrentHashMap<Class, FlowMeta>();
+
+    private final Class clazz;
+    private final List<Field> afterDoneFields;
+    private final List<Field> afterErrorFields;
+    private final List<Field> afterFinalFields;
+    private final Field nameField;
+    private final String defaultName;
+    // file name and line number of run(), only resolved when the trace log is on
+    private volatile String location;
+
+    private FlowMeta(Class clazz) {
+        this.clazz = clazz;
+        afterDoneFields = accessible(FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, clazz));
+        afterErrorFields = accessible(FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, clazz));
+        afterFinalFields = accessible(FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, clazz));
+
+        nameField = FieldUtils.getField("__name__", clazz);
+        if (nameField != null) {
+            nameField.setAccessible(true);
+        }
+
+        String name = clazz.getSimpleName();
+        defaultName = name.equals("") ? clazz.getName() : name;
+    }
+
+    private static List<Field> accessible(List<Field> fields) {
+        for (Field f : fields) {
+            f.setAccessible(true);
+        }
+        return fields;
+    }
+
+    static FlowMeta get(Class clazz) {
+        FlowMeta meta = metas.get(clazz);
+        if (meta == null) {
+            meta = new FlowMeta(clazz);
+            metas.put(clazz, meta);
+        }
+        return meta;
+    }
+
+    private static Object getValue(Field f, Object obj) {
+        try {
+            return f.get(obj);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    private static void collect(List<Field> fields, Flow flow, List<Runnable> result) {
+        for (Field f : fields) {
+            List lst = (List) getValue(f, flow);
+            if (lst != null) {
+                result.addAll(lst);
+            }
+        }
+    }
+
+    void collectAfterRunnable(Flow flow, List<Runnable> afterDone, List<Runnable> afterError, List<Runnable> afterFinal) {
+        collect(afterDoneFields, flow, afterDone);
+        collect(afterErrorFields, flow, afterError);
+        collect(afterFinalFields, flow, afterFinal);
+    }
+
+    private String getLocation() {
+        if (location != null) {
+            return location;
+        }
+
+        String loc = "";
+        try {
+            ClassPool pool = ClassPool.getDefault();
+            CtClass cc = pool.get(clazz.getName());
+            CtMethod m = cc.getDeclaredMethod("run");
+            int line = m.getMethodInfo().getLineNumber(0);
+
+            String[] ff = clazz.getName().split("\\.");
+            String filename = ff[ff.length-1];
+            if (filename.contains("$")) {
+                int index = filename.indexOf("$");
+                filename = filename.substring(0, index);
+            }
+
+            loc = String.format("%s.java:%s", filename, line);
+        } catch (NotFoundException e) {
+            logger.warn(String.format("cannot find the flow[%s] line number, %s", defaultName, e.getMessage()));
+        }
+
+        location = loc;
+        return loc;
+    }
+
+    String getName(Flow flow, boolean withLocation) {
+        String name = nameField == null ? null : (String) getValue(nameField, flow);
+        if (name == null) {
+            name = defaultName;
+        }
+
+        if (withLocation) {
+            String loc = getLocation();
+            if (!loc.isEmpty()) {
+                name = String.format("%s:%s", loc, name);
+            }
+        }
+
+        return name;
+    }
+}
@@ -0,0 +1,218 @@
+package org.zstack.core.workflow;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.core.workflow.*;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a flow running a group of independent flows concurrently, added by FlowChain.thenParallel().
+ *
+ * The group waits for all members to finish. It succeeds if all members succeed, otherwise it fails with the error
+ * of the first failed member; like any failed flow, the group is then rolled back, which rolls back every member.
+ *
+ * Each member works on its own copy of the chain data, the copies are merged into the chain data in the order
+ * of members after all members succeed, so members must not depend on data put by each other.
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public class ParallelFlowGroup implements Flow {
+    private static final CLogger logger = Utils.getLogger(ParallelFlowGroup.class);
+
+    @Autowired
+    private ErrorFacade errf;
+
+    private final List<Flow> flows;
+    private final String __name__;
+    // copies of the chain data for members, null before the group runs
+    private List<Map> memberData;
+    private FlowTrigger trigger;
+    private FlowRollback rollbackTrigger;
+    private Map data;
+    private int pending;
+    private ErrorCode error;
+    private ErrorCode softError;
+    private boolean skipRestRollbacks;
+
+    public ParallelFlowGroup(List<Flow> flows) {
+        this.flows = new ArrayList<Flow>(flows);
+
+        List<String> names = new ArrayList<String>(flows.size());
+        for (Flow f : flows) {
+            names.add(FlowMeta.get(f.getClass()).getName(f, false));
+        }
+        __name__ = String.format("parallel%s", names);
+    }
+
+    public List<Flow> getFlows() {
+        return flows;
+    }
+
+    private String getMemberName(int index) {
+        Flow flow = flows.get(index);
+        return FlowMeta.get(flow.getClass()).getName(flow, false);
+    }
+
+    private class MemberTrigger implements FlowTrigger {
+        private final int index;
+        private boolean called;
+
+        MemberTrigger(int index) {
+            this.index = index;
+        }
+
+        private void done(ErrorCode errorCode) {
+            synchronized (ParallelFlowGroup.this) {
+                if (called) {
+                    logger.warn(String.format("[%s] member flow[%s] completes more than once", __name__, getMemberName(index)));
+                    return;
+                }
+                called = true;
+            }
+
+            memberDone(index, errorCode);
+        }
+
+        @Override
+        public void fail(ErrorCode errorCode) {
+            done(errorCode);
+        }
+
+        @Override
+        public void next() {
+            done(null);
+        }
+
+        @Override
+        public void setError(ErrorCode error) {
+            synchronized (ParallelFlowGroup.this) {
+                softError = error;
+            }
+        }
+    }
+
+    private class MemberRollback implements FlowRollback {
+        private boolean called;
+
+        @Override
+        public void rollback() {
+            synchronized (ParallelFlowGroup.this) {
+                if (called) {
+                    return;
+                }
+                called = true;
+            }
+
+            memberRolledBack();
+        }
+
+        @Override
+        public void skipRestRollbacks() {
+            synchronized (ParallelFlowGroup.this) {
+                skipRestRollbacks = true;
+            }
+        }
+    }
+
+    private void memberDone(int index, ErrorCode errorCode) {
+        if (errorCode == null) {
+            logger.debug(String.format("[%s] member flow[%s] succeeded", __name__, getMemberName(index)));
+        } else {
+            logger.debug(String.format("[%s] member flow[%s] failed, %s", __name__, getMemberName(index), errorCode));
+        }
+
+        synchronized (this) {
+            if (errorCode != null && error == null) {
+                error = errorCode;
+            }
+
+            if (--pending != 0) {
+                return;
+            }
+        }
+
+        if (error != null) {
+            trigger.fail(error);
+            return;
+        }
+
+        for (Map d : memberData) {
+            data.putAll(d);
+        }
+
+        if (softError != null) {
+            trigger.setError(softError);
+        }
+        trigger.next();
+    }
+
+    private void memberRolledBack() {
+        synchronized (this) {
+            if (--pending != 0) {
+                return;
+            }
+        }
+
+        if (skipRestRollbacks) {
+            rollbackTrigger.skipRestRollbacks();
+        }
+        rollbackTrigger.rollback();
+    }
+
+    @Override
+    public void run(FlowTrigger trigger, Map data) {
+        this.trigger = trigger;
+        this.data = data;
+        memberData = new ArrayList<Map>(flows.size());
+        for (int i = 0; i < flows.size(); i++) {
+            memberData.add(new HashMap(data));
+        }
+        pending = flows.size();
+
+        for (int i = 0; i < flows.size(); i++) {
+            MemberTrigger mtrigger = new MemberTrigger(i);
+            try {
+                flows.get(i).run(mtrigger, memberData.get(i));
+            } catch (OperationFailureException oe) {
+                logger.warn(oe.getErrorCode() != null ? oe.getErrorCode().toString() : "", oe);
+                mtrigger.fail(oe.getErrorCode());
+            } catch (FlowException fe) {
+                logger.warn(fe.getErrorCode() != null ? fe.getErrorCode().toString() : "", fe);
+                mtrigger.fail(fe.getErrorCode());
+            } catch (Throwable t) {
+                logger.warn(String.format("[%s] unhandled exception when executing member flow[%s]", __name__, getMemberName(i)), t);
+                mtrigger.fail(errf.throwableToInternalError(t));
+            }
+        }
+    }
+
+    @Override
+    public void rollback(FlowRollback trigger, Map data) {
+        if (memberData == null) {
+            trigger.rollback();
+            return;
+        }
+
+        rollbackTrigger = trigger;
+        pending = flows.size();
+        for (int i = 0; i < flows.size(); i++) {
+            MemberRollback mrollback = new MemberRollback();
+            try {
+                logger.debug(String.format("[%s] start to rollback member flow[%s]", __name__, getMemberName(i)));
+                flows.get(i).rollback(mrollback, memberData.get(i));
+            } catch (Throwable t) {
+                logger.warn(String.format("[%s] unhandled exception when rollback member flow[%s], continue to other rollbacks", __name__, getMemberName(i)), t);
+                mrollback.rollback();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.zstack.core.workflow;
 
 import org.zstack.header.core.workflow.*;
 
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -17,6 +18,10 @@ public abstract class ShareFlow implements Flow {
         chain.install(flow);
     }
 
+    protected void parallel(Flow...flows) {
+        chain.install(new ParallelFlowGroup(Arrays.asList(flows)));
+    }
+
     protected void done(FlowDoneHandler handler) {
         chain.done(handler);
     }
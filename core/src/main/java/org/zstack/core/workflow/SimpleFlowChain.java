@@ -1,9 +1,5 @@
 package org.zstack.core.workflow;
 
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtMethod;
-import javassist.NotFoundException;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,13 +12,11 @@ import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
-import org.zstack.utils.FieldUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.ForEachFunction;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
-import java.lang.reflect.Field;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -197,6 +191,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
         return this;
     }
 
+    public SimpleFlowChain thenParallel(Flow...flows) {
+        return then(new ParallelFlowGroup(Arrays.asList(flows)));
+    }
+
     public SimpleFlowChain error(FlowErrorHandler handler) {
         DebugUtils.Assert(errorHandler==null, "there has been an FlowErrorHandler installed");
         errorHandler = handler;
@@ -247,27 +245,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void collectAfterRunnable(Flow flow) {
-        List<Field> ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterDone.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterDone.addAll(lst);
-            }
-        }
-
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterError.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterError.addAll(lst);
-            }
-        }
-
-        ad = FieldUtils.getAnnotatedFieldsOnThisClass(AfterFinal.class, flow.getClass());
-        for (Field f : ad) {
-            List lst = FieldUtils.getFieldValue(f.getName(), flow);
-            if (lst != null) {
-                afterFinal.addAll(lst);
+        FlowMeta.get(flow.getClass()).collectAfterRunnable(flow, afterDone, afterError, afterFinal);
+        if (flow instanceof ParallelFlowGroup) {
+            for (Flow f : ((ParallelFlowGroup) flow).getFlows()) {
+                collectAfterRunnable(f);
             }
         }
     }
@@ -351,36 +332,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private String getFlowName(Flow flow) {
-        String name = FieldUtils.getFieldValue("__name__", flow);
-        if (name == null) {
-            name = flow.getClass().getSimpleName();
-            if (name.equals("")) {
-                name = flow.getClass().getName();
-            }
-        }
-
-        if (logger.isTraceEnabled()) {
-            try {
-                ClassPool pool = ClassPool.getDefault();
-                CtClass cc = pool.get(flow.getClass().getName());
-                CtMethod m = cc.getDeclaredMethod("run");
-                int line = m.getMethodInfo().getLineNumber(0);
-
-                String className = flow.getClass().getName();
-                String[] ff = className.split("\\.");
-                String filename = ff[ff.length-1];
-                if (filename.contains("$")) {
-                    int index = filename.indexOf("$");
-                    filename = filename.substring(0, index);
-                }
-
-                name = String.format("%s.java:%s:%s", filename, line, name);
-            } catch (NotFoundException e) {
-                logger.warn(String.format("cannot find the flow[%s] line number, %s", name, e.getMessage()));
-            }
-        }
-
-        return name;
+        return FlowMeta.get(flow.getClass()).getName(flow, logger.isTraceEnabled());
     }
 
     @Override
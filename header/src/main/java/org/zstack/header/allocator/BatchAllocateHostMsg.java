@@ -0,0 +1,32 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * allocates hosts for a group of vms in one allocator pass. Messages sharing the same allocation
+ * conditions run the allocator flows once, the vms are then placed in memory following the
+ * placement strategy and the capacity of all chosen hosts is reserved in one transaction
+ */
+public class BatchAllocateHostMsg extends NeedReplyMessage {
+    private List<AllocateHostMsg> allocateHostMsgs = new ArrayList<AllocateHostMsg>();
+    private String placementStrategy = HostAllocatorConstant.BATCH_PLACEMENT_SPREAD;
+
+    public List<AllocateHostMsg> getAllocateHostMsgs() {
+        return allocateHostMsgs;
+    }
+
+    public void setAllocateHostMsgs(List<AllocateHostMsg> allocateHostMsgs) {
+        this.allocateHostMsgs = allocateHostMsgs;
+    }
+
+    public String getPlacementStrategy() {
+        return placementStrategy;
+    }
+
+    public void setPlacementStrategy(String placementStrategy) {
+        this.placementStrategy = placementStrategy;
+    }
+}
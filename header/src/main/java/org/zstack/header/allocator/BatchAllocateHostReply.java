@@ -0,0 +1,24 @@
+package org.zstack.header.allocator;
+
+import org.zstack.header.message.MessageReply;
+
+import java.util.List;
+
+public class BatchAllocateHostReply extends MessageReply {
+    /**
+     * in the same order as BatchAllocateHostMsg.allocateHostMsgs, each one carries either
+     * the allocated host or the error
+     */
+    private List<AllocateHostReply> replies;
+
+    public BatchAllocateHostReply() {
+    }
+
+    public List<AllocateHostReply> getReplies() {
+        return replies;
+    }
+
+    public void setReplies(List<AllocateHostReply> replies) {
+        this.replies = replies;
+    }
+}
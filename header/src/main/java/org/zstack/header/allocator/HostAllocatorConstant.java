@@ -10,6 +10,9 @@ public interface HostAllocatorConstant {
 	public static final String MIGRATE_VM_ALLOCATOR_TYPE = "MigrateVmAllocatorStrategy";
     public static final String LEAST_VM_PREFERRED_HOST_ALLOCATOR_STRATEGY_TYPE = "LeastVmPreferredHostAllocatorStrategy";
 
+    public static final String BATCH_PLACEMENT_SPREAD = "Spread";
+    public static final String BATCH_PLACEMENT_BIN_PACKING = "BinPacking";
+
 	public static enum LocationSelector {
 	    zone,
 	    cluster,
@@ -16,6 +16,8 @@ public interface FlowChain {
 
     FlowChain then(Flow flow);
 
+    FlowChain thenParallel(Flow...flows);
+
     FlowChain done(FlowDoneHandler handler);
 
     FlowChain error(FlowErrorHandler handler);
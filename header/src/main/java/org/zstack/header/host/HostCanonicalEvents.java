@@ -8,6 +8,8 @@ import org.zstack.header.message.NeedJsonSchema;
 public class HostCanonicalEvents {
     public static final String HOST_STATUS_CHANGED_PATH = "/host/status/change";
     public static final String HOST_DELETED_PATH = "/host/delete";
+    public static final String HOST_STATE_CHANGED_PATH = "/host/state/change";
+    public static final String HOST_CAPACITY_CHANGED_PATH = "/host/capacity/change";
 
     @NeedJsonSchema
     public static class HostStatusChangedData {
@@ -70,4 +72,93 @@ public class HostCanonicalEvents {
             this.inventory = inventory;
         }
     }
+
+    @NeedJsonSchema
+    public static class HostStateChangedData {
+        private String hostUuid;
+        private String oldState;
+        private String newState;
+        private HostInventory inventory;
+
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        public void setHostUuid(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        public String getOldState() {
+            return oldState;
+        }
+
+        public void setOldState(String oldState) {
+            this.oldState = oldState;
+        }
+
+        public String getNewState() {
+            return newState;
+        }
+
+        public void setNewState(String newState) {
+            this.newState = newState;
+        }
+
+        public HostInventory getInventory() {
+            return inventory;
+        }
+
+        public void setInventory(HostInventory inventory) {
+            this.inventory = inventory;
+        }
+    }
+
+    @NeedJsonSchema
+    public static class HostCapacityChangedData {
+        private String hostUuid;
+        private long totalCpu;
+        private long availableCpu;
+        private long totalMemory;
+        private long availableMemory;
+
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        public void setHostUuid(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        public long getTotalCpu() {
+            return totalCpu;
+        }
+
+        public void setTotalCpu(long totalCpu) {
+            this.totalCpu = totalCpu;
+        }
+
+        public long getAvailableCpu() {
+            return availableCpu;
+        }
+
+        public void setAvailableCpu(long availableCpu) {
+            this.availableCpu = availableCpu;
+        }
+
+        public long getTotalMemory() {
+            return totalMemory;
+        }
+
+        public void setTotalMemory(long totalMemory) {
+            this.totalMemory = totalMemory;
+        }
+
+        public long getAvailableMemory() {
+            return availableMemory;
+        }
+
+        public void setAvailableMemory(long availableMemory) {
+            this.availableMemory = availableMemory;
+        }
+    }
 }
@@ -10,6 +10,7 @@ import java.util.Date;
 public class IdentityCanonicalEvents {
     public static final String ACCOUNT_DELETED_PATH = "/account/delete";
     public static final String USER_DELETED_PATH = "/user/delete";
+    public static final String AUTHORIZATION_CHANGED_PATH = "/identity/authorization/change";
 
     @NeedJsonSchema
     public static class AccountDeletedData {
@@ -72,4 +73,26 @@ public class IdentityCanonicalEvents {
             this.date = date;
         }
     }
+
+    @NeedJsonSchema
+    public static class AuthorizationChangedData {
+        private String accountUuid;
+        private Date date = new Date();
+
+        public String getAccountUuid() {
+            return accountUuid;
+        }
+
+        public void setAccountUuid(String accountUuid) {
+            this.accountUuid = accountUuid;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
 }
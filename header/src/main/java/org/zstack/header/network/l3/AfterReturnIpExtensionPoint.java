@@ -0,0 +1,8 @@
+package org.zstack.header.network.l3;
+
+/**
+ * called after a used IP is released by ReturnIpMsg or rolled back from a failed allocation
+ */
+public interface AfterReturnIpExtensionPoint {
+    void afterReturnIp(UsedIpInventory ip);
+}
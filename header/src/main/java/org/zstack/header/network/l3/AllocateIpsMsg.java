@@ -0,0 +1,43 @@
+package org.zstack.header.network.l3;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * allocates ipNum IPs from the l3 network in one call; either all of them are allocated or none
+ */
+public class AllocateIpsMsg extends NeedReplyMessage implements L3NetworkMessage, IpAllocateMessage {
+    private String allocateStrategy;
+    private String l3NetworkUuid;
+    private int ipNum;
+
+    @Override
+    public String getRequiredIp() {
+        return null;
+    }
+
+    @Override
+    public String getAllocatorStrategy() {
+        return allocateStrategy;
+    }
+
+    public void setAllocateStrategy(String allocateStrategy) {
+        this.allocateStrategy = allocateStrategy;
+    }
+
+    public void setL3NetworkUuid(String l3NetworkUuid) {
+        this.l3NetworkUuid = l3NetworkUuid;
+    }
+
+    @Override
+    public String getL3NetworkUuid() {
+        return l3NetworkUuid;
+    }
+
+    public int getIpNum() {
+        return ipNum;
+    }
+
+    public void setIpNum(int ipNum) {
+        this.ipNum = ipNum;
+    }
+}
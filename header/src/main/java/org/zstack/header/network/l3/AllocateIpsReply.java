@@ -0,0 +1,17 @@
+package org.zstack.header.network.l3;
+
+import org.zstack.header.message.MessageReply;
+
+import java.util.List;
+
+public class AllocateIpsReply extends MessageReply {
+    private List<UsedIpInventory> ipInventories;
+
+    public List<UsedIpInventory> getIpInventories() {
+        return ipInventories;
+    }
+
+    public void setIpInventories(List<UsedIpInventory> ipInventories) {
+        this.ipInventories = ipInventories;
+    }
+}
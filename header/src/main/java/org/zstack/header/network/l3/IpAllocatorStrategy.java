@@ -1,7 +1,14 @@
 package org.zstack.header.network.l3;
 
+import java.util.List;
+
 public interface IpAllocatorStrategy {
     IpAllocatorType getType();
     
     UsedIpInventory allocateIp(IpAllocateMessage msg);
+
+    /**
+     * @return the allocated IPs, fewer than num if the l3 network doesn't have enough available IPs
+     */
+    List<UsedIpInventory> allocateIps(IpAllocateMessage msg, int num);
 }
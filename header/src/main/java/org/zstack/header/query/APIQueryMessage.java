@@ -17,6 +17,9 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
     @APIParam(required = false, validValues = {"asc", "desc"})
     private String sortDirection = "asc";
     private List<String> fields;
+    private boolean paginateByCursor;
+    private String cursor;
+    private boolean approximateCount;
 
     public List<QueryCondition> getConditions() {
         if (conditions == null) {
@@ -108,4 +111,36 @@ public abstract class APIQueryMessage extends APISyncCallMessage {
     public void setCount(boolean count) {
         this.count = count;
     }
+
+    /**
+     * pages by the sort field and the primary key instead of 'start'; each reply carries the cursor of the next page
+     * in APIQueryReply.nextCursor, which is passed back in 'cursor'. Deep pages cost the same as the first one.
+     */
+    public boolean isPaginateByCursor() {
+        return paginateByCursor;
+    }
+
+    public void setPaginateByCursor(boolean paginateByCursor) {
+        this.paginateByCursor = paginateByCursor;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * the total of the reply can be a lower bound instead of the exact count, see APIQueryReply.totalApproximate
+     */
+    public boolean isApproximateCount() {
+        return approximateCount;
+    }
+
+    public void setApproximateCount(boolean approximateCount) {
+        this.approximateCount = approximateCount;
+    }
+
 }
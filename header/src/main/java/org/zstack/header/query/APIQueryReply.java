@@ -10,6 +10,8 @@ import org.zstack.header.message.APIReply;
  */
 public class APIQueryReply extends APIReply {
     private Long total;
+    private Boolean totalApproximate;
+    private String nextCursor;
 
     public Long getTotal() {
         return total;
@@ -18,4 +20,27 @@ public class APIQueryReply extends APIReply {
     public void setTotal(long total) {
         this.total = total;
     }
+
+    /**
+     * true if the total is a lower bound of the count, which happens only for APIQueryMessage.approximateCount
+     */
+    public Boolean getTotalApproximate() {
+        return totalApproximate;
+    }
+
+    public void setTotalApproximate(Boolean totalApproximate) {
+        this.totalApproximate = totalApproximate;
+    }
+
+    /**
+     * the cursor of the next page for APIQueryMessage.paginateByCursor, null if there is no more page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
 }
@@ -1,12 +1,24 @@
 package org.zstack.header.query;
 
+import org.zstack.utils.data.Pair;
+
 import java.util.List;
 import java.util.Map;
 
 public interface QueryBuilder {
     <T> List<T> query(APIQueryMessage msg, Class<T> inventoryClass);
 
+    /**
+     * @return the inventories of the page and the cursor of the next page, the cursor is null if it's the last page
+     */
+    <T> Pair<List<T>, String> queryByCursor(APIQueryMessage msg, Class<T> inventoryClass);
+
     long count(APIQueryMessage msg, Class inventoryClass);
 
+    /**
+     * counts rows matching the message but stops at max rows, which is cheaper than count() on large tables
+     */
+    long count(APIQueryMessage msg, Class inventoryClass, long max);
+
     Map<String, List<String>> populateQueryableFields();
 }
@@ -0,0 +1,50 @@
+package org.zstack.header.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the body of a batch request. The receiver handles each command as if it was posted to the path with
+ * the taskUuid in the header, and replies each command to the callback url of the batch request separately
+ */
+public class BatchJsonPostCmd {
+    public static class Command {
+        private String path;
+        private String taskUuid;
+        private String body;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public String getTaskUuid() {
+            return taskUuid;
+        }
+
+        public void setTaskUuid(String taskUuid) {
+            this.taskUuid = taskUuid;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public void setBody(String body) {
+            this.body = body;
+        }
+    }
+
+    private List<Command> commands = new ArrayList<Command>();
+
+    public List<Command> getCommands() {
+        return commands;
+    }
+
+    public void setCommands(List<Command> commands) {
+        this.commands = commands;
+    }
+}
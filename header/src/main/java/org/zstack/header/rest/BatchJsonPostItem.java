@@ -0,0 +1,58 @@
+package org.zstack.header.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a command sent by RESTFacade.asyncJsonPostBatch(), with its own callback and timeout as if it was
+ * sent by asyncJsonPost()
+ */
+public class BatchJsonPostItem {
+    private String url;
+    /**
+     * a String of json, or a command object serialized to json when the batch is posted
+     */
+    private Object body;
+    private AsyncRESTCallback callback;
+    private TimeUnit unit;
+    private long timeout;
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public Object getBody() {
+        return body;
+    }
+
+    public void setBody(Object body) {
+        this.body = body;
+    }
+
+    public AsyncRESTCallback getCallback() {
+        return callback;
+    }
+
+    public void setCallback(AsyncRESTCallback callback) {
+        this.callback = callback;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
+    public void setUnit(TimeUnit unit) {
+        this.unit = unit;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -9,6 +9,8 @@ public class HttpCallStatistic {
     private long totalTime;
     private long count;
     private long averageTime;
+    private long connections;
+    private long inFlight;
 
     public String getUrl() {
         return url;
@@ -42,6 +44,22 @@ public class HttpCallStatistic {
         this.averageTime = averageTime;
     }
 
+    public long getConnections() {
+        return connections;
+    }
+
+    public void setConnections(long connections) {
+        this.connections = connections;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(long inFlight) {
+        this.inFlight = inFlight;
+    }
+
     public void addStatistic(long time) {
         totalTime += time;
         count ++;
@@ -1,5 +1,6 @@
 package org.zstack.header.rest;
 
+import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.message.APIMessage;
 
 public interface RESTApiFacade {
@@ -8,4 +9,15 @@ public interface RESTApiFacade {
     RestAPIResponse call(APIMessage msg);
     
     RestAPIResponse getResult(String uuid);
+
+    /**
+     * @param timeout milliseconds to wait for the request to be done before returning its result
+     */
+    RestAPIResponse getResult(String uuid, long timeout);
+
+    /**
+     * same as getResult(uuid, timeout) but doesn't block the caller, the completion is called with the result
+     * once the request is done or the timeout expires, or with null if no result is found
+     */
+    void getResult(String uuid, long timeout, ReturnValueCompletion<RestAPIResponse> completion);
 }
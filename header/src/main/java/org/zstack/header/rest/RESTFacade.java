@@ -5,6 +5,7 @@ import org.springframework.web.client.RestTemplate;
 import org.zstack.header.core.Completion;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -17,6 +18,11 @@ public interface RESTFacade {
 
     void asyncJsonPost(String url, String body, AsyncRESTCallback callback);
 
+    /**
+     * posts the commands in one request to the url, see BatchJsonPostCmd
+     */
+    void asyncJsonPostBatch(String url, List<BatchJsonPostItem> items);
+
     <T> T syncJsonPost(String url, Object body, Class<T> returnClass);
     
     <T> T syncJsonPost(String url, String body, Class<T> returnClass);
@@ -33,6 +39,11 @@ public interface RESTFacade {
 
     Map<String, HttpCallStatistic> getStatistics();
 
+    /**
+     * connections and in-flight requests of each host, only available with the NIO HTTP client
+     */
+    Map<String, HttpCallStatistic> getHostStatistics();
+
     <T> void registerSyncHttpCallHandler(String path, Class<T> objectType,  SyncHttpCallHandler<T> handler);
 
     String getBaseUrl();
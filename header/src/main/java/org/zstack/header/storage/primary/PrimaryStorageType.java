@@ -16,6 +16,7 @@ public class PrimaryStorageType {
     private boolean supportVolumeMigration;
 	private boolean supportVolumeMigrationInCurrentPrimaryStorage;
 	private boolean supportVolumeMigrationToOtherPrimaryStorage;
+    private boolean supportImageCacheEviction;
     private int order;
 
     public int getOrder() {
@@ -142,4 +143,12 @@ public class PrimaryStorageType {
     public void setSupportVolumeMigrationToOtherPrimaryStorage(boolean supportVolumeMigrationToOtherPrimaryStorage) {
         this.supportVolumeMigrationToOtherPrimaryStorage = supportVolumeMigrationToOtherPrimaryStorage;
     }
+
+    public boolean isSupportImageCacheEviction() {
+        return supportImageCacheEviction;
+    }
+
+    public void setSupportImageCacheEviction(boolean supportImageCacheEviction) {
+        this.supportImageCacheEviction = supportImageCacheEviction;
+    }
 }
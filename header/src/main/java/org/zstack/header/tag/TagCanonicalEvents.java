@@ -0,0 +1,43 @@
+package org.zstack.header.tag;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ */
+public class TagCanonicalEvents {
+    public static final String SYSTEM_TAG_CHANGED_PATH = "/systemTag/change";
+
+    @NeedJsonSchema
+    public static class SystemTagChangedData {
+        private List<String> resourceTypes;
+        private List<String> resourceUuids;
+        private Date date = new Date();
+
+        public List<String> getResourceTypes() {
+            return resourceTypes;
+        }
+
+        public void setResourceTypes(List<String> resourceTypes) {
+            this.resourceTypes = resourceTypes;
+        }
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
+}
@@ -314,19 +314,24 @@ public class AccountBase extends AbstractAccount {
     }
 
     @Transactional
-    private void handle(APIDetachPoliciesFromUserMsg msg) {
+    private void detachPoliciesFromUser(APIDetachPoliciesFromUserMsg msg) {
         String sql = "delete from UserPolicyRefVO ref where ref.policyUuid in (:puuids) and ref.userUuid = :userUuid";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+    }
+
+    private void handle(APIDetachPoliciesFromUserMsg msg) {
+        detachPoliciesFromUser(msg);
+        acntMgr.authorizationChanged(vo.getUuid());
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     @Transactional
-    private void handle(APIAttachPoliciesToUserMsg msg) {
+    private void attachPoliciesToUser(APIAttachPoliciesToUserMsg msg) {
         String sql = "select p.uuid from PolicyVO p where p.uuid in (:uuids) and p.uuid not in (select ref.policyUuid from UserPolicyRefVO ref" +
                 " where ref.userUuid = :userUuid) group by p.uuid";
         TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
@@ -340,6 +345,11 @@ public class AccountBase extends AbstractAccount {
             ref.setPolicyUuid(puuid);
             dbf.getEntityManager().persist(ref);
         }
+    }
+
+    private void handle(APIAttachPoliciesToUserMsg msg) {
+        attachPoliciesToUser(msg);
+        acntMgr.authorizationChanged(vo.getUuid());
 
         APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
@@ -510,6 +520,7 @@ public class AccountBase extends AbstractAccount {
         }
         if (update) {
             user = dbf.updateAndRefresh(user);
+            acntMgr.authorizationChanged(vo.getUuid());
         }
 
         APIUpdateUserEvent evt = new APIUpdateUserEvent(msg.getId());
@@ -526,6 +537,7 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(ref);
         }
 
+        acntMgr.authorizationChanged(vo.getUuid());
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
     }
 
@@ -538,6 +550,7 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(ref);
         }
 
+        acntMgr.authorizationChanged(vo.getUuid());
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
     }
 
@@ -550,11 +563,13 @@ public class AccountBase extends AbstractAccount {
             dbf.remove(ref);
         }
 
+        acntMgr.authorizationChanged(vo.getUuid());
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
     }
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        acntMgr.authorizationChanged(vo.getUuid());
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -569,6 +584,7 @@ public class AccountBase extends AbstractAccount {
             evtf.fire(IdentityCanonicalEvents.USER_DELETED_PATH, d);
 
             dbf.remove(user);
+            acntMgr.authorizationChanged(vo.getUuid());
         }
 
         APIDeleteUserEvent evt = new APIDeleteUserEvent(msg.getId());
@@ -577,6 +593,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeleteUserGroupMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        acntMgr.authorizationChanged(vo.getUuid());
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -586,6 +603,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        acntMgr.authorizationChanged(vo.getUuid());
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -595,6 +613,7 @@ public class AccountBase extends AbstractAccount {
         grvo.setGroupUuid(msg.getGroupUuid());
         grvo.setPolicyUuid(msg.getPolicyUuid());
         dbf.persist(grvo);
+        acntMgr.authorizationChanged(vo.getUuid());
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -624,6 +643,7 @@ public class AccountBase extends AbstractAccount {
         upvo.setPolicyUuid(msg.getPolicyUuid());
         upvo.setUserUuid(msg.getUserUuid());
         dbf.persist(upvo);
+        acntMgr.authorizationChanged(vo.getUuid());
         
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
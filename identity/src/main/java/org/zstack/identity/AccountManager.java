@@ -23,4 +23,9 @@ public interface AccountManager {
     void checkApiMessagePermission(APIMessage msg);
 
     boolean isAdmin(SessionInventory session);
+
+    /**
+     * invalidates the cached authorization of all management nodes, called when policies, groups or users change
+     */
+    void authorizationChanged(String accountUuid);
 }
@@ -27,6 +27,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.AccountConstant.StatementEffect;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.AuthorizationChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.PolicyInventory.Statement;
 import org.zstack.header.identity.Quota.QuotaPair;
@@ -53,8 +54,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -84,6 +83,10 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     private HashSet<Class> accountApiControl = new HashSet<Class>();
     private HashSet<Class> accountApiControlInternal = new HashSet<Class>();
     private List<Quota> definedQuotas = new ArrayList<Quota>();
+    private AuthorizationCache authCache = new AuthorizationCache();
+    // difference between the database clock and the local clock, synced every identity.session.clockSyncInterval
+    private volatile long dbClockOffset;
+    private volatile long dbClockSyncTime = -1;
 
     class AccountCheckField {
         Field field;
@@ -605,10 +608,23 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     }
 
     private void setupCanonicalEvents() {
+        evtf.on(IdentityCanonicalEvents.AUTHORIZATION_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // already invalidated by authorizationChanged()
+                    return;
+                }
+
+                authCache.invalidate();
+            }
+        });
+
         evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
             @Override
             public void run(Map tokens, Object data) {
                 AccountDeletedData d = (AccountDeletedData) data;
+                authCache.invalidate();
 
                 SimpleQuery<SessionVO> q = dbf.createQuery(SessionVO.class);
                 q.select(SessionVO_.uuid);
@@ -630,6 +646,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             @Override
             public void run(Map tokens, Object data) {
                 UserDeletedData d = (UserDeletedData) data;
+                authCache.invalidate();
 
                 SimpleQuery<SessionVO> q = dbf.createQuery(SessionVO.class);
                 q.select(SessionVO_.uuid);
@@ -649,6 +666,13 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     }
 
     private void configureGlobalConfig() {
+        IdentityGlobalConfig.AUTHORIZATION_CACHE.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                authCache.invalidate();
+            }
+        });
+
         String v = IdentityGlobalConfig.ACCOUNT_API_CONTROL.value();
         String[] classNames = v.split(",");
         for (String cn : classNames) {
@@ -1016,6 +1040,85 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         return (Timestamp) query.getSingleResult();
     }
 
+    private Timestamp getCurrentDbClock() {
+        if (!IdentityGlobalConfig.AUTHORIZATION_CACHE.value(Boolean.class)) {
+            return getCurrentSqlDate();
+        }
+
+        long now = System.currentTimeMillis();
+        long interval = TimeUnit.SECONDS.toMillis(IdentityGlobalConfig.SESSION_CLOCK_SYNC_INTERVAL.value(Long.class));
+        if (dbClockSyncTime < 0 || now - dbClockSyncTime >= interval) {
+            Timestamp db = getCurrentSqlDate();
+            now = System.currentTimeMillis();
+            dbClockOffset = db.getTime() - now;
+            dbClockSyncTime = now;
+        }
+
+        return new Timestamp(now + dbClockOffset);
+    }
+
+    private AccountType getAccountType(String accountUuid) {
+        boolean useCache = IdentityGlobalConfig.AUTHORIZATION_CACHE.value(Boolean.class);
+        AccountType type = useCache ? authCache.getAccountType(accountUuid) : null;
+        if (type != null) {
+            return type;
+        }
+
+        SimpleQuery<AccountVO> q = dbf.createQuery(AccountVO.class);
+        q.select(AccountVO_.type);
+        q.add(AccountVO_.uuid, Op.EQ, accountUuid);
+        type = q.findValue();
+        if (useCache && type != null) {
+            authCache.putAccountType(accountUuid, type);
+        }
+        return type;
+    }
+
+    @Transactional(readOnly = true)
+    private AuthorizationCache.UserAuthorization loadUserAuthorization(String userUuid) {
+        String sql = "select u.name from UserVO u where u.uuid = :uuid";
+        TypedQuery<String> nq = dbf.getEntityManager().createQuery(sql, String.class);
+        nq.setParameter("uuid", userUuid);
+        List<String> names = nq.getResultList();
+        String username = names.isEmpty() ? null : names.get(0);
+
+        sql = "select p from PolicyVO p, UserPolicyRefVO ref where ref.userUuid = :uuid and ref.policyUuid = p.uuid";
+        TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
+        q.setParameter("uuid", userUuid);
+        List<PolicyInventory> userPolicies = PolicyInventory.valueOf(q.getResultList());
+
+        sql = "select p from PolicyVO p, UserGroupUserRefVO ref, UserGroupPolicyRefVO gref where" +
+                " p.uuid = gref.policyUuid and gref.groupUuid = ref.groupUuid and ref.userUuid = :uuid";
+        q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
+        q.setParameter("uuid", userUuid);
+        List<PolicyInventory> groupPolicies = PolicyInventory.valueOf(q.getResultList());
+
+        return new AuthorizationCache.UserAuthorization(username, userPolicies, groupPolicies);
+    }
+
+    private AuthorizationCache.UserAuthorization getUserAuthorization(String userUuid) {
+        if (!IdentityGlobalConfig.AUTHORIZATION_CACHE.value(Boolean.class)) {
+            return loadUserAuthorization(userUuid);
+        }
+
+        AuthorizationCache.UserAuthorization ua = authCache.getUser(userUuid);
+        if (ua == null) {
+            long generation = authCache.getGeneration();
+            ua = loadUserAuthorization(userUuid);
+            authCache.putUser(userUuid, ua, generation);
+        }
+        return ua;
+    }
+
+    @Override
+    public void authorizationChanged(String accountUuid) {
+        authCache.invalidate();
+
+        AuthorizationChangedData d = new AuthorizationChangedData();
+        d.setAccountUuid(accountUuid);
+        evtf.fire(IdentityCanonicalEvents.AUTHORIZATION_CHANGED_PATH, d);
+    }
+
     class Auth {
         APIMessage msg;
         SessionInventory session;
@@ -1124,8 +1227,8 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             }
         }
 
-        private void useDecision(Decision d, boolean userPolicy) {
-            String policyCategory = userPolicy ? "user policy" : "group policy";
+        private void useDecision(AuthorizationCache.Decision d) {
+            String policyCategory = d.userPolicy ? "user policy" : "group policy";
 
             if (d.effect == StatementEffect.Allow) {
                 logger.debug(String.format("API[name: %s, action: %s] is approved by a %s[name: %s, uuid: %s]," +
@@ -1143,10 +1246,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         }
 
         private void policyCheck() {
-            SimpleQuery<AccountVO> q = dbf.createQuery(AccountVO.class);
-            q.select(AccountVO_.type);
-            q.add(AccountVO_.uuid, Op.EQ, session.getAccountUuid());
-            AccountType type = q.findValue();
+            AccountType type = getAccountType(session.getAccountUuid());
 
             if (type == AccountType.SystemAdmin) {
                 return;
@@ -1203,22 +1303,12 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 return;
             }
 
-            SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
-            uq.select(UserVO_.name);
-            uq.add(UserVO_.uuid, Op.EQ, session.getUserUuid());
-            username = uq.findValue();
+            AuthorizationCache.UserAuthorization ua = getUserAuthorization(session.getUserUuid());
+            username = ua.username;
 
-            List<PolicyInventory> userPolicies = getUserPolicies();
-            Decision d = decide(userPolicies);
+            AuthorizationCache.Decision d = ua.decide(msg.getClass(), action.actions);
             if (d != null) {
-                useDecision(d, true);
-                return;
-            }
-
-            List<PolicyInventory> groupPolicies = getGroupPolicies();
-            d = decide(groupPolicies);
-            if (d != null) {
-                useDecision(d, false);
+                useDecision(d);
                 return;
             }
 
@@ -1228,63 +1318,6 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             ));
         }
 
-
-        @Transactional(readOnly = true)
-        private List<PolicyInventory> getGroupPolicies() {
-            String sql = "select p from PolicyVO p, UserGroupUserRefVO ref, UserGroupPolicyRefVO gref where" +
-                    " p.uuid = gref.policyUuid and gref.groupUuid = ref.groupUuid and ref.userUuid = :uuid";
-            TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
-            q.setParameter("uuid", session.getUserUuid());
-            return PolicyInventory.valueOf(q.getResultList());
-        }
-
-        class Decision {
-            PolicyInventory policy;
-            String action;
-            Statement statement;
-            String actionRule;
-            StatementEffect effect;
-        }
-
-        private Decision decide(List<PolicyInventory> userPolicies) {
-            for (String a : action.actions) {
-                for (PolicyInventory p : userPolicies) {
-                    for (Statement s : p.getStatements()) {
-                        for (String ac : s.getActions()) {
-                            Pattern pattern = Pattern.compile(ac);
-                            Matcher m = pattern.matcher(a);
-                            boolean ret = m.matches();
-                            if (ret) {
-                                Decision d = new Decision();
-                                d.policy = p;
-                                d.action = a;
-                                d.statement = s;
-                                d.actionRule = ac;
-                                d.effect = s.getEffect();
-                                return d;
-                            }
-
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
-                                        ", statement[name: %s, action: %s, effect: %s]", msg.getClass().getSimpleName(), a, p.getName(),
-                                        p.getUuid(), s.getName(), ac, s.getEffect()));
-                            }
-                        }
-                    }
-                }
-            }
-
-            return null;
-        }
-
-        @Transactional(readOnly = true)
-        private List<PolicyInventory> getUserPolicies() {
-            String sql = "select p from PolicyVO p, UserPolicyRefVO ref where ref.userUuid = :uuid and ref.policyUuid = p.uuid";
-            TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
-            q.setParameter("uuid", session.getUserUuid());
-            return PolicyInventory.valueOf(q.getResultList());
-        }
-
         private void sessionCheck() {
             if (msg.getSession() == null) {
                 throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.INVALID_SESSION,
@@ -1306,7 +1339,7 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 sessions.put(session.getUuid(), session);
             }
 
-            Timestamp curr = getCurrentSqlDate();
+            Timestamp curr = getCurrentDbClock();
             if (curr.after(session.getExpiredDate())) {
                 logger.debug(String.format("session expired[%s < %s] for account[uuid:%s]", curr, session.getExpiredDate(), session.getAccountUuid()));
                 logOutSession(session.getUuid());
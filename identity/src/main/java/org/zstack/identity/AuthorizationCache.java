@@ -0,0 +1,155 @@
+package org.zstack.identity;
+
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.AccountType;
+import org.zstack.header.identity.PolicyInventory;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * caches what the API authorization needs: account types, and for each user the name and
+ * the policies with their statement actions compiled, plus the decision already made for each API class.
+ *
+ * Any change of policies, groups or users invalidates the whole cache; such changes are rare comparing
+ * to API calls. A user loaded from the database while an invalidation happens is not put in the cache
+ */
+class AuthorizationCache {
+    private static final CLogger logger = Utils.getLogger(AuthorizationCache.class);
+
+    static class CompiledStatement {
+        PolicyInventory policy;
+        Statement statement;
+        List<String> actionRules = new ArrayList<String>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+
+        CompiledStatement(PolicyInventory policy, Statement statement) {
+            this.policy = policy;
+            this.statement = statement;
+            for (String ac : statement.getActions()) {
+                actionRules.add(ac);
+                patterns.add(Pattern.compile(ac));
+            }
+        }
+    }
+
+    static class Decision {
+        PolicyInventory policy;
+        String action;
+        Statement statement;
+        String actionRule;
+        StatementEffect effect;
+        boolean userPolicy;
+    }
+
+    private static final Decision NO_DECISION = new Decision();
+
+    static class UserAuthorization {
+        String username;
+        List<CompiledStatement> userStatements = new ArrayList<CompiledStatement>();
+        List<CompiledStatement> groupStatements = new ArrayList<CompiledStatement>();
+        private Map<Class, Decision> decisions = new ConcurrentHashMap<Class, Decision>();
+
+        UserAuthorization(String username, List<PolicyInventory> userPolicies, List<PolicyInventory> groupPolicies) {
+            this.username = username;
+            compile(userPolicies, userStatements);
+            compile(groupPolicies, groupStatements);
+        }
+
+        private static void compile(List<PolicyInventory> policies, List<CompiledStatement> to) {
+            for (PolicyInventory p : policies) {
+                for (Statement s : p.getStatements()) {
+                    to.add(new CompiledStatement(p, s));
+                }
+            }
+        }
+
+        private Decision decide(Class apiClass, List<String> actions, List<CompiledStatement> statements, boolean userPolicy) {
+            for (String a : actions) {
+                for (CompiledStatement cs : statements) {
+                    for (int i = 0; i < cs.patterns.size(); i++) {
+                        if (cs.patterns.get(i).matcher(a).matches()) {
+                            Decision d = new Decision();
+                            d.policy = cs.policy;
+                            d.action = a;
+                            d.statement = cs.statement;
+                            d.actionRule = cs.actionRules.get(i);
+                            d.effect = cs.statement.getEffect();
+                            d.userPolicy = userPolicy;
+                            return d;
+                        }
+
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
+                                    ", statement[name: %s, action: %s, effect: %s]", apiClass.getSimpleName(), a, cs.policy.getName(),
+                                    cs.policy.getUuid(), cs.statement.getName(), cs.actionRules.get(i), cs.statement.getEffect()));
+                        }
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * returns the decision of the user policies, or of the group policies if no user policy matches;
+         * null if none matches
+         */
+        Decision decide(Class apiClass, List<String> actions) {
+            Decision d = decisions.get(apiClass);
+            if (d == null) {
+                d = decide(apiClass, actions, userStatements, true);
+                if (d == null) {
+                    d = decide(apiClass, actions, groupStatements, false);
+                }
+                decisions.put(apiClass, d == null ? NO_DECISION : d);
+            }
+
+            return d == NO_DECISION ? null : d;
+        }
+    }
+
+    private Map<String, AccountType> accountTypes = new ConcurrentHashMap<String, AccountType>();
+    private Map<String, UserAuthorization> users = new ConcurrentHashMap<String, UserAuthorization>();
+    private AtomicLong generation = new AtomicLong();
+
+    AccountType getAccountType(String accountUuid) {
+        return accountTypes.get(accountUuid);
+    }
+
+    void putAccountType(String accountUuid, AccountType type) {
+        accountTypes.put(accountUuid, type);
+    }
+
+    UserAuthorization getUser(String userUuid) {
+        return users.get(userUuid);
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param generation the value of getGeneration() before the user was loaded from the database
+     */
+    void putUser(String userUuid, UserAuthorization user, long generation) {
+        users.put(userUuid, user);
+        if (generation != this.generation.get()) {
+            // invalidated while the user was being loaded, the user may be stale
+            users.remove(userUuid);
+        }
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+        users.clear();
+        accountTypes.clear();
+    }
+}
@@ -20,4 +20,8 @@ public class IdentityGlobalConfig {
     public static GlobalConfig SHOW_ALL_RESOURCE_TO_ADMIN = new GlobalConfig(CATEGORY, "admin.showAllResource");
     @GlobalConfigValidation(notEmpty = false)
     public static GlobalConfig ACCOUNT_API_CONTROL = new GlobalConfig(CATEGORY, "account.api.control");
+    @GlobalConfigValidation
+    public static GlobalConfig AUTHORIZATION_CACHE = new GlobalConfig(CATEGORY, "authorization.cache");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig SESSION_CLOCK_SYNC_INTERVAL = new GlobalConfig(CATEGORY, "session.clockSyncInterval");
 }
@@ -10,6 +10,7 @@ import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.network.NetworkUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -46,4 +47,17 @@ public abstract class AbstractIpAllocatorStrategy implements IpAllocatorStrategy
 
         return l3NwMgr.reserveIp(IpRangeInventory.valueOf(ipr), msg.getRequiredIp());
     }
+
+    @Override
+    public List<UsedIpInventory> allocateIps(IpAllocateMessage msg, int num) {
+        List<UsedIpInventory> ips = new ArrayList<UsedIpInventory>();
+        for (int i = 0; i < num; i++) {
+            UsedIpInventory ip = allocateIp(msg);
+            if (ip == null) {
+                break;
+            }
+            ips.add(ip);
+        }
+        return ips;
+    }
 }
@@ -0,0 +1,296 @@
+package org.zstack.network.l3;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.network.l3.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * keeps the used IPs of each IP range as a bitmap in memory, so allocating an IP doesn't need to
+ * scan UsedIpVO.
+ *
+ * The bitmap is only a hint, the IP is still persisted by L3NetworkManager.reserveIp() whose unique key
+ * decides whether the IP is taken. An IP allocated by others but free in the bitmap fails reserveIp() and
+ * is marked as used. An IP returned by ReturnIpMsg is cleared in the bitmap; an IP released in other ways
+ * stays used in the bitmap until it's rebuilt from UsedIpVO. A range found full is marked exhausted and
+ * isn't scanned again until an IP of it is returned, or until the bitmap is rebuilt by the periodic recheck
+ * of exhausted ranges. IPs are allocated round-robin in a range, so a released IP is not reused immediately.
+ */
+public class BitmapIpAllocatorStrategy extends AbstractIpAllocatorStrategy implements IpRangeDeletionExtensionPoint,
+        ManagementNodeChangeListener, AfterReturnIpExtensionPoint, Component {
+    private static final CLogger logger = Utils.getLogger(BitmapIpAllocatorStrategy.class);
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+
+    @Autowired
+    private ThreadFacade thdf;
+
+    private ConcurrentHashMap<String, IpRangeBitmap> bitmaps = new ConcurrentHashMap<String, IpRangeBitmap>();
+    private Future<Void> recheckTask;
+
+    private class IpRangeBitmap {
+        private final String rangeUuid;
+        private final long startIp;
+        private final int size;
+        private BitSet used;
+        private int cursor;
+        private boolean exhausted;
+
+        IpRangeBitmap(IpRangeVO vo) {
+            rangeUuid = vo.getUuid();
+            startIp = NetworkUtils.ipv4StringToLong(vo.getStartIp());
+            size = vo.size();
+        }
+
+        private void rebuild() {
+            used = new BitSet(size);
+            for (Long ip : l3NwMgr.getUsedIpInRange(rangeUuid)) {
+                long i = ip - startIp;
+                if (i >= 0 && i < size) {
+                    used.set((int) i);
+                }
+            }
+
+            logger.debug(String.format("rebuilt the bitmap of ip range[uuid:%s], %s of %s IPs are used",
+                    rangeUuid, used.cardinality(), size));
+        }
+
+        /**
+         * takes at most num IPs free in the bitmap, starting from where the last allocation stopped
+         */
+        synchronized List<String> take(int num) {
+            List<String> ips = new ArrayList<String>();
+            if (exhausted) {
+                return ips;
+            }
+
+            if (used == null) {
+                rebuild();
+            }
+
+            while (ips.size() < num) {
+                int i = used.nextClearBit(cursor);
+                if (i >= size) {
+                    i = used.nextClearBit(0);
+                }
+
+                if (i >= size) {
+                    exhausted = true;
+                    break;
+                }
+
+                used.set(i);
+                cursor = i + 1 == size ? 0 : i + 1;
+                ips.add(NetworkUtils.longToIpv4String(startIp + i));
+            }
+
+            return ips;
+        }
+
+        synchronized void markUsed(String ip) {
+            long i = NetworkUtils.ipv4StringToLong(ip) - startIp;
+            if (used != null && i >= 0 && i < size) {
+                used.set((int) i);
+            }
+        }
+
+        synchronized void release(String ip) {
+            long i = NetworkUtils.ipv4StringToLong(ip) - startIp;
+            if (used != null && i >= 0 && i < size) {
+                used.clear((int) i);
+            }
+            exhausted = false;
+        }
+
+        /**
+         * lets an exhausted range be rebuilt on the next allocation, IPs may have been released
+         * without ReturnIpMsg since it was found full
+         */
+        synchronized void recheck() {
+            if (exhausted) {
+                used = null;
+                exhausted = false;
+            }
+        }
+    }
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    private IpRangeBitmap getBitmap(IpRangeVO vo) {
+        IpRangeBitmap bitmap = bitmaps.get(vo.getUuid());
+        if (bitmap == null) {
+            bitmap = new IpRangeBitmap(vo);
+            IpRangeBitmap old = bitmaps.putIfAbsent(vo.getUuid(), bitmap);
+            if (old != null) {
+                bitmap = old;
+            }
+        }
+        return bitmap;
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        if (msg.getRequiredIp() != null) {
+            UsedIpInventory ip = allocateRequiredIp(msg);
+            if (ip != null) {
+                IpRangeBitmap bitmap = bitmaps.get(ip.getIpRangeUuid());
+                if (bitmap != null) {
+                    bitmap.markUsed(ip.getIp());
+                }
+            }
+            return ip;
+        }
+
+        List<UsedIpInventory> ips = allocateIps(msg, 1);
+        return ips.isEmpty() ? null : ips.get(0);
+    }
+
+    @Override
+    public List<UsedIpInventory> allocateIps(IpAllocateMessage msg, int num) {
+        SimpleQuery<IpRangeVO> query = dbf.createQuery(IpRangeVO.class);
+        query.add(IpRangeVO_.l3NetworkUuid, Op.EQ, msg.getL3NetworkUuid());
+        List<IpRangeVO> ranges = query.list();
+
+        List<UsedIpInventory> ret = new ArrayList<UsedIpInventory>();
+        for (IpRangeVO r : ranges) {
+            IpRangeBitmap bitmap = getBitmap(r);
+            IpRangeInventory ipr = IpRangeInventory.valueOf(r);
+
+            while (ret.size() < num) {
+                List<String> ips = bitmap.take(num - ret.size());
+                if (ips.isEmpty()) {
+                    logger.debug(String.format("ip range[uuid:%s, name: %s] is exhausted, try next one", r.getUuid(), r.getName()));
+                    break;
+                }
+
+                for (String ip : ips) {
+                    // null means the IP has been taken by others, it's already used in the bitmap
+                    UsedIpInventory inv = l3NwMgr.reserveIp(ipr, ip);
+                    if (inv != null) {
+                        ret.add(inv);
+                    }
+                }
+            }
+
+            if (ret.size() == num) {
+                break;
+            }
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void afterReturnIp(UsedIpInventory ip) {
+        IpRangeBitmap bitmap = bitmaps.get(ip.getIpRangeUuid());
+        if (bitmap != null) {
+            bitmap.release(ip.getIp());
+        }
+    }
+
+    private void startRecheckTask() {
+        if (recheckTask != null) {
+            recheckTask.cancel(true);
+        }
+
+        recheckTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return L3NetworkGlobalConfig.EXHAUSTED_IP_RANGE_RECHECK_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "recheck-exhausted-ip-range-bitmaps";
+            }
+
+            @Override
+            public void run() {
+                for (IpRangeBitmap bitmap : bitmaps.values()) {
+                    bitmap.recheck();
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        startRecheckTask();
+        L3NetworkGlobalConfig.EXHAUSTED_IP_RANGE_RECHECK_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startRecheckTask();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (recheckTask != null) {
+            recheckTask.cancel(true);
+        }
+        return true;
+    }
+
+    @Override
+    public void preDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void beforeDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void afterDeleteIpRange(IpRangeInventory ipRange) {
+        bitmaps.remove(ipRange.getUuid());
+    }
+
+    @Override
+    public void failedToDeleteIpRange(IpRangeInventory ipRange, ErrorCode errorCode) {
+    }
+
+    // l3 networks may move to/from other management nodes, which allocate IPs without
+    // updating our bitmaps; let the bitmaps be rebuilt on next allocation
+    @Override
+    public void nodeJoin(String nodeId) {
+        bitmaps.clear();
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        bitmaps.clear();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+    }
+}
@@ -136,6 +136,8 @@ public class L3BasicNetwork implements L3Network {
     private void handleLocalMessage(Message msg) {
         if (msg instanceof AllocateIpMsg) {
             handle((AllocateIpMsg)msg);
+        } else if (msg instanceof AllocateIpsMsg) {
+            handle((AllocateIpsMsg) msg);
         } else if (msg instanceof ReturnIpMsg) {
             handle((ReturnIpMsg)msg);
         } else if (msg instanceof L3NetworkDeletionMsg) {
@@ -201,15 +203,55 @@ public class L3BasicNetwork implements L3Network {
         bus.reply(msg, reply);
     }
 
+    private void afterReturnIp(UsedIpInventory ip) {
+        for (AfterReturnIpExtensionPoint ext : pluginRgty.getExtensionList(AfterReturnIpExtensionPoint.class)) {
+            try {
+                ext.afterReturnIp(ip);
+            } catch (Exception e) {
+                logger.warn(String.format("unhandled exception when calling %s", ext.getClass().getName()), e);
+            }
+        }
+    }
+
     private void handle(ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
-        dbf.removeByPrimaryKey(msg.getUsedIpUuid(), UsedIpVO.class);
+        UsedIpVO vo = dbf.findByUuid(msg.getUsedIpUuid(), UsedIpVO.class);
+        if (vo != null) {
+            dbf.remove(vo);
+            afterReturnIp(UsedIpInventory.valueOf(vo));
+        }
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
         bus.reply(msg, reply);
     }
 
+    private IpAllocatorType getIpAllocatorType(IpAllocateMessage msg) {
+        String strategy = msg.getAllocatorStrategy() == null ? L3NetworkGlobalConfig.DEFAULT_IP_ALLOCATOR_STRATEGY.value() : msg.getAllocatorStrategy();
+        return IpAllocatorType.valueOf(strategy);
+    }
+
+    private void handle(AllocateIpsMsg msg) {
+        IpAllocatorType strategyType = getIpAllocatorType(msg);
+        IpAllocatorStrategy ias = l3NwMgr.getIpAllocatorStrategy(strategyType);
+        AllocateIpsReply reply = new AllocateIpsReply();
+        List<UsedIpInventory> ips = ias.allocateIps(msg, msg.getIpNum());
+        if (ips.size() < msg.getIpNum()) {
+            for (UsedIpInventory ip : ips) {
+                dbf.removeByPrimaryKey(ip.getUuid(), UsedIpVO.class);
+                afterReturnIp(ip);
+            }
+
+            reply.setError(errf.instantiateErrorCode(L3Errors.ALLOCATE_IP_ERROR, String.format("IP allocator strategy[%s] can only allocate %s of %s IPs, because not enough ip is available in this l3Network[name:%s, uuid:%s]",
+                    strategyType, ips.size(), msg.getIpNum(), self.getName(), self.getUuid())));
+        } else {
+            logger.debug(String.format("Ip allocator strategy[%s] successfully allocates %s ips in l3Network[uuid:%s]", strategyType, ips.size(), self.getUuid()));
+            reply.setIpInventories(ips);
+        }
+
+        bus.reply(msg, reply);
+    }
+
     private void handle(AllocateIpMsg msg) {
-        IpAllocatorType strategyType = msg.getAllocatorStrategy() == null ? RandomIpAllocatorStrategy.type : IpAllocatorType.valueOf(msg.getAllocatorStrategy());
+        IpAllocatorType strategyType = getIpAllocatorType(msg);
         IpAllocatorStrategy ias = l3NwMgr.getIpAllocatorStrategy(strategyType);
         AllocateIpReply reply = new AllocateIpReply();
         UsedIpInventory ip = ias.allocateIp(msg);
@@ -0,0 +1,18 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.core.config.GlobalConfigValidation;
+
+/**
+ */
+@GlobalConfigDefinition
+public class L3NetworkGlobalConfig {
+    public static final String CATEGORY = "l3Network";
+
+    // must name a registered IpAllocatorStrategy, validated by L3NetworkManagerImpl
+    @GlobalConfigValidation
+    public static GlobalConfig DEFAULT_IP_ALLOCATOR_STRATEGY = new GlobalConfig(CATEGORY, "defaultIpAllocatorStrategy");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig EXHAUSTED_IP_RANGE_RECHECK_INTERVAL = new GlobalConfig(CATEGORY, "bitmapIpAllocator.exhaustedRangeRecheckInterval");
+}
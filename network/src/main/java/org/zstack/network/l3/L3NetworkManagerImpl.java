@@ -8,6 +8,8 @@ import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.config.GlobalConfigException;
+import org.zstack.core.config.GlobalConfigValidatorExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.DbEntityLister;
 import org.zstack.core.db.SimpleQuery;
@@ -292,9 +294,22 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
     @Override
     public boolean start() {
         populateExtensions();
+        installGlobalConfigValidator();
         return true;
     }
 
+    private void installGlobalConfigValidator() {
+        L3NetworkGlobalConfig.DEFAULT_IP_ALLOCATOR_STRATEGY.installValidateExtension(new GlobalConfigValidatorExtensionPoint() {
+            @Override
+            public void validateGlobalConfig(String category, String name, String oldValue, String newValue) throws GlobalConfigException {
+                if (!ipAllocatorStrategies.containsKey(newValue)) {
+                    throw new GlobalConfigException(String.format("%s must be one of the IP allocator strategies %s, but got %s",
+                            L3NetworkGlobalConfig.DEFAULT_IP_ALLOCATOR_STRATEGY.getCanonicalName(), ipAllocatorStrategies.keySet(), newValue));
+                }
+            }
+        });
+    }
+
     private void populateExtensions() {
         for (L3NetworkFactory f : pluginRgty.getExtensionList(L3NetworkFactory.class)) {
             L3NetworkFactory old = l3NetworkFactories.get(f.getType().toString());
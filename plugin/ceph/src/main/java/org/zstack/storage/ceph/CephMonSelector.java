@@ -0,0 +1,176 @@
+package org.zstack.storage.ceph;
+
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.storage.ceph.CephMonBase.PingResult;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * orders mons of a ceph primary/backup storage for http calls.
+ *
+ * For each mon, an EWMA of the call latency and of the error rate are kept; mons are tried from the lowest
+ * latency weighted by the error rate. A mon failing ceph.mon.circuitBreaker.failureThreshold calls in a row
+ * has its circuit opened and is skipped; after ceph.mon.circuitBreaker.openTime seconds the circuit is
+ * half-open and the mon is pinged in the background, a successful ping closes the circuit. Only IO errors
+ * count as failures, an error returned by the agent means the mon is working.
+ *
+ * Selectors are kept per storage on this management node, as storage bases are created per message
+ */
+public class CephMonSelector {
+    private static final CLogger logger = Utils.getLogger(CephMonSelector.class);
+
+    private static final double ALPHA = 0.3;
+    private static final double ERROR_RATE_WEIGHT = 4;
+
+    private static final Map<String, CephMonSelector> selectors = new ConcurrentHashMap<String, CephMonSelector>();
+
+    public static CephMonSelector get(String storageUuid) {
+        CephMonSelector s = selectors.get(storageUuid);
+        if (s == null) {
+            s = new CephMonSelector();
+            CephMonSelector old = selectors.putIfAbsent(storageUuid, s);
+            if (old != null) {
+                s = old;
+            }
+        }
+        return s;
+    }
+
+    public static void remove(String storageUuid) {
+        selectors.remove(storageUuid);
+    }
+
+    private enum CircuitState {
+        Closed,
+        Open,
+        HalfOpen
+    }
+
+    private static class MonStat {
+        double latency;
+        double errorRate;
+        int consecutiveFailures;
+        CircuitState state = CircuitState.Closed;
+        long openedAt;
+
+        double score() {
+            return latency * (1 + ERROR_RATE_WEIGHT * errorRate);
+        }
+    }
+
+    private final Map<String, MonStat> stats = new HashMap<String, MonStat>();
+
+    private MonStat getStat(String monUuid) {
+        MonStat s = stats.get(monUuid);
+        if (s == null) {
+            s = new MonStat();
+            stats.put(monUuid, s);
+        }
+        return s;
+    }
+
+    /**
+     * @return mons in the order to try; mons with open circuits are left out unless all mons are open
+     */
+    public <T extends CephMonBase> List<T> select(List<T> mons) {
+        List<T> candidates = new ArrayList<T>(mons);
+        // mons of the same score are tried in random order
+        Collections.shuffle(candidates);
+
+        final Map<T, Double> scores = new HashMap<T, Double>();
+        List<T> closed = new ArrayList<T>();
+        List<T> open = new ArrayList<T>();
+        List<T> toProbe = new ArrayList<T>();
+        long openTime = TimeUnit.SECONDS.toMillis(CephGlobalConfig.MON_CIRCUIT_BREAKER_OPEN_TIME.value(Long.class));
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (T mon : candidates) {
+                MonStat s = getStat(mon.getSelf().getUuid());
+                scores.put(mon, s.score());
+                if (s.state == CircuitState.Closed) {
+                    closed.add(mon);
+                    continue;
+                }
+
+                open.add(mon);
+                if (s.state == CircuitState.Open && now - s.openedAt >= openTime) {
+                    s.state = CircuitState.HalfOpen;
+                    toProbe.add(mon);
+                }
+            }
+        }
+
+        for (T mon : toProbe) {
+            probe(mon);
+        }
+
+        List<T> ret = closed.isEmpty() ? open : closed;
+        Collections.sort(ret, new Comparator<T>() {
+            @Override
+            public int compare(T o1, T o2) {
+                return Double.compare(scores.get(o1), scores.get(o2));
+            }
+        });
+        return ret;
+    }
+
+    private void probe(final CephMonBase mon) {
+        final String monUuid = mon.getSelf().getUuid();
+        logger.debug(String.format("the circuit of ceph mon[uuid:%s] is half-open, probe it", monUuid));
+        mon.ping(new ReturnValueCompletion<PingResult>() {
+            @Override
+            public void success(PingResult res) {
+                if (res.success) {
+                    synchronized (CephMonSelector.this) {
+                        MonStat s = getStat(monUuid);
+                        s.state = CircuitState.Closed;
+                        s.consecutiveFailures = 0;
+                    }
+                    logger.debug(String.format("ceph mon[uuid:%s] is back, close its circuit", monUuid));
+                } else {
+                    reopen(monUuid);
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reopen(monUuid);
+            }
+        });
+    }
+
+    private synchronized void reopen(String monUuid) {
+        MonStat s = getStat(monUuid);
+        if (s.state == CircuitState.HalfOpen) {
+            s.state = CircuitState.Open;
+            s.openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * records a call to the mon, the latency is in milliseconds
+     */
+    public synchronized void record(String monUuid, long latency, boolean success) {
+        MonStat s = getStat(monUuid);
+        s.latency = s.latency == 0 ? latency : ALPHA * latency + (1 - ALPHA) * s.latency;
+        s.errorRate = ALPHA * (success ? 0 : 1) + (1 - ALPHA) * s.errorRate;
+
+        if (success) {
+            s.consecutiveFailures = 0;
+            s.state = CircuitState.Closed;
+            return;
+        }
+
+        s.consecutiveFailures++;
+        if (s.state == CircuitState.Closed && s.consecutiveFailures >= CephGlobalConfig.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD.value(Integer.class)) {
+            s.state = CircuitState.Open;
+            s.openedAt = System.currentTimeMillis();
+            logger.warn(String.format("ceph mon[uuid:%s] failed %s calls in a row, open its circuit", monUuid, s.consecutiveFailures));
+        }
+    }
+}
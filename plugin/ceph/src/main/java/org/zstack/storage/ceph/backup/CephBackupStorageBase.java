@@ -263,10 +263,11 @@ public class CephBackupStorageBase extends BackupStorageBase {
             ));
         }
 
-        Collections.shuffle(mons);
+        final CephMonSelector selector = CephMonSelector.get(self.getUuid());
+        final List<CephBackupStorageMonBase> ordered = selector.select(mons);
 
         class HttpCaller {
-            Iterator<CephBackupStorageMonBase> it = mons.iterator();
+            Iterator<CephBackupStorageMonBase> it = ordered.iterator();
             List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
 
             void call() {
@@ -278,10 +279,13 @@ public class CephBackupStorageBase extends BackupStorageBase {
                     return;
                 }
 
-                CephBackupStorageMonBase base = it.next();
+                final CephBackupStorageMonBase base = it.next();
+                final long startTime = System.currentTimeMillis();
                 base.httpCall(path, cmd, retClass, new ReturnValueCompletion<T>() {
                     @Override
                     public void success(T ret) {
+                        selector.record(base.getSelf().getUuid(), System.currentTimeMillis() - startTime, true);
+
                         if (!ret.success) {
                             // not an IO error but an operation error, return it
                             callback.fail(errf.stringToOperationError(ret.error));
@@ -296,6 +300,7 @@ public class CephBackupStorageBase extends BackupStorageBase {
 
                     @Override
                     public void fail(ErrorCode errorCode) {
+                        selector.record(base.getSelf().getUuid(), System.currentTimeMillis() - startTime, false);
                         errorCodes.add(errorCode);
                         call();
                     }
@@ -1031,5 +1036,6 @@ public class CephBackupStorageBase extends BackupStorageBase {
     @Override
     public void deleteHook() {
         dbf.removeCollection(getSelf().getMons(), CephBackupStorageMonVO.class);
+        CephMonSelector.remove(self.getUuid());
     }
 }
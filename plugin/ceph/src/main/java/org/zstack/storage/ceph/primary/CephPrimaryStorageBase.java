@@ -78,6 +78,8 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
     private ThreadFacade thdf;
     @Autowired
     private ApiTimeoutManager timeoutMgr;
+    @Autowired
+    private CephPrimaryStorageDeleteBatcher deleteBatcher;
 
     class ReconnectMonLock {
         AtomicBoolean hold = new AtomicBoolean(false);
@@ -241,6 +243,31 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
 
     }
 
+    public static class BatchDeleteCmd extends AgentCommand {
+        List<String> installPaths;
+
+        public List<String> getInstallPaths() {
+            return installPaths;
+        }
+
+        public void setInstallPaths(List<String> installPaths) {
+            this.installPaths = installPaths;
+        }
+    }
+
+    public static class BatchDeleteRsp extends AgentResponse {
+        // install path -> error, of the paths failed to delete
+        Map<String, String> errors;
+
+        public Map<String, String> getErrors() {
+            return errors;
+        }
+
+        public void setErrors(Map<String, String> errors) {
+            this.errors = errors;
+        }
+    }
+
     @ApiTimeout(apiClasses = {APICreateVmInstanceMsg.class})
     public static class CloneCmd extends AgentCommand {
         String srcPath;
@@ -610,6 +637,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
     public static final String INIT_PATH = "/ceph/primarystorage/init";
     public static final String CREATE_VOLUME_PATH = "/ceph/primarystorage/volume/createempty";
     public static final String DELETE_PATH = "/ceph/primarystorage/delete";
+    public static final String BATCH_DELETE_PATH = "/ceph/primarystorage/batchdelete";
     public static final String CLONE_PATH = "/ceph/primarystorage/volume/clone";
     public static final String FLATTEN_PATH = "/ceph/primarystorage/volume/flatten";
     public static final String SFTP_DOWNLOAD_PATH = "/ceph/primarystorage/sftpbackupstorage/download";
@@ -1402,14 +1430,37 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         }).start();
     }
 
-    @Override
-    protected void handle(final DeleteVolumeOnPrimaryStorageMsg msg) {
+    private void deleteBits(String installPath, final Completion completion) {
+        if (deleteBatcher.isEnabled()) {
+            deleteBatcher.delete(self.getUuid(), installPath, new CephPrimaryStorageDeleteBatcher.Sender() {
+                @Override
+                public void send(BatchDeleteCmd cmd, ReturnValueCompletion<BatchDeleteRsp> completion) {
+                    httpCall(BATCH_DELETE_PATH, cmd, BatchDeleteRsp.class, completion);
+                }
+            }, completion);
+            return;
+        }
+
         DeleteCmd cmd = new DeleteCmd();
-        cmd.installPath = msg.getVolume().getInstallPath();
+        cmd.installPath = installPath;
+        httpCall(DELETE_PATH, cmd, DeleteRsp.class, new ReturnValueCompletion<DeleteRsp>(completion) {
+            @Override
+            public void fail(ErrorCode err) {
+                completion.fail(err);
+            }
 
+            @Override
+            public void success(DeleteRsp ret) {
+                completion.success();
+            }
+        });
+    }
+
+    @Override
+    protected void handle(final DeleteVolumeOnPrimaryStorageMsg msg) {
         final DeleteVolumeOnPrimaryStorageReply reply = new DeleteVolumeOnPrimaryStorageReply();
 
-        httpCall(DELETE_PATH, cmd, DeleteRsp.class, new ReturnValueCompletion<DeleteRsp>(msg) {
+        deleteBits(msg.getVolume().getInstallPath(), new Completion(msg) {
             @Override
             public void fail(ErrorCode err) {
                 reply.setError(err);
@@ -1417,7 +1468,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             }
 
             @Override
-            public void success(DeleteRsp ret) {
+            public void success() {
                 bus.reply(msg, reply);
             }
         });
@@ -1478,12 +1529,9 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
 
     @Override
     protected void handle(final DeleteBitsOnPrimaryStorageMsg msg) {
-        DeleteCmd cmd = new DeleteCmd();
-        cmd.installPath = msg.getInstallPath();
-
         final DeleteBitsOnPrimaryStorageReply reply = new DeleteBitsOnPrimaryStorageReply();
 
-        httpCall(DELETE_PATH, cmd, DeleteRsp.class, new ReturnValueCompletion<DeleteRsp>(msg) {
+        deleteBits(msg.getInstallPath(), new Completion(msg) {
             @Override
             public void fail(ErrorCode err) {
                 reply.setError(err);
@@ -1491,7 +1539,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             }
 
             @Override
-            public void success(DeleteRsp ret) {
+            public void success() {
                 bus.reply(msg, reply);
             }
         });
@@ -1580,10 +1628,11 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             ));
         }
 
-        Collections.shuffle(mons);
+        final CephMonSelector selector = CephMonSelector.get(self.getUuid());
+        final List<CephPrimaryStorageMonBase> ordered = selector.select(mons);
 
         class HttpCaller {
-            Iterator<CephPrimaryStorageMonBase> it = mons.iterator();
+            Iterator<CephPrimaryStorageMonBase> it = ordered.iterator();
             List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
 
             void call() {
@@ -1595,11 +1644,14 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
                     return;
                 }
 
-                CephPrimaryStorageMonBase base = it.next();
+                final CephPrimaryStorageMonBase base = it.next();
+                final long startTime = System.currentTimeMillis();
 
                 base.httpCall(path, cmd, retClass, new ReturnValueCompletion<T>(callback) {
                     @Override
                     public void success(T ret) {
+                        selector.record(base.getSelf().getUuid(), System.currentTimeMillis() - startTime, true);
+
                         if (!ret.success) {
                             callback.fail(errf.stringToOperationError(ret.error));
                             return;
@@ -1613,6 +1665,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
 
                     @Override
                     public void fail(ErrorCode errorCode) {
+                        selector.record(base.getSelf().getUuid(), System.currentTimeMillis() - startTime, false);
                         errorCodes.add(errorCode);
                         call();
                     }
@@ -2591,5 +2644,6 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             }
         }
         dbf.removeCollection(getSelf().getMons(), CephPrimaryStorageMonVO.class);
+        CephMonSelector.remove(self.getUuid());
     }
 }
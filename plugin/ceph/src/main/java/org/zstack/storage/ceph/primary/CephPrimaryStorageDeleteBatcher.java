@@ -0,0 +1,100 @@
+package org.zstack.storage.ceph.primary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.asyncbatch.KeyedBatcher;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.storage.ceph.CephGlobalConfig;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageBase.BatchDeleteCmd;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageBase.BatchDeleteRsp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * collects deletions of bits on a ceph primary storage for ceph.primaryStorage.delete.batchWindow milliseconds,
+ * or until there are MAX_PATHS of them, and sends them to the agent in one BatchDeleteCmd; cascade deletions
+ * of many volumes then cost a few agent calls instead of one per volume.
+ *
+ * The agent reports paths failed to delete in BatchDeleteRsp.errors, so each deletion completes on its own
+ */
+public class CephPrimaryStorageDeleteBatcher extends KeyedBatcher<CephPrimaryStorageDeleteBatcher.Deletion> {
+    private static final int MAX_PATHS = 100;
+
+    @Autowired
+    private ErrorFacade errf;
+
+    interface Sender {
+        void send(BatchDeleteCmd cmd, ReturnValueCompletion<BatchDeleteRsp> completion);
+    }
+
+    static class Deletion {
+        Sender sender;
+        String installPath;
+        Completion completion;
+    }
+
+    @Override
+    protected long getWindow() {
+        return CephGlobalConfig.PRIMARY_STORAGE_DELETE_BATCH_WINDOW.value(Long.class);
+    }
+
+    @Override
+    protected int getMaxItems() {
+        return MAX_PATHS;
+    }
+
+    /**
+     * @param sender sends the batch through the primary storage if the deletion starts a new batch
+     */
+    void delete(String primaryStorageUuid, String installPath, Sender sender, Completion completion) {
+        Deletion d = new Deletion();
+        d.sender = sender;
+        d.installPath = installPath;
+        d.completion = completion;
+        add(primaryStorageUuid, d);
+    }
+
+    private void failAll(List<Deletion> deletions, ErrorCode err) {
+        for (Deletion d : deletions) {
+            d.completion.fail(err);
+        }
+    }
+
+    @Override
+    protected void send(String primaryStorageUuid, final List<Deletion> deletions) {
+        List<String> installPaths = new ArrayList<String>();
+        for (Deletion d : deletions) {
+            installPaths.add(d.installPath);
+        }
+
+        BatchDeleteCmd cmd = new BatchDeleteCmd();
+        cmd.setInstallPaths(installPaths);
+
+        try {
+            deletions.get(0).sender.send(cmd, new ReturnValueCompletion<BatchDeleteRsp>() {
+                @Override
+                public void success(BatchDeleteRsp rsp) {
+                    for (Deletion d : deletions) {
+                        String error = rsp.getErrors() == null ? null : rsp.getErrors().get(d.installPath);
+                        if (error == null) {
+                            d.completion.success();
+                        } else {
+                            d.completion.fail(errf.stringToOperationError(error));
+                        }
+                    }
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    failAll(deletions, errorCode);
+                }
+            });
+        } catch (OperationFailureException e) {
+            failAll(deletions, e.getErrorCode());
+        }
+    }
+}
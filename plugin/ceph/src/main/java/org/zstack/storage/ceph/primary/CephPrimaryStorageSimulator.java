@@ -174,6 +174,28 @@ public class CephPrimaryStorageSimulator {
         return null;
     }
 
+    @RequestMapping(value= CephPrimaryStorageBase.BATCH_DELETE_PATH, method= RequestMethod.POST)
+    public @ResponseBody
+    String doBatchDelete(HttpEntity<String> entity) {
+        BatchDeleteCmd cmd = JSONObjectUtil.toObject(entity.getBody(), BatchDeleteCmd.class);
+        config.batchDeleteCmds.add(cmd);
+
+        long size = 0;
+        for (String path : cmd.getInstallPaths()) {
+            DeleteCmd dcmd = new DeleteCmd();
+            dcmd.setInstallPath(path);
+            config.deleteCmds.add(dcmd);
+
+            Long s = bitSizeMap.get(path);
+            size += s == null ? 0 : s;
+        }
+
+        BatchDeleteRsp rsp = new BatchDeleteRsp();
+        setCapacity(cmd, rsp, size);
+        reply(entity, rsp);
+        return null;
+    }
+
     @RequestMapping(value= CephPrimaryStorageBase.CREATE_SNAPSHOT_PATH, method= RequestMethod.POST)
     public @ResponseBody
     String createSnapshot(HttpEntity<String> entity) {
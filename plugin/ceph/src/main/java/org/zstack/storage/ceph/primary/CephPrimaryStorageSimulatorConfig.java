@@ -21,6 +21,7 @@ public class CephPrimaryStorageSimulatorConfig {
     public Map<String, CephPrimaryStorageConfig> config = new HashMap<String, CephPrimaryStorageConfig>();
     public List<CreateEmptyVolumeCmd> createEmptyVolumeCmds = new ArrayList<CreateEmptyVolumeCmd>();
     public List<DeleteCmd> deleteCmds = new ArrayList<DeleteCmd>();
+    public List<BatchDeleteCmd> batchDeleteCmds = new ArrayList<BatchDeleteCmd>();
     public List<CreateSnapshotCmd> createSnapshotCmds = new ArrayList<CreateSnapshotCmd>();
     public Map<String, Long> createSnapshotCmdSize = new HashMap<String, Long>();
     public List<DeleteSnapshotCmd> deleteSnapshotCmds = new ArrayList<DeleteSnapshotCmd>();
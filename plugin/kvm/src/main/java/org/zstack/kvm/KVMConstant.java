@@ -13,6 +13,7 @@ public interface KVMConstant {
     public static final String KVM_CONNECT_PATH = "/host/connect";
     public static final String KVM_PING_PATH = "/host/ping";
     public static final String KVM_ECHO_PATH = "/host/echo";
+    public static final String KVM_BATCH_COMMAND_PATH = "/host/batch";
     public static final String KVM_CHECK_PHYSICAL_NETWORK_INTERFACE_PATH = "/network/checkphysicalnetworkinterface";
     public static final String KVM_HOST_CAPACITY_PATH = "/host/capacity";
     public static final String KVM_HOST_FACT_PATH = "/host/fact";
@@ -32,4 +32,8 @@ public class KVMGlobalConfig {
     public static GlobalConfig NESTED_VIRTUALIZATION = new GlobalConfig(CATEGORY, "vm.cpuMode");
     @GlobalConfigValidation
     public static GlobalConfig VM_SYNC_ON_HOST_PING = new GlobalConfig(CATEGORY, "vmSyncOnHostPing");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig COMMAND_BATCH_WINDOW = new GlobalConfig(CATEGORY, "commandBatch.window");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig COMMAND_BATCH_MAX_COMMANDS = new GlobalConfig(CATEGORY, "commandBatch.maxCommands");
 }
@@ -20,6 +20,7 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.logging.Log;
 import org.zstack.core.thread.ChainTask;
 import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.core.workflow.ShareFlow;
 import org.zstack.header.core.Completion;
@@ -36,6 +37,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.header.network.l2.*;
+import org.zstack.header.rest.AsyncRESTCallback;
 import org.zstack.header.rest.JsonAsyncRESTCallback;
 import org.zstack.header.rest.RESTFacade;
 import org.zstack.header.storage.snapshot.VolumeSnapshotInventory;
@@ -68,6 +70,10 @@ public class KVMHost extends HostBase implements Host {
     private KVMExtensionEmitter extEmitter;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private KvmCommandBatcher batcher;
+    @Autowired
+    private ApiTimeoutManager timeoutMgr;
 
     private KVMHostContext context;
 
@@ -371,7 +377,7 @@ public class KVMHost extends HostBase implements Host {
         CheckVmStateCmd cmd = new CheckVmStateCmd();
         cmd.vmUuids = msg.getVmInstanceUuids();
         cmd.hostUuid = self.getUuid();
-        restf.asyncJsonPost(checkVmStatePath, cmd, new JsonAsyncRESTCallback<CheckVmStateRsp>(msg) {
+        asyncJsonPost(checkVmStatePath, cmd, new JsonAsyncRESTCallback<CheckVmStateRsp>(msg) {
             @Override
             public void fail(ErrorCode err) {
                 reply.setError(err);
@@ -679,6 +685,20 @@ public class KVMHost extends HostBase implements Host {
         return ub.build().toUriString();
     }
 
+    /**
+     * sends the command in a batch with other commands to this host if kvm.commandBatch.window is set
+     */
+    private void asyncJsonPost(String url, Object cmd, AsyncRESTCallback callback) {
+        if (!batcher.isEnabled()) {
+            restf.asyncJsonPost(url, cmd, callback);
+            return;
+        }
+
+        Long timeout = timeoutMgr.getTimeout(cmd.getClass());
+        batcher.submit(self.getUuid(), buildUrl(KVMConstant.KVM_BATCH_COMMAND_PATH), url, cmd, callback,
+                TimeUnit.MILLISECONDS, timeout == null ? 300000 : timeout);
+    }
+
     private void executeAsyncHttpCall(final KVMHostAsyncHttpCallMsg msg, final NoErrorCompletion completion) {
         if (!msg.isNoStatusCheck()) {
             checkStatus();
@@ -686,7 +706,7 @@ public class KVMHost extends HostBase implements Host {
 
         String url = buildUrl(msg.getPath());
         MessageCommandRecorder.record(msg.getCommandClassName());
-        restf.asyncJsonPost(url, msg.getCommand(), new JsonAsyncRESTCallback<LinkedHashMap>(msg, completion) {
+        asyncJsonPost(url, msg.getCommand(), new JsonAsyncRESTCallback<LinkedHashMap>(msg, completion) {
             @Override
             public void fail(ErrorCode err) {
                 KVMHostAsyncHttpCallReply reply = new KVMHostAsyncHttpCallReply();
@@ -1172,7 +1192,7 @@ public class KVMHost extends HostBase implements Host {
             ext.preAttachNicExtensionPoint(inv, cmd);
         }
 
-        restf.asyncJsonPost(attachNicPath, cmd, new JsonAsyncRESTCallback<AttachNicResponse>(msg, completion) {
+        asyncJsonPost(attachNicPath, cmd, new JsonAsyncRESTCallback<AttachNicResponse>(msg, completion) {
             @Override
             public void fail(ErrorCode err) {
                 reply.setError(err);
@@ -1332,7 +1352,7 @@ public class KVMHost extends HostBase implements Host {
         cmd.setVolume(to);
         cmd.setVmUuid(msg.getVmInventory().getUuid());
         extEmitter.beforeAttachVolume((KVMHostInventory)getSelfInventory(), vm, vol, cmd);
-        restf.asyncJsonPost(attachDataVolumePath, cmd, new JsonAsyncRESTCallback<AttachDataVolumeResponse>(msg, completion) {
+        asyncJsonPost(attachDataVolumePath, cmd, new JsonAsyncRESTCallback<AttachDataVolumeResponse>(msg, completion) {
             @Override
             public void fail(ErrorCode err) {
                 extEmitter.attachVolumeFailed((KVMHostInventory) getSelfInventory(), vm, vol, cmd, err);
@@ -1786,7 +1806,7 @@ public class KVMHost extends HostBase implements Host {
 
         extEmitter.addOn(khinv, spec, cmd);
 
-        restf.asyncJsonPost(startVmPath, cmd, new JsonAsyncRESTCallback<StartVmResponse>(msg, completion) {
+        asyncJsonPost(startVmPath, cmd, new JsonAsyncRESTCallback<StartVmResponse>(msg, completion) {
             @Override
             public void fail(ErrorCode err) {
                 StartVmOnHypervisorReply reply = new StartVmOnHypervisorReply();
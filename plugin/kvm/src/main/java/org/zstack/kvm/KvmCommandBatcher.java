@@ -0,0 +1,70 @@
+package org.zstack.kvm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.asyncbatch.KeyedBatcher;
+import org.zstack.header.rest.AsyncRESTCallback;
+import org.zstack.header.rest.BatchJsonPostItem;
+import org.zstack.header.rest.RESTFacade;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * collects async commands to a KVM host for kvm.commandBatch.window milliseconds, or until there are
+ * kvm.commandBatch.maxCommands of them, and sends them to the agent in one batch request.
+ *
+ * The agent replies each command separately, so every command completes on its own with its own timeout,
+ * as if it was sent by RESTFacade.asyncJsonPost()
+ */
+public class KvmCommandBatcher extends KeyedBatcher<KvmCommandBatcher.Command> {
+    @Autowired
+    private RESTFacade restf;
+
+    static class Command {
+        String batchUrl;
+        BatchJsonPostItem item;
+    }
+
+    @Override
+    protected long getWindow() {
+        return KVMGlobalConfig.COMMAND_BATCH_WINDOW.value(Long.class);
+    }
+
+    @Override
+    protected int getMaxItems() {
+        return KVMGlobalConfig.COMMAND_BATCH_MAX_COMMANDS.value(Integer.class);
+    }
+
+    /**
+     * @param batchUrl the url of KVMConstant.KVM_BATCH_COMMAND_PATH on the host
+     */
+    public void submit(String hostUuid, String batchUrl, String url, Object cmd, AsyncRESTCallback callback, TimeUnit unit, long timeout) {
+        BatchJsonPostItem item = new BatchJsonPostItem();
+        item.setUrl(url);
+        item.setBody(cmd);
+        item.setCallback(callback);
+        item.setUnit(unit);
+        item.setTimeout(timeout);
+
+        Command c = new Command();
+        c.batchUrl = batchUrl;
+        c.item = item;
+        add(hostUuid, c);
+    }
+
+    @Override
+    protected void send(String hostUuid, List<Command> cmds) {
+        if (cmds.size() == 1) {
+            BatchJsonPostItem item = cmds.get(0).item;
+            restf.asyncJsonPost(item.getUrl(), item.getBody(), item.getCallback(), item.getUnit(), item.getTimeout());
+            return;
+        }
+
+        List<BatchJsonPostItem> items = new ArrayList<BatchJsonPostItem>();
+        for (Command cmd : cmds) {
+            items.add(cmd.item);
+        }
+        restf.asyncJsonPostBatch(cmds.get(0).batchUrl, items);
+    }
+}
@@ -7,6 +7,7 @@ import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.job.Job;
 import org.zstack.core.job.JobContext;
 import org.zstack.core.workflow.FlowChainBuilder;
@@ -22,6 +23,7 @@ import org.zstack.header.storage.backup.BackupStorageType;
 import org.zstack.header.storage.backup.BackupStorageVO;
 import org.zstack.header.storage.primary.*;
 import org.zstack.header.vm.VmInstanceSpec.ImageSpec;
+import org.zstack.storage.primary.ImageCacheEvictor;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
@@ -46,6 +48,15 @@ public class NfsDownloadImageToCacheJob implements Job {
     private NfsPrimaryStorageManager nfsMgr;
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private ImageCacheEvictor evictor;
+
+    private ErrorCode cacheDeletingError(ImageCacheVO cvo) {
+        return errf.stringToOperationError(String.format("the image cache[id:%s, path:%s] of image[uuid:%s] on primary storage[uuid:%s]" +
+                " is being deleted, please try again later", cvo.getId(), cvo.getInstallUrl(), image.getInventory().getUuid(), primaryStorage.getUuid()));
+    }
 
     @Override
     public void run(final ReturnValueCompletion<Object> completion) {
@@ -53,6 +64,12 @@ public class NfsDownloadImageToCacheJob implements Job {
         query.add(ImageCacheVO_.primaryStorageUuid, SimpleQuery.Op.EQ, primaryStorage.getUuid());
         query.add(ImageCacheVO_.imageUuid, SimpleQuery.Op.EQ, image.getInventory().getUuid());
         ImageCacheVO cvo = query.find();
+        if (cvo != null && cvo.getState() == ImageCacheState.deleting) {
+            // the cache is being evicted, its bits may be gone at any time
+            completion.fail(cacheDeletingError(cvo));
+            return;
+        }
+
         if (cvo != null) {
             useExistingCache(cvo, completion);
             return;
@@ -172,6 +189,13 @@ public class NfsDownloadImageToCacheJob implements Job {
                 if (returnValue) {
                     logger.debug(String.format("found image[uuid:%s] in image cache[id:%s, path:%s]",
                             image.getInventory().getUuid(), cvo.getId(), cvo.getInstallUrl()));
+                    // the lastOpDate is the last use of the cache for eviction, which may have claimed the cache
+                    // since it was found
+                    if (!evictor.touch(cvo.getId())) {
+                        completion.fail(cacheDeletingError(cvo));
+                        return;
+                    }
+
                     completion.success(ImageCacheInventory.valueOf(cvo));
                     return;
                 }
@@ -356,17 +356,36 @@ public class NfsPrimaryStorage extends PrimaryStorageBase {
         });
     }
 
-    private void handle(PrimaryStorageRemoveCachedImageMsg msg) {
-        if (self.getAttachedClusterRefs().isEmpty()) {
-            PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
-            errf.stringToOperationError(String.format("primary storage[uuid:%s] doesn't attach to any cluster", self.getUuid()));
+    private void handle(final PrimaryStorageRemoveCachedImageMsg msg) {
+        final PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
+        NfsPrimaryStorageBackend bkd = getUsableBackend();
+        if (bkd == null) {
+            reply.setError(errf.stringToOperationError(String.format("primary storage[uuid:%s] doesn't attach to any cluster having connected hosts", self.getUuid())));
             bus.reply(msg, reply);
             return;
         }
 
-        PrimaryStorageClusterRefVO ref = self.getAttachedClusterRefs().iterator().next();
-        ClusterVO cluster = dbf.findByUuid(ref.getClusterUuid(), ClusterVO.class);
-        getBackend(HypervisorType.valueOf(cluster.getHypervisorType())).deleteImageCache(msg.getInventory());
+        final ImageCacheInventory cache = msg.getInventory();
+        bkd.delete(getSelfInventory(), cache.getInstallUrl(), new Completion(msg) {
+            @Override
+            public void success() {
+                // the capacity was allocated without over-provisioning when the image was downloaded to the cache
+                ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+                rmsg.setPrimaryStorageUuid(self.getUuid());
+                rmsg.setDiskSize(cache.getSize());
+                rmsg.setNoOverProvisioning(true);
+                bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
+                bus.send(rmsg);
+
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
     }
 
 
@@ -63,8 +63,6 @@ public interface NfsPrimaryStorageBackend {
     
     void instantiateVolume(PrimaryStorageInventory pinv, VolumeInventory volume, ReturnValueCompletion<VolumeInventory> complete);
 
-    void deleteImageCache(ImageCacheInventory imageCache);
-
     void delete(PrimaryStorageInventory pinv, String installPath, Completion completion);
 
     void deleteFolder(PrimaryStorageInventory pinv, String installPath, Completion completion);
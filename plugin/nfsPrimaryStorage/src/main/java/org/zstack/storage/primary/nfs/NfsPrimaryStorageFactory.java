@@ -58,6 +58,7 @@ public class NfsPrimaryStorageFactory implements NfsPrimaryStorageManager, Prima
     static {
         type.setSupportHeartbeatFile(true);
         type.setSupportPingStorageGateway(true);
+        type.setSupportImageCacheEviction(true);
         type.setOrder(899);
     }
 
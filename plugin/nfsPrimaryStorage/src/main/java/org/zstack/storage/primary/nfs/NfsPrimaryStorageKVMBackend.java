@@ -598,11 +598,6 @@ public class NfsPrimaryStorageKVMBackend implements NfsPrimaryStorageBackend,
         return HypervisorType.valueOf(KVMConstant.KVM_HYPERVISOR_TYPE);
     }
 
-    @Override
-    public void deleteImageCache(ImageCacheInventory imageCache) {
-    }
-
-
     private void delete(final PrimaryStorageInventory pinv, final String installPath, boolean isFolder, final Completion completion) {
         HostInventory host = nfsFactory.getConnectedHostForOperation(pinv);
         DeleteCmd cmd = new DeleteCmd();
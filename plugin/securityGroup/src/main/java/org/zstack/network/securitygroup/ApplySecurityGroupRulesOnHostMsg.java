@@ -0,0 +1,15 @@
+package org.zstack.network.securitygroup;
+
+import org.zstack.header.message.Message;
+
+public class ApplySecurityGroupRulesOnHostMsg extends Message {
+    private HostRuleTO hostRuleTO;
+
+    public HostRuleTO getHostRuleTO() {
+        return hostRuleTO;
+    }
+
+    public void setHostRuleTO(HostRuleTO hostRuleTO) {
+        this.hostRuleTO = hostRuleTO;
+    }
+}
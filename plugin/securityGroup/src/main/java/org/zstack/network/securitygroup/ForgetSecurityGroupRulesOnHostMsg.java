@@ -0,0 +1,26 @@
+package org.zstack.network.securitygroup;
+
+import org.zstack.header.message.Message;
+
+import java.util.List;
+
+public class ForgetSecurityGroupRulesOnHostMsg extends Message {
+    private String hostUuid;
+    private List<String> vmNicInternalNames;
+
+    public String getHostUuid() {
+        return hostUuid;
+    }
+
+    public void setHostUuid(String hostUuid) {
+        this.hostUuid = hostUuid;
+    }
+
+    public List<String> getVmNicInternalNames() {
+        return vmNicInternalNames;
+    }
+
+    public void setVmNicInternalNames(List<String> vmNicInternalNames) {
+        this.vmNicInternalNames = vmNicInternalNames;
+    }
+}
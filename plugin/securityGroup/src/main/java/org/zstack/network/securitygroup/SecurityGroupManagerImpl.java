@@ -1,5 +1,6 @@
 package org.zstack.network.securitygroup;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
@@ -27,6 +28,7 @@ import org.zstack.header.identity.Quota;
 import org.zstack.header.identity.Quota.QuotaOperator;
 import org.zstack.header.identity.Quota.QuotaPair;
 import org.zstack.header.identity.ReportQuotaExtensionPoint;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
 import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
@@ -36,15 +38,14 @@ import org.zstack.header.query.ExpandedQueryStruct;
 import org.zstack.header.vm.*;
 import org.zstack.identity.AccountManager;
 import org.zstack.network.securitygroup.APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO;
+import org.zstack.network.securitygroup.SecurityGroupMembershipIndex.Group;
 import org.zstack.query.QueryFacade;
 import org.zstack.tag.TagManager;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
-import org.zstack.utils.data.Pair;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
-import org.zstack.utils.network.NetworkUtils;
 
 import javax.persistence.LockModeType;
 import javax.persistence.Query;
@@ -57,7 +58,7 @@ import java.util.concurrent.TimeUnit;
 import static org.zstack.utils.CollectionDSL.list;
 
 public class SecurityGroupManagerImpl extends AbstractService implements SecurityGroupManager, ManagementNodeReadyExtensionPoint,
-          VmInstanceMigrateExtensionPoint, AddExpandedQueryExtensionPoint, ReportQuotaExtensionPoint {
+          VmInstanceMigrateExtensionPoint, AddExpandedQueryExtensionPoint, ReportQuotaExtensionPoint, ManagementNodeChangeListener {
     private static CLogger logger = Utils.getLogger(SecurityGroupManagerImpl.class);
 
     @Autowired
@@ -83,6 +84,21 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     private int failureHostWorkerInterval;
     private int failureHostEachTimeTake;
     private Future<Void> failureHostCopingThread;
+    private SecurityGroupMembershipIndex membershipIndex;
+
+    private static class NicRuleState {
+        long ruleVersion;
+        String digest;
+    }
+
+    /**
+     * rules last applied to each vm nic on each host by this management node, keyed by the host uuid then
+     * the nic internal name. Only nics whose rules differ from the applied ones are sent to hosts.
+     *
+     * Rules of a host are always pushed by the management node the host is mapped to, see applyRules(), so
+     * no other node changes them behind the record. The record is dropped once the mapping may change.
+     */
+    private final Map<String, Map<String, NicRuleState>> appliedRules = new HashMap<String, Map<String, NicRuleState>>();
 
     @Override
     public List<Quota> reportQuota() {
@@ -145,6 +161,32 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         startFailureHostCopingThread();
     }
 
+    private void forgetAllAppliedRules() {
+        // hosts may be remapped to other management nodes, which push rules this node doesn't know
+        synchronized (appliedRules) {
+            appliedRules.clear();
+        }
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+        forgetAllAppliedRules();
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        forgetAllAppliedRules();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+        forgetAllAppliedRules();
+    }
+
     private class RuleCalculator {
         private List<String> vmNicUuids;
         private List<String> l3NetworkUuids;
@@ -240,34 +282,17 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return calculateByVmNic();
         }
 
-        private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, String l3Uuid) {
+        private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, String l3Uuid, Map<String, Group> groups) {
             List<RuleTO> ret = new ArrayList<RuleTO>();
 
             for (String sgUuid : sgUuids) {
-                String sql = "select r from SecurityGroupRuleVO r where r.securityGroupUuid = :sgUuid";
-                TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
-                q.setParameter("sgUuid", sgUuid);
-                List<SecurityGroupRuleVO> rules = q.getResultList();
-                if (rules.isEmpty()) {
+                Group group = groups.get(sgUuid);
+                if (group == null || group.getRules().isEmpty()) {
                     continue;
                 }
 
-                sql = "select nic.ip from VmNicVO nic, VmNicSecurityGroupRefVO ref where ref.vmNicUuid = nic.uuid and ref.securityGroupUuid = :sgUuid and nic.l3NetworkUuid = :l3Uuid";
-                TypedQuery<String> internalIpQuery = dbf.getEntityManager().createQuery(sql, String.class);
-                internalIpQuery.setParameter("sgUuid", sgUuid);
-                internalIpQuery.setParameter("l3Uuid", l3Uuid);
-                List<String> internalIps = internalIpQuery.getResultList();
-                List<Pair<String, String>> ipRanges = NetworkUtils.findConsecutiveIpRange(internalIps);
-                List<String> internalIpRanges = new ArrayList<String>(ipRanges.size());
-                for (Pair<String, String> p : ipRanges) {
-                    if (p.first().equals(p.second())) {
-                        internalIpRanges.add(p.first());
-                    } else {
-                        internalIpRanges.add(String.format("%s-%s", p.first(), p.second()));
-                    }
-                }
-
-                for (SecurityGroupRuleVO r : rules) {
+                List<String> internalIpRanges = group.getIpRanges(l3Uuid);
+                for (SecurityGroupRuleVO r : group.getRules()) {
                     RuleTO rto = new RuleTO();
                     rto.setAllowedCidr(r.getAllowedCidr());
                     rto.setEndPort(r.getEndPort());
@@ -339,27 +364,43 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         private List<HostRuleTO> calculateByVmNic() {
             Map<String, HostRuleTO> hostRuleMap = new HashMap<String, HostRuleTO>();
             List<HostRuleTO> htos = new ArrayList<HostRuleTO>();
+            if (vmNicUuids.isEmpty()) {
+                return htos;
+            }
 
-            for (String nicUuid : vmNicUuids) {
-                List<Tuple> tuples;
-                if (vmStates != null && !vmStates.isEmpty()) {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.l3NetworkUuid, nic.mac, nic.ip from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid and vm.state in (:vmStates)";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
-                    q.setParameter("vmStates", vmStates);
-                    tuples = q.getResultList();
-                } else {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.l3NetworkUuid, nic.mac, nic.ip from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
-                    tuples = q.getResultList();
-                }
+            // read before the rules, rules calculated with a smaller version may miss changes made since then
+            String sql = "select max(s.id) from SecurityGroupSequenceNumberVO s";
+            Long ruleVersion = dbf.getEntityManager().createQuery(sql, Long.class).getSingleResult();
+            ruleVersion = ruleVersion == null ? 0 : ruleVersion;
 
-                if (tuples.isEmpty()) {
-                    // vm is not in vmStates or not in security group
-                    continue;
+            sql = "select ref.vmNicUuid, ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, nic.l3NetworkUuid, nic.mac, nic.ip from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids)";
+            if (vmStates != null && !vmStates.isEmpty()) {
+                sql = sql + " and vm.state in (:vmStates)";
+            }
+            TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+            q.setParameter("nicUuids", vmNicUuids);
+            if (vmStates != null && !vmStates.isEmpty()) {
+                q.setParameter("vmStates", vmStates);
+            }
+
+            // nics not found are not in vmStates or not in security group
+            Map<String, List<Tuple>> tuplesByNic = new LinkedHashMap<String, List<Tuple>>();
+            Set<String> allSgUuids = new HashSet<String>();
+            for (Tuple t : q.getResultList()) {
+                String nicUuid = t.get(0, String.class);
+                List<Tuple> tuples = tuplesByNic.get(nicUuid);
+                if (tuples == null) {
+                    tuples = new ArrayList<Tuple>();
+                    tuplesByNic.put(nicUuid, tuples);
                 }
+                tuples.add(t);
+                allSgUuids.add(t.get(1, String.class));
+            }
 
+            Map<String, Group> groups = membershipIndex.get(allSgUuids);
+
+            for (Map.Entry<String, List<Tuple>> e : tuplesByNic.entrySet()) {
+                String nicUuid = e.getKey();
                 List<String> sgUuids = new ArrayList<String>();
                 String hostUuid = null;
                 String hypervisorType = null;
@@ -367,17 +408,18 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                 String l3Uuid = null;
                 String mac = null;
                 String ip = null;
-                for (Tuple t : tuples) {
-                    sgUuids.add(t.get(0, String.class));
-                    hostUuid = t.get(1, String.class);
-                    hypervisorType = t.get(2, String.class);
-                    nicName = t.get(3, String.class);
-                    l3Uuid = t.get(4, String.class);
-                    mac = t.get(5, String.class);
-                    ip = t.get(6, String.class);
+                for (Tuple t : e.getValue()) {
+                    sgUuids.add(t.get(1, String.class));
+                    hostUuid = t.get(2, String.class);
+                    hypervisorType = t.get(3, String.class);
+                    nicName = t.get(4, String.class);
+                    l3Uuid = t.get(5, String.class);
+                    mac = t.get(6, String.class);
+                    ip = t.get(7, String.class);
                 }
 
-                List<RuleTO> rtos = calculateRuleTOBySecurityGroup(sgUuids, l3Uuid);
+                Collections.sort(sgUuids);
+                List<RuleTO> rtos = calculateRuleTOBySecurityGroup(sgUuids, l3Uuid, groups);
                 SecurityGroupRuleTO sgto = new SecurityGroupRuleTO();
                 sgto.setEgressDefaultPolicy(SecurityGroupGlobalConfig.EGRESS_RULE_DEFAULT_POLICY.value(String.class));
                 sgto.setIngressDefaultPolicy(SecurityGroupGlobalConfig.INGRESS_RULE_DEFAULT_POLICY.value(String.class));
@@ -386,6 +428,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                 sgto.setVmNicInternalName(nicName);
                 sgto.setVmNicMac(mac);
                 sgto.setVmNicIp(ip);
+                sgto.setRuleVersion(ruleVersion);
 
                 HostRuleTO hto = hostRuleMap.get(hostUuid);
                 if (hto == null) {
@@ -425,6 +468,10 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     private void handleLocalMessage(Message msg) {
         if (msg instanceof RefreshSecurityGroupRulesOnHostMsg) {
             handle((RefreshSecurityGroupRulesOnHostMsg) msg);
+        } else if (msg instanceof ApplySecurityGroupRulesOnHostMsg) {
+            handle((ApplySecurityGroupRulesOnHostMsg) msg);
+        } else if (msg instanceof ForgetSecurityGroupRulesOnHostMsg) {
+            handle((ForgetSecurityGroupRulesOnHostMsg) msg);
         } else if (msg instanceof RefreshSecurityGroupRulesOnVmMsg){
             handle((RefreshSecurityGroupRulesOnVmMsg) msg);
         } else if (msg instanceof RemoveVmNicFromSecurityGroupMsg) {
@@ -434,6 +481,23 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         }
     }
 
+    private void handle(ApplySecurityGroupRulesOnHostMsg msg) {
+        applyRulesOnHost(msg.getHostRuleTO());
+    }
+
+    private void handle(ForgetSecurityGroupRulesOnHostMsg msg) {
+        synchronized (appliedRules) {
+            Map<String, NicRuleState> applied = appliedRules.get(msg.getHostUuid());
+            if (applied == null) {
+                return;
+            }
+
+            for (String name : msg.getVmNicInternalNames()) {
+                applied.remove(name);
+            }
+        }
+    }
+
     private void handle(RemoveVmNicFromSecurityGroupMsg msg) {
         RemoveVmNicFromSecurityGroupReply reply = new RemoveVmNicFromSecurityGroupReply();
         removeNicFromSecurityGroup(msg.getSecurityGroupUuid(), msg.getVmNicUuids());
@@ -644,6 +708,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         }
 
         detachSecurityGroupFromL3Network(msg.getSecurityGroupUuid(), msg.getL3NetworkUuid());
+        bumpRuleVersion(msg.getSecurityGroupUuid());
 
         APIDetachSecurityGroupFromL3NetworkEvent evt = new APIDetachSecurityGroupFromL3NetworkEvent(msg.getId());
         SecurityGroupVO vo = dbf.findByUuid(msg.getSecurityGroupUuid(), SecurityGroupVO.class);
@@ -707,6 +772,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         List<VmNicSecurityGroupRefVO> refVOs = q.list();
 
         dbf.removeCollection(refVOs, VmNicSecurityGroupRefVO.class);
+        bumpRuleVersion(sgUuid);
 
         SimpleQuery<VmNicVO> l3Query = dbf.createQuery(VmNicVO.class);
         l3Query.select(VmNicVO_.l3NetworkUuid);
@@ -757,6 +823,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         List<String> vmNicUuids = q.listValue();
 
         dbf.removeByPrimaryKey(msg.getUuid(), SecurityGroupVO.class);
+        membershipIndex.remove(msg.getUuid());
 
         if (!vmNicUuids.isEmpty()) {
             RuleCalculator cal = new RuleCalculator();
@@ -795,6 +862,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         String sgUuid = q.findValue();
 
         dbf.removeByPrimaryKeys(msg.getRuleUuids(), SecurityGroupRuleVO.class);
+        bumpRuleVersion(sgUuid);
 
         RuleCalculator cal = new RuleCalculator();
         cal.securityGroupUuids = Arrays.asList(sgUuid);
@@ -830,6 +898,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             vmUuids.add(nic.getVmInstanceUuid());
         }
         dbf.persistCollection(refs);
+        bumpRuleVersion(msg.getSecurityGroupUuid());
 
         SimpleQuery<VmInstanceVO> vmq = dbf.createQuery(VmInstanceVO.class);
         q.add(VmInstanceVO_.uuid, Op.IN, vmUuids);
@@ -849,28 +918,176 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         bus.publish(evt);
     }
 
-    private void applyRules(Collection<HostRuleTO> htos) {
-        for (final HostRuleTO h : htos) {
-            SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(h.getHypervisorType());
-            bkend.applyRules(h, new Completion() {
-                private void copeWithFailureHost() {
-                    createFailureHostTask(h.getHostUuid());
+    private String digest(SecurityGroupRuleTO to) {
+        return DigestUtils.md5Hex(JSONObjectUtil.toJsonString(to));
+    }
+
+    /**
+     * @return the rules of nics that differ from the ones applied on the host, or null if nothing needs to be sent
+     */
+    private HostRuleTO diffRules(HostRuleTO hto) {
+        if (hto.isRefreshHost() || hto.getHostUuid() == null) {
+            return hto;
+        }
+
+        List<String> digests = new ArrayList<String>(hto.getRules().size());
+        for (SecurityGroupRuleTO to : hto.getRules()) {
+            digests.add(digest(to));
+        }
+
+        List<SecurityGroupRuleTO> changed = new ArrayList<SecurityGroupRuleTO>();
+        boolean resync = false;
+        synchronized (appliedRules) {
+            Map<String, NicRuleState> applied = appliedRules.get(hto.getHostUuid());
+            if (applied == null) {
+                return hto;
+            }
+
+            for (int i = 0; i < hto.getRules().size(); i++) {
+                SecurityGroupRuleTO to = hto.getRules().get(i);
+                NicRuleState s = applied.get(to.getVmNicInternalName());
+                if (s == null || !SecurityGroupRuleTO.ACTION_CODE_APPLY_RULE.equals(to.getActionCode())) {
+                    changed.add(to);
+                } else if (s.digest.equals(digests.get(i))) {
+                    continue;
+                } else if (s.ruleVersion > to.getRuleVersion()) {
+                    // newer rules have been applied, these are calculated before them and may be out of date
+                    logger.debug(String.format("rules of vm nic[internal name:%s] are calculated at version %s but version %s has been applied," +
+                            " resync all rules on host[uuid:%s]", to.getVmNicInternalName(), to.getRuleVersion(), s.ruleVersion, hto.getHostUuid()));
+                    appliedRules.remove(hto.getHostUuid());
+                    resync = true;
+                    break;
+                } else {
+                    changed.add(to);
                 }
+            }
+        }
 
-                @Override
-                public void success() {
-                    logger.debug(String.format("successfully applied security rules on host[uuid:%s]", h.getHostUuid()));
+        if (resync) {
+            RefreshSecurityGroupRulesOnHostMsg msg = new RefreshSecurityGroupRulesOnHostMsg();
+            msg.setHostUuid(hto.getHostUuid());
+            bus.makeTargetServiceIdByResourceUuid(msg, SecurityGroupConstant.SERVICE_ID, hto.getHostUuid());
+            bus.send(msg);
+            return null;
+        }
+
+        if (changed.isEmpty()) {
+            return null;
+        }
+
+        HostRuleTO delta = new HostRuleTO();
+        delta.setHostUuid(hto.getHostUuid());
+        delta.setHypervisorType(hto.getHypervisorType());
+        delta.setRules(changed);
+        return delta;
+    }
+
+    private void recordAppliedRules(HostRuleTO hto) {
+        if (hto.getHostUuid() == null) {
+            return;
+        }
+
+        Map<String, NicRuleState> states = new HashMap<String, NicRuleState>();
+        for (SecurityGroupRuleTO to : hto.getRules()) {
+            if (SecurityGroupRuleTO.ACTION_CODE_APPLY_RULE.equals(to.getActionCode())) {
+                NicRuleState s = new NicRuleState();
+                s.ruleVersion = to.getRuleVersion();
+                s.digest = digest(to);
+                states.put(to.getVmNicInternalName(), s);
+            }
+        }
+
+        synchronized (appliedRules) {
+            Map<String, NicRuleState> applied = appliedRules.get(hto.getHostUuid());
+            if (applied == null || hto.isRefreshHost()) {
+                applied = new HashMap<String, NicRuleState>();
+                appliedRules.put(hto.getHostUuid(), applied);
+            }
+
+            for (SecurityGroupRuleTO to : hto.getRules()) {
+                NicRuleState s = states.get(to.getVmNicInternalName());
+                if (s == null) {
+                    // the chain is deleted
+                    applied.remove(to.getVmNicInternalName());
+                    continue;
                 }
 
-                @Override
-                public void fail(ErrorCode errorCode) {
-                    logger.debug(String.format("failed to apply security rules on host[uuid:%s], because %s, will try it later", h.getHostUuid(), errorCode));
-                    copeWithFailureHost();
+                NicRuleState old = applied.get(to.getVmNicInternalName());
+                if (old == null || old.ruleVersion <= s.ruleVersion) {
+                    applied.put(to.getVmNicInternalName(), s);
                 }
-            });
+            }
         }
     }
 
+    private void forgetAppliedRules(String hostUuid, List<VmNicInventory> nics) {
+        ForgetSecurityGroupRulesOnHostMsg msg = new ForgetSecurityGroupRulesOnHostMsg();
+        msg.setHostUuid(hostUuid);
+        msg.setVmNicInternalNames(CollectionUtils.transformToList(nics, new Function<String, VmNicInventory>() {
+            @Override
+            public String call(VmNicInventory arg) {
+                return arg.getInternalName();
+            }
+        }));
+        bus.makeTargetServiceIdByResourceUuid(msg, SecurityGroupConstant.SERVICE_ID, hostUuid);
+        bus.send(msg);
+    }
+
+    @Transactional
+    private void bumpRuleVersion(String sgUuid) {
+        long version = dbf.generateSequenceNumber(SecurityGroupSequenceNumberVO.class);
+        String sql = "update SecurityGroupVO sg set sg.ruleVersion = :version where sg.uuid = :sgUuid";
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("version", version);
+        q.setParameter("sgUuid", sgUuid);
+        q.executeUpdate();
+    }
+
+    private void applyRules(Collection<HostRuleTO> htos) {
+        for (HostRuleTO hto : htos) {
+            if (hto.getHostUuid() == null) {
+                applyRulesOnHost(hto);
+                continue;
+            }
+
+            // only the node managing the host diffs against what has been applied on it
+            ApplySecurityGroupRulesOnHostMsg msg = new ApplySecurityGroupRulesOnHostMsg();
+            msg.setHostRuleTO(hto);
+            bus.makeTargetServiceIdByResourceUuid(msg, SecurityGroupConstant.SERVICE_ID, hto.getHostUuid());
+            bus.send(msg);
+        }
+    }
+
+    private void applyRulesOnHost(HostRuleTO hto) {
+        final HostRuleTO h = diffRules(hto);
+        if (h == null) {
+            logger.debug(String.format("security rules on host[uuid:%s] are up to date, no need to apply", hto.getHostUuid()));
+            return;
+        }
+
+        SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(h.getHypervisorType());
+        bkend.applyRules(h, new Completion() {
+            private void copeWithFailureHost() {
+                synchronized (appliedRules) {
+                    appliedRules.remove(h.getHostUuid());
+                }
+                createFailureHostTask(h.getHostUuid());
+            }
+
+            @Override
+            public void success() {
+                recordAppliedRules(h);
+                logger.debug(String.format("successfully applied security rules of %s vm nics on host[uuid:%s]", h.getRules().size(), h.getHostUuid()));
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                logger.debug(String.format("failed to apply security rules on host[uuid:%s], because %s, will try it later", h.getHostUuid(), errorCode));
+                copeWithFailureHost();
+            }
+        });
+    }
+
     private void handle(APIAddSecurityGroupRuleMsg msg) {
         APIAddSecurityGroupRuleEvent evt = new APIAddSecurityGroupRuleEvent(msg.getId());
 
@@ -887,6 +1104,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             vos.add(vo);
         }
         dbf.persistCollection(vos);
+        bumpRuleVersion(msg.getSecurityGroupUuid());
 
         RuleCalculator cal = new RuleCalculator();
         cal.securityGroupUuids = Arrays.asList(msg.getSecurityGroupUuid());
@@ -983,6 +1201,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     }
 
     public boolean start() {
+        membershipIndex = new SecurityGroupMembershipIndex();
         prepareGlobalConfig();
         populateExtensions();
         return true;
@@ -1021,6 +1240,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         List<HostRuleTO> htos = cal.calculate();
         applyRules(htos);
 
+        // rules of the vm are cleaned up on the source host
+        forgetAppliedRules(inv.getLastHostUuid(), inv.getVmNics());
         SecurityGroupHypervisorBackend bkd = getHypervisorBackend(inv.getHypervisorType());
         bkd.cleanUpUnusedRuleOnHost(inv.getLastHostUuid(), new Completion() {
             @Override
@@ -0,0 +1,189 @@
+package org.zstack.network.securitygroup;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.Pair;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.*;
+
+/**
+ * keeps rules and member ips of security groups in memory.
+ *
+ * A group is loaded from the database when it's first used and reloaded only after its SecurityGroupVO.ruleVersion
+ * changes, so calculating rules for many vm nics costs one version query instead of a rule query and a member
+ * query per group per nic. The member ips are kept per l3 network, as the ip ranges they are folded into.
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+class SecurityGroupMembershipIndex {
+    private static final CLogger logger = Utils.getLogger(SecurityGroupMembershipIndex.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+
+    static class Group {
+        private final String uuid;
+        private final long version;
+        private final List<SecurityGroupRuleVO> rules = new ArrayList<SecurityGroupRuleVO>();
+        private final Map<String, List<String>> memberIps = new HashMap<String, List<String>>();
+        private final Map<String, List<String>> ipRanges = new HashMap<String, List<String>>();
+
+        private Group(String uuid, long version) {
+            this.uuid = uuid;
+            this.version = version;
+        }
+
+        String getUuid() {
+            return uuid;
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        List<SecurityGroupRuleVO> getRules() {
+            return rules;
+        }
+
+        /**
+         * @return ips of the members on the l3 network, folded into ranges like "10.0.0.2-10.0.0.9"
+         */
+        synchronized List<String> getIpRanges(String l3Uuid) {
+            List<String> ranges = ipRanges.get(l3Uuid);
+            if (ranges != null) {
+                return ranges;
+            }
+
+            List<String> ips = memberIps.get(l3Uuid);
+            ranges = new ArrayList<String>();
+            if (ips != null) {
+                for (Pair<String, String> p : NetworkUtils.findConsecutiveIpRange(ips)) {
+                    if (p.first().equals(p.second())) {
+                        ranges.add(p.first());
+                    } else {
+                        ranges.add(String.format("%s-%s", p.first(), p.second()));
+                    }
+                }
+            }
+
+            ranges = Collections.unmodifiableList(ranges);
+            ipRanges.put(l3Uuid, ranges);
+            return ranges;
+        }
+    }
+
+    private final Map<String, Group> groups = new HashMap<String, Group>();
+
+    /**
+     * @return the groups that still exist, reloaded from the database if their versions changed
+     */
+    Map<String, Group> get(Collection<String> sgUuids) {
+        Map<String, Group> ret = new HashMap<String, Group>();
+        if (sgUuids.isEmpty()) {
+            return ret;
+        }
+
+        Map<String, Long> versions = getVersions(sgUuids);
+        Map<String, Long> toLoad = new HashMap<String, Long>();
+        synchronized (groups) {
+            for (String sgUuid : sgUuids) {
+                Long version = versions.get(sgUuid);
+                if (version == null) {
+                    groups.remove(sgUuid);
+                    continue;
+                }
+
+                Group g = groups.get(sgUuid);
+                if (g != null && g.version == version) {
+                    ret.put(sgUuid, g);
+                } else {
+                    toLoad.put(sgUuid, version);
+                }
+            }
+        }
+
+        if (toLoad.isEmpty()) {
+            return ret;
+        }
+
+        Map<String, Group> loaded = load(toLoad);
+        synchronized (groups) {
+            for (Group g : loaded.values()) {
+                Group old = groups.get(g.uuid);
+                if (old == null || old.version < g.version) {
+                    groups.put(g.uuid, g);
+                }
+            }
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("loaded security groups%s into the membership index", loaded.keySet()));
+        }
+
+        ret.putAll(loaded);
+        return ret;
+    }
+
+    void remove(String sgUuid) {
+        synchronized (groups) {
+            groups.remove(sgUuid);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    private Map<String, Long> getVersions(Collection<String> sgUuids) {
+        String sql = "select sg.uuid, sg.ruleVersion from SecurityGroupVO sg where sg.uuid in (:sgUuids)";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("sgUuids", sgUuids);
+        Map<String, Long> ret = new HashMap<String, Long>();
+        for (Tuple t : q.getResultList()) {
+            ret.put(t.get(0, String.class), t.get(1, Long.class));
+        }
+        return ret;
+    }
+
+    @Transactional(readOnly = true)
+    private Map<String, Group> load(Map<String, Long> versions) {
+        Map<String, Group> ret = new HashMap<String, Group>();
+        for (Map.Entry<String, Long> e : versions.entrySet()) {
+            ret.put(e.getKey(), new Group(e.getKey(), e.getValue()));
+        }
+
+        // rules are ordered so the rules calculated for a vm nic are the same as long as the group doesn't change
+        String sql = "select r from SecurityGroupRuleVO r where r.securityGroupUuid in (:sgUuids) order by r.uuid";
+        TypedQuery<SecurityGroupRuleVO> rq = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
+        rq.setParameter("sgUuids", versions.keySet());
+        for (SecurityGroupRuleVO r : rq.getResultList()) {
+            ret.get(r.getSecurityGroupUuid()).rules.add(r);
+        }
+
+        sql = "select ref.securityGroupUuid, nic.l3NetworkUuid, nic.ip from VmNicVO nic, VmNicSecurityGroupRefVO ref" +
+                " where ref.vmNicUuid = nic.uuid and ref.securityGroupUuid in (:sgUuids)";
+        TypedQuery<Tuple> mq = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        mq.setParameter("sgUuids", versions.keySet());
+        for (Tuple t : mq.getResultList()) {
+            String l3Uuid = t.get(1, String.class);
+            String ip = t.get(2, String.class);
+            if (l3Uuid == null || ip == null) {
+                continue;
+            }
+
+            Map<String, List<String>> memberIps = ret.get(t.get(0, String.class)).memberIps;
+            List<String> ips = memberIps.get(l3Uuid);
+            if (ips == null) {
+                ips = new ArrayList<String>();
+                memberIps.put(l3Uuid, ips);
+            }
+            ips.add(ip);
+        }
+
+        return ret;
+    }
+}
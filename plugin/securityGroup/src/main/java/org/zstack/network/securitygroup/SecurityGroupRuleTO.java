@@ -15,6 +15,16 @@ public class SecurityGroupRuleTO {
     private String vmNicMac;
     private String vmNicIp;
     private String actionCode = ACTION_CODE_APPLY_RULE;
+    // the latest SecurityGroupSequenceNumberVO number when the rules are calculated, not sent to hosts
+    private transient long ruleVersion;
+
+    public long getRuleVersion() {
+        return ruleVersion;
+    }
+
+    public void setRuleVersion(long ruleVersion) {
+        this.ruleVersion = ruleVersion;
+    }
 
     public String getVmNicMac() {
         return vmNicMac;
@@ -24,6 +24,12 @@ public class SecurityGroupVO {
     @Column
     private long internalId;
 
+    /**
+     * a number from SecurityGroupSequenceNumberVO, changed whenever rules or members of the group change
+     */
+    @Column
+    private long ruleVersion;
+
     @Column
     @Enumerated(EnumType.STRING)
     private SecurityGroupState state;
@@ -103,6 +109,14 @@ public class SecurityGroupVO {
         this.internalId = internalId;
     }
 
+    public long getRuleVersion() {
+        return ruleVersion;
+    }
+
+    public void setRuleVersion(long ruleVersion) {
+        this.ruleVersion = ruleVersion;
+    }
+
     public Set<SecurityGroupL3NetworkRefVO> getAttachedL3NetworkRefs() {
         return attachedL3NetworkRefs;
     }
@@ -11,6 +11,7 @@ public class SecurityGroupVO_ {
     public static volatile SingularAttribute<SecurityGroupVO, String> description;
     public static volatile SingularAttribute<SecurityGroupVO, SecurityGroupState> state;
     public static volatile SingularAttribute<SecurityGroupVO, Long> internalId;
+    public static volatile SingularAttribute<SecurityGroupVO, Long> ruleVersion;
     public static volatile SingularAttribute<SecurityGroupVO, Timestamp> createDate;
     public static volatile SingularAttribute<SecurityGroupVO, Timestamp> lastOpDate;
 }
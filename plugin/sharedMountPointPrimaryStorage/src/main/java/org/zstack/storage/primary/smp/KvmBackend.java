@@ -41,6 +41,7 @@ import org.zstack.kvm.*;
 import org.zstack.storage.backup.sftp.GetSftpBackupStorageDownloadCredentialMsg;
 import org.zstack.storage.backup.sftp.GetSftpBackupStorageDownloadCredentialReply;
 import org.zstack.storage.backup.sftp.SftpBackupStorageConstant;
+import org.zstack.storage.primary.ImageCacheEvictor;
 import org.zstack.storage.primary.PrimaryStorageCapacityUpdater;
 import org.zstack.storage.primary.PrimaryStoragePathMaker;
 import org.zstack.storage.primary.PrimaryStoragePhysicalCapacityManager;
@@ -70,6 +71,8 @@ public class KvmBackend extends HypervisorBackend {
     protected PrimaryStoragePhysicalCapacityManager physicalCapacityMgr;
     @Autowired
     protected PluginRegistry pluginRgty;
+    @Autowired
+    protected ImageCacheEvictor evictor;
 
     public static class AgentCmd {
     }
@@ -333,6 +336,12 @@ public class KvmBackend extends HypervisorBackend {
         String primaryStorageInstallPath;
         String backupStorageInstallPath;
 
+        private ErrorCode cacheDeletingError(ImageCacheVO cvo) {
+            return errf.stringToOperationError(String.format("the image cache[id:%s, path:%s] of image[uuid:%s] on" +
+                    " shared mount point storage[uuid:%s] is being deleted, please try again later", cvo.getId(),
+                    cvo.getInstallUrl(), image.getUuid(), self.getUuid()));
+        }
+
         void download(final ReturnValueCompletion<String> completion) {
             DebugUtils.Assert(image != null, "image cannot be null");
             DebugUtils.Assert(backupStorageUuid != null, "backup storage UUID cannot be null");
@@ -448,15 +457,21 @@ public class KvmBackend extends HypervisorBackend {
                 @Override
                 public void run(final SyncTaskChain chain) {
                     SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
-                    q.select(ImageCacheVO_.installUrl);
                     q.add(ImageCacheVO_.primaryStorageUuid, Op.EQ, self.getUuid());
                     q.add(ImageCacheVO_.imageUuid, Op.EQ, image.getUuid());
-                    String fullPath = q.findValue();
-                    if (fullPath == null) {
+                    final ImageCacheVO cvo = q.find();
+                    if (cvo == null) {
                         doDownload(chain);
                         return;
                     }
 
+                    if (cvo.getState() == ImageCacheState.deleting) {
+                        // the cache is being evicted, its bits may be gone at any time
+                        completion.fail(cacheDeletingError(cvo));
+                        chain.next();
+                        return;
+                    }
+
                     CheckBitsCmd cmd = new CheckBitsCmd();
                     cmd.path = primaryStorageInstallPath;
 
@@ -465,6 +480,14 @@ public class KvmBackend extends HypervisorBackend {
                         public void success(AgentRsp returnValue) {
                             CheckBitsRsp rsp = (CheckBitsRsp) returnValue;
                             if (rsp.existing) {
+                                // the lastOpDate is the last use of the cache for eviction, which may have claimed
+                                // the cache since it was found
+                                if (!evictor.touch(cvo.getId())) {
+                                    completion.fail(cacheDeletingError(cvo));
+                                    chain.next();
+                                    return;
+                                }
+
                                 completion.success(primaryStorageInstallPath);
                                 chain.next();
                                 return;
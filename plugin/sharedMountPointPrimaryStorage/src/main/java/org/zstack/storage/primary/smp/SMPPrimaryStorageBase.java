@@ -402,11 +402,47 @@ public class SMPPrimaryStorageBase extends PrimaryStorageBase {
             handle((UploadBitsToBackupStorageMsg) msg);
         } else if (msg instanceof CreateTemporaryVolumeFromSnapshotMsg) {
             handle((CreateTemporaryVolumeFromSnapshotMsg) msg);
+        } else if (msg instanceof PrimaryStorageRemoveCachedImageMsg) {
+            handle((PrimaryStorageRemoveCachedImageMsg) msg);
         } else {
             super.handleLocalMessage(msg);
         }
     }
 
+    private void handle(final PrimaryStorageRemoveCachedImageMsg msg) {
+        final PrimaryStorageRemoveCachedImageReply reply = new PrimaryStorageRemoveCachedImageReply();
+        List<String> cuuids = findClustersHavingHosts();
+        if (cuuids.isEmpty()) {
+            reply.setError(errf.stringToOperationError(String.format("the shared mount point primary storage[uuid:%s] doesn't attach to" +
+                    " any cluster having connected hosts", self.getUuid())));
+            bus.reply(msg, reply);
+            return;
+        }
+
+        final ImageCacheInventory cache = msg.getInventory();
+        HypervisorBackend bkd = getHypervisorFactoryByClusterUuid(cuuids.get(0)).getHypervisorBackend(self);
+        bkd.deleteBits(cache.getInstallUrl(), new Completion(msg) {
+            @Override
+            public void success() {
+                // the capacity was allocated without over-provisioning when the image was downloaded to the cache
+                ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+                rmsg.setPrimaryStorageUuid(self.getUuid());
+                rmsg.setDiskSize(cache.getSize());
+                rmsg.setNoOverProvisioning(true);
+                bus.makeTargetServiceIdByResourceUuid(rmsg, PrimaryStorageConstant.SERVICE_ID, self.getUuid());
+                bus.send(rmsg);
+
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
     private void handle(final CreateTemporaryVolumeFromSnapshotMsg msg) {
         HypervisorFactory f = getHypervisorFactoryByHypervisorType(msg.getHypervisorType());
         HypervisorBackend bkd = f.getHypervisorBackend(self);
@@ -55,6 +55,11 @@ public class VirtualRouterPingTracker extends PingTracker implements ManagementN
         return VirtualRouterGlobalConfig.PING_PARALLELISM_DEGREE.value(Integer.class);
     }
 
+    @Override
+    protected boolean isHealthy(MessageReply reply) {
+        return reply.isSuccess() && reply.<PingVirtualRouterVmReply>castReply().isConnected();
+    }
+
     @Override
     public void handleReply(final String resourceUuid, MessageReply reply) {
         if (!reply.isSuccess()) {
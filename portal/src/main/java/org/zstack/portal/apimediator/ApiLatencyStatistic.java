@@ -0,0 +1,210 @@
+package org.zstack.portal.apimediator;
+
+import org.zstack.header.core.AbstractCompositeType;
+import org.zstack.header.exception.CloudRuntimeException;
+
+import javax.management.MXBean;
+import javax.management.openmbean.*;
+
+/**
+ * latency of an API class in the ApiMediator, from the API being received to it being routed to its service;
+ * the latencies are also counted in buckets(in milliseconds) as a histogram
+ */
+@MXBean
+public class ApiLatencyStatistic extends AbstractCompositeType {
+    private String apiClassName;
+    private long count;
+    private long totalTime;
+    private long averageTime;
+    private long maxTime;
+    private long le1ms;
+    private long le5ms;
+    private long le10ms;
+    private long le50ms;
+    private long le100ms;
+    private long le500ms;
+    private long le1s;
+    private long le5s;
+    private long gt5s;
+
+    static String[] fieldNames = new String[] {"apiClassName", "count", "totalTime", "averageTime", "maxTime",
+            "le1ms", "le5ms", "le10ms", "le50ms", "le100ms", "le500ms", "le1s", "le5s", "gt5s"};
+
+    public ApiLatencyStatistic() {
+    }
+
+    public ApiLatencyStatistic(String apiClassName) {
+        this.apiClassName = apiClassName;
+    }
+
+    public synchronized void count(long cost) {
+        if (Long.MAX_VALUE - cost < totalTime) {
+            totalTime = cost;
+            count = 1;
+        } else {
+            totalTime += cost;
+            count ++;
+        }
+
+        averageTime = totalTime / count;
+        maxTime = Math.max(cost, maxTime);
+
+        if (cost <= 1) {
+            le1ms ++;
+        } else if (cost <= 5) {
+            le5ms ++;
+        } else if (cost <= 10) {
+            le10ms ++;
+        } else if (cost <= 50) {
+            le50ms ++;
+        } else if (cost <= 100) {
+            le100ms ++;
+        } else if (cost <= 500) {
+            le500ms ++;
+        } else if (cost <= 1000) {
+            le1s ++;
+        } else if (cost <= 5000) {
+            le5s ++;
+        } else {
+            gt5s ++;
+        }
+    }
+
+    public String getApiClassName() {
+        return apiClassName;
+    }
+
+    public void setApiClassName(String apiClassName) {
+        this.apiClassName = apiClassName;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public void setTotalTime(long totalTime) {
+        this.totalTime = totalTime;
+    }
+
+    public long getAverageTime() {
+        return averageTime;
+    }
+
+    public void setAverageTime(long averageTime) {
+        this.averageTime = averageTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public void setMaxTime(long maxTime) {
+        this.maxTime = maxTime;
+    }
+
+    public long getLe1ms() {
+        return le1ms;
+    }
+
+    public void setLe1ms(long le1ms) {
+        this.le1ms = le1ms;
+    }
+
+    public long getLe5ms() {
+        return le5ms;
+    }
+
+    public void setLe5ms(long le5ms) {
+        this.le5ms = le5ms;
+    }
+
+    public long getLe10ms() {
+        return le10ms;
+    }
+
+    public void setLe10ms(long le10ms) {
+        this.le10ms = le10ms;
+    }
+
+    public long getLe50ms() {
+        return le50ms;
+    }
+
+    public void setLe50ms(long le50ms) {
+        this.le50ms = le50ms;
+    }
+
+    public long getLe100ms() {
+        return le100ms;
+    }
+
+    public void setLe100ms(long le100ms) {
+        this.le100ms = le100ms;
+    }
+
+    public long getLe500ms() {
+        return le500ms;
+    }
+
+    public void setLe500ms(long le500ms) {
+        this.le500ms = le500ms;
+    }
+
+    public long getLe1s() {
+        return le1s;
+    }
+
+    public void setLe1s(long le1s) {
+        this.le1s = le1s;
+    }
+
+    public long getLe5s() {
+        return le5s;
+    }
+
+    public void setLe5s(long le5s) {
+        this.le5s = le5s;
+    }
+
+    public long getGt5s() {
+        return gt5s;
+    }
+
+    public void setGt5s(long gt5s) {
+        this.gt5s = gt5s;
+    }
+
+    @Override
+    protected String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    @Override
+    public CompositeType getCompositeType() {
+        OpenType[] types = new OpenType[fieldNames.length];
+        types[0] = SimpleType.STRING;
+        for (int i = 1; i < types.length; i++) {
+            types[i] = SimpleType.LONG;
+        }
+
+        try {
+            return new CompositeType(
+                    "ApiLatencyStatistic",
+                    "API latency statistic struct",
+                    fieldNames,
+                    fieldNames,
+                    types
+            );
+        } catch (OpenDataException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+}
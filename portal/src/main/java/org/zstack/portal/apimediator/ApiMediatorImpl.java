@@ -8,6 +8,7 @@ import org.zstack.core.cloudbus.CloudBusCallBack;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.SyncTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
@@ -23,16 +24,19 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
+import javax.management.MXBean;
 import javax.persistence.Query;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.map;
 
-public class ApiMediatorImpl extends AbstractService implements ApiMediator, GlobalApiMessageInterceptor {
+@MXBean
+public class ApiMediatorImpl extends AbstractService implements ApiMediator, GlobalApiMessageInterceptor, ApiMediatorMXBean {
     private static final CLogger logger = Utils.getLogger(ApiMediator.class);
 
     @Autowired
@@ -43,11 +47,46 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
     private ErrorFacade errf;
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private ApiMessageProcessor processor;
 
     private List<String> serviceConfigFolders;
     private int apiWorkerNum = 5;
+    private int apiWorkerShardNum = 1;
+    private ConcurrentHashMap<String, ApiLatencyStatistic> latencyStatistics = new ConcurrentHashMap<String, ApiLatencyStatistic>();
+
+    private void countLatency(Message msg, long cost) {
+        String name = msg.getClass().getName();
+        ApiLatencyStatistic stat = latencyStatistics.get(name);
+        if (stat == null) {
+            stat = new ApiLatencyStatistic(name);
+            ApiLatencyStatistic old = latencyStatistics.putIfAbsent(name, stat);
+            if (old != null) {
+                stat = old;
+            }
+        }
+        stat.count(cost);
+    }
+
+    /**
+     * APIs are spread over apiWorkerShardNum queues so they don't contend for one queue; APIs of
+     * a session always go to the same queue. The apiWorkerNum workers are divided among the queues
+     */
+    private String getWorkerSignature(Message msg) {
+        if (apiWorkerShardNum <= 1) {
+            return "api.worker";
+        }
+
+        String key = msg.getClass().getName();
+        if (msg instanceof APIMessage && ((APIMessage) msg).getSession() != null) {
+            key = ((APIMessage) msg).getSession().getUuid();
+        }
+
+        int shard = (key.hashCode() & Integer.MAX_VALUE) % apiWorkerShardNum;
+        return String.format("api.worker.%s", shard);
+    }
 
     private void dispatchMessage(APIMessage msg) {
         ApiMessageDescriptor desc = processor.getApiMessageDescriptor(msg);
@@ -88,15 +127,18 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
 
     @Override
     public void handleMessage(final Message msg) {
+        final long receivedTime = System.currentTimeMillis();
+        final String signature = getWorkerSignature(msg);
+
         thdf.syncSubmit(new SyncTask<Object>() {
             @Override
             public String getSyncSignature() {
-                return "api.worker";
+                return signature;
             }
 
             @Override
             public int getSyncLevel() {
-                return apiWorkerNum;
+                return Math.max(1, apiWorkerNum / Math.max(1, apiWorkerShardNum));
             }
 
             @Override
@@ -117,7 +159,11 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
 
             @Override
             public Object call() throws Exception {
-                handleMessage(msg);
+                try {
+                    handleMessage(msg);
+                } finally {
+                    countLatency(msg, System.currentTimeMillis() - receivedTime);
+                }
                 return null;
             }
         });
@@ -177,6 +223,7 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
         config.put("serviceConfigFolders", serviceConfigFolders);
         processor = new ApiMessageProcessorImpl(config);
         bus.registerService(this);
+        jmxf.registerBean("ApiMediator", this);
         return true;
     }
 
@@ -194,6 +241,15 @@ public class ApiMediatorImpl extends AbstractService implements ApiMediator, Glo
         this.apiWorkerNum = apiWorkerNum;
     }
 
+    public void setApiWorkerShardNum(int apiWorkerShardNum) {
+        this.apiWorkerShardNum = apiWorkerShardNum;
+    }
+
+    @Override
+    public Map<String, ApiLatencyStatistic> getApiLatencyStatistics() {
+        return latencyStatistics;
+    }
+
     @Override
     public List<Class> getMessageClassToIntercept() {
         List<Class> lst = new ArrayList<Class>();
@@ -28,6 +28,7 @@ import org.zstack.utils.function.FunctionNoArg;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 
+import javax.persistence.Id;
 import javax.persistence.TypedQuery;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -48,6 +49,7 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     private Map<Class, ApiMessageDescriptor> descriptors = new HashMap<Class, ApiMessageDescriptor>();
     private Map<Class, Set<GlobalApiMessageInterceptor>> globalInterceptors = new HashMap<Class, Set<GlobalApiMessageInterceptor>>();
     private Set<GlobalApiMessageInterceptor> globalInterceptorsForAllMsg = new HashSet<GlobalApiMessageInterceptor>();
+    private Map<Class, List<ApiParamPlan>> apiParamPlans = new HashMap<Class, List<ApiParamPlan>>();
 
     @Autowired
     private PluginRegistry pluginRgty;
@@ -59,6 +61,37 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     private boolean unitTestOn;
     private List<String> configFolders;
 
+    /**
+     * an @APIParam field of an API message class, with what apiParamValidation() needs
+     * prepared when the descriptor is built instead of on every message
+     */
+    private static class ApiParamPlan {
+        Field field;
+        APIParam param;
+        List<String> validValues;
+        Class resourceType;
+        String resourcePrimaryKey;
+
+        ApiParamPlan(Field field, APIParam param) {
+            this.field = field;
+            this.param = param;
+            field.setAccessible(true);
+            validValues = Arrays.asList(param.validValues());
+
+            if (param.resourceType() != Object.class) {
+                resourceType = param.resourceType();
+                Field pk = FieldUtils.getAnnotatedField(Id.class, resourceType);
+                resourcePrimaryKey = pk == null ? "uuid" : pk.getName();
+            }
+        }
+    }
+
+    private static class ResourceCheck {
+        ApiParamPlan plan;
+        List<String> uuids = new ArrayList<String>();
+        boolean collection;
+    }
+
     private void dump() {
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<Class, ApiMessageDescriptor> e : descriptors.entrySet()) {
@@ -239,19 +272,84 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
             }
         }
 
+        List<ApiParamPlan> plans = new ArrayList<ApiParamPlan>();
         for (FP fp : fmap.values()) {
             desc.getFieldApiParams().put(fp.field, fp.param);
+            plans.add(new ApiParamPlan(fp.field, fp.param));
         }
+        apiParamPlans.put(msgClz, plans);
     }
 
 
-    private void apiParamValidation(Message msg, ApiMessageDescriptor desc) {
+    /**
+     * checks resources referred by all fields of a message, one query for each resource type
+     */
+    private void checkResourcesExist(final List<ResourceCheck> checks) {
+        Map<Class, Set<String>> existing = new FunctionNoArg<Map<Class, Set<String>>>() {
+            @Override
+            @Transactional(readOnly = true)
+            public Map<Class, Set<String>> call() {
+                Map<Class, Set<String>> uuidsByType = new HashMap<Class, Set<String>>();
+                Map<Class, String> primaryKeys = new HashMap<Class, String>();
+                for (ResourceCheck c : checks) {
+                    Set<String> uuids = uuidsByType.get(c.plan.resourceType);
+                    if (uuids == null) {
+                        uuids = new HashSet<String>();
+                        uuidsByType.put(c.plan.resourceType, uuids);
+                        primaryKeys.put(c.plan.resourceType, c.plan.resourcePrimaryKey);
+                    }
+                    uuids.addAll(c.uuids);
+                }
+
+                Map<Class, Set<String>> ret = new HashMap<Class, Set<String>>();
+                for (Map.Entry<Class, Set<String>> e : uuidsByType.entrySet()) {
+                    String pk = primaryKeys.get(e.getKey());
+                    String sql = String.format("select e.%s from %s e where e.%s in (:uuids)", pk, e.getKey().getSimpleName(), pk);
+                    TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
+                    q.setParameter("uuids", e.getValue());
+                    ret.put(e.getKey(), new HashSet<String>(q.getResultList()));
+                }
+                return ret;
+            }
+        }.call();
+
+        for (ResourceCheck c : checks) {
+            Set<String> found = existing.get(c.plan.resourceType);
+            List<String> invalids = new ArrayList<String>();
+            for (String uuid : c.uuids) {
+                if (!found.contains(uuid)) {
+                    invalids.add(uuid);
+                }
+            }
+
+            if (invalids.isEmpty()) {
+                continue;
+            }
+
+            if (c.collection) {
+                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                        String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", c.plan.field.getName(), invalids, c.plan.resourceType.getSimpleName())
+                ));
+            } else {
+                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
+                        String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", c.plan.field.getName(), invalids.get(0), c.plan.resourceType.getSimpleName())
+                ));
+            }
+        }
+    }
+
+    private void apiParamValidation(Message msg) {
+        List<ApiParamPlan> plans = apiParamPlans.get(msg.getClass());
+        if (plans == null) {
+            return;
+        }
+
         try {
-            for (Map.Entry<Field, APIParam> fp : desc.getFieldApiParams().entrySet()) {
-                Field f = fp.getKey();
-                final APIParam at = fp.getValue();
+            List<ResourceCheck> checks = new ArrayList<ResourceCheck>();
+            for (ApiParamPlan plan : plans) {
+                Field f = plan.field;
+                APIParam at = plan.param;
 
-                f.setAccessible(true);
                 Object value = f.get(msg);
 
                 if (value != null && (value instanceof String) && !at.noTrim()) {
@@ -274,8 +372,8 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
                     ));
                 }
 
-                if (value != null && at.validValues().length > 0) {
-                    List vals = Arrays.asList(at.validValues());
+                if (value != null && !plan.validValues.isEmpty()) {
+                    List vals = plan.validValues;
 
                     if (!vals.contains(value.toString())) {
                         throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.INVALID_ARGUMENT_ERROR,
@@ -333,50 +431,31 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
                     }
                 }
 
-                if (value != null && at.resourceType() != Object.class) {
+                if (value != null && plan.resourceType != null) {
+                    ResourceCheck check = new ResourceCheck();
+                    check.plan = plan;
                     if (value instanceof Collection) {
-                        final Collection col = (Collection) value;
-                        if (!col.isEmpty()) {
-                            List<String> uuids = new FunctionNoArg<List<String>>() {
-                                @Override
-                                @Transactional(readOnly = true)
-                                public List<String> call() {
-                                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", at.resourceType().getSimpleName());
-                                    TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                                    q.setParameter("uuids", col);
-                                    return q.getResultList();
-                                }
-                            }.call();
-
-                            if (uuids.size() != col.size()) {
-                                List<String> invalids = new ArrayList<String>();
-                                for (Object o : col)  {
-                                    String uuid = (String)o;
-                                    if (!uuids.contains(uuid)) {
-                                        invalids.add(uuid);
-                                    }
-                                }
-
-                                if (!invalids.isEmpty()) {
-                                    throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName())
-                                    ));
-                                }
-                            }
+                        Collection col = (Collection) value;
+                        if (col.isEmpty()) {
+                            continue;
                         }
 
+                        for (Object o : col) {
+                            check.uuids.add((String) o);
+                        }
+                        check.collection = true;
                     } else {
                         DebugUtils.Assert(String.class.isAssignableFrom(f.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
                                 f.getName(), msg.getClass().getName(), f.getType()));
-
-                        if (!dbf.isExist((String) value, at.resourceType())) {
-                            throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                    String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
-                            ));
-                        }
+                        check.uuids.add((String) value);
                     }
+                    checks.add(check);
                 }
             }
+
+            if (!checks.isEmpty()) {
+                checkResourcesExist(checks);
+            }
         } catch (ApiMessageInterceptionException ae) {
             throw ae;
         } catch (Exception e) {
@@ -389,7 +468,7 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
     public APIMessage process(APIMessage msg) throws ApiMessageInterceptionException {
         ApiMessageDescriptor desc = descriptors.get(msg.getClass());
 
-        apiParamValidation(msg, desc);
+        apiParamValidation(msg);
         if (desc == null) {
             throw new CloudRuntimeException(String.format("Message[%s] has no ApiMessageDescriptor", msg.getClass().getName()));
         }
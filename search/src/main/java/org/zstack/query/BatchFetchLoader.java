@@ -0,0 +1,268 @@
+package org.zstack.query;
+
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.annotations.Where;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * loads entities having eager associations without the secondary select hibernate issues for each row.
+ *
+ * The rows are selected as tuples of the basic attributes and copied into new detached entities, then every
+ * eager association is loaded for all rows by "in" queries of at most Query.batchFetchSize keys. The entities
+ * carry the same values as those loaded by hibernate, so inventories are still built by their valueOf().
+ *
+ * Supported associations:
+ * 1. @OneToMany with @JoinColumn naming a field of the element entity, which refers to the primary key
+ * 2. @OneToOne or @ManyToOne with @JoinColumn naming a field of this entity, which refers to the target primary key
+ * Associations annotated by @Where or @OrderBy are left to hibernate.
+ *
+ * Entities having other persistent fields are not supported, get() returns null for them.
+ */
+class BatchFetchLoader {
+    private static final CLogger logger = Utils.getLogger(BatchFetchLoader.class);
+    private static final Map<Class, BatchFetchLoader> loaders = new ConcurrentHashMap<Class, BatchFetchLoader>();
+    // placeholder of unsupported entities in the cache
+    private static final BatchFetchLoader UNSUPPORTED = new BatchFetchLoader();
+
+    private static class Association {
+        Field field;
+        Class targetClass;
+        // the field holding the key on the target entity for one-to-many, on this entity for to-one
+        Field keyField;
+        boolean toMany;
+    }
+
+    private Class entityClass;
+    private Constructor constructor;
+    private Field primaryKeyField;
+    private List<Field> basicFields = new ArrayList<Field>();
+    private List<Association> associations = new ArrayList<Association>();
+
+    private BatchFetchLoader() {
+    }
+
+    static BatchFetchLoader get(Class entityClass) {
+        BatchFetchLoader loader = loaders.get(entityClass);
+        if (loader == null) {
+            loader = build(entityClass);
+            loaders.put(entityClass, loader);
+        }
+        return loader == UNSUPPORTED ? null : loader;
+    }
+
+    private static boolean isEager(Field f) {
+        if (f.isAnnotationPresent(OneToMany.class)) {
+            return f.getAnnotation(OneToMany.class).fetch() == FetchType.EAGER;
+        } else if (f.isAnnotationPresent(OneToOne.class)) {
+            return f.getAnnotation(OneToOne.class).fetch() == FetchType.EAGER;
+        } else if (f.isAnnotationPresent(ManyToOne.class)) {
+            return f.getAnnotation(ManyToOne.class).fetch() == FetchType.EAGER;
+        }
+        return false;
+    }
+
+    private static BatchFetchLoader build(Class entityClass) {
+        BatchFetchLoader loader = new BatchFetchLoader();
+        loader.entityClass = entityClass;
+        try {
+            loader.constructor = entityClass.getDeclaredConstructor();
+            loader.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            return UNSUPPORTED;
+        }
+
+        for (Field f : FieldUtils.getAllFields(entityClass)) {
+            if (f.isSynthetic() || Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers()) || f.isAnnotationPresent(Transient.class)) {
+                continue;
+            }
+
+            f.setAccessible(true);
+            if (f.isAnnotationPresent(Id.class)) {
+                loader.primaryKeyField = f;
+                loader.basicFields.add(f);
+            } else if (f.isAnnotationPresent(Column.class)) {
+                loader.basicFields.add(f);
+            } else if (isEager(f)) {
+                Association a = loader.buildAssociation(f);
+                if (a == null) {
+                    logger.debug(String.format("cannot batch fetch the association[%s] of the entity[%s], load it by hibernate",
+                            f.getName(), entityClass.getName()));
+                    return UNSUPPORTED;
+                }
+                loader.associations.add(a);
+            } else {
+                return UNSUPPORTED;
+            }
+        }
+
+        if (loader.primaryKeyField == null || loader.associations.isEmpty()) {
+            return UNSUPPORTED;
+        }
+
+        return loader;
+    }
+
+    private Association buildAssociation(Field f) {
+        JoinColumn jc = f.getAnnotation(JoinColumn.class);
+        if (jc == null || !jc.referencedColumnName().equals("")) {
+            return null;
+        }
+        // the restriction and the order of such associations are only applied by hibernate's own loading
+        if (f.isAnnotationPresent(Where.class) || f.isAnnotationPresent(OrderBy.class)) {
+            return null;
+        }
+
+        Association a = new Association();
+        a.field = f;
+        a.toMany = f.isAnnotationPresent(OneToMany.class);
+        if (a.toMany) {
+            if (!Collection.class.isAssignableFrom(f.getType()) || !(f.getGenericType() instanceof ParameterizedType)) {
+                return null;
+            }
+
+            a.targetClass = (Class) ((ParameterizedType) f.getGenericType()).getActualTypeArguments()[0];
+            a.keyField = FieldUtils.getField(jc.name(), a.targetClass);
+        } else {
+            a.targetClass = f.getType();
+            a.keyField = FieldUtils.getField(jc.name(), entityClass);
+            if (a.keyField != null && !a.keyField.isAnnotationPresent(Id.class) && !a.keyField.isAnnotationPresent(Column.class)) {
+                return null;
+            }
+        }
+
+        if (a.keyField == null || !a.targetClass.isAnnotationPresent(Entity.class) || FieldUtils.getAnnotatedField(Id.class, a.targetClass) == null) {
+            return null;
+        }
+
+        a.keyField.setAccessible(true);
+        return a;
+    }
+
+    /**
+     * @return the select list of the basic attributes, in the order load() expects the tuple columns
+     */
+    String getSelector(String alias) {
+        List<String> ss = new ArrayList<String>(basicFields.size());
+        for (Field f : basicFields) {
+            ss.add(String.format("%s.%s", alias, f.getName()));
+        }
+        return StringUtils.join(ss, ",");
+    }
+
+    private static Object get(Field f, Object obj) {
+        try {
+            return f.get(obj);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    private List queryByKeys(EntityManager mgr, Class targetClass, String keyName, Collection keys) {
+        List ret = new ArrayList();
+        List keyList = new ArrayList(keys);
+        int batch = Math.max(1, QueryGlobalProperty.BATCH_FETCH_SIZE);
+        String jpql = String.format("select t from %s t where t.%s in (:keys)", targetClass.getSimpleName(), keyName);
+        for (int i = 0; i < keyList.size(); i += batch) {
+            TypedQuery q = mgr.createQuery(jpql, targetClass);
+            q.setParameter("keys", keyList.subList(i, Math.min(i + batch, keyList.size())));
+            ret.addAll(q.getResultList());
+        }
+        return ret;
+    }
+
+    private void loadToMany(EntityManager mgr, Association a, Map<Object, Object> entities) throws IllegalAccessException {
+        for (Object target : queryByKeys(mgr, a.targetClass, a.keyField.getName(), entities.keySet())) {
+            Object entity = entities.get(get(a.keyField, target));
+            if (entity == null) {
+                continue;
+            }
+
+            Collection c = (Collection) a.field.get(entity);
+            if (c == null) {
+                c = Set.class.isAssignableFrom(a.field.getType()) ? new HashSet() : new ArrayList();
+                a.field.set(entity, c);
+            }
+            c.add(target);
+        }
+    }
+
+    private void loadToOne(EntityManager mgr, Association a, Collection entities) throws IllegalAccessException {
+        Set keys = new HashSet();
+        for (Object entity : entities) {
+            Object key = a.keyField.get(entity);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        Field targetKeyField = FieldUtils.getAnnotatedField(Id.class, a.targetClass);
+        targetKeyField.setAccessible(true);
+        Map targets = new HashMap();
+        for (Object target : queryByKeys(mgr, a.targetClass, targetKeyField.getName(), keys)) {
+            targets.put(get(targetKeyField, target), target);
+        }
+
+        for (Object entity : entities) {
+            Object key = a.keyField.get(entity);
+            if (key != null) {
+                a.field.set(entity, targets.get(key));
+            }
+        }
+    }
+
+    /**
+     * builds the entities from the tuples selected by getSelector(), in the order of the tuples.
+     * Must be called in the transaction of the query.
+     */
+    List load(EntityManager mgr, List<Tuple> tuples) {
+        try {
+            // keep the order, the primary key is unique in the result
+            Map<Object, Object> entities = new LinkedHashMap<Object, Object>(tuples.size());
+            for (Tuple t : tuples) {
+                Object entity = constructor.newInstance();
+                for (int i = 0; i < basicFields.size(); i++) {
+                    Field f = basicFields.get(i);
+                    Object value = t.get(i);
+                    if (value == null && f.getType().isPrimitive()) {
+                        continue;
+                    }
+                    f.set(entity, value);
+                }
+                entities.put(primaryKeyField.get(entity), entity);
+            }
+
+            if (!entities.isEmpty()) {
+                for (Association a : associations) {
+                    if (a.toMany) {
+                        loadToMany(mgr, a, entities);
+                    } else {
+                        loadToOne(mgr, a, entities.values());
+                    }
+                }
+            }
+
+            return new ArrayList(entities.values());
+        } catch (InstantiationException e) {
+            throw new CloudRuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+}
@@ -23,12 +23,15 @@ import org.zstack.header.search.Inventory;
 import org.zstack.header.search.Parent;
 import org.zstack.header.search.TypeField;
 import org.zstack.utils.*;
+import org.zstack.utils.data.Pair;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.*;
 import javax.persistence.metamodel.StaticMetamodel;
+import javax.xml.bind.DatatypeConverter;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -54,6 +57,40 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
 
     private static final String USER_TAG = "__userTag__";
     private static final String SYSTEM_TAG = "__systemTag__";
+    private static final String CURSOR_SORT_VALUE = "cursorSortValue";
+    private static final String CURSOR_KEY_VALUE = "cursorKeyValue";
+
+    private int queryTemplateCacheSize = 2000;
+
+    /**
+     * JPQL built for a query shape: conditions on the same fields with the same operators, the same sort, fields
+     * and sub queries. Values are bound as parameters so queries of the same shape share the JPQL, hibernate
+     * then reuses its parsed plan of the JPQL as well. Queries with tag conditions are not cached as their values
+     * are in the JPQL.
+     */
+    private static class QueryTemplate {
+        String jpql;
+        List<String> valueNames = new ArrayList<String>();
+        List<Field> entityFields = new ArrayList<Field>();
+    }
+
+    private final Map<String, QueryTemplate> queryTemplates = new LinkedHashMap<String, QueryTemplate>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, QueryTemplate> eldest) {
+            return size() > queryTemplateCacheSize;
+        }
+    };
+
+    /**
+     * position after the last row of a page paginated by cursor, it's sent to users as a base64 json string
+     */
+    private static class Cursor {
+        // null if sorted by the primary key
+        String sortBy;
+        String sortDirection;
+        String sortValue;
+        String keyValue;
+    }
 
     @Override
     public List<Class> getMessageClassToIntercept() {
@@ -358,21 +395,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         private Object doNormalizeValue(String value) {
-            try {
-                Class entityType = getEntityFieldType();
-                if (Timestamp.class.isAssignableFrom(entityType)) {
-                    return Timestamp.valueOf(value);
-                } else if (Enum.class.isAssignableFrom(entityType)) {
-                    Method valueOf = entityType.getMethod("valueOf", String.class);
-                    return valueOf.invoke(entityType, value);
-                } else if (Boolean.class.isAssignableFrom(entityType) || Boolean.TYPE.isAssignableFrom(entityType)) {
-                    return Boolean.valueOf(value);
-                } else {
-                    return TypeUtils.stringToValue(value, entityType);
-                }
-            } catch (Exception e) {
-                throw new CloudRuntimeException(String.format("failed to parse value[%s]", value), e);
-            }
+            return stringToEntityValue(value, getEntityFieldType());
         }
 
         Object normalizeValue() {
@@ -488,6 +511,35 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
     }
 
+    private Object stringToEntityValue(String value, Class entityType) {
+        try {
+            if (Timestamp.class.isAssignableFrom(entityType)) {
+                return Timestamp.valueOf(value);
+            } else if (Enum.class.isAssignableFrom(entityType)) {
+                Method valueOf = entityType.getMethod("valueOf", String.class);
+                return valueOf.invoke(entityType, value);
+            } else if (Boolean.class.isAssignableFrom(entityType) || Boolean.TYPE.isAssignableFrom(entityType)) {
+                return Boolean.valueOf(value);
+            } else {
+                return TypeUtils.stringToValue(value, entityType);
+            }
+        } catch (Exception e) {
+            throw new CloudRuntimeException(String.format("failed to parse value[%s]", value), e);
+        }
+    }
+
+    private String entityValueToString(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Enum) {
+            return ((Enum) value).name();
+        } else if (value instanceof Date && !(value instanceof Timestamp)) {
+            return new Timestamp(((Date) value).getTime()).toString();
+        } else {
+            return value.toString();
+        }
+    }
+
     private class QueryObject {
         EntityInfo info;
         List<MetaCondition> conditions = new ArrayList<MetaCondition>();
@@ -495,6 +547,70 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         List<QueryObject> children = new ArrayList<QueryObject>();
         SubQueryInfo subQueryInfo;
         APIQueryMessage msg;
+        // below are for the root query only
+        List<String> extensionSubQueries = new ArrayList<String>();
+        boolean selectPrimaryKey;
+        boolean keyset;
+        Cursor cursor;
+        BatchFetchLoader batchFetchLoader;
+
+        boolean hasTagCondition() {
+            for (MetaCondition it : conditions) {
+                if (USER_TAG.equals(it.attr) || SYSTEM_TAG.equals(it.attr)) {
+                    return true;
+                }
+            }
+
+            for (QueryObject it : children) {
+                if (it.hasTagCondition()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void appendShape(StringBuilder sb) {
+            sb.append(info.inventoryClass.getName());
+            if (subQueryInfo instanceof ExpandedSubQuery) {
+                sb.append("#e:").append(((ExpandedSubQuery) subQueryInfo).struct.getExpandedField());
+            } else if (subQueryInfo instanceof InherentSubQuery) {
+                sb.append("#i:").append(((InherentSubQuery) subQueryInfo).parentField.getName());
+            }
+
+            sb.append("(");
+            for (MetaCondition it : conditions) {
+                sb.append(it.attr).append(" ").append(it.op).append(it.skipInventoryCheck ? "!" : "").append(";");
+            }
+            for (QueryObject it : children) {
+                sb.append("[");
+                it.appendShape(sb);
+                sb.append("]");
+            }
+            sb.append(")");
+        }
+
+        String keysetCondition(String sort, String primaryKey) {
+            boolean asc = "asc".equalsIgnoreCase(msg.getSortDirection());
+            String op = asc ? ">" : "<";
+            if (sort == null) {
+                return String.format("%s %s :%s", primaryKey, op, CURSOR_KEY_VALUE);
+            }
+
+            // mysql puts null values first in ascending order and last in descending order
+            Map<String, String> var = new HashMap<String, String>();
+            var.put("sort", sort);
+            var.put("key", primaryKey);
+            var.put("op", op);
+            var.put("sortValue", CURSOR_SORT_VALUE);
+            var.put("keyValue", CURSOR_KEY_VALUE);
+            if (cursor.sortValue == null) {
+                return asc ? s("({sort} is not null or {key} {op} :{keyValue})").formatByMap(var)
+                        : s("({sort} is null and {key} {op} :{keyValue})").formatByMap(var);
+            } else {
+                return asc ? s("({sort} {op} :{sortValue} or ({sort} = :{sortValue} and {key} {op} :{keyValue}))").formatByMap(var)
+                        : s("({sort} {op} :{sortValue} or ({sort} = :{sortValue} and {key} {op} :{keyValue}) or {sort} is null)").formatByMap(var);
+            }
+        }
 
         // NOTE: we hard code tag specific logic here because we think current query model is not sustainable,
         // it worth nothing to waste effort on making this as extension point; we will switch the entire
@@ -685,23 +801,45 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 throw new CloudRuntimeException("cannot be here");
             } else {
                 // this is root query
-                for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
-                    String sub = ext.makeSubquery(msg, info.inventoryClass);
-                    if (sub != null) {
-                        where.add(sub);
-                    }
-                }
+                where.addAll(extensionSubQueries);
 
                 String entityName = info.inventoryClass.getSimpleName().toLowerCase();
                 String entity = info.entityClass.getSimpleName();
-                String condition = StringUtils.join(where, " and ").trim();
-                if (isCount) {
+                if (isCount || selectPrimaryKey) {
+                    String selector = isCount ? String.format("count(%s)", entityName) : String.format("%s.%s", entityName, info.primaryKey);
                     if (where.isEmpty()) {
-                        return String.format("select count(%s) from %s %s", entityName, entity, entityName);
+                        return String.format("select %s from %s %s", selector, entity, entityName);
                     } else {
-                        return String.format("select count(%s) from %s %s where %s", entityName, entity, entityName, condition);
+                        return String.format("select %s from %s %s where %s", selector, entity, entityName, StringUtils.join(where, " and ").trim());
                     }
                 } else {
+                    if (msg.getSortBy() != null && !FieldUtils.hasField(msg.getSortBy(), info.entityClass)) {
+                        throw new IllegalArgumentException(String.format("illegal sortBy[%s], entity[%s] doesn't have this field", msg.getSortBy(), info.entityClass.getName()));
+                    }
+
+                    String direction = msg.getSortDirection().toUpperCase();
+                    String order = null;
+                    // selected after the fields of a field query to make the cursor
+                    List<String> keysetSelectors = new ArrayList<String>();
+                    if (keyset) {
+                        // the primary key breaks ties of the sort field, so the order is total
+                        String primaryKey = String.format("%s.%s", entityName, info.primaryKey);
+                        String sort = msg.getSortBy() == null || msg.getSortBy().equals(info.primaryKey) ? null : String.format("%s.%s", entityName, msg.getSortBy());
+                        if (sort == null) {
+                            order = String.format("%s %s", primaryKey, direction);
+                        } else {
+                            order = String.format("%s %s, %s %s", sort, direction, primaryKey, direction);
+                            keysetSelectors.add(sort);
+                        }
+                        keysetSelectors.add(primaryKey);
+
+                        if (cursor != null) {
+                            where.add(keysetCondition(sort, primaryKey));
+                        }
+                    } else if (msg.getSortBy() != null) {
+                        order = String.format("%s.%s %s", entityName, msg.getSortBy(), direction);
+                    }
+
                     String ret = null;
                     String selector = null;
                     if (msg.isFieldQuery()) {
@@ -709,7 +847,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                         for (String f : msg.getFields()) {
                             ss.add(String.format("%s.%s", entityName, f));
                         }
+                        ss.addAll(keysetSelectors);
                         selector = StringUtils.join(ss, ",");
+                    } else if (batchFetchLoader != null) {
+                        selector = batchFetchLoader.getSelector(entityName);
                     } else {
                         selector = entityName;
                     }
@@ -717,15 +858,11 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                     if (where.isEmpty()) {
                         ret = String.format("select %s from %s %s", selector, entity, entityName);
                     } else {
-                        ret = String.format("select %s from %s %s where %s", selector, entity, entityName, condition);
+                        ret = String.format("select %s from %s %s where %s", selector, entity, entityName, StringUtils.join(where, " and ").trim());
                     }
 
-                    if (msg.getSortBy() != null) {
-                        if (!FieldUtils.hasField(msg.getSortBy(), info.entityClass)) {
-                            throw new IllegalArgumentException(String.format("illegal sortBy[%s], entity[%s] doesn't have this field", msg.getSortBy(), info.entityClass.getName()));
-                        }
-
-                        ret = String.format("%s order by %s.%s %s", ret, entityName, msg.getSortBy(), msg.getSortDirection().toUpperCase());
+                    if (order != null) {
+                        ret = String.format("%s order by %s", ret, order);
                     }
                     return ret;
                 }
@@ -738,6 +875,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         private Class inventoryClass;
         private QueryObject root;
         private Map<Class, QueryObject> tmpMap = new HashMap<Class, QueryObject>();
+        private boolean selectPrimaryKey;
+        private boolean keyset;
+        private Cursor cursor;
+        private BatchFetchLoader batchFetchLoader;
 
         private MetaCondition buildCondition(QueryCondition qcond, EntityInfo info) {
             MetaCondition mcond = new MetaCondition();
@@ -840,6 +981,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         private String build(boolean isCount) {
             root = new QueryObject();
             root.msg = msg;
+            root.selectPrimaryKey = selectPrimaryKey;
+            root.keyset = keyset;
+            root.cursor = cursor;
+            root.batchFetchLoader = batchFetchLoader;
             root.info = entityInfos.get(inventoryClass);
             DebugUtils.Assert(root.info!=null, String.format("class[%s] is not annotated by @Inventory", inventoryClass.getName()));
             tmpMap.put(root.info.entityClass, root);
@@ -869,7 +1014,170 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 }
             }
 
-            return root.toJpql(isCount);
+            for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
+                String sub = ext.makeSubquery(msg, root.info.inventoryClass);
+                if (sub != null) {
+                    root.extensionSubQueries.add(sub);
+                }
+            }
+
+            String key = makeTemplateKey(isCount);
+            if (key == null) {
+                return root.toJpql(isCount);
+            }
+
+            QueryTemplate template;
+            synchronized (queryTemplates) {
+                template = queryTemplates.get(key);
+            }
+
+            List<MetaCondition> conds = new ArrayList<MetaCondition>();
+            collectValueConditions(root, conds);
+            if (template != null) {
+                for (int i = 0; i < conds.size(); i++) {
+                    conds.get(i).attrValueName = template.valueNames.get(i);
+                    conds.get(i).entityField = template.entityFields.get(i);
+                }
+                return template.jpql;
+            }
+
+            template = new QueryTemplate();
+            template.jpql = root.toJpql(isCount);
+            for (MetaCondition mcond : conds) {
+                template.valueNames.add(mcond.attrValueName);
+                template.entityFields.add(mcond.entityField);
+            }
+            synchronized (queryTemplates) {
+                queryTemplates.put(key, template);
+            }
+            return template.jpql;
+        }
+
+        private String makeTemplateKey(boolean isCount) {
+            if (root.hasTagCondition()) {
+                return null;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            root.appendShape(sb);
+            sb.append("|count:").append(isCount);
+            if (!isCount) {
+                sb.append("|key:").append(selectPrimaryKey);
+                sb.append("|fields:").append(msg.getFields());
+                sb.append("|sort:").append(msg.getSortBy()).append(" ").append(msg.getSortDirection());
+                sb.append("|keyset:").append(keyset);
+                sb.append("|batchFetch:").append(batchFetchLoader != null);
+                if (cursor != null) {
+                    sb.append(cursor.sortValue == null ? ":null" : ":value");
+                }
+            }
+            for (String sub : root.extensionSubQueries) {
+                sb.append("|").append(sub);
+            }
+            return sb.toString();
+        }
+
+        // in the order of setQueryValue()
+        private void collectValueConditions(QueryObject qobj, List<MetaCondition> conds) {
+            for (MetaCondition mcond : qobj.conditions) {
+                if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr)) {
+                    continue;
+                }
+                conds.add(mcond);
+            }
+            for (QueryObject child : qobj.children) {
+                collectValueConditions(child, conds);
+            }
+        }
+
+        private boolean isSortedByPrimaryKey() {
+            EntityInfo info = entityInfos.get(inventoryClass);
+            return msg.getSortBy() == null || msg.getSortBy().equals(info.primaryKey);
+        }
+
+        private Field getSortField() {
+            EntityInfo info = entityInfos.get(inventoryClass);
+            Field f = FieldUtils.getField(msg.getSortBy(), info.entityClass);
+            if (f == null) {
+                throw new IllegalArgumentException(String.format("illegal sortBy[%s], entity[%s] doesn't have this field", msg.getSortBy(), info.entityClass.getName()));
+            }
+            f.setAccessible(true);
+            return f;
+        }
+
+        private void decodeCursor() {
+            keyset = true;
+            if (msg.getCursor() == null) {
+                return;
+            }
+
+            try {
+                String json = new String(DatatypeConverter.parseBase64Binary(msg.getCursor()), "UTF-8");
+                cursor = JSONObjectUtil.toObject(json, Cursor.class);
+            } catch (Exception e) {
+                throw new OperationFailureException(errf.stringToInvalidArgumentError(
+                        String.format("invalid cursor[%s], %s", msg.getCursor(), e.getMessage())
+                ));
+            }
+
+            String sortBy = isSortedByPrimaryKey() ? null : msg.getSortBy();
+            if (cursor == null || cursor.keyValue == null || !StringUtils.equals(sortBy, cursor.sortBy)
+                    || !msg.getSortDirection().equalsIgnoreCase(cursor.sortDirection)) {
+                throw new OperationFailureException(errf.stringToInvalidArgumentError(
+                        String.format("invalid cursor[%s], it's not made by a query of the same sortBy[%s] and sortDirection[%s]",
+                                msg.getCursor(), msg.getSortBy(), msg.getSortDirection())
+                ));
+            }
+        }
+
+        private void setCursorValue(Query q) {
+            if (cursor == null) {
+                return;
+            }
+
+            EntityInfo info = entityInfos.get(inventoryClass);
+            q.setParameter(CURSOR_KEY_VALUE, stringToEntityValue(cursor.keyValue, info.entityPrimaryKeyField.getType()));
+            if (cursor.sortBy != null && cursor.sortValue != null) {
+                q.setParameter(CURSOR_SORT_VALUE, stringToEntityValue(cursor.sortValue, getSortField().getType()));
+            }
+        }
+
+        private String makeNextCursor(List rows) {
+            if (rows.isEmpty() || msg.getLimit() == null || rows.size() < msg.getLimit()) {
+                return null;
+            }
+
+            Object last = rows.get(rows.size() - 1);
+            Cursor next = new Cursor();
+            next.sortDirection = msg.getSortDirection();
+            boolean byKey = isSortedByPrimaryKey();
+            if (!byKey) {
+                next.sortBy = msg.getSortBy();
+            }
+
+            if (msg.isFieldQuery()) {
+                Tuple t = (Tuple) last;
+                int i = msg.getFields().size();
+                if (!byKey) {
+                    next.sortValue = entityValueToString(t.get(i++));
+                }
+                next.keyValue = entityValueToString(t.get(i));
+            } else {
+                try {
+                    if (!byKey) {
+                        next.sortValue = entityValueToString(getSortField().get(last));
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new CloudRuntimeException(e);
+                }
+                next.keyValue = entityValueToString(root.info.getPrimaryKeyValue(last));
+            }
+
+            try {
+                return DatatypeConverter.printBase64Binary(JSONObjectUtil.toJsonString(next).getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new CloudRuntimeException(e);
+            }
         }
 
         private void setQueryValue(Query q, QueryObject qobj) {
@@ -924,6 +1232,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                     class SQL {
                         String sql;
                         EntityInfo entityInfo;
+                        BatchFetchLoader loader;
                     }
 
                     List<SQL> subInventoryQuerySQL = new ArrayList<SQL>();
@@ -948,6 +1257,15 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                             q.setParameter("ids", primaryKeysNeedResolve);
                             List<Tuple> res = q.getResultList();
 
+                            if (sql.loader != null) {
+                                for (Object vo : sql.loader.load(dbf.getEntityManager(), res)) {
+                                    Object priKey = sql.entityInfo.getPrimaryKeyValue(vo);
+                                    flatMap.put(priKey, sql.entityInfo.inventoryValueOf.invoke(sql.entityInfo.inventoryClass, vo));
+                                    primaryKeysNeedResolve.remove(priKey);
+                                }
+                                continue;
+                            }
+
                             for (Tuple t : res) {
                                 Object priKey = t.get(0);
                                 Object vo = t.get(1);
@@ -968,7 +1286,12 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                         for (EntityInfo info : infos) {
                             SQL sql = new SQL();
                             sql.entityInfo = info;
-                            sql.sql = String.format("select e.%s, e from %s e where e.%s in (:ids)", info.primaryKey, info.entityClass.getSimpleName(), info.primaryKey);
+                            sql.loader = QueryGlobalProperty.BATCH_FETCH ? BatchFetchLoader.get(info.entityClass) : null;
+                            if (sql.loader != null) {
+                                sql.sql = String.format("select %s from %s e where e.%s in (:ids)", sql.loader.getSelector("e"), info.entityClass.getSimpleName(), info.primaryKey);
+                            } else {
+                                sql.sql = String.format("select e.%s, e from %s e where e.%s in (:ids)", info.primaryKey, info.entityClass.getSimpleName(), info.primaryKey);
+                            }
                             subInventoryQuerySQL.add(sql);
                         }
                     }
@@ -1023,32 +1346,45 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         @Transactional(readOnly = true)
-        List query() {
+        Pair<List, String> query() {
             if (msg.isFieldQuery()) {
                 validateFields();
             }
+            if (msg.isPaginateByCursor()) {
+                decodeCursor();
+            }
+
+            if (!msg.isFieldQuery() && QueryGlobalProperty.BATCH_FETCH) {
+                // entities having eager associations are loaded without hibernate's secondary selects per row
+                batchFetchLoader = BatchFetchLoader.get(entityInfos.get(inventoryClass).entityClass);
+            }
 
             String jpql = build(false);
-            Query q = msg.isFieldQuery() ? dbf.getEntityManager().createQuery(jpql, Tuple.class) : dbf.getEntityManager().createQuery(jpql);
+            Query q = msg.isFieldQuery() || batchFetchLoader != null ? dbf.getEntityManager().createQuery(jpql, Tuple.class) : dbf.getEntityManager().createQuery(jpql);
 
             if (logger.isTraceEnabled()) {
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
             setQueryValue(q, root);
+            setCursorValue(q);
             if (msg.getLimit() != null) {
                 q.setMaxResults(msg.getLimit());
             }
-            if (msg.getStart() != null) {
+            if (msg.getStart() != null && !keyset) {
                 q.setFirstResult(msg.getStart());
             }
 
             List vos = q.getResultList();
+            if (batchFetchLoader != null) {
+                vos = batchFetchLoader.load(dbf.getEntityManager(), vos);
+            }
+            String nextCursor = keyset ? makeNextCursor(vos) : null;
 
             if (msg.isFieldQuery()) {
-                return convertFieldsTOPartialInventories(vos);
+                return new Pair<List, String>(convertFieldsTOPartialInventories(vos), nextCursor);
             } else {
-                return convertVOsToInventories(vos);
+                return new Pair<List, String>(convertVOsToInventories(vos), nextCursor);
             }
         }
 
@@ -1063,6 +1399,20 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             setQueryValue(q, root);
             return (Long)q.getSingleResult();
         }
+
+        @Transactional(readOnly = true)
+        long count(long max) {
+            selectPrimaryKey = true;
+            String jpql = build(false);
+            Query q = dbf.getEntityManager().createQuery(jpql);
+            if (logger.isTraceEnabled()) {
+                org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
+                logger.trace(hq.getQueryString());
+            }
+            setQueryValue(q, root);
+            q.setMaxResults((int) Math.min(max, Integer.MAX_VALUE));
+            return q.getResultList().size();
+        }
     }
 
     private void populateExtensions() {
@@ -1281,11 +1631,17 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
 
     @Override
     public <T> List<T> query(APIQueryMessage msg, Class<T> inventoryClass) {
+        return queryByCursor(msg, inventoryClass).first();
+    }
+
+    @Override
+    public <T> Pair<List<T>, String> queryByCursor(APIQueryMessage msg, Class<T> inventoryClass) {
         QueryContext context = new QueryContext();
         context.msg = msg;
         context.inventoryClass = selectInventoryClass(msg, inventoryClass);
 
-        return context.query();
+        Pair<List, String> ret = context.query();
+        return new Pair<List<T>, String>(ret.first(), ret.second());
     }
 
     private Class selectInventoryClass(APIQueryMessage msg, Class inventoryClass) {
@@ -1301,6 +1657,18 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         return context.count();
     }
 
+    @Override
+    public long count(APIQueryMessage msg, Class inventoryClass, long max) {
+        QueryContext context = new QueryContext();
+        context.msg = msg;
+        context.inventoryClass = selectInventoryClass(msg, inventoryClass);
+        return context.count(max);
+    }
+
+    public void setQueryTemplateCacheSize(int queryTemplateCacheSize) {
+        this.queryTemplateCacheSize = queryTemplateCacheSize;
+    }
+
     @Override
     public Map<String, List<String>> populateQueryableFields() {
         //throw new CloudRuntimeException("it's impossible enumerate all combinations");
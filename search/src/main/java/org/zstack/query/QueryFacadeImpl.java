@@ -22,6 +22,7 @@ import org.zstack.utils.BeanUtils;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
+import org.zstack.utils.data.Pair;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
@@ -33,6 +34,7 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
     private static CLogger logger = Utils.getLogger(QueryFacadeImpl.class);
     private Map<String, QueryBuilderFactory> builerFactories = new HashMap<String, QueryBuilderFactory>();
     private String queryBuilderType = MysqlQueryBuilderFactory.type.toString();
+    private long approximateCountLimit = 10000;
 
     @Autowired
     private PluginRegistry pluginRgty;
@@ -66,6 +68,40 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         return builder.count(msg, inventoryClass);
     }
 
+    private <T> Pair<List<T>, String> queryByCursor(APIQueryMessage msg, Class<T> inventoryClass) {
+        validateConditions(msg.getConditions());
+
+        QueryBuilderFactory factory = getFactory(queryBuilderType);
+        QueryBuilder builder = factory.createQueryBuilder();
+        return builder.queryByCursor(msg, inventoryClass);
+    }
+
+    private void setTotal(APIQueryMessage msg, APIQueryReply reply, Class inventoryClass, List invs) {
+        if (!msg.isApproximateCount()) {
+            reply.setTotal(count(msg, inventoryClass));
+            return;
+        }
+
+        // the page has all the rest rows, the count is known without counting
+        long start = msg.isPaginateByCursor() || msg.getStart() == null ? 0 : msg.getStart();
+        boolean firstPage = msg.isPaginateByCursor() ? msg.getCursor() == null : start == 0;
+        boolean lastPage = invs != null && (msg.getLimit() == null || invs.size() < msg.getLimit());
+        if (lastPage && (firstPage || (!msg.isPaginateByCursor() && !invs.isEmpty()))) {
+            reply.setTotal(start + invs.size());
+            return;
+        }
+
+        validateConditions(msg.getConditions());
+        QueryBuilder builder = getFactory(queryBuilderType).createQueryBuilder();
+        long count = builder.count(msg, inventoryClass, approximateCountLimit + 1);
+        if (count > approximateCountLimit) {
+            reply.setTotal(approximateCountLimit);
+            reply.setTotalApproximate(true);
+        } else {
+            reply.setTotal(count);
+        }
+    }
+
     private void populateExtensions() {
         for (QueryBuilderFactory extp : pluginRgty.getExtensionList(QueryBuilderFactory.class)) {
             QueryBuilderFactory old = builerFactories.get(extp.getQueryBuilderType().toString());
@@ -132,6 +168,10 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
         this.queryBuilderType = queryBuilderType;
     }
 
+    public void setApproximateCountLimit(long approximateCountLimit) {
+        this.approximateCountLimit = approximateCountLimit;
+    }
+
     @Override
     @MessageSafe
     public void handleMessage(Message msg) {
@@ -194,16 +234,21 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
             }
 
             if (msg.isCount()) {
-                long count = count(msg, inventoryClass);
-                reply.setTotal(count);
+                setTotal(msg, reply, inventoryClass, null);
                 bus.reply(msg, reply);
             } else {
-                List invs = query(msg, inventoryClass);
+                List invs;
+                if (msg.isPaginateByCursor()) {
+                    Pair<List, String> page = queryByCursor(msg, inventoryClass);
+                    invs = page.first();
+                    reply.setNextCursor(page.second());
+                } else {
+                    invs = query(msg, inventoryClass);
+                }
                 setter.invoke(reply, invs);
                 //TODO: merge this into mysql query builder
                 if (msg.isReplyWithCount()) {
-                    long count = count(msg, inventoryClass);
-                    reply.setTotal(count);
+                    setTotal(msg, reply, inventoryClass, invs);
                 }
                 bus.reply(msg, reply);
             }
@@ -0,0 +1,14 @@
+package org.zstack.query;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class QueryGlobalProperty {
+    @GlobalProperty(name="Query.batchFetch", defaultValue = "true")
+    public static boolean BATCH_FETCH;
+    @GlobalProperty(name="Query.batchFetchSize", defaultValue = "1000")
+    public static int BATCH_FETCH_SIZE;
+}
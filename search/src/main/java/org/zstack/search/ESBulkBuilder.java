@@ -4,8 +4,8 @@ import com.google.gson.Gson;
 import org.zstack.header.search.InventoryDoc;
 import org.zstack.utils.gson.GsonUtil;
 
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -28,7 +28,7 @@ public class ESBulkBuilder {
         gson = gutil.create();
     }
     
-    private Map<Object, String> bulks = new HashMap<Object, String>(20);
+    private Map<Object, String> bulks = new LinkedHashMap<Object, String>(20);
     private Set<String> toIndexName = new HashSet<String>(5);
     private Set<String> toDeleteName = new HashSet<String>(5);
     private boolean empty = true;
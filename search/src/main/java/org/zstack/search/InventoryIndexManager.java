@@ -7,4 +7,14 @@ public interface InventoryIndexManager {
     HttpClient getHttpClient();
     
     String getElasticSearchBaseUrl();
+
+    /**
+     * @return milliseconds since the oldest change not indexed yet, 0 if all changes are indexed
+     */
+    long getIndexLag();
+
+    /**
+     * @return milliseconds the last completed drain of the index outbox took from the oldest change it indexed
+     */
+    long getLastIndexLag();
 }
@@ -28,6 +28,8 @@ import org.zstack.core.componentloader.PluginExtension;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.TransactionalCallback;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.APIMessage;
@@ -52,15 +54,38 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.Map.Entry;
-
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexing runs in the background: a committed transaction touching an indexed VO only signals the indexing
+ * pipeline. InsertVO/UpdateVO/DeleteVO, filled by sql triggers, are the outbox; a single consumer on each
+ * management node drains them indexBatchSize rows at a time, coalesces rows of the same resource into one doc
+ * (a resource deleted in the batch is only deleted), builds docs of up to buildParallelism chunks in parallel and
+ * sends them to _bulk with at most sendConcurrency requests in flight. When all requests are in flight, the consumer
+ * waits and the rows stay in the outbox. Bulks of a batch are sent after those of the previous batch complete, so
+ * operations on the same resource are not reordered.
+ *
+ * Rows are deleted from the outbox only after all bulks of their batch succeed. Rows of a failed batch stay there
+ * and are taken again by a drain retried after a delay, doubled by each failed drain in a row up to MAX_RETRY_DELAY,
+ * or by the next drain signaled meanwhile; rows left by a management node that stopped are drained on start.
+ */
 public class InventoryIndexManagerImpl extends AbstractService implements InventoryIndexManager, TransactionalCallback {
     private static final CLogger logger = Utils.getLogger(InventoryIndexManagerImpl.class);
+    private static final int BUILD_CHUNK_SIZE = 200;
+    private static final long INITIAL_RETRY_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
     private CloudBus bus;
     @Autowired
     private PluginRegistry rgty;
+    @Autowired
+    private ThreadFacade thdf;
 
     private Map<String, IndexerInfo> voClassToIndexerMapping = new HashMap<String, IndexerInfo>();
     private Set<Class<?>> triggerVOs = new HashSet<Class<?>>();
@@ -79,6 +104,29 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     private Map<Class<?>, List<String>> deleteVOTriggerClassNames = new HashMap<Class<?>, List<String>>();
     private List<SearchIndexRecreateExtensionPoint> reindexExts = new ArrayList<SearchIndexRecreateExtensionPoint>();
 
+    private int indexBatchSize = 1000;
+    private int buildParallelism = 4;
+    private int sendConcurrency = 2;
+    private int maxActionsPerBulk = 500;
+    private Semaphore sendPermits = new Semaphore(sendConcurrency);
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    // time of the oldest signal not picked up by the consumer, 0 if none
+    private final AtomicLong pendingSince = new AtomicLong();
+    // time of the oldest signal the consumer is working on, 0 if idle
+    private volatile long indexingSince;
+    private volatile long lastIndexLag;
+    // set when a batch of the current drain fails
+    private volatile boolean drainFailed;
+    private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+    private final AtomicLong retryDelay = new AtomicLong(INITIAL_RETRY_DELAY);
+    // time of the oldest signal whose rows wait for the retry, 0 if none
+    private volatile long retrySince;
+    private CountDownLatch lastBatchSent = new CountDownLatch(0);
+    // the last outbox row taken in the current drain, rows of sent batches are still in the outbox until deleted
+    private long lastInsertId;
+    private long lastUpdateId;
+    private long lastDeleteId;
+
     private class IndexerInfo {
         String url;
         Class<?> inventoryClass;
@@ -300,7 +348,10 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     @Override
     public boolean start() {
         try {
-            httpClient = new DefaultHttpClient(new PoolingClientConnectionManager());
+            PoolingClientConnectionManager connMgr = new PoolingClientConnectionManager();
+            connMgr.setDefaultMaxPerRoute(Math.max(connMgr.getDefaultMaxPerRoute(), sendConcurrency + 1));
+            connMgr.setMaxTotal(Math.max(connMgr.getMaxTotal(), sendConcurrency + 1));
+            httpClient = new DefaultHttpClient(connMgr);
             bulkUri = makeURI(elasticSearchBaseUrl, "_bulk");
 
             /* only for debugging */
@@ -321,6 +372,10 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         } catch (Exception e) {
             throw new CloudRuntimeException(e);
         }
+
+        // rows not indexed before the last stop
+        pendingSince.compareAndSet(0, System.currentTimeMillis());
+        scheduleDrain();
         return true;
     }
 
@@ -354,178 +409,185 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     public void beforeCompletion(Operation op, Class<?>... entityClass) {
     }
 
-    private void sendBulk(final String requestBody, final String inventoryName) {
+    private boolean hasBulkErrors(String responseBody) {
+        try {
+            return new JSONObject(responseBody).optBoolean("errors", false);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if all actions of the bulk succeed
+     */
+    private boolean sendBulk(final String requestBody, final String inventoryName) {
         try {
             HttpPost post = new HttpPost(bulkUri);
             StringEntity body = new StringEntity(requestBody);
             logger.trace(String.format("%s:\n%s", inventoryName, requestBody));
             body.setChunked(false);
             post.setEntity(body);
-            ResponseHandler<Void> rspHandler = new ResponseHandler<Void>() {
+            ResponseHandler<Boolean> rspHandler = new ResponseHandler<Boolean>() {
                 @Override
-                public Void handleResponse(HttpResponse rsp) throws ClientProtocolException, IOException {
+                public Boolean handleResponse(HttpResponse rsp) throws ClientProtocolException, IOException {
+                    String rspBody = EntityUtils.toString(rsp.getEntity());
                     if (rsp.getStatusLine().getStatusCode() != HttpStatus.SC_OK && rsp.getStatusLine().getStatusCode() != HttpStatus.SC_CREATED) {
                         logger.warn(String.format("Failed to do bulk operation on[%s] , because: \nstatus line: %s\nresponse body: %s\nrequest body: %s",
-                                inventoryName, rsp.getStatusLine(), EntityUtils.toString(rsp.getEntity()), requestBody));
+                                inventoryName, rsp.getStatusLine(), rspBody, requestBody));
+                        return false;
+                    } else if (hasBulkErrors(rspBody)) {
+                        logger.warn(String.format("Some actions of bulk operation on[%s] failed, response body: %s\nrequest body: %s",
+                                inventoryName, rspBody, requestBody));
+                        return false;
                     } else {
-                        logger.trace(String.format("Successfully did bulk operation on[%s], %s", inventoryName, EntityUtils.toString(rsp.getEntity())));
+                        logger.trace(String.format("Successfully did bulk operation on[%s], %s", inventoryName, rspBody));
+                        return true;
                     }
-                    return null;
                 }
             };
-            httpClient.execute(post, rspHandler);
+            return httpClient.execute(post, rspHandler);
         } catch (Exception e) {
             logger.warn(String.format("Failed to do bulk operation on inventory[%s]", inventoryName), e);
+            return false;
         }
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private List<InsertVO> takeInsertVO(Class<?> triggeredVO) {
-    	List<String> voNames = insertVOTriggerClassNames.get(triggeredVO);
-    	TypedQuery<InsertVO> query = null;
-    	if (voNames.size() == 1) {
-    		String sql = "select i from InsertVO i where i.voName = :voName";
-    		query = dbf.getEntityManager().createQuery(sql, InsertVO.class);
-    		query.setParameter("voName", triggeredVO.getSimpleName());
-    	} else {
-    		String sql = "select i from InsertVO i where i.voName in (:voName)";
-    		query = dbf.getEntityManager().createQuery(sql, InsertVO.class);
-    		query.setParameter("voName", voNames);
-    	}
-    	query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
-        List<InsertVO> ret = query.getResultList();
-        if (!ret.isEmpty()) {
-            List<Long> ids = CollectionUtils.transformToList(ret, new Function<Long, InsertVO>() {
-                @Override
-                public Long call(InsertVO arg) {
-                    return arg.getId();
-                }
-            });
-            String usql = "delete from InsertVO i where i.id in :id";
-            Query uquery = dbf.getEntityManager().createQuery(usql);
-            uquery.setParameter("id", ids);
-            uquery.executeUpdate();
+    private static class Outbox {
+        List<InsertVO> inserts;
+        List<UpdateVO> updates;
+        List<DeleteVO> deletes;
+        // set when a doc of the batch fails to build or a bulk of it fails to send
+        volatile boolean failed;
+        AtomicInteger unsentBulks;
+
+        int size() {
+            return inserts.size() + updates.size() + deletes.size();
+        }
+
+        boolean isFull(int max) {
+            return inserts.size() >= max || updates.size() >= max || deletes.size() >= max;
         }
-        return ret;
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private List<UpdateVO> takeUpdateVO(Class<?> triggeredVO) {
-        String sql = "select i from UpdateVO i where i.voName = :voName";
-        TypedQuery<UpdateVO> query = dbf.getEntityManager().createQuery(sql, UpdateVO.class);
-        query.setParameter("voName", triggeredVO.getSimpleName());
-        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
-        List<UpdateVO> ret = query.getResultList();
-        if (!ret.isEmpty()) {
-            List<Long> ids = CollectionUtils.transformToList(ret, new Function<Long, UpdateVO>() {
-                @Override
-                public Long call(UpdateVO arg) {
-                    return arg.getId();
-                }
-            });
-            String usql = "delete from UpdateVO i where i.id in :id";
-            Query uquery = dbf.getEntityManager().createQuery(usql);
-            uquery.setParameter("id", ids);
-            uquery.executeUpdate();
+    private <T> List<T> takeOutboxRows(Class<T> clazz, long afterId, int max) {
+        String sql = String.format("select i from %s i where i.id > :id order by i.id", clazz.getSimpleName());
+        TypedQuery<T> query = dbf.getEntityManager().createQuery(sql, clazz);
+        query.setParameter("id", afterId);
+        query.setMaxResults(max);
+        return query.getResultList();
+    }
+
+    @Transactional(readOnly = true)
+    private Outbox takeOutbox(int max) {
+        Outbox ob = new Outbox();
+        ob.inserts = takeOutboxRows(InsertVO.class, lastInsertId, max);
+        if (!ob.inserts.isEmpty()) {
+            lastInsertId = ob.inserts.get(ob.inserts.size() - 1).getId();
         }
-        return ret;
+        ob.updates = takeOutboxRows(UpdateVO.class, lastUpdateId, max);
+        if (!ob.updates.isEmpty()) {
+            lastUpdateId = ob.updates.get(ob.updates.size() - 1).getId();
+        }
+        ob.deletes = takeOutboxRows(DeleteVO.class, lastDeleteId, max);
+        if (!ob.deletes.isEmpty()) {
+            lastDeleteId = ob.deletes.get(ob.deletes.size() - 1).getId();
+        }
+        return ob;
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private List<DeleteVO> takeDeleteVO(Class<?> triggeredVO) {
-    	List<String> voNames = deleteVOTriggerClassNames.get(triggeredVO);
-        TypedQuery<DeleteVO> query = null;
-        if (voNames == null) {
-        	String sql = "select i from DeleteVO i where i.voName = :voName";
-        	query = dbf.getEntityManager().createQuery(sql, DeleteVO.class);
-        	query.setParameter("voName", triggeredVO.getSimpleName());
-    	} else {
-        	String sql = "select i from DeleteVO i where i.voName in (:voName)";
-        	query = dbf.getEntityManager().createQuery(sql, DeleteVO.class);
-        	query.setParameter("voName", voNames);
-    	}
-        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
-        List<DeleteVO> ret = query.getResultList();
-        if (!ret.isEmpty()) {
-            List<Long> ids = CollectionUtils.transformToList(ret, new Function<Long, DeleteVO>() {
-                @Override
-                public Long call(DeleteVO arg) {
-                    return arg.getId();
-                }
-            });
-            String usql = "delete from DeleteVO i where i.id in :id";
-            Query uquery = dbf.getEntityManager().createQuery(usql);
-            uquery.setParameter("id", ids);
-            uquery.executeUpdate();
+    private <T> void deleteOutboxRows(Class<T> clazz, List<T> rows, Function<Long, T> getId) {
+        if (rows.isEmpty()) {
+            return;
         }
-        return ret;
-    }
-
-    private Map<String, Set<String>> getUuidsOfVOToIndexFromInsertVOUpdateVO(Class<?> triggeredVO, Operation op) {
-        Map<String, Set<String>> ret = new HashMap<String, Set<String>>();
-        if (op == Operation.PERSIST) {
-            List<InsertVO> ivos = takeInsertVO(triggeredVO);
-            for (InsertVO ivo : ivos) {
-                Set<String> self = ret.get(ivo.getVoName());
-                if (self == null) {
-                    self = new HashSet<String>();
-                    ret.put(ivo.getVoName(), self);
-                }
-                self.add(ivo.getUuid());
 
-                if (ivo.getForeignVOName() != null && ivo.getForeignVOUuid() != null) {
-                    Set<String> foreign = ret.get(ivo.getForeignVOName());
-                    if (foreign == null) {
-                        foreign = new HashSet<String>();
-                        ret.put(ivo.getForeignVOName(), foreign);
-                    }
-                    foreign.add(ivo.getForeignVOUuid());
-                }
-            }
-        } else if (op == Operation.UPDATE) {
-            List<UpdateVO> uvos = takeUpdateVO(triggeredVO);
-            for (UpdateVO uvo : uvos) {
-                Set<String> self = ret.get(uvo.getVoName());
-                if (self == null) {
-                    self = new HashSet<String>();
-                    ret.put(uvo.getVoName(), self);
-                }
-                self.add(uvo.getUuid());
-
-                if (uvo.getForeignVOName() != null) {
-                    if (uvo.getForeignVOUuid() == null) {
-                        String err = String.format("%s[uuid:%s]'s foreignVOname[%s] is not null but foreignVOUuid is null. This is largely the foreignVOname which foreignVOUuid points to has been deleted. otherwise some bug happened", uvo.getVoName(), uvo.getUuid(),
-                                uvo.getForeignVOName());
-                        logger.warn(err);
-                        continue;
-                    }
+        List<Long> ids = CollectionUtils.transformToList(rows, getId);
+        String sql = String.format("delete from %s i where i.id in :id", clazz.getSimpleName());
+        Query query = dbf.getEntityManager().createQuery(sql);
+        query.setParameter("id", ids);
+        query.executeUpdate();
+    }
 
-                    Set<String> foreign = ret.get(uvo.getForeignVOName());
-                    if (foreign == null) {
-                        foreign = new HashSet<String>();
-                        ret.put(uvo.getForeignVOName(), foreign);
-                    }
-                    foreign.add(uvo.getForeignVOUuid());
-                }
+    @Transactional
+    private void deleteOutbox(Outbox ob) {
+        deleteOutboxRows(InsertVO.class, ob.inserts, new Function<Long, InsertVO>() {
+            @Override
+            public Long call(InsertVO arg) {
+                return arg.getId();
             }
+        });
+        deleteOutboxRows(UpdateVO.class, ob.updates, new Function<Long, UpdateVO>() {
+            @Override
+            public Long call(UpdateVO arg) {
+                return arg.getId();
+            }
+        });
+        deleteOutboxRows(DeleteVO.class, ob.deletes, new Function<Long, DeleteVO>() {
+            @Override
+            public Long call(DeleteVO arg) {
+                return arg.getId();
+            }
+        });
+    }
+
+    private void completeBatch(Outbox ob) {
+        if (ob.failed) {
+            logger.warn(String.format("failed to index %s rows of the index outbox, they are kept and will be taken by the next drain", ob.size()));
+            drainFailed = true;
+            scheduleRetry(indexingSince == 0 ? System.currentTimeMillis() : indexingSince);
+            return;
         }
 
-        return ret;
+        try {
+            deleteOutbox(ob);
+        } catch (Throwable t) {
+            // the rows are indexed again by the next drain, which is harmless
+            logger.warn(String.format("failed to delete %s indexed rows from the index outbox", ob.size()), t);
+        }
     }
 
-    private Pair<Map<String, Set<String>>, Map<String, Set<String>>> getVOUuidsToDeleteOrIndexFromDeleteVO(Class<?> triggeredVO) {
-        Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = new Pair<Map<String, Set<String>>, Map<String, Set<String>>>();
+    private void addUuid(Map<String, Set<String>> map, String voName, String uuid) {
+        if (uuid == null) {
+            return;
+        }
+
+        Set<String> uuids = map.get(voName);
+        if (uuids == null) {
+            uuids = new HashSet<String>();
+            map.put(voName, uuids);
+        }
+        uuids.add(uuid);
+    }
+
+    /**
+     * coalesces rows of the outbox into uuids to index and uuids to delete, keyed by VO names
+     */
+    private Pair<Map<String, Set<String>>, Map<String, Set<String>>> coalesce(Outbox ob) {
         Map<String, Set<String>> toIndex = new HashMap<String, Set<String>>();
         Map<String, Set<String>> toDelete = new HashMap<String, Set<String>>();
 
-        List<DeleteVO> dvos = takeDeleteVO(triggeredVO);
-        for (DeleteVO dvo : dvos) {
-            Set<String> self = toDelete.get(dvo.getVoName());
-            if (self == null) {
-                self = new HashSet<String>();
-                toDelete.put(dvo.getVoName(), self);
+        for (InsertVO ivo : ob.inserts) {
+            addUuid(toIndex, ivo.getVoName(), ivo.getUuid());
+            if (ivo.getForeignVOName() != null && ivo.getForeignVOUuid() != null) {
+                addUuid(toIndex, ivo.getForeignVOName(), ivo.getForeignVOUuid());
+            }
+        }
+
+        for (UpdateVO uvo : ob.updates) {
+            addUuid(toIndex, uvo.getVoName(), uvo.getUuid());
+            if (uvo.getForeignVOName() != null) {
+                if (uvo.getForeignVOUuid() == null) {
+                    String err = String.format("%s[uuid:%s]'s foreignVOname[%s] is not null but foreignVOUuid is null. This is largely the foreignVOname which foreignVOUuid points to has been deleted. otherwise some bug happened", uvo.getVoName(), uvo.getUuid(),
+                            uvo.getForeignVOName());
+                    logger.warn(err);
+                    continue;
+                }
+
+                addUuid(toIndex, uvo.getForeignVOName(), uvo.getForeignVOUuid());
             }
-            self.add(dvo.getUuid());
+        }
+
+        for (DeleteVO dvo : ob.deletes) {
+            addUuid(toDelete, dvo.getVoName(), dvo.getUuid());
 
             if (dvo.getForeignVOToDeleteName() != null) {
                 if (dvo.getForeignVOToDeleteUuid() == null) {
@@ -533,12 +595,7 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
                             dvo.getUuid(), dvo.getForeignVOToDeleteName());
                     logger.debug(err);
                 }
-                Set<String> duuids = toDelete.get(dvo.getForeignVOToDeleteName());
-                if (duuids == null) {
-                    duuids = new HashSet<String>();
-                    toDelete.put(dvo.getForeignVOToDeleteName(), duuids);
-                }
-                duuids.add(dvo.getForeignVOToDeleteUuid());
+                addUuid(toDelete, dvo.getForeignVOToDeleteName(), dvo.getForeignVOToDeleteUuid());
             }
 
             if (dvo.getForeignVOName() != null) {
@@ -547,18 +604,19 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
                             dvo.getForeignVOName());
                     logger.debug(err);
                 }
+                addUuid(toIndex, dvo.getForeignVOName(), dvo.getForeignVOUuid());
+            }
+        }
 
-                Set<String> foreign = toIndex.get(dvo.getForeignVOName());
-                if (foreign == null) {
-                    foreign = new HashSet<String>();
-                    toIndex.put(dvo.getForeignVOName(), foreign);
-                }
-                foreign.add(dvo.getForeignVOUuid());
+        // a resource deleted in the batch has nothing to index
+        for (Map.Entry<String, Set<String>> e : toDelete.entrySet()) {
+            Set<String> uuids = toIndex.get(e.getKey());
+            if (uuids != null) {
+                uuids.removeAll(e.getValue());
             }
         }
 
-        pair.set(toDelete, toIndex);
-        return pair;
+        return new Pair<Map<String, Set<String>>, Map<String, Set<String>>>(toDelete, toIndex);
     }
 
     @SuppressWarnings("rawtypes")
@@ -588,53 +646,73 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         return docs;
     }
 
-    private ESBulkBuilder addDocToIndexToESBuilder(ESBulkBuilder bbuilder, Map<String, Set<String>> vmap) {
+    private List<InventoryDoc> buildDocs(Map<String, Set<String>> vmap, Outbox ob) {
+        List<Task<List<InventoryDoc>>> tasks = new ArrayList<Task<List<InventoryDoc>>>();
+        for (Map.Entry<String, Set<String>> e : vmap.entrySet()) {
+            if (e.getValue().isEmpty()) {
+                continue;
+            }
+
+            final IndexerInfo info = voClassToIndexerMapping.get(e.getKey());
+            if (info == null) {
+                String err = String
+                        .format("%s has an entry in InsertVO/UpdateVO table, but there is no indexer matching it. It can be intended if the entity inherits from another entity but itself is not wanted to be indexed. Otherwise it's most likely a bug",
+                                e.getKey());
+                logger.warn(err);
+                continue;
+            }
+
+            List<String> uuids = new ArrayList<String>(e.getValue());
+            for (int i = 0; i < uuids.size(); i += BUILD_CHUNK_SIZE) {
+                final Set<String> chunk = new HashSet<String>(uuids.subList(i, Math.min(uuids.size(), i + BUILD_CHUNK_SIZE)));
+                tasks.add(new Task<List<InventoryDoc>>() {
+                    @Override
+                    public String getName() {
+                        return String.format("build-index-doc-%s", info.inventoryName);
+                    }
+
+                    @Override
+                    public List<InventoryDoc> call() throws Exception {
+                        return buildDoc(info, chunk);
+                    }
+                });
+            }
+        }
+
+        List<InventoryDoc> docs = new ArrayList<InventoryDoc>();
         try {
-            for (Map.Entry<String, Set<String>> e : vmap.entrySet()) {
-                IndexerInfo info = voClassToIndexerMapping.get(e.getKey());
-                if (info == null) {
-                    String err = String
-                            .format("%s has an entry in InsertVO/UpdateVO table, but there is no indexer matching it. It can be intended if the entity inherits from another entity but itself is not wanted to be indexed. Otherwise it's most likely a bug",
-                                    e.getKey());
-                    logger.warn(err);
-                    continue;
+            if (tasks.size() == 1) {
+                try {
+                    docs.addAll(tasks.get(0).call());
+                } catch (Exception e) {
+                    ob.failed = true;
+                    logger.warn("failed to build index docs", e);
                 }
+                return docs;
+            }
 
-                List<InventoryDoc> docs = buildDoc(info, e.getValue());
-                if (docs.isEmpty()) {
-                    continue;
+            for (int i = 0; i < tasks.size(); i += buildParallelism) {
+                List<Future<List<InventoryDoc>>> futures = new ArrayList<Future<List<InventoryDoc>>>();
+                for (Task<List<InventoryDoc>> task : tasks.subList(i, Math.min(tasks.size(), i + buildParallelism))) {
+                    futures.add(thdf.submit(task));
                 }
 
-                for (InventoryDoc doc : docs) {
-                    bbuilder.addIndexBulk(doc.getInventoryName().toLowerCase(), doc.getInventoryName(), doc);
+                for (Future<List<InventoryDoc>> f : futures) {
+                    try {
+                        docs.addAll(f.get());
+                    } catch (ExecutionException e) {
+                        ob.failed = true;
+                        logger.warn("failed to build index docs", e.getCause());
+                    }
                 }
             }
         } catch (Exception e) {
             throw new CloudRuntimeException(e);
         }
 
-        return bbuilder;
+        return docs;
     }
 
-    private ESBulkBuilder addDocToDeleteToESBuilder(ESBulkBuilder bbuilder, Map<String, Set<String>> vmap) {
-        for (Map.Entry<String, Set<String>> et : vmap.entrySet()) {
-            String voName = et.getKey();
-            IndexerInfo info = voClassToIndexerMapping.get(voName);
-            if (info == null) {
-                /* it's a RefVO for ManyToMany mapping */
-                continue;
-            }
-
-            Set<String> uuids = et.getValue();
-            if (!uuids.isEmpty()) {
-                for (String uuid : uuids) {
-                    bbuilder.addDeleteBulk(info.inventoryName.toLowerCase(), info.inventoryName, uuid);
-                }
-            }
-        }
-        return bbuilder;
-    }
-    
     private IndexerInfo getIndexerInfoByInventoryName(String inventoryName) {
         for (IndexerInfo info : voClassToIndexerMapping.values()) {
             if (info.inventoryName.equals(inventoryName)) {
@@ -681,39 +759,266 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         }
     }
 
-    @Override
-    public void afterCommit(Operation op, Class<?>... entityClass) {
-        ESBulkBuilder bbuilder = new ESBulkBuilder();
+    private ESBulkBuilder addDocToIndexToESBuilder(ESBulkBuilder bbuilder, InventoryDoc doc) {
+        return bbuilder.addIndexBulk(doc.getInventoryName().toLowerCase(), doc.getInventoryName(), doc);
+    }
 
-        for (Class<?> vo : entityClass) {
-            if (!triggerVOs.contains(vo)) {
-                logger.trace(String.format("Class[%s] is not annotated by @TriggerIndex, no index operation will be proceeded", vo.getName()));
+    private void sendBulkAsync(final ESBulkBuilder bbuilder, final Outbox ob, final CountDownLatch sent) throws InterruptedException {
+        // blocks the consumer when sendConcurrency bulks are in flight
+        sendPermits.acquire();
+        try {
+            thdf.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "send-index-bulk";
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        if (!sendBulk(bbuilder.toString(), bbuilder.getAffectedInventoryNames())) {
+                            ob.failed = true;
+                        }
+                    } finally {
+                        sendPermits.release();
+                        bulkDone(ob, sent);
+                    }
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            sendPermits.release();
+            ob.failed = true;
+            bulkDone(ob, sent);
+            throw e;
+        }
+    }
+
+    private void bulkDone(Outbox ob, CountDownLatch sent) {
+        try {
+            if (ob.unsentBulks.decrementAndGet() == 0) {
+                completeBatch(ob);
+            }
+        } finally {
+            sent.countDown();
+        }
+    }
+
+    /**
+     * indexes one batch of the outbox
+     *
+     * @return true if the outbox may have more rows
+     */
+    private boolean drainBatch() throws InterruptedException {
+        Outbox ob = takeOutbox(indexBatchSize);
+        if (ob.size() == 0) {
+            return false;
+        }
+
+        Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = coalesce(ob);
+        Map<String, Set<String>> toDelete = pair.first();
+        List<InventoryDoc> docs = buildDocs(pair.second(), ob);
+
+        List<ESBulkBuilder> bulks = new ArrayList<ESBulkBuilder>();
+        ESBulkBuilder bbuilder = new ESBulkBuilder();
+        int actions = 0;
+        for (Map.Entry<String, Set<String>> e : toDelete.entrySet()) {
+            IndexerInfo info = voClassToIndexerMapping.get(e.getKey());
+            if (info == null) {
+                /* it's a RefVO for ManyToMany mapping */
                 continue;
             }
 
-            if (op == Operation.PERSIST || op == Operation.UPDATE) {
-                Map<String, Set<String>> vmap = getUuidsOfVOToIndexFromInsertVOUpdateVO(vo, op);
-                bbuilder = addDocToIndexToESBuilder(bbuilder, vmap);
-            } else if (op == Operation.REMOVE) {
-                Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = getVOUuidsToDeleteOrIndexFromDeleteVO(vo);
-                Map<String, Set<String>> toIndex = pair.second();
-                bbuilder = addDocToIndexToESBuilder(bbuilder, toIndex);
-                Map<String, Set<String>> toDelete = pair.first();
-                bbuilder = addDocToDeleteToESBuilder(bbuilder, toDelete);
+            for (String uuid : e.getValue()) {
+                if (actions == maxActionsPerBulk) {
+                    bulks.add(bbuilder);
+                    bbuilder = new ESBulkBuilder();
+                    actions = 0;
+                }
+                bbuilder.addDeleteBulk(info.inventoryName.toLowerCase(), info.inventoryName, uuid);
+                actions++;
             }
         }
-
+        for (InventoryDoc doc : docs) {
+            if (actions == maxActionsPerBulk) {
+                bulks.add(bbuilder);
+                bbuilder = new ESBulkBuilder();
+                actions = 0;
+            }
+            addDocToIndexToESBuilder(bbuilder, doc);
+            actions++;
+        }
         if (!bbuilder.isEmpty()) {
-            sendBulk(bbuilder.toString(), bbuilder.getAffectedInventoryNames());
+            bulks.add(bbuilder);
+        }
+
+        // bulks of the previous batch may touch the same resources, don't overtake them
+        lastBatchSent.await();
+        if (bulks.isEmpty()) {
+            completeBatch(ob);
+        }
+        ob.unsentBulks = new AtomicInteger(bulks.size());
+        CountDownLatch sent = new CountDownLatch(bulks.size());
+        lastBatchSent = sent;
+        for (ESBulkBuilder b : bulks) {
+            sendBulkAsync(b, ob, sent);
+        }
+
+        logger.trace(String.format("took %s rows from the index outbox, coalesced into %s bulk requests", ob.size(), bulks.size()));
+        return ob.isFull(indexBatchSize);
+    }
+
+    private void drain() {
+        try {
+            long since;
+            while ((since = pendingSince.getAndSet(0)) != 0) {
+                indexingSince = since;
+                drainFailed = false;
+                // rows kept by failed batches of the previous drain are taken again
+                lastInsertId = 0;
+                lastUpdateId = 0;
+                lastDeleteId = 0;
+                while (drainBatch()) {
+                    logger.trace("the index outbox has more rows, continue draining");
+                }
+
+                lastBatchSent.await();
+                lastIndexLag = System.currentTimeMillis() - since;
+                if (!drainFailed) {
+                    retryDelay.set(INITIAL_RETRY_DELAY);
+                }
+                indexingSince = 0;
+            }
+        } catch (Throwable t) {
+            logger.warn("unhandled throwable when draining the index outbox", t);
+            // not drained again at once, a persistent failure would keep the thread pool busy
+            scheduleRetry(indexingSince == 0 ? System.currentTimeMillis() : indexingSince);
+        } finally {
+            indexingSince = 0;
+            draining.set(false);
+        }
+
+        // signaled after the loop exited
+        if (pendingSince.get() != 0) {
+            scheduleDrain();
         }
     }
 
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            thdf.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "drain-index-outbox";
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    drain();
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            draining.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * drains the outbox again after retryDelay, for rows kept by failed batches
+     */
+    private void scheduleRetry(long since) {
+        if (!retryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        retrySince = since;
+        long delay = retryDelay.get();
+        retryDelay.set(Math.min(delay * 2, MAX_RETRY_DELAY));
+        logger.debug(String.format("retry draining the index outbox in %s ms", delay));
+        try {
+            thdf.submitTimeoutTask(new Runnable() {
+                @Override
+                public void run() {
+                    long s = retrySince;
+                    retrySince = 0;
+                    retryScheduled.set(false);
+                    pendingSince.compareAndSet(0, s);
+                    scheduleDrain();
+                }
+            }, TimeUnit.MILLISECONDS, delay);
+        } catch (RuntimeException e) {
+            retrySince = 0;
+            retryScheduled.set(false);
+            throw e;
+        }
+    }
+
+    @Override
+    public void afterCommit(Operation op, Class<?>... entityClass) {
+        for (Class<?> vo : entityClass) {
+            if (triggerVOs.contains(vo)) {
+                pendingSince.compareAndSet(0, System.currentTimeMillis());
+                scheduleDrain();
+                return;
+            }
+        }
+
+        logger.trace(String.format("Classes%s are not annotated by @TriggerIndex, no index operation will be proceeded", Arrays.toString(entityClass)));
+    }
+
+    @Override
+    public long getIndexLag() {
+        long now = System.currentTimeMillis();
+        long oldest = indexingSince;
+        long pending = pendingSince.get();
+        if (oldest == 0 || (pending != 0 && pending < oldest)) {
+            oldest = pending;
+        }
+        long retry = retrySince;
+        if (oldest == 0 || (retry != 0 && retry < oldest)) {
+            oldest = retry;
+        }
+        return oldest == 0 ? 0 : now - oldest;
+    }
+
+    @Override
+    public long getLastIndexLag() {
+        return lastIndexLag;
+    }
+
     @Override
     public void afterCompletion(Operation op, int status, Class<?>... entityClass) {
     }
 
     public void setElasticSearchBaseUrl(String elasticSearchBaseUrl) {
         this.elasticSearchBaseUrl = elasticSearchBaseUrl;
+        try {
+            bulkUri = makeURI(elasticSearchBaseUrl, "_bulk");
+        } catch (URISyntaxException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    public void setIndexBatchSize(int indexBatchSize) {
+        this.indexBatchSize = indexBatchSize;
+    }
+
+    public void setBuildParallelism(int buildParallelism) {
+        this.buildParallelism = buildParallelism;
+    }
+
+    public void setSendConcurrency(int sendConcurrency) {
+        this.sendConcurrency = sendConcurrency;
+        sendPermits = new Semaphore(sendConcurrency);
+    }
+
+    public void setMaxActionsPerBulk(int maxActionsPerBulk) {
+        this.maxActionsPerBulk = maxActionsPerBulk;
     }
 
     @Override
@@ -27,6 +27,7 @@ public class SimulatorSecurityGroupBackend implements
 	private Map<String, Set<SecurityGroupRuleTO>> rules = new HashMap<String, Set<SecurityGroupRuleTO>>();
 	
 	public volatile boolean securityGroupSuccess = true;
+    public List<HostRuleTO> appliedHostRuleTOs = Collections.synchronizedList(new ArrayList<HostRuleTO>());
 	
 	@Autowired
 	private CloudBus bus;
@@ -44,6 +45,7 @@ public class SimulatorSecurityGroupBackend implements
 		    return;
 		}
 		
+		appliedHostRuleTOs.add(hto);
 		if (hto.isRefreshHost()) {
 		    rules.remove(hto.getHostUuid());
 		}
@@ -1,5 +1,6 @@
 package org.zstack.simulator.kvm;
 
+import org.zstack.header.rest.BatchJsonPostCmd;
 import org.zstack.kvm.KVMAgentCommands;
 import org.zstack.kvm.KVMAgentCommands.*;
 import org.zstack.kvm.KVMConstant.KvmVmState;
@@ -79,6 +80,7 @@ public class KVMSimulatorConfig {
     public volatile boolean vmSyncSuccess = true;
     public List<HardenVmConsoleCmd> hardenVmConsoleCmds = new ArrayList<HardenVmConsoleCmd>();
     public List<DeleteVmConsoleFirewallCmd> deleteVmConsoleFirewallCmds  = new ArrayList<DeleteVmConsoleFirewallCmd>();
+    public List<BatchJsonPostCmd> batchCmds = new ArrayList<BatchJsonPostCmd>();
 
     public Map<String, Long> takeSnapshotCmdSize = new HashMap<String, Long>();
 }
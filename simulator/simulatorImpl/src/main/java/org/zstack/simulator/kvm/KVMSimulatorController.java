@@ -5,8 +5,11 @@ import org.springframework.http.HttpEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.rest.BatchJsonPostCmd;
+import org.zstack.header.rest.RESTConstant;
 import org.zstack.header.rest.RESTFacade;
 import org.zstack.kvm.KVMAgentCommands;
 import org.zstack.kvm.KVMAgentCommands.*;
@@ -229,6 +232,29 @@ public class KVMSimulatorController {
         return "";
     }
 
+    @RequestMapping(value=KVMConstant.KVM_BATCH_COMMAND_PATH, method=RequestMethod.POST)
+    public @ResponseBody String batch(HttpServletRequest req) {
+        HttpEntity<String> entity = restf.httpServletRequestToHttpEntity(req);
+        BatchJsonPostCmd cmd = JSONObjectUtil.toObject(entity.getBody(), BatchJsonPostCmd.class);
+        config.batchCmds.add(cmd);
+
+        String callbackUrl = entity.getHeaders().getFirst(RESTConstant.CALLBACK_URL);
+        for (BatchJsonPostCmd.Command c : cmd.getCommands()) {
+            String url = UriComponentsBuilder.fromHttpUrl(req.getRequestURL().toString()).replacePath(c.getPath()).build().toUriString();
+            forwardBatchCommand(url, c, callbackUrl);
+        }
+        return null;
+    }
+
+    // handle each command by its own handler as if it was posted separately; the handler replies it
+    @AsyncThread
+    private void forwardBatchCommand(String url, BatchJsonPostCmd.Command c, String callbackUrl) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(RESTConstant.TASK_UUID, c.getTaskUuid());
+        headers.put(RESTConstant.CALLBACK_URL, callbackUrl);
+        restf.syncJsonPost(url, c.getBody(), headers, Void.class);
+    }
+
     
     @RequestMapping(value=KVMConstant.KVM_DETACH_VOLUME, method=RequestMethod.POST)
     private @ResponseBody String detachDataVolume(HttpServletRequest req) throws InterruptedException {
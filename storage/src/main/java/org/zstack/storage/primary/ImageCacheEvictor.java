@@ -0,0 +1,427 @@
+package org.zstack.storage.primary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.core.NoErrorCompletion;
+import org.zstack.header.image.ImageConstant.ImageMediaType;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.storage.primary.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * deletes image caches no volume uses from primary storage running out of capacity.
+ *
+ * Every imageCache.eviction.interval seconds, each primary storage managed by this management node whose type
+ * supports eviction is checked; if the used percentage of its physical capacity(the logical capacity if the physical
+ * one is unknown) is above imageCache.eviction.highWatermark, ready image caches that no volume is created from and
+ * that have been idle longer than imageCache.eviction.minIdleTime are deleted in imageCache.eviction.order, until the
+ * used percentage drops to imageCache.eviction.lowWatermark or imageCache.eviction.maxDeletionsPerRun caches are deleted.
+ *
+ * The last use of a cache is the latest of its lastOpDate, which is refreshed on cache hits, and the creation of
+ * volumes from the image on the primary storage, deleted volumes included. Caches are deleted one by one by
+ * PrimaryStorageRemoveCachedImageMsg and stay in deleting state meanwhile, so they are not used by new volumes.
+ */
+public class ImageCacheEvictor implements Component {
+    private static final CLogger logger = Utils.getLogger(ImageCacheEvictor.class);
+
+    // a cache in deleting state longer than this was left by a management node that died during the deletion
+    private static final long STALE_DELETING_TIME = TimeUnit.HOURS.toMillis(1);
+
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    public enum EvictionOrder {
+        LRU,
+        SizeWeighted
+    }
+
+    private static class Candidate {
+        ImageCacheVO cache;
+        long lastUse;
+    }
+
+    private Future<Void> evictionThread;
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> reclaimedBytesByPrimaryStorage = new ConcurrentHashMap<String, AtomicLong>();
+    // primary storage whose caches are being deleted, they are skipped by checks until the deletion is done
+    private final Set<String> evicting = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Override
+    public boolean start() {
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startEvictionThread();
+            }
+        });
+
+        startEvictionThread();
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (evictionThread != null) {
+            evictionThread.cancel(true);
+        }
+        return true;
+    }
+
+    private synchronized void startEvictionThread() {
+        if (evictionThread != null) {
+            evictionThread.cancel(true);
+        }
+
+        evictionThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return ImageCacheEvictor.class.getSimpleName();
+            }
+
+            @Override
+            public void run() {
+                try {
+                    evict();
+                } catch (Throwable t) {
+                    logger.warn("unhandled throwable", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return bytes reclaimed by eviction on this management node since it started
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    public long getReclaimedBytes(String primaryStorageUuid) {
+        AtomicLong bytes = reclaimedBytesByPrimaryStorage.get(primaryStorageUuid);
+        return bytes == null ? 0 : bytes.get();
+    }
+
+    @Transactional(readOnly = true)
+    private List<Tuple> getPrimaryStorageCapacities() {
+        String sql = "select ps.uuid, ps.type, cap.totalCapacity, cap.availableCapacity, cap.totalPhysicalCapacity, cap.availablePhysicalCapacity" +
+                " from PrimaryStorageVO ps, PrimaryStorageCapacityVO cap where ps.uuid = cap.uuid and ps.status = :status";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("status", PrimaryStorageStatus.Connected);
+        return q.getResultList();
+    }
+
+    /**
+     * checks all primary storage managed by this management node once, caches are deleted asynchronously
+     */
+    public void evict() {
+        if (!PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_ENABLED.value(Boolean.class)) {
+            return;
+        }
+
+        int high = PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_HIGH_WATERMARK.value(Integer.class);
+        int low = Math.min(high, PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_LOW_WATERMARK.value(Integer.class));
+
+        for (Tuple t : getPrimaryStorageCapacities()) {
+            String psUuid = t.get(0, String.class);
+            if (!destMaker.isManagedByUs(psUuid) || !PrimaryStorageType.valueOf(t.get(1, String.class)).isSupportImageCacheEviction()) {
+                continue;
+            }
+
+            long total = t.get(4, Long.class);
+            long available = t.get(5, Long.class);
+            if (total <= 0) {
+                total = t.get(2, Long.class);
+                available = t.get(3, Long.class);
+            }
+            if (total <= 0) {
+                continue;
+            }
+
+            long used = total - available;
+            long toReclaim = used * 100 > total * high ? used - total * low / 100 : 0;
+            List<ImageCacheVO> stale = getStaleDeletingCaches(psUuid);
+            if (toReclaim <= 0 && stale.isEmpty()) {
+                continue;
+            }
+
+            if (!evicting.add(psUuid)) {
+                continue;
+            }
+
+            try {
+                evict(psUuid, used * 100 / total, toReclaim, stale);
+            } catch (RuntimeException e) {
+                evicting.remove(psUuid);
+                throw e;
+            }
+        }
+    }
+
+    @Transactional(readOnly = true)
+    private List<ImageCacheVO> getStaleDeletingCaches(String psUuid) {
+        String sql = "select c from ImageCacheVO c where c.primaryStorageUuid = :psUuid and c.imageUuid is not null" +
+                " and c.state = :state and c.lastOpDate < :date";
+        TypedQuery<ImageCacheVO> q = dbf.getEntityManager().createQuery(sql, ImageCacheVO.class);
+        q.setParameter("psUuid", psUuid);
+        q.setParameter("state", ImageCacheState.deleting);
+        q.setParameter("date", new Timestamp(dbf.getCurrentSqlTime().getTime() - STALE_DELETING_TIME));
+        return q.getResultList();
+    }
+
+    @Transactional(readOnly = true)
+    private List<Candidate> getCandidates(String psUuid) {
+        String sql = "select c from ImageCacheVO c where c.primaryStorageUuid = :psUuid and c.imageUuid is not null" +
+                " and c.state = :state and c.mediaType != :iso" +
+                " and c.imageUuid not in (select v.rootImageUuid from VolumeVO v where v.primaryStorageUuid = :psUuid and v.rootImageUuid is not null)" +
+                " and c.id not in (select r.imageCacheId from ImageCacheVolumeRefVO r where r.primaryStorageUuid = :psUuid)";
+        TypedQuery<ImageCacheVO> q = dbf.getEntityManager().createQuery(sql, ImageCacheVO.class);
+        q.setParameter("psUuid", psUuid);
+        q.setParameter("state", ImageCacheState.ready);
+        // an ISO attached to a vm is used through its cache without any volume
+        q.setParameter("iso", ImageMediaType.ISO);
+        List<ImageCacheVO> caches = q.getResultList();
+        if (caches.isEmpty()) {
+            return new ArrayList<Candidate>();
+        }
+
+        Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+        for (ImageCacheVO c : caches) {
+            Candidate cd = new Candidate();
+            cd.cache = c;
+            cd.lastUse = c.getLastOpDate() != null ? c.getLastOpDate().getTime() : c.getCreateDate().getTime();
+            candidates.put(c.getImageUuid(), cd);
+        }
+
+        sql = "select v.rootImageUuid, max(v.createDate) from VolumeEO v where v.primaryStorageUuid = :psUuid" +
+                " and v.rootImageUuid in (:imageUuids) group by v.rootImageUuid";
+        TypedQuery<Tuple> tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        tq.setParameter("psUuid", psUuid);
+        tq.setParameter("imageUuids", candidates.keySet());
+        for (Tuple t : tq.getResultList()) {
+            Timestamp createDate = t.get(1, Timestamp.class);
+            Candidate cd = candidates.get(t.get(0, String.class));
+            if (createDate != null && createDate.getTime() > cd.lastUse) {
+                cd.lastUse = createDate.getTime();
+            }
+        }
+
+        return new ArrayList<Candidate>(candidates.values());
+    }
+
+    private void evict(final String psUuid, long usage, long toReclaim, List<ImageCacheVO> stale) {
+        final List<ImageCacheVO> toDelete = new ArrayList<ImageCacheVO>(stale);
+
+        if (toReclaim > 0) {
+            final long now = dbf.getCurrentSqlTime().getTime();
+            long minIdle = TimeUnit.SECONDS.toMillis(PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.value(Long.class));
+            List<Candidate> candidates = new ArrayList<Candidate>();
+            for (Candidate cd : getCandidates(psUuid)) {
+                if (now - cd.lastUse >= minIdle) {
+                    candidates.add(cd);
+                }
+            }
+
+            final EvictionOrder order = EvictionOrder.valueOf(PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_ORDER.value());
+            Collections.sort(candidates, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate o1, Candidate o2) {
+                    if (order == EvictionOrder.SizeWeighted) {
+                        // the biggest idle time * size first
+                        return Double.compare((double) (now - o2.lastUse) * o2.cache.getSize(), (double) (now - o1.lastUse) * o1.cache.getSize());
+                    }
+
+                    return Long.compare(o1.lastUse, o2.lastUse);
+                }
+            });
+
+            int max = PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MAX_DELETIONS_PER_RUN.value(Integer.class);
+            long planned = 0;
+            int num = 0;
+            for (Candidate cd : candidates) {
+                if (planned >= toReclaim || num >= max) {
+                    break;
+                }
+
+                toDelete.add(cd.cache);
+                planned += cd.cache.getSize();
+                num++;
+            }
+
+            logger.debug(String.format("primary storage[uuid:%s] is %s%% used, going to delete %s of %s unused image caches to reclaim %s bytes, %s bytes are needed",
+                    psUuid, usage, num, candidates.size(), planned, toReclaim));
+        }
+
+        if (toDelete.isEmpty()) {
+            evicting.remove(psUuid);
+            return;
+        }
+
+        final AtomicLong reclaimed = new AtomicLong();
+        final Iterator<ImageCacheVO> it = toDelete.iterator();
+        new Runnable() {
+            @Override
+            public void run() {
+                if (!it.hasNext()) {
+                    evicting.remove(psUuid);
+                    logger.debug(String.format("image cache eviction reclaimed %s bytes on primary storage[uuid:%s], %s bytes in total on this management node",
+                            reclaimed.get(), psUuid, reclaimedBytes.get()));
+                    return;
+                }
+
+                final ImageCacheVO cache = it.next();
+                final Runnable next = this;
+                boolean marked;
+                try {
+                    marked = cache.getState() == ImageCacheState.deleting || markDeleting(cache.getId());
+                } catch (RuntimeException e) {
+                    logger.warn(String.format("failed to mark image cache[id:%s] deleting", cache.getId()), e);
+                    marked = false;
+                }
+
+                if (!marked) {
+                    next.run();
+                    return;
+                }
+
+                deleteCache(cache, new NoErrorCompletion() {
+                    @Override
+                    public void done() {
+                        reclaimed.addAndGet(cache.getSize());
+                        next.run();
+                    }
+                }, new NoErrorCompletion() {
+                    @Override
+                    public void done() {
+                        next.run();
+                    }
+                });
+            }
+        }.run();
+    }
+
+    /**
+     * marks the cache deleting if it's still ready, unused and idle, in case it's used since it was picked
+     */
+    @Transactional
+    private boolean markDeleting(long id) {
+        ImageCacheVO cache = dbf.getEntityManager().find(ImageCacheVO.class, id, LockModeType.PESSIMISTIC_WRITE);
+        if (cache == null || cache.getState() != ImageCacheState.ready || cache.getImageUuid() == null) {
+            return false;
+        }
+
+        long minIdle = TimeUnit.SECONDS.toMillis(PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.value(Long.class));
+        if (cache.getLastOpDate() != null && dbf.getCurrentSqlTime().getTime() - cache.getLastOpDate().getTime() < minIdle) {
+            return false;
+        }
+
+        String sql = "select count(v) from VolumeVO v where v.primaryStorageUuid = :psUuid and v.rootImageUuid = :imageUuid";
+        TypedQuery<Long> q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("psUuid", cache.getPrimaryStorageUuid());
+        q.setParameter("imageUuid", cache.getImageUuid());
+        if (q.getSingleResult() > 0) {
+            return false;
+        }
+
+        sql = "select count(r) from ImageCacheVolumeRefVO r where r.imageCacheId = :id";
+        q = dbf.getEntityManager().createQuery(sql, Long.class);
+        q.setParameter("id", id);
+        if (q.getSingleResult() > 0) {
+            return false;
+        }
+
+        cache.setState(ImageCacheState.deleting);
+        dbf.getEntityManager().merge(cache);
+        return true;
+    }
+
+    /**
+     * records a use of a ready cache by refreshing its lastOpDate. The update waits for markDeleting() holding the
+     * row lock, so a cache is either touched before it's picked or seen deleting
+     *
+     * @return false if the cache is not ready any more, e.g. claimed by the eviction; its bits must not be used then
+     */
+    @Transactional
+    public boolean touch(long id) {
+        String sql = "update ImageCacheVO c set c.lastOpDate = CURRENT_TIMESTAMP where c.id = :id and c.state = :state";
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("id", id);
+        q.setParameter("state", ImageCacheState.ready);
+        return q.executeUpdate() > 0;
+    }
+
+    private void deleteCache(final ImageCacheVO cache, final NoErrorCompletion success, final NoErrorCompletion failure) {
+        PrimaryStorageRemoveCachedImageMsg msg = new PrimaryStorageRemoveCachedImageMsg();
+        msg.setInventory(ImageCacheInventory.valueOf(cache));
+        bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, cache.getPrimaryStorageUuid());
+        bus.send(msg, new CloudBusCallBack(success) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    ImageCacheVO vo = dbf.findById(cache.getId(), ImageCacheVO.class);
+                    if (vo != null) {
+                        vo.setState(ImageCacheState.ready);
+                        dbf.update(vo);
+                    }
+
+                    logger.warn(String.format("failed to delete image cache[id:%s, path:%s] on primary storage[uuid:%s], %s. Change its state back to ready",
+                            cache.getId(), cache.getInstallUrl(), cache.getPrimaryStorageUuid(), reply.getError()));
+                    failure.done();
+                    return;
+                }
+
+                dbf.removeByPrimaryKey(cache.getId(), ImageCacheVO.class);
+                reclaimedBytes.addAndGet(cache.getSize());
+                AtomicLong bytes = reclaimedBytesByPrimaryStorage.get(cache.getPrimaryStorageUuid());
+                if (bytes == null) {
+                    bytes = new AtomicLong();
+                    AtomicLong old = reclaimedBytesByPrimaryStorage.putIfAbsent(cache.getPrimaryStorageUuid(), bytes);
+                    if (old != null) {
+                        bytes = old;
+                    }
+                }
+                bytes.addAndGet(cache.getSize());
+
+                logger.debug(String.format("evicted image cache[id:%s, image uuid:%s, path:%s, size:%s] on primary storage[uuid:%s]",
+                        cache.getId(), cache.getImageUuid(), cache.getInstallUrl(), cache.getSize(), cache.getPrimaryStorageUuid()));
+                success.done();
+            }
+        });
+    }
+}
@@ -18,4 +18,18 @@ public class PrimaryStorageGlobalConfig {
     public static GlobalConfig PING_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig PING_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "ping.parallelismDegree");
+    @GlobalConfigValidation
+    public static GlobalConfig IMAGE_CACHE_EVICTION_ENABLED = new GlobalConfig(CATEGORY, "imageCache.eviction.enabled");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_INTERVAL = new GlobalConfig(CATEGORY, "imageCache.eviction.interval");
+    @GlobalConfigValidation(inNumberRange = {1, 100})
+    public static GlobalConfig IMAGE_CACHE_EVICTION_HIGH_WATERMARK = new GlobalConfig(CATEGORY, "imageCache.eviction.highWatermark");
+    @GlobalConfigValidation(inNumberRange = {0, 100})
+    public static GlobalConfig IMAGE_CACHE_EVICTION_LOW_WATERMARK = new GlobalConfig(CATEGORY, "imageCache.eviction.lowWatermark");
+    @GlobalConfigValidation(validValues = {"LRU", "SizeWeighted"})
+    public static GlobalConfig IMAGE_CACHE_EVICTION_ORDER = new GlobalConfig(CATEGORY, "imageCache.eviction.order");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_MAX_DELETIONS_PER_RUN = new GlobalConfig(CATEGORY, "imageCache.eviction.maxDeletionsPerRun");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig IMAGE_CACHE_EVICTION_MIN_IDLE_TIME = new GlobalConfig(CATEGORY, "imageCache.eviction.minIdleTime");
 }
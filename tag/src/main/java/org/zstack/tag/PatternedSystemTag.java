@@ -5,6 +5,7 @@ import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.tag.SystemTagInventory;
 import org.zstack.header.tag.SystemTagVO;
 import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.tag.SystemTagCache.CachedTag;
 import org.zstack.utils.TagUtils;
 
 import java.util.ArrayList;
@@ -76,6 +77,11 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public Map<String, String> getTokensByResourceUuid(String resourceUuid, Class resourceClass) {
+        if (useCache()) {
+            List<CachedTag> tags = findInCache(resourceUuid, resourceClass);
+            return tags.isEmpty() ? null : tags.get(0).getTokens(tagFormat);
+        }
+
         String tag = getTag(resourceUuid, resourceClass);
         if (tag == null) {
             return null;
@@ -91,6 +97,13 @@ public class PatternedSystemTag extends SystemTag {
     public List<Map<String, String>> getTokensOfTagsByResourceUuid(String resourceUuid, Class resourceClass) {
         List<Map<String, String>> res = new ArrayList<Map<String, String>>();
 
+        if (useCache()) {
+            for (CachedTag tag : findInCache(resourceUuid, resourceClass)) {
+                res.add(tag.getTokens(tagFormat));
+            }
+            return res;
+        }
+
         List<String> tags = getTags(resourceUuid, resourceClass);
         for (String tag : tags) {
             res.add(TagUtils.parseIfMatch(tagFormat, tag));
@@ -132,6 +145,11 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public SystemTagInventory getTagInventory(String resourceUuid) {
+        if (useCache()) {
+            List<CachedTag> tags = findInCache(resourceUuid, getResourceClass());
+            return tags.isEmpty() ? null : tags.get(0).getInventory();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, getResourceClass().getSimpleName());
@@ -7,6 +7,8 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.header.tag.*;
+import org.zstack.tag.SystemTagCache.CachedTag;
+import org.zstack.tag.SystemTagCache.TagQuery;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
@@ -28,6 +30,9 @@ public class SystemTag {
 
     // TagManager must be explicitly set. use @Autowried will cause circular dependency
     protected TagManager tagMgr;
+    // set by TagManagerImpl together with tagMgr
+    protected SystemTagCache tagCache;
+    private volatile TagQuery cacheQuery;
 
     protected String tagFormat;
     protected Class resourceClass;
@@ -100,11 +105,30 @@ public class SystemTag {
         return Op.EQ;
     }
 
+    protected boolean useCache() {
+        return tagCache != null && tagCache.isEnabled();
+    }
+
+    private TagQuery getCacheQuery() {
+        if (cacheQuery == null) {
+            cacheQuery = new TagQuery(useOp(), useTagFormat());
+        }
+        return cacheQuery;
+    }
+
+    protected List<CachedTag> findInCache(String resourceUuid, Class resourceClass) {
+        return tagCache.find(resourceClass.getSimpleName(), resourceUuid, getCacheQuery());
+    }
+
     public boolean hasTag(String resourceUuid) {
         return hasTag(resourceUuid, resourceClass);
     }
 
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        if (useCache()) {
+            return !findInCache(resourceUuid, resourceClass).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -130,6 +154,14 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        if (useCache()) {
+            List<String> tags = new ArrayList<String>();
+            for (CachedTag tag : findInCache(resourceUuid, resourceClass)) {
+                tags.add(tag.getTag());
+            }
+            return tags;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -155,6 +187,19 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
+        if (useCache()) {
+            Map<String, List<String>> ret = new HashMap<String, List<String>>();
+            Map<String, List<CachedTag>> found = tagCache.find(resourceClass.getSimpleName(), resourceUuids, getCacheQuery());
+            for (Map.Entry<String, List<CachedTag>> e : found.entrySet()) {
+                List<String> tags = new ArrayList<String>();
+                for (CachedTag tag : e.getValue()) {
+                    tags.add(tag.getTag());
+                }
+                ret.put(e.getKey(), tags);
+            }
+            return ret;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -288,6 +333,10 @@ public class SystemTag {
         this.tagMgr = tagMgr;
     }
 
+    void setTagCache(SystemTagCache tagCache) {
+        this.tagCache = tagCache;
+    }
+
     public List<SystemTagValidator> getValidators() {
         return validators;
     }
@@ -0,0 +1,267 @@
+package org.zstack.tag;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.tag.SystemTagInventory;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.utils.ObjectUtils;
+import org.zstack.utils.TagUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * caches system tags of resources on this management node, so lookups of SystemTag and PatternedSystemTag
+ * don't go to the database.
+ *
+ * Tags of a resource are loaded on the first lookup and indexed by their first segment(e.g. 'hostname' of
+ * 'hostname::{hostname}'); tokens parsed from a tag are kept along with the tag. TagManagerImpl invalidates
+ * a resource whenever its system tags change, on this node and, by a canonical event, on other nodes.
+ * A resource loaded from the database while an invalidation happens is not put in the cache.
+ *
+ * At most tag.systemTag.cacheSize resources are cached, resources with no tag included; the least recently
+ * looked up ones are evicted beyond that, so resources deleted without an invalidation don't stay forever
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+class SystemTagCache {
+    @Autowired
+    private DatabaseFacade dbf;
+
+    private static final Map<String, String> NO_TOKENS = new HashMap<String, String>();
+
+    /**
+     * the condition 'tag useOp() useTagFormat()' of SystemTag queries, evaluated in memory. Like the database,
+     * the comparison is case insensitive
+     */
+    static class TagQuery {
+        private Pattern pattern;
+        private String prefix;
+
+        TagQuery(Op op, String format) {
+            String first = format.split("::")[0];
+            if (op == Op.LIKE) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < format.length(); i++) {
+                    char c = format.charAt(i);
+                    if (c == '%') {
+                        sb.append(".*");
+                    } else if (c == '_') {
+                        sb.append(".");
+                    } else {
+                        if (c == '\\' && i + 1 < format.length()) {
+                            c = format.charAt(++i);
+                        }
+                        sb.append(Pattern.quote(String.valueOf(c)));
+                    }
+                }
+                pattern = Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+                prefix = first.contains("%") || first.contains("_") || first.contains("\\") ? null : first.toLowerCase();
+            } else if (op == Op.EQ) {
+                pattern = Pattern.compile(Pattern.quote(format), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                prefix = first.toLowerCase();
+            } else {
+                throw new IllegalArgumentException(String.format("unsupported op[%s] for system tag cache", op));
+            }
+        }
+
+        boolean isMatch(String tag) {
+            return pattern.matcher(tag).matches();
+        }
+    }
+
+    static class CachedTag {
+        private final SystemTagInventory inventory;
+        private final Map<String, Map<String, String>> tokens = new ConcurrentHashMap<String, Map<String, String>>();
+
+        CachedTag(SystemTagInventory inventory) {
+            this.inventory = inventory;
+        }
+
+        String getTag() {
+            return inventory.getTag();
+        }
+
+        SystemTagInventory getInventory() {
+            return ObjectUtils.copy(new SystemTagInventory(), inventory);
+        }
+
+        /**
+         * @return a copy of the tokens parsed by the tagFormat, or null if the tag doesn't match the tagFormat
+         */
+        Map<String, String> getTokens(String tagFormat) {
+            Map<String, String> t = tokens.get(tagFormat);
+            if (t == null) {
+                t = TagUtils.parseIfMatch(tagFormat, inventory.getTag());
+                if (t == null) {
+                    t = NO_TOKENS;
+                }
+                tokens.put(tagFormat, t);
+            }
+
+            return t == NO_TOKENS ? null : new HashMap<String, String>(t);
+        }
+    }
+
+    private static class ResourceTags {
+        private List<CachedTag> tags = new ArrayList<CachedTag>();
+        private Map<String, List<CachedTag>> tagsByPrefix = new HashMap<String, List<CachedTag>>();
+
+        void add(SystemTagInventory inv) {
+            CachedTag tag = new CachedTag(inv);
+            tags.add(tag);
+
+            String prefix = inv.getTag().split("::")[0].toLowerCase();
+            List<CachedTag> lst = tagsByPrefix.get(prefix);
+            if (lst == null) {
+                lst = new ArrayList<CachedTag>();
+                tagsByPrefix.put(prefix, lst);
+            }
+            lst.add(tag);
+        }
+
+        List<CachedTag> find(TagQuery query) {
+            List<CachedTag> candidates = query.prefix == null ? tags : tagsByPrefix.get(query.prefix);
+            if (candidates == null) {
+                return new ArrayList<CachedTag>();
+            }
+
+            List<CachedTag> ret = new ArrayList<CachedTag>();
+            for (CachedTag tag : candidates) {
+                if (query.isMatch(tag.getTag())) {
+                    ret.add(tag);
+                }
+            }
+            return ret;
+        }
+    }
+
+    // in access order for LRU eviction; guarded by itself
+    private final LinkedHashMap<String, ResourceTags> resources = new LinkedHashMap<String, ResourceTags>(1024, 0.75f, true);
+    private AtomicLong generation = new AtomicLong();
+
+    boolean isEnabled() {
+        return TagGlobalConfig.SYSTEM_TAG_CACHE.value(Boolean.class);
+    }
+
+    private String makeKey(String resourceType, String resourceUuid) {
+        return resourceType + ":" + resourceUuid;
+    }
+
+    private ResourceTags lookup(String key) {
+        synchronized (resources) {
+            return resources.get(key);
+        }
+    }
+
+    private void put(String key, ResourceTags tags, long generation) {
+        int max = TagGlobalConfig.SYSTEM_TAG_CACHE_SIZE.value(Integer.class);
+        synchronized (resources) {
+            if (generation != this.generation.get()) {
+                // invalidated while the tags were being loaded, the tags may be stale
+                return;
+            }
+
+            resources.put(key, tags);
+            Iterator<String> it = resources.keySet().iterator();
+            while (resources.size() > max && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    private ResourceTags get(String resourceType, String resourceUuid) {
+        String key = makeKey(resourceType, resourceUuid);
+        ResourceTags tags = lookup(key);
+        if (tags != null) {
+            return tags;
+        }
+
+        long gen = generation.get();
+        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
+        q.add(SystemTagVO_.resourceType, Op.EQ, resourceType);
+        q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
+        List<SystemTagVO> vos = q.list();
+
+        tags = new ResourceTags();
+        for (SystemTagVO vo : vos) {
+            tags.add(SystemTagInventory.valueOf(vo));
+        }
+        put(key, tags, gen);
+        return tags;
+    }
+
+    List<CachedTag> find(String resourceType, String resourceUuid, TagQuery query) {
+        return get(resourceType, resourceUuid).find(query);
+    }
+
+    /**
+     * @return matched tags of each resource; resources having no matched tag are not in the map
+     */
+    Map<String, List<CachedTag>> find(String resourceType, Collection<String> resourceUuids, TagQuery query) {
+        Map<String, ResourceTags> found = new HashMap<String, ResourceTags>();
+        List<String> missing = new ArrayList<String>();
+        for (String uuid : resourceUuids) {
+            ResourceTags tags = lookup(makeKey(resourceType, uuid));
+            if (tags == null) {
+                missing.add(uuid);
+            } else {
+                found.put(uuid, tags);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long gen = generation.get();
+            SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
+            q.add(SystemTagVO_.resourceType, Op.EQ, resourceType);
+            q.add(SystemTagVO_.resourceUuid, Op.IN, missing);
+            List<SystemTagVO> vos = q.list();
+
+            Map<String, ResourceTags> loaded = new HashMap<String, ResourceTags>();
+            for (String uuid : missing) {
+                loaded.put(uuid, new ResourceTags());
+            }
+            for (SystemTagVO vo : vos) {
+                loaded.get(vo.getResourceUuid()).add(SystemTagInventory.valueOf(vo));
+            }
+            for (Map.Entry<String, ResourceTags> e : loaded.entrySet()) {
+                put(makeKey(resourceType, e.getKey()), e.getValue(), gen);
+            }
+            found.putAll(loaded);
+        }
+
+        Map<String, List<CachedTag>> ret = new HashMap<String, List<CachedTag>>();
+        for (Map.Entry<String, ResourceTags> e : found.entrySet()) {
+            List<CachedTag> tags = e.getValue().find(query);
+            if (!tags.isEmpty()) {
+                ret.put(e.getKey(), tags);
+            }
+        }
+        return ret;
+    }
+
+    void invalidate(Collection<String> resourceTypes, Collection<String> resourceUuids) {
+        synchronized (resources) {
+            generation.incrementAndGet();
+            for (String type : resourceTypes) {
+                for (String uuid : resourceUuids) {
+                    resources.remove(makeKey(type, uuid));
+                }
+            }
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (resources) {
+            generation.incrementAndGet();
+            resources.clear();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.zstack.tag;
+
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigDefinition;
+import org.zstack.core.config.GlobalConfigValidation;
+
+/**
+ */
+@GlobalConfigDefinition
+public class TagGlobalConfig {
+    public static final String CATEGORY = "tag";
+
+    @GlobalConfigValidation
+    public static GlobalConfig SYSTEM_TAG_CACHE = new GlobalConfig(CATEGORY, "systemTag.cache");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig SYSTEM_TAG_CACHE_SIZE = new GlobalConfig(CATEGORY, "systemTag.cacheSize");
+}
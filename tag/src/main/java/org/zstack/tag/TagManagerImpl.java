@@ -2,10 +2,16 @@ package org.zstack.tag;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.HardDeleteEntityExtensionPoint;
 import org.zstack.core.db.SimpleQuery;
@@ -23,6 +29,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.tag.*;
+import org.zstack.header.tag.TagCanonicalEvents.SystemTagChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
@@ -53,6 +60,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
     private List<SystemTag> systemTags = new ArrayList<SystemTag>();
     private Map<String, List<SystemTag>> resourceTypeSystemTagMap = new HashMap<String, List<SystemTag>>();
@@ -61,6 +70,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private Map<String, List<SystemTagCreateMessageValidator>> createMessageValidators = new HashMap<String, List<SystemTagCreateMessageValidator>>();
     private Map<String, List<SystemTagLifeCycleExtension>> lifeCycleExtensions = new HashMap<String, List<SystemTagLifeCycleExtension>>();
     private List<Class> autoDeleteTagClasses;
+    private SystemTagCache tagCache;
 
     private void initSystemTags() throws IllegalAccessException {
         List<Class> classes = BeanUtils.scanClass("org.zstack", TagDefinition.class);
@@ -96,6 +106,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
                 }
 
                 stag.setTagMgr(this);
+                stag.setTagCache(tagCache);
                 List<SystemTag> lst = resourceTypeSystemTagMap.get(stag.getResourceClass().getSimpleName());
                 if (lst == null) {
                     lst = new ArrayList<SystemTag>();
@@ -114,6 +125,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             logger.debug(String.format("discovered tag resource type[%s], class[%s]", name, type));
         }
 
+        tagCache = new SystemTagCache();
+
         try {
             // this makes sure DatabaseFacade is injected into every SystemTag object
             initSystemTags();
@@ -243,6 +256,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             @Override
             public void run() {
                 dbf.remove(finalVo);
+                systemTagsChanged(list(SystemTagInventory.valueOf(finalVo)));
             }
         });
 
@@ -348,6 +362,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             ntag.setResourceUuid(dstResourceUuid);
             dbf.getEntityManager().persist(ntag);
         }
+
+        systemTagsChanged(list(dstResourceType), list(dstResourceUuid));
     }
 
     @Override
@@ -455,7 +471,45 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         deleteSystemTag(tag, resourceUuid, resourceType, inherit, true);
     }
 
+    private void systemTagsChanged(final List<String> resourceTypes, final List<String> resourceUuids) {
+        tagCache.invalidate(resourceTypes, resourceUuids);
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // the change is not committed yet, invalidate again when it is; otherwise a lookup
+            // in the between may cache the old tags
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    tagCache.invalidate(resourceTypes, resourceUuids);
+                    fireSystemTagChangedEvent(resourceTypes, resourceUuids);
+                }
+            });
+        } else {
+            fireSystemTagChangedEvent(resourceTypes, resourceUuids);
+        }
+    }
+
+    private void systemTagsChanged(List<SystemTagInventory> tags) {
+        Set<String> resourceTypes = new HashSet<String>();
+        Set<String> resourceUuids = new HashSet<String>();
+        for (SystemTagInventory tag : tags) {
+            resourceTypes.add(tag.getResourceType());
+            resourceUuids.add(tag.getResourceUuid());
+        }
+
+        systemTagsChanged(new ArrayList<String>(resourceTypes), new ArrayList<String>(resourceUuids));
+    }
+
+    private void fireSystemTagChangedEvent(List<String> resourceTypes, List<String> resourceUuids) {
+        SystemTagChangedData d = new SystemTagChangedData();
+        d.setResourceTypes(resourceTypes);
+        d.setResourceUuids(resourceUuids);
+        evtf.fire(TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, d);
+    }
+
     private void fireTagDeleted(List<SystemTagInventory> tags) {
+        systemTagsChanged(tags);
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -471,6 +525,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagCreated(List<SystemTagInventory> tags) {
+        systemTagsChanged(tags);
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -486,6 +542,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        systemTagsChanged(list(old));
+
         List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(old.getResourceType());
         if (exts != null) {
             for (SystemTagLifeCycleExtension ext : exts) {
@@ -626,9 +684,34 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+        setupCanonicalEvents();
+
+        GlobalConfigUpdateExtensionPoint invalidateCache = new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                tagCache.invalidateAll();
+            }
+        };
+        TagGlobalConfig.SYSTEM_TAG_CACHE.installUpdateExtension(invalidateCache);
+        TagGlobalConfig.SYSTEM_TAG_CACHE_SIZE.installUpdateExtension(invalidateCache);
         return true;
     }
 
+    private void setupCanonicalEvents() {
+        evtf.on(TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // already invalidated by systemTagsChanged()
+                    return;
+                }
+
+                SystemTagChangedData d = (SystemTagChangedData) data;
+                tagCache.invalidate(d.getResourceTypes(), d.getResourceUuids());
+            }
+        });
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -662,6 +745,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
+
+        List<String> ruuids = new ArrayList<String>();
+        for (Object id : entityIds) {
+            ruuids.add(id.toString());
+        }
+        systemTagsChanged(rtypes, ruuids);
     }
 
     @Override
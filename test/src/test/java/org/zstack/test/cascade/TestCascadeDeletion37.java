@@ -0,0 +1,93 @@
+package org.zstack.test.cascade;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmGlobalConfig;
+import org.zstack.core.cascade.CascadeGlobalProperty;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.cluster.ClusterVO;
+import org.zstack.header.configuration.DiskOfferingInventory;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.storage.primary.PrimaryStorageEO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.vm.VmInstanceDeletionPolicyManager.VmInstanceDeletionPolicy;
+import org.zstack.header.vm.VmInstanceEO;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.VmCreator;
+import org.zstack.test.deployer.Deployer;
+
+/**
+ * 1. create 3 vms with data volumes, attach another data volume to one of them
+ * 2. delete the primary storage
+ *
+ * confirm the vm and the volume subtrees of the primary storage don't run into each other with the default
+ * Cascade.asyncParallelism, all vms and volumes are deleted
+ */
+public class TestCascadeDeletion37 {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestCreateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        Assert.assertEquals(1, CascadeGlobalProperty.ASYNC_CASCADE_PARALLELISM);
+        PrimaryStorageInventory prinv = deployer.primaryStorages.get("TestPrimaryStorage");
+        DiskOfferingInventory rootOffering = deployer.diskOfferings.get("TestRootDiskOffering");
+        DiskOfferingInventory dataOffering = deployer.diskOfferings.get("TestDataDiskOffering");
+        InstanceOfferingInventory io = deployer.instanceOfferings.get("TestInstanceOffering");
+        ImageInventory img = deployer.images.get("TestImage");
+        L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network1");
+        VmGlobalConfig.VM_DELETION_POLICY.updateValue(VmInstanceDeletionPolicy.Direct.toString());
+
+        for (int i = 0; i < 2; i++) {
+            VmCreator creator = new VmCreator(api);
+            creator.name = String.format("vm-%s", i);
+            creator.imageUuid = img.getUuid();
+            creator.instanceOfferingUuid = io.getUuid();
+            creator.rootDiskOfferingUuid = rootOffering.getUuid();
+            creator.addL3Network(l3.getUuid());
+            creator.addDisk(dataOffering.getUuid());
+            creator.create();
+        }
+
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        VolumeInventory vol = api.createDataVolume("data", dataOffering.getUuid());
+        api.attachVolumeToVm(vm.getUuid(), vol.getUuid());
+        Assert.assertEquals(3, dbf.count(VmInstanceVO.class));
+        Assert.assertEquals(7, dbf.count(VolumeVO.class));
+
+        api.deletePrimaryStorage(prinv.getUuid());
+        Assert.assertTrue(0 != dbf.count(ZoneVO.class));
+        Assert.assertTrue(0 != dbf.count(ClusterVO.class));
+        Assert.assertTrue(0 != dbf.count(HostVO.class));
+        Assert.assertEquals(0, dbf.count(VolumeVO.class));
+
+        CascadeTestHelper helper = new CascadeTestHelper();
+        helper.zeroInDatabase(
+                PrimaryStorageEO.class, VmInstanceEO.class
+        );
+    }
+}
@@ -0,0 +1,66 @@
+package org.zstack.test.compute.host;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.compute.host.HostTrackImpl;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.tacker.PingScheduler;
+import org.zstack.core.tacker.PingTrackerStatistic;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.test.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. create 10 hosts with ping interval 2s
+ *
+ * confirm all hosts are tracked and pinged, and no ping is late more than an interval
+ *
+ * 2. delete a host
+ *
+ * confirm the host is not tracked
+ */
+public class TestHostPingSchedule {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    HostTrackImpl tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ClusterManager.xml")
+                .addXml("ZoneManager.xml").addXml("HostManager.xml")
+                .addXml("Simulator.xml").addXml("AccountManager.xml")
+                .addXml("HostAllocatorManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        tracker = loader.getComponent(HostTrackImpl.class);
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(2);
+        api = new Api();
+        api.startServer();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        ClusterInventory cluster = api.createClusters(1, zone.getUuid()).get(0);
+        String hostUuid = api.createHost(10, cluster.getUuid()).get(0).getUuid();
+
+        TimeUnit.SECONDS.sleep(5);
+        PingTrackerStatistic stat = tracker.getStatistic();
+        Assert.assertEquals(10, stat.getTrackedResources());
+        Assert.assertTrue(stat.getPingCount() >= 10);
+        Assert.assertTrue(stat.getMaxLag() < TimeUnit.SECONDS.toMillis(2));
+        Assert.assertNotNull(PingScheduler.getStatistics().get(stat.getName()));
+
+        api.deleteHost(hostUuid);
+        // the host is untracked after the deletion reply
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(9, tracker.getStatistic().getTrackedResources());
+    }
+}
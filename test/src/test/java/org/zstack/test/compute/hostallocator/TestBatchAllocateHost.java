@@ -0,0 +1,141 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.allocator.*;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.vm.VmInstanceConstant.VmOperation;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. have 5 hosts without enough capacity
+ * 2. add 2 hosts having 4G memory
+ * 3. batch allocate 4 vms of 512M with the bin-packing placement
+ * 4. batch allocate 2 vms of 512M with the spread placement
+ *
+ * confirm the bin-packing vms are all on one host and the spread vms are on the other one,
+ * and the capacity is reserved in database
+ */
+public class TestBatchAllocateHost {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    HostCapacityOverProvisioningManager ratioMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/hostAllocator/TestHostAllocationPaginationStrategy1.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        ratioMgr = loader.getComponent(HostCapacityOverProvisioningManager.class);
+    }
+
+    private HostInventory addHost(String name, String ip, String clusterUuid) throws ApiSenderException {
+        HostInventory host = new HostInventory();
+        host.setName(name);
+        host.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+        host.setManagementIp(ip);
+        host.setClusterUuid(clusterUuid);
+        host.setAvailableCpuCapacity(2600L);
+        host.setAvailableMemoryCapacity(SizeUnit.GIGABYTE.toByte(4));
+        return api.addHostByFullConfig(host);
+    }
+
+    private List<AllocateHostReply> allocate(int num, String placement, String clusterUuid, String l3Uuid, ImageInventory image) {
+        BatchAllocateHostMsg msg = new BatchAllocateHostMsg();
+        for (int i = 0; i < num; i++) {
+            VmInstanceInventory vm = new VmInstanceInventory();
+            vm.setUuid(Platform.getUuid());
+            vm.setName(String.format("vm-%s", i));
+            vm.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+            vm.setCpuNum(1);
+            vm.setMemorySize(SizeUnit.MEGABYTE.toByte(512));
+
+            DesignatedAllocateHostMsg amsg = new DesignatedAllocateHostMsg();
+            amsg.setVmInstance(vm);
+            amsg.setCpuCapacity(vm.getCpuNum());
+            amsg.setMemoryCapacity(vm.getMemorySize());
+            amsg.setClusterUuid(clusterUuid);
+            amsg.setL3NetworkUuids(list(l3Uuid));
+            amsg.setImage(image);
+            amsg.setDiskSize(image.getSize());
+            amsg.setVmOperation(VmOperation.NewCreate.toString());
+            amsg.setAllocatorStrategy(HostAllocatorConstant.DESIGNATED_HOST_ALLOCATOR_STRATEGY_TYPE);
+            msg.getAllocateHostMsgs().add(amsg);
+        }
+        msg.setPlacementStrategy(placement);
+        msg.setServiceId(bus.makeLocalServiceId(HostAllocatorConstant.SERVICE_ID));
+
+        BatchAllocateHostReply reply = (BatchAllocateHostReply) bus.call(msg);
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals(num, reply.getReplies().size());
+        List<AllocateHostReply> ret = new ArrayList<AllocateHostReply>();
+        for (AllocateHostReply r : reply.getReplies()) {
+            Assert.assertTrue(r.isSuccess());
+            ret.add(r);
+        }
+        return ret;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        L3NetworkInventory l3 = deployer.l3Networks.get("l3Network1");
+        ImageInventory image = deployer.images.get("image1");
+        ClusterInventory cluster = deployer.clusters.get("cluster1");
+        HostAllocatorGlobalConfig.USE_PAGINATION.updateValue(false);
+
+        HostInventory host1 = addHost("host5", "10.0.0.15", cluster.getUuid());
+        HostInventory host2 = addHost("host6", "10.0.0.16", cluster.getUuid());
+        HostCapacityVO before1 = dbf.findByUuid(host1.getUuid(), HostCapacityVO.class);
+        HostCapacityVO before2 = dbf.findByUuid(host2.getUuid(), HostCapacityVO.class);
+
+        List<AllocateHostReply> replies = allocate(4, HostAllocatorConstant.BATCH_PLACEMENT_BIN_PACKING, cluster.getUuid(), l3.getUuid(), image);
+        String packedHostUuid = replies.get(0).getHost().getUuid();
+        Assert.assertTrue(packedHostUuid.equals(host1.getUuid()) || packedHostUuid.equals(host2.getUuid()));
+        for (AllocateHostReply r : replies) {
+            Assert.assertEquals(packedHostUuid, r.getHost().getUuid());
+        }
+
+        String otherHostUuid = packedHostUuid.equals(host1.getUuid()) ? host2.getUuid() : host1.getUuid();
+        replies = allocate(2, HostAllocatorConstant.BATCH_PLACEMENT_SPREAD, cluster.getUuid(), l3.getUuid(), image);
+        for (AllocateHostReply r : replies) {
+            Assert.assertEquals(otherHostUuid, r.getHost().getUuid());
+        }
+
+        long memory = SizeUnit.MEGABYTE.toByte(512);
+        HostCapacityVO packedBefore = packedHostUuid.equals(host1.getUuid()) ? before1 : before2;
+        HostCapacityVO otherBefore = packedHostUuid.equals(host1.getUuid()) ? before2 : before1;
+        HostCapacityVO packedAfter = dbf.findByUuid(packedHostUuid, HostCapacityVO.class);
+        HostCapacityVO otherAfter = dbf.findByUuid(otherHostUuid, HostCapacityVO.class);
+        Assert.assertEquals(packedBefore.getAvailableCpu() - 4, packedAfter.getAvailableCpu());
+        Assert.assertEquals(packedBefore.getAvailableMemory() - 4 * ratioMgr.calculateMemoryByRatio(packedHostUuid, memory), packedAfter.getAvailableMemory());
+        Assert.assertEquals(otherBefore.getAvailableCpu() - 2, otherAfter.getAvailableCpu());
+        Assert.assertEquals(otherBefore.getAvailableMemory() - 2 * ratioMgr.calculateMemoryByRatio(otherHostUuid, memory), otherAfter.getAvailableMemory());
+    }
+}
@@ -0,0 +1,108 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig;
+import org.zstack.compute.allocator.HostCapacityIndex;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.apimediator.ApiMediatorConstant;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.vm.APICreateVmInstanceEvent;
+import org.zstack.header.vm.APICreateVmInstanceMsg;
+import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSender;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1. have 5 hosts without enough capacity
+ * 2. set hostAllocator.capacityIndex.enable to true
+ * 3. add a host having enough capacity
+ * 4. create vm
+ *
+ * confirm the vm is created on the new host and the capacity is reserved in database
+ */
+public class TestHostCapacityIndex {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    HostCapacityIndex capacityIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/hostAllocator/TestHostAllocationPaginationStrategy1.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        capacityIndex = loader.getComponent(HostCapacityIndex.class);
+    }
+
+    private VmInstanceInventory createVm(String l3Uuid, String imageUuid, String instanceOfferingUuid) throws ApiSenderException {
+        List<String> l3NetworkUuids = new ArrayList<String>();
+        l3NetworkUuids.add(l3Uuid);
+
+        APICreateVmInstanceMsg msg = new APICreateVmInstanceMsg();
+        msg.setImageUuid(imageUuid);
+        msg.setName("vm");
+        msg.setInstanceOfferingUuid(instanceOfferingUuid);
+        msg.setL3NetworkUuids(l3NetworkUuids);
+        msg.setType(VmInstanceConstant.USER_VM_TYPE);
+        msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
+        msg.setSession(api.getAdminSession());
+        ApiSender sender = new ApiSender();
+        APICreateVmInstanceEvent evt = sender.send(msg, APICreateVmInstanceEvent.class);
+        return evt.getInventory();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        L3NetworkInventory l3  = deployer.l3Networks.get("l3Network1");
+        InstanceOfferingInventory instanceOffering = deployer.instanceOfferings.get("instanceOffering512M512HZ");
+        ImageInventory imageInventory = deployer.images.get("image1");
+        ClusterInventory cluster = deployer.clusters.get("cluster1");
+        HostAllocatorGlobalConfig.USE_PAGINATION.updateValue(false);
+        HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.updateValue(true);
+        Assert.assertTrue(capacityIndex.isEnabled());
+
+        HostInventory host = new HostInventory();
+        host.setName("host5");
+        host.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+        host.setManagementIp("10.0.0.15");
+        host.setClusterUuid(cluster.getUuid());
+        host.setAvailableCpuCapacity(2600L);
+        host.setAvailableMemoryCapacity(SizeUnit.GIGABYTE.toByte(32));
+        host = api.addHostByFullConfig(host);
+
+        HostCapacityVO before = dbf.findByUuid(host.getUuid(), HostCapacityVO.class);
+        VmInstanceInventory vm = createVm(l3.getUuid(), imageInventory.getUuid(), instanceOffering.getUuid());
+        Assert.assertEquals(host.getUuid(), vm.getHostUuid());
+
+        HostCapacityVO after = dbf.findByUuid(host.getUuid(), HostCapacityVO.class);
+        Assert.assertEquals(before.getAvailableCpu() - instanceOffering.getCpuNum(), after.getAvailableCpu());
+        Assert.assertEquals(before.getAvailableMemory() - instanceOffering.getMemorySize(), after.getAvailableMemory());
+
+        HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.updateValue(false);
+        Assert.assertFalse(capacityIndex.isEnabled());
+    }
+}
@@ -0,0 +1,182 @@
+package org.zstack.test.compute.vm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.image.ImagePlatform;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.vm.*;
+import org.zstack.header.volume.*;
+import org.zstack.query.QueryGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 1. generate many vm records, each has 3 nics and 4 volumes
+ * 2. query all vms page by page with the batch fetch on
+ * 3. query all vms page by page with the batch fetch off
+ *
+ * confirm every vm inventory has its 3 nics and 4 volumes in both ways
+ * confirm the inventories queried in both ways are equal
+ * the cost of both ways is logged.
+ *
+ * the default load keeps the unit run short, use -DvmNum and -DpageSize to change it
+ */
+public class TestQueryVmBatchFetchBenchmark {
+    CLogger logger = Utils.getLogger(TestQueryVmBatchFetchBenchmark.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    int vmNum;
+    int pageSize;
+
+    @Before
+    public void setUp() throws Exception {
+        vmNum = Integer.valueOf(System.getProperty("vmNum", "2000"));
+        pageSize = Integer.valueOf(System.getProperty("pageSize", "1000"));
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/OnlyOneZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private void generateVms() {
+        List<VmInstanceVO> vms = new ArrayList<VmInstanceVO>();
+        List<VmNicVO> nics = new ArrayList<VmNicVO>();
+        List<VolumeVO> volumes = new ArrayList<VolumeVO>();
+        for (int i = 0; i < vmNum; i++) {
+            VmInstanceVO vo = new VmInstanceVO();
+            vo.setUuid(Platform.getUuid());
+            vo.setName(String.format("vm-%s", i));
+            vo.setState(VmInstanceState.Stopped);
+            vo.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+            vo.setType(VmInstanceConstant.USER_VM_TYPE);
+            vo.setPlatform(ImagePlatform.Linux.toString());
+            vo.setInternalId(i);
+            vo.setCpuNum(1);
+            vo.setMemorySize(SizeUnit.GIGABYTE.toByte(1));
+            vms.add(vo);
+
+            for (int j = 0; j < 3; j++) {
+                VmNicVO nic = new VmNicVO();
+                nic.setUuid(Platform.getUuid());
+                nic.setVmInstanceUuid(vo.getUuid());
+                nic.setMac(String.format("fa:%02x:%02x:%02x:%02x:%02x", j, (i >> 24) & 0xff, (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff));
+                nic.setInternalName(String.format("vnic%s.%s", i, j));
+                nic.setDeviceId(j);
+                nics.add(nic);
+            }
+
+            for (int j = 0; j < 4; j++) {
+                VolumeVO vol = new VolumeVO();
+                vol.setUuid(Platform.getUuid());
+                vol.setName(String.format("volume-%s-%s", i, j));
+                vol.setVmInstanceUuid(vo.getUuid());
+                vol.setType(j == 0 ? VolumeType.Root : VolumeType.Data);
+                vol.setStatus(VolumeStatus.Ready);
+                vol.setState(VolumeState.Enabled);
+                vol.setSize(SizeUnit.GIGABYTE.toByte(10));
+                vol.setDeviceId(j);
+                volumes.add(vol);
+            }
+
+            if (vms.size() == 1000) {
+                dbf.persistCollection(vms);
+                dbf.persistCollection(nics);
+                dbf.persistCollection(volumes);
+                vms.clear();
+                nics.clear();
+                volumes.clear();
+            }
+        }
+
+        if (!vms.isEmpty()) {
+            dbf.persistCollection(vms);
+            dbf.persistCollection(nics);
+            dbf.persistCollection(volumes);
+        }
+    }
+
+    private List<VmInstanceInventory> queryAll() throws ApiSenderException {
+        List<VmInstanceInventory> invs = new ArrayList<VmInstanceInventory>(vmNum);
+        for (int i = 0; i < vmNum; i += pageSize) {
+            APIQueryVmInstanceMsg msg = new APIQueryVmInstanceMsg();
+            msg.setStart(i);
+            msg.setLimit(pageSize);
+            msg.setSortBy("uuid");
+            msg.setSortDirection("asc");
+            APIQueryVmInstanceReply reply = api.query(msg, APIQueryVmInstanceReply.class);
+            for (VmInstanceInventory inv : reply.getInventories()) {
+                Assert.assertEquals(3, inv.getVmNics().size());
+                Assert.assertEquals(4, inv.getAllVolumes().size());
+                invs.add(inv);
+            }
+        }
+        Assert.assertEquals(vmNum, invs.size());
+        return invs;
+    }
+
+    // nics and volumes come from sets of the vm, their order is not defined
+    private String toComparableJson(List<VmInstanceInventory> invs) {
+        for (VmInstanceInventory inv : invs) {
+            Collections.sort(inv.getVmNics(), new Comparator<VmNicInventory>() {
+                @Override
+                public int compare(VmNicInventory o1, VmNicInventory o2) {
+                    return o1.getUuid().compareTo(o2.getUuid());
+                }
+            });
+            Collections.sort(inv.getAllVolumes(), new Comparator<VolumeInventory>() {
+                @Override
+                public int compare(VolumeInventory o1, VolumeInventory o2) {
+                    return o1.getUuid().compareTo(o2.getUuid());
+                }
+            });
+        }
+        return JSONObjectUtil.toJsonString(invs);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        generateVms();
+
+        List<VmInstanceInventory> batchInvs;
+        List<VmInstanceInventory> eagerInvs;
+        long batchCost;
+        long eagerCost;
+        try {
+            QueryGlobalProperty.BATCH_FETCH = true;
+            long start = System.currentTimeMillis();
+            batchInvs = queryAll();
+            batchCost = System.currentTimeMillis() - start;
+
+            QueryGlobalProperty.BATCH_FETCH = false;
+            start = System.currentTimeMillis();
+            eagerInvs = queryAll();
+            eagerCost = System.currentTimeMillis() - start;
+        } finally {
+            QueryGlobalProperty.BATCH_FETCH = true;
+        }
+
+        Assert.assertEquals(toComparableJson(eagerInvs), toComparableJson(batchInvs));
+
+        logger.debug(String.format("queried %s vms with 3 nics and 4 volumes each in pages of %s, the batch fetch cost %sms," +
+                " the eager fetch by hibernate cost %sms", vmNum, pageSize, batchCost, eagerCost));
+    }
+}
@@ -0,0 +1,155 @@
+package org.zstack.test.compute.vm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.image.ImagePlatform;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.vm.*;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 1. generate many vm records, the memory size is used as the sort field which has many ties
+ * 2. scan all vms sorted by the memory size page by page with the cursor
+ * 3. query the last pages with offsets
+ * 4. query with the approximate count
+ *
+ * confirm the cursor scan returns every vm once in the order of the memory size
+ * confirm the approximate count stops at the limit
+ * the cost of the cursor pages and the offset pages is logged.
+ *
+ * the default load keeps the unit run short, use -DvmNum and -DpageSize to change it
+ */
+public class TestQueryVmByCursorBenchmark {
+    CLogger logger = Utils.getLogger(TestQueryVmByCursorBenchmark.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    int vmNum;
+    int pageSize;
+
+    @Before
+    public void setUp() throws Exception {
+        vmNum = Integer.valueOf(System.getProperty("vmNum", "20000"));
+        pageSize = Integer.valueOf(System.getProperty("pageSize", "1000"));
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/OnlyOneZone.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private void generateVms() {
+        List<VmInstanceVO> vos = new ArrayList<VmInstanceVO>();
+        for (int i = 0; i < vmNum; i++) {
+            VmInstanceVO vo = new VmInstanceVO();
+            vo.setUuid(Platform.getUuid());
+            vo.setName(String.format("vm-%s", i));
+            vo.setState(VmInstanceState.Stopped);
+            vo.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+            vo.setType(VmInstanceConstant.USER_VM_TYPE);
+            vo.setPlatform(ImagePlatform.Linux.toString());
+            vo.setInternalId(i);
+            vo.setCpuNum(1);
+            vo.setMemorySize(SizeUnit.GIGABYTE.toByte(i % 8 + 1));
+            vos.add(vo);
+
+            if (vos.size() == 1000) {
+                dbf.persistCollection(vos);
+                vos.clear();
+            }
+        }
+
+        if (!vos.isEmpty()) {
+            dbf.persistCollection(vos);
+        }
+    }
+
+    private APIQueryVmInstanceMsg makeMsg() {
+        APIQueryVmInstanceMsg msg = new APIQueryVmInstanceMsg();
+        msg.setSortBy("memorySize");
+        msg.setLimit(pageSize);
+        return msg;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        generateVms();
+
+        Set<String> uuids = new HashSet<String>();
+        List<Long> pageCosts = new ArrayList<Long>();
+        long lastMemorySize = 0;
+        String cursor = null;
+        do {
+            APIQueryVmInstanceMsg msg = makeMsg();
+            msg.setPaginateByCursor(true);
+            msg.setCursor(cursor);
+            long start = System.currentTimeMillis();
+            APIQueryVmInstanceReply reply = api.query(msg, APIQueryVmInstanceReply.class);
+            pageCosts.add(System.currentTimeMillis() - start);
+
+            for (VmInstanceInventory inv : reply.getInventories()) {
+                Assert.assertTrue(uuids.add(inv.getUuid()));
+                Assert.assertTrue(inv.getMemorySize() >= lastMemorySize);
+                lastMemorySize = inv.getMemorySize();
+            }
+            cursor = reply.getNextCursor();
+        } while (cursor != null);
+        Assert.assertEquals(vmNum, uuids.size());
+
+        List<Long> offsetCosts = new ArrayList<Long>();
+        int pages = Math.min(5, pageCosts.size());
+        for (int i = pages; i > 0; i--) {
+            APIQueryVmInstanceMsg msg = makeMsg();
+            msg.setStart(Math.max(0, vmNum - i * pageSize));
+            long start = System.currentTimeMillis();
+            api.query(msg, APIQueryVmInstanceReply.class);
+            offsetCosts.add(System.currentTimeMillis() - start);
+        }
+
+        logger.debug(String.format("scanned %s vms in %s pages by cursor, the first page cost %sms, the last %s pages cost %sms;" +
+                        " the last %s pages by offset cost %sms", vmNum, pageCosts.size(), pageCosts.get(0), pages,
+                pageCosts.subList(pageCosts.size() - pages, pageCosts.size()), pages, offsetCosts));
+
+        APIQueryVmInstanceMsg msg = makeMsg();
+        msg.setLimit(100);
+        msg.setReplyWithCount(true);
+        msg.setApproximateCount(true);
+        long start = System.currentTimeMillis();
+        APIQueryVmInstanceReply reply = api.query(msg, APIQueryVmInstanceReply.class);
+        long approximateCost = System.currentTimeMillis() - start;
+        if (vmNum > 10000) {
+            Assert.assertTrue(reply.getTotalApproximate());
+            Assert.assertEquals(10000, reply.getTotal().longValue());
+        } else {
+            Assert.assertEquals(vmNum, reply.getTotal().longValue());
+        }
+
+        msg = makeMsg();
+        msg.setLimit(100);
+        msg.setReplyWithCount(true);
+        start = System.currentTimeMillis();
+        reply = api.query(msg, APIQueryVmInstanceReply.class);
+        long exactCost = System.currentTimeMillis() - start;
+        Assert.assertEquals(vmNum, reply.getTotal().longValue());
+        Assert.assertNull(reply.getTotalApproximate());
+
+        logger.debug(String.format("query with the approximate count cost %sms, with the exact count cost %sms", approximateCost, exactCost));
+    }
+}
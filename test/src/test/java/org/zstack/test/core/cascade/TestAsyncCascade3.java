@@ -0,0 +1,152 @@
+package org.zstack.test.core.cascade;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cascade.*;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * zone has children cluster and l2Network, cluster has a child host; all extensions complete asynchronously
+ *
+ * confirm cluster's subtree and l2Network run concurrently, host runs before cluster and zone runs last
+ * confirm when l2Network fails, zone doesn't run and the completion fails once
+ *
+ * Cascade.asyncParallelism is 1 by default, it's set to 10 by the test
+ */
+public class TestAsyncCascade3 {
+    CLogger logger = Utils.getLogger(TestAsyncCascade3.class);
+    ComponentLoader loader;
+    CascadeFacade casf;
+    ErrorFacade errf;
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+    volatile String failedResource;
+    int parallelism;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        casf = loader.getComponent(CascadeFacade.class);
+        errf = loader.getComponent(ErrorFacade.class);
+        parallelism = CascadeGlobalProperty.ASYNC_CASCADE_PARALLELISM;
+        CascadeGlobalProperty.ASYNC_CASCADE_PARALLELISM = 10;
+    }
+
+    @After
+    public void tearDown() {
+        CascadeGlobalProperty.ASYNC_CASCADE_PARALLELISM = parallelism;
+    }
+
+    private void bootstrap(Map<String, CascadeExtensionPoint> exts) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        Method method = CascadeFacadeImpl.class.getDeclaredMethod("populateCascadeNodes", Map.class);
+        method.setAccessible(true);
+        method.invoke(casf, exts);
+
+        method = CascadeFacadeImpl.class.getDeclaredMethod("populateTree");
+        method.setAccessible(true);
+        method.invoke(casf);
+    }
+
+    private void addExtension(Map<String, CascadeExtensionPoint> map, final String name, final String...parents) {
+        map.put(name, new AbstractAsyncCascadeExtension() {
+            @Override
+            public void asyncCascade(CascadeAction action, final Completion completion) {
+                int r = running.incrementAndGet();
+                while (true) {
+                    int m = maxRunning.get();
+                    if (r <= m || maxRunning.compareAndSet(m, r)) {
+                        break;
+                    }
+                }
+
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        running.decrementAndGet();
+                        finished.add(name);
+                        if (name.equals(failedResource)) {
+                            completion.fail(errf.stringToOperationError(String.format("%s fails", name)));
+                        } else {
+                            completion.success();
+                        }
+                    }
+                }, 300, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public List<String> getEdgeNames() {
+                return Arrays.asList(parents);
+            }
+
+            @Override
+            public String getCascadeResourceName() {
+                return name;
+            }
+
+            @Override
+            public CascadeAction createActionForChildResource(CascadeAction action) {
+                return action.copy().setParentIssuer(name);
+            }
+        });
+    }
+
+    private ErrorCode cascade() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<ErrorCode> errors = Collections.synchronizedList(new ArrayList<ErrorCode>());
+        casf.asyncCascade("test", "zone", null, new Completion() {
+            @Override
+            public void success() {
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                errors.add(errorCode);
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(errors.size() <= 1);
+        return errors.isEmpty() ? null : errors.get(0);
+    }
+
+    @Test
+    public void test() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InterruptedException {
+        Map<String, CascadeExtensionPoint> map = new HashMap<String, CascadeExtensionPoint>();
+        addExtension(map, "zone");
+        addExtension(map, "cluster", "zone");
+        addExtension(map, "host", "cluster");
+        addExtension(map, "l2Network", "zone");
+        bootstrap(map);
+
+        Assert.assertNull(cascade());
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(4, finished.size());
+        Assert.assertTrue(finished.indexOf("host") < finished.indexOf("cluster"));
+        Assert.assertEquals("zone", finished.get(3));
+
+        finished.clear();
+        failedResource = "l2Network";
+        Assert.assertNotNull(cascade());
+        Assert.assertFalse(finished.contains("zone"));
+    }
+}
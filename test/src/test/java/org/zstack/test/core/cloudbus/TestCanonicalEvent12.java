@@ -0,0 +1,94 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.*;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. subscribe many literal paths, a path with a token, a path with a glob and a path with a wildcard at the head
+ * 2. fire an event matching all of them except the literal paths of other resources
+ *
+ * confirm only the matched callbacks are called, with the tokens resolved
+ * confirm the dispatch statistic of the matched paths is counted
+ *
+ * 3. unsubscribe the callbacks and fire again
+ *
+ * confirm no callback is called
+ */
+public class TestCanonicalEvent12 {
+    CLogger logger = Utils.getLogger(TestCanonicalEvent12.class);
+    ComponentLoader loader;
+    EventFacade evtf;
+    List<String> called = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        evtf = loader.getComponent(EventFacade.class);
+        ((EventFacadeImpl)evtf).start();
+    }
+
+    private EventCallback callback(final String name) {
+        return new EventCallback<Void>() {
+            @Override
+            public void run(Map<String, String> tokens, Void data) {
+                called.add(tokens.containsKey("uuid") ? String.format("%s:%s", name, tokens.get("uuid")) : name);
+            }
+        };
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        List<EventCallback> cbs = new ArrayList<EventCallback>();
+        for (int i = 0; i < 1000; i++) {
+            EventCallback cb = callback("literal" + i);
+            evtf.on(String.format("/test/host/%s/status", i), cb);
+            cbs.add(cb);
+        }
+
+        EventCallback token = callback("token");
+        evtf.on("/test/host/{uuid}/status", token);
+        cbs.add(token);
+        EventCallback glob = callback("glob");
+        evtf.on("/test/h?st/*", glob);
+        cbs.add(glob);
+        EventCallback head = callback("head");
+        evtf.on("/*/status", head);
+        cbs.add(head);
+
+        evtf.fire("/test/host/7/status", null);
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(4, called.size());
+        Assert.assertTrue(called.contains("literal7"));
+        Assert.assertTrue(called.contains("token:7"));
+        Assert.assertTrue(called.contains("glob"));
+        Assert.assertTrue(called.contains("head"));
+
+        Map<String, EventStatistic> stats = ((EventFacadeImpl)evtf).getEventStatistics();
+        Assert.assertEquals(1, stats.get("/test/host/7/status").getCount());
+        Assert.assertEquals(1, stats.get("/test/host/{uuid}/status").getCount());
+        Assert.assertNull(stats.get("/test/host/8/status"));
+
+        for (EventCallback cb : cbs) {
+            evtf.off(cb);
+        }
+        Assert.assertEquals(0, ((EventFacadeImpl)evtf).getSubscriptionCount());
+
+        called.clear();
+        evtf.fire("/test/host/7/status", null);
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertTrue(called.isEmpty());
+    }
+}
@@ -0,0 +1,127 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBusGlobalProperty;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.cloudbus.CloudBusMXBean;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.AbstractService;
+import org.zstack.header.Service;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * message sent to a service on this management node is delivered without going through the broker,
+ * and the receiver gets a copy of the message instead of the sender's object
+ */
+public class TestCloudBusLocalDelivery {
+    CLogger logger = Utils.getLogger(TestCloudBusLocalDelivery.class);
+    ComponentLoader loader;
+    CloudBusIN bus;
+    Service serv;
+    boolean isSameObject;
+    HelloWorldMsg sent;
+    boolean localDelivery;
+    boolean localDeliveryCopyMessage;
+
+    public static class HelloWorldMsg extends NeedReplyMessage {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+
+    public static class HelloWorldReply extends MessageReply {
+        private String greet;
+
+        public String getGreet() {
+            return greet;
+        }
+
+        public void setGreet(String greet) {
+            this.greet = greet;
+        }
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.getClass() == HelloWorldMsg.class) {
+                isSameObject = msg == sent;
+                HelloWorldMsg hmsg = (HelloWorldMsg) msg;
+                HelloWorldReply r = new HelloWorldReply();
+                r.setGreet(hmsg.getGreet());
+                bus.reply(msg, r);
+            }
+        }
+
+        @Override
+        public String getId() {
+            return bus.makeLocalServiceId(this.getClass().getCanonicalName());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        localDelivery = CloudBusGlobalProperty.LOCAL_DELIVERY;
+        localDeliveryCopyMessage = CloudBusGlobalProperty.LOCAL_DELIVERY_COPY_MESSAGE;
+        CloudBusGlobalProperty.LOCAL_DELIVERY = true;
+        CloudBusGlobalProperty.LOCAL_DELIVERY_COPY_MESSAGE = true;
+        serv = new FakeService();
+        serv.start();
+    }
+
+    @After
+    public void tearDown() {
+        serv.stop();
+        CloudBusGlobalProperty.LOCAL_DELIVERY = localDelivery;
+        CloudBusGlobalProperty.LOCAL_DELIVERY_COPY_MESSAGE = localDeliveryCopyMessage;
+    }
+
+    @Test
+    public void test() throws InterruptedException, ClassNotFoundException {
+        CloudBusMXBean mxBean = (CloudBusMXBean) bus;
+        long local = mxBean.getLocalDeliveryCount();
+
+        sent = new HelloWorldMsg();
+        sent.setGreet("Hello");
+        sent.setServiceId(serv.getId());
+        sent.setTimeout(TimeUnit.SECONDS.toMillis(10));
+        HelloWorldReply r = (HelloWorldReply) bus.call(sent);
+
+        Assert.assertTrue(r.isSuccess());
+        Assert.assertEquals("Hello", r.getGreet());
+        Assert.assertFalse(isSameObject);
+        // the message and its reply
+        Assert.assertTrue(mxBean.getLocalDeliveryCount() >= local + 2);
+    }
+}
@@ -0,0 +1,244 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.BinaryMessageCodec;
+import org.zstack.core.cloudbus.JsonMessageCodec;
+import org.zstack.core.cloudbus.MessageCodec;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmNicInventory;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.kvm.KVMAgentCommands.NicTO;
+import org.zstack.kvm.KVMAgentCommands.StartVmCmd;
+import org.zstack.kvm.KVMAgentCommands.VolumeTO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the binary codec decodes what the JSON codec decodes, and compares the cost of both
+ * on a StartVmCmd and a VmInstanceInventory of realistic size.
+ *
+ * run with -Dloop=100000 for a longer benchmark
+ */
+public class TestMessageCodec {
+    CLogger logger = Utils.getLogger(TestMessageCodec.class);
+
+    public static class StartVmCodecMsg extends NeedReplyMessage {
+        private StartVmCmd cmd;
+        private VmInstanceInventory vm;
+        private Object data;
+        private Map<String, Object> extra = new HashMap<String, Object>();
+
+        public StartVmCmd getCmd() {
+            return cmd;
+        }
+
+        public void setCmd(StartVmCmd cmd) {
+            this.cmd = cmd;
+        }
+
+        public VmInstanceInventory getVm() {
+            return vm;
+        }
+
+        public void setVm(VmInstanceInventory vm) {
+            this.vm = vm;
+        }
+
+        public Object getData() {
+            return data;
+        }
+
+        public void setData(Object data) {
+            this.data = data;
+        }
+
+        public Map<String, Object> getExtra() {
+            return extra;
+        }
+
+        public void setExtra(Map<String, Object> extra) {
+            this.extra = extra;
+        }
+    }
+
+    private VolumeInventory volume(String vmUuid, int deviceId) {
+        VolumeInventory vol = new VolumeInventory();
+        vol.setUuid(Platform.getUuid());
+        vol.setName(String.format("volume-%s", deviceId));
+        vol.setVmInstanceUuid(vmUuid);
+        vol.setPrimaryStorageUuid(Platform.getUuid());
+        vol.setInstallPath(String.format("/zstack_ps/rootVolumes/acct-36c27e8ff05c4780bf6d2fa65700f22e/vol-%s/%s.qcow2", vol.getUuid(), vol.getUuid()));
+        vol.setType(deviceId == 0 ? "Root" : "Data");
+        vol.setFormat("qcow2");
+        vol.setSize(size(deviceId));
+        vol.setActualSize(size(deviceId) / 3);
+        vol.setDeviceId(deviceId);
+        vol.setState("Enabled");
+        vol.setStatus("Ready");
+        vol.setCreateDate(new Timestamp(System.currentTimeMillis()));
+        vol.setLastOpDate(new Timestamp(System.currentTimeMillis()));
+        return vol;
+    }
+
+    private long size(int deviceId) {
+        return (deviceId + 1) * 10L * 1024 * 1024 * 1024;
+    }
+
+    private StartVmCodecMsg message() {
+        VmInstanceInventory vm = new VmInstanceInventory();
+        vm.setUuid(Platform.getUuid());
+        vm.setName("vm-codec");
+        vm.setDescription("a vm used by the message codec test");
+        vm.setZoneUuid(Platform.getUuid());
+        vm.setClusterUuid(Platform.getUuid());
+        vm.setHostUuid(Platform.getUuid());
+        vm.setImageUuid(Platform.getUuid());
+        vm.setInstanceOfferingUuid(Platform.getUuid());
+        vm.setHypervisorType("KVM");
+        vm.setType("UserVm");
+        vm.setState("Starting");
+        vm.setMemorySize(8L * 1024 * 1024 * 1024);
+        vm.setCpuNum(4);
+        vm.setCpuSpeed(2600L);
+        vm.setInternalId(1024L);
+        vm.setCreateDate(new Timestamp(System.currentTimeMillis()));
+        vm.setLastOpDate(new Timestamp(System.currentTimeMillis()));
+
+        List<VolumeInventory> vols = new ArrayList<VolumeInventory>();
+        List<VolumeTO> dataVolumes = new ArrayList<VolumeTO>();
+        for (int i = 0; i < 4; i++) {
+            VolumeInventory vol = volume(vm.getUuid(), i);
+            vols.add(vol);
+
+            if (i != 0) {
+                VolumeTO to = new VolumeTO();
+                to.setInstallPath(vol.getInstallPath());
+                to.setDeviceId(i);
+                to.setVolumeUuid(vol.getUuid());
+                dataVolumes.add(to);
+            }
+        }
+        vm.setAllVolumes(vols);
+        vm.setRootVolumeUuid(vols.get(0).getUuid());
+
+        List<VmNicInventory> nics = new ArrayList<VmNicInventory>();
+        List<NicTO> nicTOs = new ArrayList<NicTO>();
+        for (int i = 0; i < 3; i++) {
+            VmNicInventory nic = new VmNicInventory();
+            nic.setUuid(Platform.getUuid());
+            nic.setVmInstanceUuid(vm.getUuid());
+            nic.setL3NetworkUuid(Platform.getUuid());
+            nic.setUsedIpUuid(Platform.getUuid());
+            nic.setIp(String.format("10.0.%s.10", i));
+            nic.setNetmask("255.255.255.0");
+            nic.setGateway(String.format("10.0.%s.1", i));
+            nic.setMac(String.format("fa:2c:6e:8a:c5:0%s", i));
+            nic.setDeviceId(i);
+            nic.setInternalName(String.format("vnic1024.%s", i));
+            nic.setCreateDate(new Timestamp(System.currentTimeMillis()));
+            nic.setLastOpDate(new Timestamp(System.currentTimeMillis()));
+            nics.add(nic);
+
+            NicTO to = new NicTO();
+            to.setMac(nic.getMac());
+            to.setBridgeName(String.format("br_eth%s", i));
+            to.setDeviceId(i);
+            nicTOs.add(to);
+        }
+        vm.setVmNics(nics);
+        vm.setDefaultL3NetworkUuid(nics.get(0).getL3NetworkUuid());
+
+        StartVmCmd cmd = new StartVmCmd();
+        cmd.setVmInstanceUuid(vm.getUuid());
+        cmd.setVmName(vm.getName());
+        cmd.setMemory(vm.getMemorySize());
+        cmd.setCpuNum(vm.getCpuNum());
+        cmd.setBootDev(Arrays.asList("hd", "cdrom"));
+        VolumeTO root = new VolumeTO();
+        root.setInstallPath(vols.get(0).getInstallPath());
+        root.setVolumeUuid(vols.get(0).getUuid());
+        cmd.setRootVolume(root);
+        cmd.setDataVolumes(dataVolumes);
+        cmd.setNics(nicTOs);
+        Map<String, Object> addons = new HashMap<String, Object>();
+        addons.put("channel", "org.qemu.guest_agent.0");
+        cmd.setAddons(addons);
+
+        StartVmCodecMsg msg = new StartVmCodecMsg();
+        msg.setServiceId("host.d4f5e8e4b3a24b0f9d8b4e4a8e2c1f00");
+        msg.setCmd(cmd);
+        msg.setVm(vm);
+        // declared as Object, the JSON codec needs the schema to restore it
+        msg.setData(vols.get(1));
+        msg.getExtra().put("count", 3);
+        msg.getExtra().put("when", new Date());
+        msg.putHeaderEntry("task-name", "start-vm");
+        return msg;
+    }
+
+    private void assertSame(StartVmCodecMsg expected, Message actual) {
+        Assert.assertEquals(StartVmCodecMsg.class, actual.getClass());
+        StartVmCodecMsg msg = (StartVmCodecMsg) actual;
+        Assert.assertEquals(expected.getId(), msg.getId());
+        Assert.assertEquals(expected.getServiceId(), msg.getServiceId());
+        Assert.assertEquals(expected.getCreatedTime(), msg.getCreatedTime());
+        Assert.assertEquals("start-vm", msg.getHeaderEntry("task-name"));
+        Assert.assertEquals(expected.getVm().getUuid(), msg.getVm().getUuid());
+        Assert.assertEquals(expected.getVm().getMemorySize(), msg.getVm().getMemorySize());
+        Assert.assertEquals(expected.getVm().getCreateDate(), msg.getVm().getCreateDate());
+        Assert.assertEquals(4, msg.getVm().getAllVolumes().size());
+        Assert.assertEquals(3, msg.getVm().getVmNics().size());
+        Assert.assertEquals(expected.getVm().getVmNics().get(2).getMac(), msg.getVm().getVmNics().get(2).getMac());
+        Assert.assertEquals(3, msg.getCmd().getNics().size());
+        Assert.assertEquals(3, msg.getCmd().getDataVolumes().size());
+        Assert.assertEquals(expected.getCmd().getRootVolume().getInstallPath(), msg.getCmd().getRootVolume().getInstallPath());
+        Assert.assertEquals("org.qemu.guest_agent.0", msg.getCmd().getAddons().get("channel"));
+        Assert.assertTrue(msg.getData() instanceof VolumeInventory);
+        Assert.assertEquals(((VolumeInventory) expected.getData()).getUuid(), ((VolumeInventory) msg.getData()).getUuid());
+    }
+
+    private long measure(MessageCodec codec, StartVmCodecMsg msg, int loop) {
+        long start = System.nanoTime();
+        for (int i = 0; i < loop; i++) {
+            codec.decode(codec.encode(msg));
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void test() {
+        MessageCodec json = new JsonMessageCodec();
+        MessageCodec binary = new BinaryMessageCodec();
+
+        StartVmCodecMsg msg = message();
+        byte[] jsonData = json.encode(msg);
+        assertSame(msg, json.decode(jsonData));
+
+        msg = message();
+        byte[] binaryData = binary.encode(msg);
+        Message decoded = binary.decode(binaryData);
+        assertSame(msg, decoded);
+        // values keep their types instead of becoming Double like in JSON
+        Assert.assertEquals(3, ((StartVmCodecMsg) decoded).getExtra().get("count"));
+        Assert.assertTrue(((StartVmCodecMsg) decoded).getExtra().get("when") instanceof Date);
+        Assert.assertTrue(binaryData.length < jsonData.length);
+
+        int loop = Integer.valueOf(System.getProperty("loop", "2000"));
+        // warm up
+        measure(json, msg, loop);
+        measure(binary, msg, loop);
+
+        long jsonCost = measure(json, msg, loop);
+        long binaryCost = measure(binary, msg, loop);
+        logger.debug(String.format("encode and decode %s messages: json codec[%s bytes] costs %sms, binary codec[%s bytes] costs %sms",
+                loop, jsonData.length, jsonCost, binaryData.length, binaryCost));
+    }
+}
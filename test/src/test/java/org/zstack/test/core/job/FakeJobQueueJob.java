@@ -0,0 +1,42 @@
+package org.zstack.test.core.job;
+
+import org.zstack.core.job.Job;
+import org.zstack.core.job.JobContext;
+import org.zstack.header.core.ReturnValueCompletion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class FakeJobQueueJob implements Job {
+    static ConcurrentHashMap<String, List<Long>> indexs = new ConcurrentHashMap<String, List<Long>>();
+
+    @JobContext
+    private String queueName;
+    @JobContext
+    private long index;
+
+    private FakeJobQueueJob() {
+    }
+
+    public FakeJobQueueJob(String queueName, long index) {
+        this.queueName = queueName;
+        this.index = index;
+    }
+
+    @Override
+    public void run(ReturnValueCompletion<Object> complete) {
+        try {
+            List<Long> lst = indexs.get(queueName);
+            if (lst == null) {
+                lst = Collections.synchronizedList(new ArrayList<Long>());
+                List<Long> old = indexs.putIfAbsent(queueName, lst);
+                lst = old == null ? lst : old;
+            }
+            lst.add(index);
+        } finally {
+            complete.success(null);
+        }
+    }
+}
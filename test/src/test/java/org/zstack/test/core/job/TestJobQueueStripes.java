@@ -0,0 +1,70 @@
+package org.zstack.test.core.job;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.job.JobQueueFacade;
+import org.zstack.core.job.JobQueueStatistic;
+import org.zstack.test.Api;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. add jobs to many queues at the same time
+ *
+ * confirm all jobs are executed and jobs of each queue are executed in order
+ * confirm no pending job and no queue is left, the claims are counted
+ */
+public class TestJobQueueStripes {
+    CLogger logger = Utils.getLogger(TestJobQueueStripes.class);
+    ComponentLoader loader;
+    JobQueueFacade jobf;
+    int queueNum = 20;
+    int jobNum = 10;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("JobForUnitTest.xml").addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        jobf = loader.getComponent(JobQueueFacade.class);
+        new Api().startServer();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (int i = 0; i < jobNum; i++) {
+            for (int j = 0; j < queueNum; j++) {
+                String queueName = String.format("queue-%s", j);
+                jobf.execute(queueName, "TestJobQueueStripes", new FakeJobQueueJob(queueName, i));
+            }
+        }
+
+        TimeUnit.SECONDS.sleep(15);
+
+        Assert.assertEquals(queueNum, FakeJobQueueJob.indexs.size());
+        for (int j = 0; j < queueNum; j++) {
+            String queueName = String.format("queue-%s", j);
+            List<Long> lst = FakeJobQueueJob.indexs.get(queueName);
+            Assert.assertEquals(jobNum, lst.size());
+            for (int i = 0; i < jobNum; i++) {
+                Assert.assertEquals(i, lst.get(i).longValue());
+            }
+            Assert.assertEquals(0, jobf.getPendingJobNumber(queueName));
+        }
+
+        JobQueueStatistic stat = jobf.getStatistic();
+        logger.debug(String.format("claimed %s jobs, average claim latency %sms, max claim latency %sms",
+                stat.getClaimCount(), stat.getAverageClaimLatency(), stat.getMaxClaimLatency()));
+        Assert.assertEquals(queueNum * jobNum, stat.getClaimCount());
+        Assert.assertEquals(0, stat.getPendingJobs());
+        Assert.assertEquals(0, stat.getProcessingJobs());
+        Assert.assertEquals(0, stat.getQueueNum());
+    }
+}
@@ -0,0 +1,143 @@
+package org.zstack.test.core.logging;
+
+import junit.framework.Assert;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.logging.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.list;
+import static org.zstack.utils.CollectionDSL.map;
+
+/**
+ * 1. write entries of two resources into a store of small segments
+ *
+ * confirm entries of a resource are returned in order, with all fields kept
+ * confirm queries by time only return entries in the time range
+ *
+ * 2. reopen the store
+ *
+ * confirm the index is rebuilt
+ *
+ * 3. apply the retention with a size limit of two segments
+ *
+ * confirm the oldest segments are deleted and the latest entries are kept
+ */
+public class TestResourceLogStore {
+    File dir;
+    String vmUuid = uuid();
+    String hostUuid = uuid();
+    long baseTime = System.currentTimeMillis();
+    int num = 200;
+
+    private static String uuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(FileUtils.getTempDirectory(), "resource-log-" + uuid());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private List<ResourceLogContent> query(ResourceLogStore store, String resourceUuid, long startTime, long endTime) {
+        final List<ResourceLogContent> ret = new ArrayList<ResourceLogContent>();
+        store.query(resourceUuid, startTime, endTime, new ResourceLogStore.Visitor() {
+            @Override
+            public boolean visit(ResourceLogContent content) {
+                ret.add(content);
+                return true;
+            }
+        });
+        return ret;
+    }
+
+    private void validateVmEntries(List<ResourceLogContent> contents, int from) {
+        for (int i = 0; i < contents.size(); i++) {
+            ResourceLogContent c = contents.get(i);
+            int index = from + i * 2;
+            Assert.assertEquals(vmUuid, c.resourceUuid);
+            Assert.assertEquals(baseTime + index * 1000, c.dateInLong);
+            Assert.assertEquals(c.dateInLong, c.date.getTime());
+            Assert.assertEquals("vm.log.label", c.text);
+            Assert.assertEquals(list(String.valueOf(index), "null"), c.parameters);
+            Assert.assertEquals(LogType.RESOURCE, c.type);
+            Assert.assertEquals(LogLevel.WARNING, c.level);
+            Assert.assertEquals(String.valueOf(index), ((Map) c.opaque).get("index"));
+        }
+    }
+
+    @Test
+    public void test() {
+        ResourceLogStore store = new ResourceLogStore(dir, 4096);
+        store.open();
+
+        for (int i = 0; i < num; i++) {
+            Log.Content c = new Log.Content();
+            c.uuid = uuid();
+            c.dateInLong = baseTime + i * 1000;
+            if (i % 2 == 0) {
+                c.resourceUuid = vmUuid;
+                c.level = LogLevel.WARNING;
+                c.text = "vm.log.label";
+                c.parameters = list(String.valueOf(i), "null");
+                c.opaque = map(e("index", String.valueOf(i)));
+            } else {
+                c.resourceUuid = hostUuid;
+                c.level = LogLevel.INFO;
+                c.text = "host.log.label";
+            }
+            Assert.assertTrue(store.append(LogType.RESOURCE, c));
+        }
+        Assert.assertTrue(store.getSegmentNumber() > 2);
+
+        List<ResourceLogContent> vmEntries = query(store, vmUuid, 0, Long.MAX_VALUE);
+        Assert.assertEquals(num / 2, vmEntries.size());
+        validateVmEntries(vmEntries, 0);
+
+        List<ResourceLogContent> hostEntries = query(store, hostUuid, 0, Long.MAX_VALUE);
+        Assert.assertEquals(num / 2, hostEntries.size());
+        Assert.assertNull(hostEntries.get(0).parameters);
+        Assert.assertNull(hostEntries.get(0).opaque);
+
+        // entries 50 ~ 99
+        List<ResourceLogContent> ranged = query(store, null, baseTime + 50 * 1000, baseTime + 99 * 1000);
+        Assert.assertEquals(50, ranged.size());
+        for (int i = 0; i < ranged.size(); i++) {
+            Assert.assertEquals(baseTime + (50 + i) * 1000, ranged.get(i).dateInLong);
+        }
+        validateVmEntries(query(store, vmUuid, baseTime + 50 * 1000, baseTime + 99 * 1000), 50);
+
+        int segmentNum = store.getSegmentNumber();
+        store.close();
+        store = new ResourceLogStore(dir, 4096);
+        store.open();
+        Assert.assertEquals(segmentNum, store.getSegmentNumber());
+        vmEntries = query(store, vmUuid, 0, Long.MAX_VALUE);
+        Assert.assertEquals(num / 2, vmEntries.size());
+        validateVmEntries(vmEntries, 0);
+
+        Assert.assertEquals(segmentNum - 2, store.applyRetention(4096 * 2, Long.MAX_VALUE, System.currentTimeMillis()));
+        Assert.assertEquals(2, store.getSegmentNumber());
+        List<ResourceLogContent> all = query(store, null, 0, Long.MAX_VALUE);
+        Assert.assertFalse(all.isEmpty());
+        Assert.assertTrue(all.size() < num);
+        Assert.assertEquals(baseTime + (num - 1) * 1000, all.get(all.size() - 1).dateInLong);
+        vmEntries = query(store, vmUuid, 0, Long.MAX_VALUE);
+        validateVmEntries(vmEntries, num - vmEntries.size() * 2);
+        store.close();
+    }
+}
@@ -0,0 +1,108 @@
+package org.zstack.test.core.rest;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.rest.RESTApiDecoder;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.header.rest.RESTApiFacade;
+import org.zstack.header.rest.RESTConstant;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.header.rest.RestAPIResponse;
+import org.zstack.header.rest.RestAPIState;
+import org.zstack.header.rest.RestAPIVO;
+import org.zstack.header.zone.APICreateZoneEvent;
+import org.zstack.header.zone.APICreateZoneMsg;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. send an APICreateZoneMsg through the RESTApiFacade
+ * 2. get the result with a long-poll timeout
+ *
+ * confirm the result is returned done without polling again
+ * confirm the result is written to RestAPIVO behind
+ *
+ * 3. send another APICreateZoneMsg, long-poll its result by http
+ *
+ * confirm the result is returned done by the async request
+ * confirm polling an unknown uuid returns 404
+ */
+public class TestRestAPIResultStore {
+    CLogger logger = Utils.getLogger(TestRestAPIResultStore.class);
+    Api api;
+    ComponentLoader loader;
+    RESTApiFacade restApi;
+    RESTFacade restf;
+    WebBeanConstructor con;
+    EntityManagerFactory emf;
+    SessionInventory session;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        con = new WebBeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("AccountManager.xml").addXml("RESTFacade.xml").build();
+        restApi = loader.getComponent(RESTApiFacade.class);
+        restf = loader.getComponent(RESTFacade.class);
+        emf = loader.getComponentByBeanName("RESTApiEntityManagerFactory");
+        api = new Api();
+        api.startServer();
+        session = api.loginAsAdmin();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        APICreateZoneMsg msg = new APICreateZoneMsg();
+        msg.setSession(session);
+        msg.setName("TestZone");
+        RestAPIResponse rsp = restApi.send(msg);
+        Assert.assertEquals(RestAPIState.Processing.toString(), rsp.getState());
+
+        rsp = restApi.getResult(rsp.getUuid(), TimeUnit.SECONDS.toMillis(15));
+        Assert.assertEquals(RestAPIState.Done.toString(), rsp.getState());
+        APICreateZoneEvent evt = (APICreateZoneEvent) RESTApiDecoder.loads(rsp.getResult());
+        Assert.assertTrue(evt.isSuccess());
+
+        TimeUnit.SECONDS.sleep(2);
+        EntityManager mgr = emf.createEntityManager();
+        try {
+            RestAPIVO vo = mgr.find(RestAPIVO.class, rsp.getUuid());
+            Assert.assertNotNull(vo);
+            Assert.assertEquals(RestAPIState.Done, vo.getState());
+            Assert.assertEquals(rsp.getResult(), vo.getResult());
+        } finally {
+            mgr.close();
+        }
+
+        msg = new APICreateZoneMsg();
+        msg.setSession(session);
+        msg.setName("TestZone2");
+        rsp = restApi.send(msg);
+        String url = String.format("%s?timeout=%s", con.buildUrl(RESTConstant.REST_API_RESULT, rsp.getUuid()), TimeUnit.SECONDS.toMillis(15));
+        String body = restf.getRESTTemplate().getForObject(url, String.class);
+        rsp = JSONObjectUtil.toObject(body, RestAPIResponse.class);
+        Assert.assertEquals(RestAPIState.Done.toString(), rsp.getState());
+        evt = (APICreateZoneEvent) RESTApiDecoder.loads(rsp.getResult());
+        Assert.assertTrue(evt.isSuccess());
+
+        try {
+            restf.getRESTTemplate().getForObject(con.buildUrl(RESTConstant.REST_API_RESULT, Platform.getUuid()), String.class);
+            Assert.fail("polling an unknown uuid should fail");
+        } catch (HttpClientErrorException e) {
+            Assert.assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+        }
+    }
+}
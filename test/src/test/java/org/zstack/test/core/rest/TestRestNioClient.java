@@ -0,0 +1,192 @@
+package org.zstack.test.core.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.rest.JsonAsyncRESTCallback;
+import org.zstack.header.rest.RESTConstant;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * async json posts through the NIO HTTP client(RESTFacade.nioClient=true)
+ *
+ * 1. post to an agent calling back after 1 second, with a timeout of 3 seconds
+ *
+ * confirm the call succeeds, and the cancelled timeout doesn't fail it later
+ *
+ * 2. post to an agent never calling back, with a timeout of 2 seconds
+ *
+ * confirm the call fails with TIMEOUT by the wheel timer
+ *
+ * 3. post to an agent replying http 500
+ *
+ * confirm the call fails with HTTP_ERROR
+ *
+ * 4. post to a port nobody listens on, start an agent on the port 2 seconds later
+ *
+ * confirm the post is retried and the call succeeds
+ *
+ * 5. post to a port nobody listens on
+ *
+ * confirm the call fails with IO_ERROR after the retries run out
+ *
+ * RESTFacade.nioClient is set as a system property and in CoreGlobalProperty in case Platform has
+ * been loaded by a previous test in the same JVM
+ */
+public class TestRestNioClient {
+    CLogger logger = Utils.getLogger(TestRestNioClient.class);
+    WebBeanConstructor wbean;
+    ComponentLoader loader;
+    RESTFacade restf;
+    HttpServer agent;
+
+    class Result {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        String ret;
+        ErrorCode error;
+        long cost;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("RESTFacade.nioClient", "true");
+        CoreGlobalProperty.REST_FACADE_NIO_CLIENT = true;
+        wbean = new WebBeanConstructor();
+        wbean.addXml("PortalForUnitTest.xml").addXml("AccountManager.xml");
+        loader = wbean.build();
+        restf = loader.getComponent(RESTFacade.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (agent != null) {
+            agent.stop(0);
+        }
+        wbean.stopTomcat();
+        System.clearProperty("RESTFacade.nioClient");
+        CoreGlobalProperty.REST_FACADE_NIO_CLIENT = false;
+    }
+
+    private Result post(String url, long timeout) {
+        final Result res = new Result();
+        final long start = System.currentTimeMillis();
+        restf.asyncJsonPost(url, "hello", new JsonAsyncRESTCallback<String>() {
+            @Override
+            public void fail(ErrorCode err) {
+                logger.debug(String.format("fail: %s", err));
+                res.cost = System.currentTimeMillis() - start;
+                res.error = err;
+                res.calls.incrementAndGet();
+                res.latch.countDown();
+            }
+
+            @Override
+            public void success(String ret) {
+                res.cost = System.currentTimeMillis() - start;
+                res.ret = ret;
+                res.calls.incrementAndGet();
+                res.latch.countDown();
+            }
+
+            @Override
+            public Class<String> getReturnClass() {
+                return String.class;
+            }
+        }, TimeUnit.SECONDS, timeout);
+        return res;
+    }
+
+    private int freePort() throws IOException {
+        ServerSocket s = new ServerSocket(0);
+        int port = s.getLocalPort();
+        s.close();
+        return port;
+    }
+
+    private void startAgent(int port) throws IOException {
+        agent = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        agent.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final String body = IOUtils.toString(exchange.getRequestBody());
+                final String taskUuid = exchange.getRequestHeaders().getFirst(RESTConstant.TASK_UUID);
+                final String callbackUrl = exchange.getRequestHeaders().getFirst(RESTConstant.CALLBACK_URL);
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        HttpHeaders headers = new HttpHeaders();
+                        headers.setContentType(MediaType.APPLICATION_JSON);
+                        headers.set(RESTConstant.TASK_UUID, taskUuid);
+                        restf.getRESTTemplate().exchange(callbackUrl, HttpMethod.POST, new HttpEntity<String>(body, headers), String.class);
+                    }
+                }).start();
+            }
+        });
+        agent.start();
+    }
+
+    @Test
+    public void test() throws Exception {
+        Assert.assertTrue(CoreGlobalProperty.REST_FACADE_NIO_CLIENT);
+
+        Result res = post(wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_PATH), 3);
+        Assert.assertTrue(res.latch.await(1, TimeUnit.MINUTES));
+        Assert.assertNull(res.error);
+        Assert.assertEquals("hello", res.ret);
+        TimeUnit.SECONDS.sleep(3);
+        Assert.assertEquals(1, res.calls.get());
+
+        res = post(wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_TIMEOUT_PATH), 2);
+        Assert.assertTrue(res.latch.await(1, TimeUnit.MINUTES));
+        Assert.assertEquals(SysErrors.TIMEOUT.toString(), res.error.getCode());
+        Assert.assertTrue(res.cost >= TimeUnit.SECONDS.toMillis(2));
+
+        res = post(wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_FAIL_PATH), 10);
+        Assert.assertTrue(res.latch.await(1, TimeUnit.MINUTES));
+        Assert.assertEquals(SysErrors.HTTP_ERROR.toString(), res.error.getCode());
+
+        int port = freePort();
+        res = post(String.format("http://127.0.0.1:%s/agent", port), 30);
+        TimeUnit.SECONDS.sleep(2);
+        startAgent(port);
+        Assert.assertTrue(res.latch.await(1, TimeUnit.MINUTES));
+        Assert.assertNull(res.error);
+        Assert.assertEquals("hello", res.ret);
+        Assert.assertTrue(res.cost >= TimeUnit.SECONDS.toMillis(2));
+
+        port = freePort();
+        res = post(String.format("http://127.0.0.1:%s/agent", port), 30);
+        Assert.assertTrue(res.latch.await(1, TimeUnit.MINUTES));
+        Assert.assertEquals(SysErrors.IO_ERROR.toString(), res.error.getCode());
+        // 5 retries, 1 second apart
+        Assert.assertTrue(res.cost >= TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(1, res.calls.get());
+    }
+}
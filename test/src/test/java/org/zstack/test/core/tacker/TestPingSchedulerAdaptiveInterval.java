@@ -0,0 +1,204 @@
+package org.zstack.test.core.tacker;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.tacker.PingScheduler;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.AbstractService;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.test.BeanConstructor;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * with pingTracker.adaptiveInterval on and a ping interval of 2s
+ *
+ * 1. track a healthy resource and an unhealthy resource
+ *
+ * confirm the healthy resource backs off after a few pings, but is never left unpinged for more than
+ * pingTracker.maxBackoff(2) times of the interval, plus a tick
+ * confirm the unhealthy resource is probed more often than the interval
+ *
+ * 2. make the healthy resource unhealthy
+ *
+ * confirm it's probed more often than the interval after its next ping
+ *
+ * pingTracker.adaptiveInterval is off in the test zstack.properties, it's set as a system property and in
+ * CoreGlobalProperty in case Platform has been loaded by a previous test in the same JVM
+ */
+public class TestPingSchedulerAdaptiveInterval {
+    ComponentLoader loader;
+    CloudBus bus;
+    ThreadFacade thdf;
+    ErrorFacade errf;
+    FakeService serv;
+    PingScheduler scheduler;
+    boolean adaptiveInterval;
+    int maxBackoff;
+    long interval = 2;
+
+    // resource uuid -> times it was pinged
+    Map<String, List<Long>> pings = new ConcurrentHashMap<String, List<Long>>();
+    Set<String> unhealthy = Collections.synchronizedSet(new HashSet<String>());
+
+    public static class PingResourceMsg extends NeedReplyMessage {
+        public String resourceUuid;
+    }
+
+    class FakeService extends AbstractService {
+        @Override
+        public boolean start() {
+            bus.registerService(this);
+            bus.activeService(this);
+            return true;
+        }
+
+        @Override
+        public boolean stop() {
+            bus.deActiveService(this);
+            bus.unregisterService(this);
+            return true;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            PingResourceMsg pmsg = (PingResourceMsg) msg;
+            pings.get(pmsg.resourceUuid).add(System.currentTimeMillis());
+            MessageReply reply = new MessageReply();
+            if (unhealthy.contains(pmsg.resourceUuid)) {
+                reply.setError(errf.stringToOperationError("unhealthy on purpose"));
+            }
+            bus.reply(msg, reply);
+        }
+
+        @Override
+        public String getId() {
+            return this.getClass().getCanonicalName();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        adaptiveInterval = CoreGlobalProperty.PING_TRACKER_ADAPTIVE_INTERVAL;
+        maxBackoff = CoreGlobalProperty.PING_TRACKER_MAX_BACKOFF;
+        System.setProperty("pingTracker.adaptiveInterval", "true");
+        CoreGlobalProperty.PING_TRACKER_ADAPTIVE_INTERVAL = true;
+        CoreGlobalProperty.PING_TRACKER_MAX_BACKOFF = 2;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBus.class);
+        thdf = loader.getComponent(ThreadFacade.class);
+        errf = loader.getComponent(ErrorFacade.class);
+        serv = new FakeService();
+        serv.start();
+
+        scheduler = new PingScheduler() {
+            @Override
+            protected String getName() {
+                return "test-adaptive-ping-scheduler";
+            }
+
+            @Override
+            protected long getPingInterval() {
+                return interval;
+            }
+
+            @Override
+            protected int getParallelismDegree() {
+                return 10;
+            }
+
+            @Override
+            protected NeedReplyMessage getPingMessage(String resourceUuid) {
+                PingResourceMsg msg = new PingResourceMsg();
+                msg.resourceUuid = resourceUuid;
+                msg.setServiceId(FakeService.class.getCanonicalName());
+                return msg;
+            }
+
+            @Override
+            protected void handleReply(String resourceUuid, MessageReply reply) {
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+        serv.stop();
+        System.clearProperty("pingTracker.adaptiveInterval");
+        CoreGlobalProperty.PING_TRACKER_ADAPTIVE_INTERVAL = adaptiveInterval;
+        CoreGlobalProperty.PING_TRACKER_MAX_BACKOFF = maxBackoff;
+    }
+
+    private void track(String uuid) {
+        pings.put(uuid, Collections.synchronizedList(new ArrayList<Long>()));
+        scheduler.track(uuid);
+    }
+
+    private List<Long> gaps(List<Long> times, int from) {
+        List<Long> ret = new ArrayList<Long>();
+        synchronized (times) {
+            for (int i = from + 1; i < times.size(); i++) {
+                ret.add(times.get(i) - times.get(i - 1));
+            }
+        }
+        return ret;
+    }
+
+    private void waitPings(String uuid, int num) throws InterruptedException {
+        for (int i = 0; i < 60 && pings.get(uuid).size() < num; i++) {
+            TimeUnit.SECONDS.sleep(1);
+        }
+        Assert.assertTrue(pings.get(uuid).size() >= num);
+    }
+
+    private long average(List<Long> gaps) {
+        long total = 0;
+        for (long g : gaps) {
+            total += g;
+        }
+        return total / gaps.size();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        long base = TimeUnit.SECONDS.toMillis(interval);
+        String healthy = "healthy";
+        String sick = "sick";
+        unhealthy.add(sick);
+        track(healthy);
+        track(sick);
+        scheduler.start(bus, thdf);
+
+        // 3 pings at the interval, then backs off by half an interval a ping until 2x of the interval
+        waitPings(healthy, 7);
+        List<Long> healthyGaps = gaps(pings.get(healthy), 0);
+        long maxGap = Collections.max(healthyGaps);
+        Assert.assertTrue(String.format("gaps: %s", healthyGaps), maxGap > base + 500);
+        // buckets of due time are one second wide
+        Assert.assertTrue(String.format("gaps: %s", healthyGaps), maxGap <= 2 * base + TimeUnit.SECONDS.toMillis(1) + 500);
+
+        List<Long> sickGaps = gaps(pings.get(sick), 0);
+        Assert.assertTrue(sickGaps.size() > healthyGaps.size());
+        Assert.assertTrue(String.format("gaps: %s", sickGaps), average(sickGaps) < base);
+
+        unhealthy.add(healthy);
+        int failedPing = pings.get(healthy).size();
+        waitPings(healthy, failedPing + 5);
+        // the ping after failedPing is still at the backed off interval, probes start after it fails
+        List<Long> probeGaps = gaps(pings.get(healthy), failedPing);
+        Assert.assertTrue(String.format("gaps: %s", probeGaps), average(probeGaps) < base);
+    }
+}
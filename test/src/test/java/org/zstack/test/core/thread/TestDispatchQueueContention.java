@@ -0,0 +1,118 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeMXBean;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * submits chain tasks of many signatures from 1, 8 and 64 threads, checks every task runs
+ * in the order it was submitted by its thread, and logs the throughput of each round.
+ *
+ * use -DtaskNum and -DsignatureNum to change the load
+ */
+public class TestDispatchQueueContention {
+    CLogger logger = Utils.getLogger(TestDispatchQueueContention.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum;
+    int signatureNum;
+
+    @Before
+    public void setUp() throws Exception {
+        taskNum = Integer.valueOf(System.getProperty("taskNum", "20000"));
+        signatureNum = Integer.valueOf(System.getProperty("signatureNum", "500"));
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    private void run(final int threadNum) throws InterruptedException {
+        final int tasksPerThread = taskNum / threadNum;
+        final CountDownLatch latch = new CountDownLatch(tasksPerThread * threadNum);
+        // key is "thread-signature", value is the sequence numbers in the order they ran
+        final Map<String, List<Integer>> executed = new ConcurrentHashMap<String, List<Integer>>();
+
+        List<Thread> submitters = new ArrayList<Thread>();
+        for (int t = 0; t < threadNum; t++) {
+            final int threadIndex = t;
+            submitters.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < tasksPerThread; i++) {
+                        final int seq = i;
+                        final String signature = String.format("contention-%s", i % signatureNum);
+                        final String key = String.format("%s-%s", threadIndex, signature);
+
+                        thdf.chainSubmit(new ChainTask() {
+                            @Override
+                            public String getSyncSignature() {
+                                return signature;
+                            }
+
+                            @Override
+                            public void run(SyncTaskChain chain) {
+                                List<Integer> lst = executed.get(key);
+                                if (lst == null) {
+                                    lst = new ArrayList<Integer>();
+                                    executed.put(key, lst);
+                                }
+                                lst.add(seq);
+                                latch.countDown();
+                                chain.next();
+                            }
+
+                            @Override
+                            public String getName() {
+                                return signature;
+                            }
+                        });
+                    }
+                }
+            }));
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread t : submitters) {
+            t.start();
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.MINUTES));
+        long cost = System.currentTimeMillis() - start;
+
+        for (List<Integer> lst : executed.values()) {
+            for (int i = 1; i < lst.size(); i++) {
+                Assert.assertTrue(lst.get(i - 1) < lst.get(i));
+            }
+        }
+
+        logger.debug(String.format("%s submitting threads ran %s chain tasks of %s signatures in %sms, %s tasks/s",
+                threadNum, tasksPerThread * threadNum, signatureNum, cost, cost == 0 ? "n/a" : tasksPerThread * threadNum * 1000L / cost));
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        run(1);
+        run(8);
+        run(64);
+
+        // idle queues are removed
+        TimeUnit.SECONDS.sleep(1);
+        for (String signature : ((ThreadFacadeMXBean) thdf).getChainTaskStatistics().keySet()) {
+            Assert.assertFalse(signature.startsWith("contention-"));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.HashedWheelTimer;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.test.BeanConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a wheel of 8 slots turning every 50ms
+ *
+ * 1. add timeouts of 100ms, 300ms and 1s, the 1s one takes more than one round of the wheel
+ *
+ * confirm each timeout expires no earlier than its delay and at most a few ticks late
+ *
+ * 2. add 10 timeouts of 300ms and cancel 5 of them
+ *
+ * confirm only the 5 not cancelled expire, and cancelling an expired timeout returns false
+ *
+ * 3. stop the timer
+ *
+ * confirm timeouts added after stopping never expire
+ */
+public class TestHashedWheelTimer {
+    ComponentLoader loader;
+    HashedWheelTimer timer;
+    long tick = 50;
+
+    @Before
+    public void setUp() throws Exception {
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        timer = new HashedWheelTimer("test-wheel-timer", tick, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final long[] delays = new long[] {100, 300, 1000};
+        final Map<Long, Long> costs = new ConcurrentHashMap<Long, Long>();
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final long start = System.currentTimeMillis();
+        for (final long delay : delays) {
+            timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    costs.put(delay, System.currentTimeMillis() - start);
+                    latch.countDown();
+                }
+            }, TimeUnit.MILLISECONDS, delay);
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (long delay : delays) {
+            long cost = costs.get(delay);
+            Assert.assertTrue(String.format("delay: %s, cost: %s", delay, cost), cost >= delay);
+            Assert.assertTrue(String.format("delay: %s, cost: %s", delay, cost), cost <= delay + 4 * tick);
+        }
+
+        final CountDownLatch expired = new CountDownLatch(10);
+        List<TimeoutTaskReceipt> receipts = new ArrayList<TimeoutTaskReceipt>();
+        for (int i = 0; i < 10; i++) {
+            receipts.add(timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    expired.countDown();
+                }
+            }, TimeUnit.MILLISECONDS, 300));
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(receipts.get(i).cancel());
+        }
+
+        Assert.assertFalse(expired.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(5, expired.getCount());
+        for (int i = 5; i < 10; i++) {
+            Assert.assertFalse(receipts.get(i).cancel());
+        }
+
+        timer.stop();
+        final CountDownLatch afterStop = new CountDownLatch(1);
+        timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                afterStop.countDown();
+            }
+        }, TimeUnit.MILLISECONDS, 100);
+        Assert.assertFalse(afterStop.await(500, TimeUnit.MILLISECONDS));
+    }
+}
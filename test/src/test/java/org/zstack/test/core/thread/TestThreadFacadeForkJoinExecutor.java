@@ -0,0 +1,130 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tasks, sync tasks and chain tasks run on the fork-join executor and are counted
+ * in the thread pool statistic
+ *
+ * ThreadFacade.executor is set as a system property, which Platform links to ThreadGlobalProperty.EXECUTOR
+ * when it's loaded by the bean constructor; the field is set too in case Platform has been loaded by
+ * a previous test in the same JVM
+ */
+public class TestThreadFacadeForkJoinExecutor {
+    private static final CLogger logger = Utils.getLogger(TestThreadFacadeForkJoinExecutor.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("ThreadFacade.executor", ThreadFacadeImpl.EXECUTOR_FORK_JOIN);
+        ThreadGlobalProperty.EXECUTOR = ThreadFacadeImpl.EXECUTOR_FORK_JOIN;
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("ThreadFacade.executor");
+        ThreadGlobalProperty.EXECUTOR = ThreadFacadeImpl.EXECUTOR_POOL;
+    }
+
+    @Test
+    public void test() throws InterruptedException, ExecutionException {
+        Assert.assertEquals(ThreadFacadeImpl.EXECUTOR_FORK_JOIN, ThreadGlobalProperty.EXECUTOR);
+
+        List<Future<Thread>> futures = new ArrayList<Future<Thread>>();
+        for (int i = 0; i < taskNum; i++) {
+            futures.add(thdf.submit(new Task<Thread>() {
+                @Override
+                public Thread call() throws Exception {
+                    return Thread.currentThread();
+                }
+
+                @Override
+                public String getName() {
+                    return "fork-join-task";
+                }
+            }));
+        }
+
+        for (Future<Thread> f : futures) {
+            Thread t = f.get();
+            Assert.assertTrue(t instanceof ForkJoinWorkerThread);
+            Assert.assertTrue(t.getName().startsWith("zs-thread-"));
+        }
+
+        Future<Boolean> ret = thdf.syncSubmit(new SyncTask<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return Thread.currentThread() instanceof ForkJoinWorkerThread;
+            }
+
+            @Override
+            public String getName() {
+                return "fork-join-sync-task";
+            }
+
+            @Override
+            public String getSyncSignature() {
+                return "fork-join-sync-task";
+            }
+
+            @Override
+            public int getSyncLevel() {
+                return 1;
+            }
+        });
+        Assert.assertTrue(ret.get());
+
+        final CountDownLatch latch = new CountDownLatch(taskNum);
+        for (int i = 0; i < taskNum; i++) {
+            thdf.chainSubmit(new ChainTask() {
+                @Override
+                public String getSyncSignature() {
+                    return "fork-join-chain-task";
+                }
+
+                @Override
+                public void run(SyncTaskChain chain) {
+                    if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+                        latch.countDown();
+                    }
+                    chain.next();
+                }
+
+                @Override
+                public String getName() {
+                    return "fork-join-chain-task";
+                }
+            });
+        }
+        Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+
+        TimeUnit.SECONDS.sleep(1);
+        ThreadPoolStatistic stat = ((ThreadFacadeMXBean) thdf).getThreadPoolStatistic();
+        logger.debug(String.format("total threads: %s, completed tasks: %s, pending tasks: %s",
+                stat.getTotalThreadNum(), stat.getCompletedTaskNum(), stat.getPendingTaskNum()));
+        Assert.assertTrue(stat.getCompletedTaskNum() > taskNum);
+        Assert.assertEquals(0, stat.getPendingTaskNum());
+        Assert.assertEquals(0, stat.getActiveThreadNum());
+    }
+}
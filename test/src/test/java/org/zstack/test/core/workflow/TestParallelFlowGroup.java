@@ -0,0 +1,134 @@
+package org.zstack.test.core.workflow;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.workflow.SimpleFlowChain;
+import org.zstack.header.core.workflow.*;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. run a chain of flow1, a parallel group of two slow async flows and flow4
+ *
+ * confirm the two flows of the group overlap, their data is merged into the chain data
+ *
+ * 2. run a chain of flow1 and a parallel group in which one flow fails
+ *
+ * confirm the both flows of the group and flow1 are rolled back and the error handler is called
+ */
+public class TestParallelFlowGroup {
+    CLogger logger = Utils.getLogger(TestParallelFlowGroup.class);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    AtomicInteger rollbacks = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        new BeanConstructor().build();
+    }
+
+    private Flow slowFlow(final String key, final boolean fail) {
+        return new Flow() {
+            String __name__ = key;
+
+            @Override
+            public void run(final FlowTrigger trigger, final Map data) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        int r = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), r));
+                        }
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(300);
+                        } catch (InterruptedException e) {
+                            logger.warn(e.getMessage(), e);
+                        }
+                        running.decrementAndGet();
+
+                        if (fail) {
+                            trigger.fail(new ErrorCode("TEST.1000", "on purpose"));
+                        } else {
+                            data.put(key, true);
+                            trigger.next();
+                        }
+                    }
+                }).start();
+            }
+
+            @Override
+            public void rollback(FlowRollback trigger, Map data) {
+                rollbacks.incrementAndGet();
+                trigger.rollback();
+            }
+        };
+    }
+
+    private Flow flow1() {
+        return new Flow() {
+            @Override
+            public void run(FlowTrigger trigger, Map data) {
+                data.put("flow1", true);
+                trigger.next();
+            }
+
+            @Override
+            public void rollback(FlowRollback trigger, Map data) {
+                rollbacks.incrementAndGet();
+                trigger.rollback();
+            }
+        };
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final boolean[] success = {false};
+        new SimpleFlowChain()
+                .then(flow1())
+                .thenParallel(slowFlow("flow2", false), slowFlow("flow3", false))
+                .then(new NoRollbackFlow() {
+                    @Override
+                    public void run(FlowTrigger trigger, Map data) {
+                        success[0] = data.containsKey("flow1") && data.containsKey("flow2") && data.containsKey("flow3");
+                        trigger.next();
+                    }
+                })
+                .done(new FlowDoneHandler() {
+                    @Override
+                    public void handle(Map data) {
+                        latch.countDown();
+                    }
+                })
+                .start();
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(success[0]);
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(0, rollbacks.get());
+
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        new SimpleFlowChain()
+                .then(flow1())
+                .thenParallel(slowFlow("flow2", false), slowFlow("flow3", true))
+                .error(new FlowErrorHandler() {
+                    @Override
+                    public void handle(ErrorCode errCode, Map data) {
+                        errorLatch.countDown();
+                    }
+                })
+                .start();
+
+        Assert.assertTrue(errorLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, rollbacks.get());
+    }
+}
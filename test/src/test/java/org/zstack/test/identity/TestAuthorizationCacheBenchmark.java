@@ -0,0 +1,114 @@
+package org.zstack.test.identity;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.apimediator.ApiMessageInterceptionException;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.identity.AccountManagerImpl;
+import org.zstack.identity.IdentityGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. create a user having a policy of many statements, the last one allows identity:read
+ * 2. authorize APIQueryPolicyMsg of the user many times with the authorization cache disabled and enabled
+ * 3. detach the policy from the user
+ *
+ * confirm the authorization passes in both rounds and is denied after the policy is detached;
+ * the cost per API of each round is logged.
+ *
+ * use -DauthNum and -DstatementNum to change the load
+ */
+public class TestAuthorizationCacheBenchmark {
+    CLogger logger = Utils.getLogger(TestAuthorizationCacheBenchmark.class);
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    AccountManagerImpl acntMgr;
+    int authNum;
+    int statementNum;
+
+    @Before
+    public void setUp() throws Exception {
+        authNum = Integer.valueOf(System.getProperty("authNum", "2000"));
+        statementNum = Integer.valueOf(System.getProperty("statementNum", "50"));
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        acntMgr = loader.getComponent(AccountManagerImpl.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    private long run(SessionInventory session) {
+        long start = System.nanoTime();
+        for (int i = 0; i < authNum; i++) {
+            APIQueryPolicyMsg msg = new APIQueryPolicyMsg();
+            msg.setSession(session);
+            acntMgr.intercept(msg);
+        }
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / authNum;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        IdentityCreator creator = new IdentityCreator(api);
+        AccountInventory a = creator.createAccount("test", "test");
+        creator.createUser("user", "password");
+
+        List<Statement> statements = new ArrayList<Statement>();
+        for (int i = 0; i < statementNum; i++) {
+            Statement s = new Statement();
+            s.setName(String.format("statement-%s", i));
+            s.addAction(String.format("fake:action-%s.*", i));
+            s.setEffect(StatementEffect.Deny);
+            statements.add(s);
+        }
+        Statement s = new Statement();
+        s.setName("allow-read");
+        s.addAction(String.format("%s:read", AccountConstant.ACTION_CATEGORY));
+        s.setEffect(StatementEffect.Allow);
+        statements.add(s);
+        creator.createPolicy("policy", statements);
+        creator.attachPolicyToUser("user", "policy");
+
+        SessionInventory session = api.loginByUser("user", "password", a.getUuid());
+
+        IdentityGlobalConfig.AUTHORIZATION_CACHE.updateValue(false);
+        run(session);
+        long before = run(session);
+
+        IdentityGlobalConfig.AUTHORIZATION_CACHE.updateValue(true);
+        run(session);
+        long after = run(session);
+
+        logger.debug(String.format("authorized %s APIs against %s statements, cost per API: %sus without the cache, %sus with the cache",
+                authNum, statementNum + 1, before, after));
+
+        creator.detachPolicyFromUser("user", "policy");
+        boolean denied = false;
+        try {
+            APIQueryPolicyMsg msg = new APIQueryPolicyMsg();
+            msg.setSession(session);
+            acntMgr.intercept(msg);
+        } catch (ApiMessageInterceptionException e) {
+            denied = true;
+        }
+        Assert.assertTrue(denied);
+    }
+}
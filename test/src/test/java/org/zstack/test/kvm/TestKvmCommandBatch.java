@@ -0,0 +1,103 @@
+package org.zstack.test.kvm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.host.HostConstant;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.rest.BeforeAsyncJsonPostInterceptor;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.kvm.KVMAgentCommands.HardenVmConsoleCmd;
+import org.zstack.kvm.KVMConstant;
+import org.zstack.kvm.KVMGlobalConfig;
+import org.zstack.kvm.KVMHostAsyncHttpCallMsg;
+import org.zstack.simulator.kvm.KVMSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. enable the command batching
+ * 2. send 3 async http calls to the host at once
+ *
+ * confirm the calls are sent in one batch request and each of them succeeds
+ * confirm BeforeAsyncJsonPostInterceptor sees each command object
+ */
+public class TestKvmCommandBatch {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    KVMSimulatorConfig config;
+    RESTFacade restf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestCreateVmOnKvm.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(KVMSimulatorConfig.class);
+        restf = loader.getComponent(RESTFacade.class);
+    }
+
+    @Test
+    public void test() {
+        HostInventory host = deployer.hosts.get("host1");
+        KVMGlobalConfig.COMMAND_BATCH_WINDOW.updateValue(500);
+        config.hardenVmConsoleCmds.clear();
+
+        final List<HardenVmConsoleCmd> intercepted = new CopyOnWriteArrayList<HardenVmConsoleCmd>();
+        restf.installBeforeAsyncJsonPostInterceptor(new BeforeAsyncJsonPostInterceptor() {
+            @Override
+            public void beforeAsyncJsonPost(String url, Object body, TimeUnit unit, long timeout) {
+                if (body instanceof HardenVmConsoleCmd) {
+                    intercepted.add((HardenVmConsoleCmd) body);
+                }
+            }
+
+            @Override
+            public void beforeAsyncJsonPost(String url, String body, TimeUnit unit, long timeout) {
+            }
+        });
+
+        List<KVMHostAsyncHttpCallMsg> msgs = new ArrayList<KVMHostAsyncHttpCallMsg>();
+        for (int i = 0; i < 3; i++) {
+            HardenVmConsoleCmd cmd = new HardenVmConsoleCmd();
+            cmd.vmUuid = String.valueOf(i);
+            KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
+            msg.setHostUuid(host.getUuid());
+            msg.setPath(KVMConstant.KVM_HARDEN_CONSOLE_PATH);
+            msg.setCommand(cmd);
+            msg.setCommandTimeout(60);
+            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, host.getUuid());
+            msgs.add(msg);
+        }
+
+        List<MessageReply> replies = bus.call(msgs);
+        for (MessageReply r : replies) {
+            Assert.assertTrue(r.isSuccess());
+        }
+
+        Assert.assertEquals(1, config.batchCmds.size());
+        Assert.assertEquals(3, config.batchCmds.get(0).getCommands().size());
+        Assert.assertEquals(3, config.hardenVmConsoleCmds.size());
+        Assert.assertEquals(3, intercepted.size());
+    }
+}
@@ -0,0 +1,152 @@
+package org.zstack.test.network;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.config.GlobalConfigException;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.network.l2.L2NetworkInventory;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.network.l3.L3NetworkGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. add an ip range of 11 IPs
+ * 2. allocate 1 IP, then 5 IPs in a batch
+ * 3. return the first IP
+ * 4. allocate 5 IPs in a batch
+ * 5. allocate 1 IP
+ *
+ * confirm IPs are allocated in order, and the returned IP is allocated after the range looks full
+ *
+ * 6. allocate 1 IP, and 2 IPs in a batch
+ *
+ * confirm both fail and no IP is left allocated by the failed batch
+ *
+ * 7. delete a used IP from the database without returning it
+ *
+ * confirm allocating 1 IP still fails as the range is exhausted
+ *
+ * 8. set the exhausted range recheck interval to 1 second
+ *
+ * confirm the deleted IP is allocated after the recheck
+ *
+ * 9. set the default IP allocator strategy to an unknown strategy
+ *
+ * confirm it's rejected
+ */
+public class TestBitmapIpAllocatorStrategy {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CloudBus bus;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("NetworkManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        api.stopServer();
+    }
+
+    private AllocateIpReply allocateIp(String l3Uuid) {
+        AllocateIpMsg msg = new AllocateIpMsg();
+        msg.setL3NetworkUuid(l3Uuid);
+        msg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        msg.setAllocateStrategy(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+        return (AllocateIpReply) bus.call(msg);
+    }
+
+    private MessageReply allocateIps(String l3Uuid, int num) {
+        AllocateIpsMsg msg = new AllocateIpsMsg();
+        msg.setL3NetworkUuid(l3Uuid);
+        msg.setIpNum(num);
+        msg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        msg.setAllocateStrategy(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+        return bus.call(msg);
+    }
+
+    private void assertIps(List<UsedIpInventory> ips, int from) {
+        for (int i = 0; i < ips.size(); i++) {
+            Assert.assertEquals(String.format("10.223.110.%s", from + i), ips.get(i).getIp());
+        }
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        L2NetworkInventory linv = api.createNoVlanL2Network(zone.getUuid(), "eth0");
+        L3NetworkInventory l3inv = api.createL3BasicNetwork(linv.getUuid());
+        api.addIpRange(l3inv.getUuid(), "10.223.110.10", "10.223.110.20", "10.223.110.1", "255.255.255.0");
+
+        AllocateIpReply reply = allocateIp(l3inv.getUuid());
+        UsedIpInventory first = reply.getIpInventory();
+        Assert.assertEquals("10.223.110.10", first.getIp());
+
+        AllocateIpsReply ireply = (AllocateIpsReply) allocateIps(l3inv.getUuid(), 5);
+        Assert.assertEquals(5, ireply.getIpInventories().size());
+        assertIps(ireply.getIpInventories(), 11);
+
+        ReturnIpMsg rmsg = new ReturnIpMsg();
+        rmsg.setL3NetworkUuid(l3inv.getUuid());
+        rmsg.setUsedIpUuid(first.getUuid());
+        rmsg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        bus.send(rmsg);
+        TimeUnit.SECONDS.sleep(1);
+
+        ireply = (AllocateIpsReply) allocateIps(l3inv.getUuid(), 5);
+        Assert.assertEquals(5, ireply.getIpInventories().size());
+        assertIps(ireply.getIpInventories(), 16);
+
+        reply = allocateIp(l3inv.getUuid());
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals("10.223.110.10", reply.getIpInventory().getIp());
+        Assert.assertEquals(11, dbf.count(UsedIpVO.class));
+
+        reply = allocateIp(l3inv.getUuid());
+        Assert.assertFalse(reply.isSuccess());
+
+        MessageReply r = allocateIps(l3inv.getUuid(), 2);
+        Assert.assertFalse(r.isSuccess());
+        Assert.assertEquals(11, dbf.count(UsedIpVO.class));
+
+        UsedIpVO deleted = dbf.findByUuid(ireply.getIpInventories().get(0).getUuid(), UsedIpVO.class);
+        dbf.remove(deleted);
+        reply = allocateIp(l3inv.getUuid());
+        Assert.assertFalse(reply.isSuccess());
+
+        L3NetworkGlobalConfig.EXHAUSTED_IP_RANGE_RECHECK_INTERVAL.updateValue(1);
+        TimeUnit.SECONDS.sleep(2);
+        reply = allocateIp(l3inv.getUuid());
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals(deleted.getIp(), reply.getIpInventory().getIp());
+
+        boolean rejected = false;
+        try {
+            L3NetworkGlobalConfig.DEFAULT_IP_ALLOCATOR_STRATEGY.updateValue("NoSuchIpAllocatorStrategy");
+        } catch (GlobalConfigException e) {
+            rejected = true;
+        }
+        Assert.assertTrue(rejected);
+    }
+}
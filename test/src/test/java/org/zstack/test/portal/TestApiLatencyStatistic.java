@@ -0,0 +1,39 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.portal.apimediator.ApiLatencyStatistic;
+
+/**
+ * 1. count latencies of 0ms, 1ms, 3ms, 10ms, 30ms, 80ms, 300ms, 800ms, 3s and 8s
+ *
+ * confirm each latency lands in its bucket of the histogram
+ * confirm the count, total, average and max time
+ */
+public class TestApiLatencyStatistic {
+    @Test
+    public void test() {
+        ApiLatencyStatistic stat = new ApiLatencyStatistic("test");
+        long[] costs = new long[] {0, 1, 3, 10, 30, 80, 300, 800, 3000, 8000};
+        long total = 0;
+        for (long cost : costs) {
+            stat.count(cost);
+            total += cost;
+        }
+
+        Assert.assertEquals(costs.length, stat.getCount());
+        Assert.assertEquals(total, stat.getTotalTime());
+        Assert.assertEquals(total / costs.length, stat.getAverageTime());
+        Assert.assertEquals(8000, stat.getMaxTime());
+
+        Assert.assertEquals(2, stat.getLe1ms());
+        Assert.assertEquals(1, stat.getLe5ms());
+        Assert.assertEquals(1, stat.getLe10ms());
+        Assert.assertEquals(1, stat.getLe50ms());
+        Assert.assertEquals(1, stat.getLe100ms());
+        Assert.assertEquals(1, stat.getLe500ms());
+        Assert.assertEquals(1, stat.getLe1s());
+        Assert.assertEquals(1, stat.getLe5s());
+        Assert.assertEquals(1, stat.getGt5s());
+    }
+}
@@ -0,0 +1,155 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.SyncTask;
+import org.zstack.core.thread.SyncTaskStatistic;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeMXBean;
+import org.zstack.header.zone.APIListZonesMsg;
+import org.zstack.portal.apimediator.ApiLatencyStatistic;
+import org.zstack.portal.apimediator.ApiMediatorImpl;
+import org.zstack.test.Api;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. set apiWorkerShardNum to 4 and block the 4 api worker queues
+ * 2. send 3 APIs with the admin session
+ *
+ * confirm the APIs wait in exactly one of the api.worker.N queues
+ *
+ * 3. release the queues
+ *
+ * confirm the APIs succeed
+ * confirm the latencies of the APIs are counted in the le1s/le5s buckets of the latency histogram
+ */
+public class TestApiMediatorWorkerShard {
+    ComponentLoader loader;
+    Api api;
+    ApiMediatorImpl mediator;
+    ThreadFacade thdf;
+    int shardNum = 4;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        con.addXml("PortalForUnitTest.xml");
+        con.addXml("ZoneManager.xml");
+        con.addXml("AccountManager.xml");
+        loader = con.build();
+        mediator = loader.getComponent(ApiMediatorImpl.class);
+        thdf = loader.getComponent(ThreadFacade.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() {
+        mediator.setApiWorkerShardNum(1);
+    }
+
+    private long pendingApiNum(String signature) {
+        SyncTaskStatistic stat = ((ThreadFacadeMXBean) thdf).getSyncTaskStatistics().get(signature);
+        return stat == null ? 0 : stat.getPendingTaskNum();
+    }
+
+    @Test
+    public void test() throws Exception {
+        api.createZones(1);
+        mediator.setApiWorkerShardNum(shardNum);
+
+        final CountDownLatch blocker = new CountDownLatch(1);
+        for (int i = 0; i < shardNum; i++) {
+            final String signature = String.format("api.worker.%s", i);
+            thdf.syncSubmit(new SyncTask<Object>() {
+                @Override
+                public String getSyncSignature() {
+                    return signature;
+                }
+
+                @Override
+                public int getSyncLevel() {
+                    return 1;
+                }
+
+                @Override
+                public String getName() {
+                    return signature;
+                }
+
+                @Override
+                public Object call() throws Exception {
+                    blocker.await(60, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+        }
+
+        final int apiNum = 3;
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        final List<Integer> zoneNums = new CopyOnWriteArrayList<Integer>();
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int i = 0; i < apiNum; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        zoneNums.add(api.listZones(null).size());
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            senders.add(t);
+        }
+
+        String shard = null;
+        for (int wait = 0; wait < 100 && shard == null; wait++) {
+            for (int i = 0; i < shardNum; i++) {
+                String signature = String.format("api.worker.%s", i);
+                if (pendingApiNum(signature) == apiNum) {
+                    shard = signature;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertNotNull(shard);
+        for (int i = 0; i < shardNum; i++) {
+            String signature = String.format("api.worker.%s", i);
+            if (!signature.equals(shard)) {
+                Assert.assertEquals(0, pendingApiNum(signature));
+            }
+        }
+
+        TimeUnit.MILLISECONDS.sleep(600);
+        blocker.countDown();
+        for (Thread t : senders) {
+            t.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(apiNum, zoneNums.size());
+        for (Integer num : zoneNums) {
+            Assert.assertEquals(1, num.intValue());
+        }
+
+        ApiLatencyStatistic stat = mediator.getApiLatencyStatistics().get(APIListZonesMsg.class.getName());
+        Assert.assertNotNull(stat);
+        Assert.assertEquals(apiNum, stat.getCount());
+        Assert.assertTrue(stat.getMaxTime() > 500);
+        Assert.assertEquals(0, stat.getLe1ms() + stat.getLe5ms() + stat.getLe10ms() + stat.getLe50ms() + stat.getLe100ms() + stat.getLe500ms());
+        Assert.assertEquals(apiNum, stat.getLe1s() + stat.getLe5s());
+    }
+}
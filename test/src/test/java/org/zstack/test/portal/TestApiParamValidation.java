@@ -0,0 +1,139 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.allocator.APIGetCpuMemoryCapacityMsg;
+import org.zstack.header.allocator.APIGetCpuMemoryCapacityReply;
+import org.zstack.header.apimediator.ApiMediatorConstant;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.zone.*;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSender;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 1. create a zone
+ * 2. send APIGetCpuMemoryCapacityMsg with the zone and a nonexistent zone in zoneUuids
+ *
+ * confirm RESOURCE_NOT_FOUND reporting only the nonexistent zone
+ *
+ * 3. send APIGetCpuMemoryCapacityMsg with the zone in zoneUuids and nonexistent clusters in clusterUuids
+ *
+ * confirm RESOURCE_NOT_FOUND reporting the clusterUuids field and all nonexistent clusters
+ *
+ * 4. send APIChangeZoneStateMsg with a nonexistent zone, an invalid stateEvent and no stateEvent
+ *
+ * confirm RESOURCE_NOT_FOUND, INVALID_ARGUMENT_ERROR and INVALID_ARGUMENT_ERROR
+ *
+ * 5. change the zone state twice
+ *
+ * confirm the zone state is changed
+ */
+public class TestApiParamValidation {
+    ComponentLoader loader;
+    Api api;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        con.addXml("PortalForUnitTest.xml");
+        con.addXml("ZoneManager.xml");
+        con.addXml("AccountManager.xml");
+        loader = con.build();
+        api = new Api();
+        api.startServer();
+    }
+
+    private ErrorCode getCapacity(APIGetCpuMemoryCapacityMsg msg) {
+        msg.setSession(api.getAdminSession());
+        msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
+        try {
+            new ApiSender().call(msg, APIGetCpuMemoryCapacityReply.class);
+        } catch (ApiSenderException e) {
+            return e.getError();
+        }
+
+        return null;
+    }
+
+    private ErrorCode changeZoneState(String zoneUuid, String stateEvent) {
+        APIChangeZoneStateMsg msg = new APIChangeZoneStateMsg();
+        msg.setUuid(zoneUuid);
+        msg.setStateEvent(stateEvent);
+        msg.setSession(api.getAdminSession());
+        msg.setServiceId(ApiMediatorConstant.SERVICE_ID);
+        try {
+            new ApiSender().send(msg, APIChangeZoneStateEvent.class);
+        } catch (ApiSenderException e) {
+            return e.getError();
+        }
+
+        return null;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone = api.createZones(1).get(0);
+        String noZone = Platform.getUuid();
+        String noCluster1 = Platform.getUuid();
+        String noCluster2 = Platform.getUuid();
+
+        APIGetCpuMemoryCapacityMsg msg = new APIGetCpuMemoryCapacityMsg();
+        msg.setZoneUuids(Arrays.asList(zone.getUuid(), noZone));
+        ErrorCode err = getCapacity(msg);
+        Assert.assertNotNull(err);
+        Assert.assertEquals(SysErrors.RESOURCE_NOT_FOUND.toString(), err.getCode());
+        Assert.assertTrue(err.getDetails().contains("zoneUuids"));
+        Assert.assertTrue(err.getDetails().contains(noZone));
+        Assert.assertFalse(err.getDetails().contains(zone.getUuid()));
+
+        msg = new APIGetCpuMemoryCapacityMsg();
+        msg.setZoneUuids(Arrays.asList(zone.getUuid()));
+        msg.setClusterUuids(Arrays.asList(noCluster1, noCluster2));
+        err = getCapacity(msg);
+        Assert.assertNotNull(err);
+        Assert.assertEquals(SysErrors.RESOURCE_NOT_FOUND.toString(), err.getCode());
+        Assert.assertTrue(err.getDetails().contains("clusterUuids"));
+        Assert.assertTrue(err.getDetails().contains(noCluster1));
+        Assert.assertTrue(err.getDetails().contains(noCluster2));
+
+        msg = new APIGetCpuMemoryCapacityMsg();
+        msg.setZoneUuids(new ArrayList<String>());
+        msg.setClusterUuids(Arrays.asList(noCluster1));
+        err = getCapacity(msg);
+        Assert.assertNotNull(err);
+        Assert.assertEquals(SysErrors.RESOURCE_NOT_FOUND.toString(), err.getCode());
+        Assert.assertTrue(err.getDetails().contains("clusterUuids"));
+
+        err = changeZoneState(noZone, ZoneStateEvent.disable.toString());
+        Assert.assertNotNull(err);
+        Assert.assertEquals(SysErrors.RESOURCE_NOT_FOUND.toString(), err.getCode());
+        Assert.assertTrue(err.getDetails().contains(noZone));
+
+        err = changeZoneState(zone.getUuid(), "bogus");
+        Assert.assertNotNull(err);
+        Assert.assertEquals(SysErrors.INVALID_ARGUMENT_ERROR.toString(), err.getCode());
+        Assert.assertTrue(err.getDetails().contains("stateEvent"));
+
+        err = changeZoneState(zone.getUuid(), null);
+        Assert.assertNotNull(err);
+        Assert.assertEquals(SysErrors.INVALID_ARGUMENT_ERROR.toString(), err.getCode());
+        Assert.assertTrue(err.getDetails().contains("stateEvent"));
+
+        // the validation plan of a message is built once and reused by later messages
+        ZoneInventory zone1 = api.changeZoneState(zone.getUuid(), ZoneStateEvent.disable);
+        Assert.assertEquals(ZoneState.Disabled.toString(), zone1.getState());
+        zone1 = api.changeZoneState(zone.getUuid(), ZoneStateEvent.enable);
+        Assert.assertEquals(ZoneState.Enabled.toString(), zone1.getState());
+    }
+}
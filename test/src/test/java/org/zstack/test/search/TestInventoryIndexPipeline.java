@@ -0,0 +1,175 @@
+package org.zstack.test.search;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.TransactionalCallback.Operation;
+import org.zstack.header.identity.AccountType;
+import org.zstack.header.identity.AccountVO;
+import org.zstack.header.search.DeleteVO;
+import org.zstack.header.search.InsertVO;
+import org.zstack.header.search.UpdateVO;
+import org.zstack.search.InventoryIndexManager;
+import org.zstack.search.InventoryIndexManagerImpl;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. start a stub elasticsearch recording _bulk requests
+ * 2. put several insert/update rows of an account and a delete row of another account in the index outbox
+ * 3. signal the index manager
+ *
+ * confirm the rows of the account are coalesced into one index action, the deleted account gets one delete action
+ * confirm the outbox is drained and the index lag goes back to 0
+ *
+ * 4. let the stub elasticsearch fail a _bulk request, put an update row of the account and signal
+ *
+ * confirm the row stays in the outbox
+ *
+ * 5. signal again
+ *
+ * confirm the row is indexed again and removed from the outbox
+ */
+public class TestInventoryIndexPipeline {
+    CLogger logger = Utils.getLogger(TestInventoryIndexPipeline.class);
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    InventoryIndexManagerImpl imgr;
+    HttpServer server;
+    List<String> bulks = Collections.synchronizedList(new ArrayList<String>());
+    AtomicInteger bulksToFail = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = IOUtils.toString(exchange.getRequestBody());
+                int status = 200;
+                if (exchange.getRequestURI().getPath().contains("_bulk")) {
+                    bulks.add(body);
+                    if (bulksToFail.getAndDecrement() > 0) {
+                        status = 500;
+                    }
+                }
+
+                byte[] rsp = "{}".getBytes();
+                exchange.sendResponseHeaders(status, "HEAD".equals(exchange.getRequestMethod()) ? -1 : rsp.length);
+                if (!"HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseBody().write(rsp);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        System.setProperty("deleteAllIndexWhenStart", "false");
+        DBUtil.reDeployDB();
+        BeanConstructor con = new BeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").addXml("SearchManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        imgr = (InventoryIndexManagerImpl) loader.getComponent(InventoryIndexManager.class);
+        imgr.setElasticSearchBaseUrl(String.format("http://127.0.0.1:%s/", server.getAddress().getPort()));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private AccountVO createAccount(String name) {
+        AccountVO vo = new AccountVO();
+        vo.setUuid(Platform.getUuid());
+        vo.setName(name);
+        vo.setPassword("password");
+        vo.setType(AccountType.Normal);
+        return dbf.persistAndRefresh(vo);
+    }
+
+    private int count(String action, String uuid) {
+        int count = 0;
+        for (String body : bulks) {
+            for (String line : body.split("\n")) {
+                if (line.contains(String.format("\"%s\"", action)) && line.contains(uuid)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        AccountVO acnt = createAccount("account1");
+        AccountVO deleted = createAccount("account2");
+        dbf.remove(deleted);
+        TimeUnit.SECONDS.sleep(2);
+        bulks.clear();
+
+        InsertVO ivo = new InsertVO();
+        ivo.setVoName(AccountVO.class.getSimpleName());
+        ivo.setUuid(acnt.getUuid());
+        ivo.setInsertDate(new Date());
+        dbf.persist(ivo);
+        for (int i = 0; i < 5; i++) {
+            UpdateVO uvo = new UpdateVO();
+            uvo.setVoName(AccountVO.class.getSimpleName());
+            uvo.setUuid(acnt.getUuid());
+            uvo.setUpdateDate(new Date());
+            dbf.persist(uvo);
+        }
+        DeleteVO dvo = new DeleteVO();
+        dvo.setVoName(AccountVO.class.getSimpleName());
+        dvo.setUuid(deleted.getUuid());
+        dvo.setDeletedDate(new Date());
+        dbf.persist(dvo);
+
+        imgr.afterCommit(Operation.UPDATE, AccountVO.class);
+        TimeUnit.SECONDS.sleep(3);
+
+        Assert.assertEquals(1, count("index", acnt.getUuid()));
+        Assert.assertEquals(1, count("delete", deleted.getUuid()));
+        Assert.assertEquals(0, count("index", deleted.getUuid()));
+        Assert.assertEquals(0, dbf.count(InsertVO.class));
+        Assert.assertEquals(0, dbf.count(UpdateVO.class));
+        Assert.assertEquals(0, dbf.count(DeleteVO.class));
+        Assert.assertEquals(0, imgr.getIndexLag());
+
+        bulks.clear();
+        bulksToFail.set(1);
+        UpdateVO uvo = new UpdateVO();
+        uvo.setVoName(AccountVO.class.getSimpleName());
+        uvo.setUuid(acnt.getUuid());
+        uvo.setUpdateDate(new Date());
+        dbf.persist(uvo);
+        imgr.afterCommit(Operation.UPDATE, AccountVO.class);
+        TimeUnit.SECONDS.sleep(3);
+        Assert.assertEquals(1, count("index", acnt.getUuid()));
+        Assert.assertEquals(1, dbf.count(UpdateVO.class));
+
+        imgr.afterCommit(Operation.UPDATE, AccountVO.class);
+        TimeUnit.SECONDS.sleep(3);
+        Assert.assertEquals(2, count("index", acnt.getUuid()));
+        Assert.assertEquals(0, dbf.count(UpdateVO.class));
+    }
+}
@@ -0,0 +1,134 @@
+package org.zstack.test.securitygroup;
+
+import junit.framework.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmNicInventory;
+import org.zstack.network.securitygroup.*;
+import org.zstack.network.securitygroup.APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO;
+import org.zstack.simulator.SimulatorSecurityGroupBackend;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @condition
+ * 1. add vm1 and vm2 to a security group
+ * 2. refresh rules of vm1
+ *
+ * @test
+ * confirm nothing is sent to the host as rules of vm1 don't change
+ *
+ * 3. add a rule to the security group
+ *
+ * @test
+ * confirm only the nics of vm1 and vm2 are sent, with the new rule
+ *
+ * 4. add vm1 to another security group
+ *
+ * @test
+ * confirm only the nic of vm1 is sent
+ */
+public class TestSecurityGroupDeltaRules {
+    static CLogger logger = Utils.getLogger(TestSecurityGroupDeltaRules.class);
+    static Deployer deployer;
+    static Api api;
+    static ComponentLoader loader;
+    static DatabaseFacade dbf;
+    static CloudBus bus;
+    static SimulatorSecurityGroupBackend sbkd;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/securityGroup/TestApplySeurityGroupRulesInTwoGroup.xml", con);
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        sbkd = loader.getComponent(SimulatorSecurityGroupBackend.class);
+    }
+
+    private Set<String> appliedNicNames() {
+        Set<String> names = new HashSet<String>();
+        synchronized (sbkd.appliedHostRuleTOs) {
+            for (HostRuleTO hto : sbkd.appliedHostRuleTOs) {
+                for (SecurityGroupRuleTO to : hto.getRules()) {
+                    names.add(to.getVmNicInternalName());
+                }
+            }
+        }
+        return names;
+    }
+
+    private void refreshVm(VmInstanceInventory vm) {
+        RefreshSecurityGroupRulesOnVmMsg msg = new RefreshSecurityGroupRulesOnVmMsg();
+        msg.setVmInstanceUuid(vm.getUuid());
+        msg.setHostUuid(vm.getHostUuid());
+        bus.makeLocalServiceId(msg, SecurityGroupConstant.SERVICE_ID);
+        MessageReply reply = bus.call(msg);
+        Assert.assertTrue(reply.isSuccess());
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        SecurityGroupInventory sg = deployer.securityGroups.get("test");
+        SecurityGroupInventory sg1 = deployer.securityGroups.get("test1");
+        VmInstanceInventory vm1 = deployer.vms.get("TestVm");
+        VmNicInventory vm1Nic = vm1.getVmNics().get(0);
+        VmInstanceInventory vm2 = deployer.vms.get("TestVm1");
+        VmNicInventory vm2Nic = vm2.getVmNics().get(0);
+
+        api.addVmNicToSecurityGroup(sg.getUuid(), vm1Nic.getUuid());
+        api.addVmNicToSecurityGroup(sg.getUuid(), vm2Nic.getUuid());
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        sbkd.appliedHostRuleTOs.clear();
+        refreshVm(vm1);
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(appliedNicNames().isEmpty());
+
+        SecurityGroupRuleAO r = new SecurityGroupRuleAO();
+        r.setStartPort(1000);
+        r.setEndPort(2000);
+        r.setProtocol(SecurityGroupRuleProtocolType.TCP.toString());
+        r.setType(SecurityGroupRuleType.Ingress.toString());
+        r.setAllowedCidr("192.168.0.0/24");
+        sg = api.addSecurityGroupRuleByFullConfig(sg.getUuid(), r);
+        TimeUnit.MILLISECONDS.sleep(500);
+        Set<String> names = appliedNicNames();
+        Assert.assertEquals(2, names.size());
+        Assert.assertTrue(names.contains(vm1Nic.getInternalName()));
+        Assert.assertTrue(names.contains(vm2Nic.getInternalName()));
+        SecurityGroupTestValidator.validate(sbkd.getRulesOnHost(vm2.getHostUuid(), vm2Nic.getInternalName()), sg.getRules());
+
+        sbkd.appliedHostRuleTOs.clear();
+        api.addVmNicToSecurityGroup(sg1.getUuid(), vm1Nic.getUuid());
+        TimeUnit.MILLISECONDS.sleep(500);
+        names = appliedNicNames();
+        Assert.assertEquals(1, names.size());
+        Assert.assertTrue(names.contains(vm1Nic.getInternalName()));
+
+        List<SecurityGroupRuleInventory> expectedRules = new ArrayList<SecurityGroupRuleInventory>();
+        expectedRules.addAll(sg.getRules());
+        expectedRules.addAll(sg1.getRules());
+        SecurityGroupTestValidator.validate(sbkd.getRulesOnHost(vm1.getHostUuid(), vm1Nic.getInternalName()), expectedRules);
+    }
+}
@@ -0,0 +1,80 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.storage.primary.DeleteBitsOnPrimaryStorageMsg;
+import org.zstack.header.storage.primary.PrimaryStorageConstant;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.storage.ceph.CephGlobalConfig;
+import org.zstack.storage.ceph.primary.CephPrimaryStorageSimulatorConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1. use ceph for primary storage and backup storage
+ * 2. set primaryStorage.delete.batchWindow to 500ms
+ * 3. delete 3 bits on the primary storage at the same time
+ *
+ * confirm the bits are deleted by one batch delete command
+ */
+public class TestCephBatchDelete {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    CephPrimaryStorageSimulatorConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/ceph/TestCeph1.xml", con);
+        deployer.addSpringConfig("ceph.xml");
+        deployer.addSpringConfig("cephSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(CephPrimaryStorageSimulatorConfig.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        PrimaryStorageInventory ps = deployer.primaryStorages.get("ceph-pri");
+        CephGlobalConfig.PRIMARY_STORAGE_DELETE_BATCH_WINDOW.updateValue(500);
+        config.deleteCmds.clear();
+
+        List<NeedReplyMessage> msgs = new ArrayList<NeedReplyMessage>();
+        for (int i = 0; i < 3; i++) {
+            DeleteBitsOnPrimaryStorageMsg msg = new DeleteBitsOnPrimaryStorageMsg();
+            msg.setPrimaryStorageUuid(ps.getUuid());
+            msg.setInstallPath(String.format("ceph://pool/bits%s", i));
+            bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, ps.getUuid());
+            msgs.add(msg);
+        }
+
+        List<MessageReply> replies = bus.call(msgs);
+        for (MessageReply r : replies) {
+            Assert.assertTrue(r.isSuccess());
+        }
+
+        Assert.assertEquals(1, config.batchDeleteCmds.size());
+        Assert.assertEquals(3, config.batchDeleteCmds.get(0).getInstallPaths().size());
+        Assert.assertEquals(3, config.deleteCmds.size());
+    }
+}
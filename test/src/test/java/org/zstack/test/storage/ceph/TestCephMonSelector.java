@@ -0,0 +1,163 @@
+package org.zstack.test.storage.ceph;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.core.Completion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.storage.ceph.CephGlobalConfig;
+import org.zstack.storage.ceph.CephMonAO;
+import org.zstack.storage.ceph.CephMonBase;
+import org.zstack.storage.ceph.CephMonSelector;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. record calls of 100ms, 10ms and 50ms to mon1, mon2 and mon3
+ *
+ * confirm the mons are selected as mon2, mon3, mon1
+ *
+ * 2. record several calls of 500ms to mon2
+ *
+ * confirm the EWMA latency moves mon2 to the last
+ *
+ * 3. fail calls to mon1 one less than mon.circuitBreaker.failureThreshold
+ *
+ * confirm mon1 is still selected
+ *
+ * 4. fail one more call to mon1
+ *
+ * confirm the circuit of mon1 is open and mon1 is not selected
+ *
+ * 5. wait mon.circuitBreaker.openTime, let the probe of mon1 fail
+ *
+ * confirm mon1 is probed once and is still not selected
+ *
+ * 6. wait mon.circuitBreaker.openTime, let the probe of mon1 succeed
+ *
+ * confirm the circuit of mon1 is closed and mon1 is selected
+ *
+ * 7. open the circuits of all mons
+ *
+ * confirm all mons are still selected
+ */
+public class TestCephMonSelector {
+    Deployer deployer;
+    ComponentLoader loader;
+
+    class Mon extends CephMonBase {
+        boolean pingSuccess;
+        int pingCount;
+
+        Mon(String name) {
+            super(new CephMonAO());
+            self.setUuid(Platform.getUuid());
+            self.setHostname(name);
+        }
+
+        @Override
+        public void connect(Completion completion) {
+            completion.success();
+        }
+
+        @Override
+        public void ping(ReturnValueCompletion<PingResult> completion) {
+            pingCount++;
+            PingResult res = new PingResult();
+            res.success = pingSuccess;
+            completion.success(res);
+        }
+
+        @Override
+        protected int getAgentPort() {
+            return 0;
+        }
+
+        String getUuid() {
+            return self.getUuid();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/ceph/TestCeph1.xml", con);
+        deployer.addSpringConfig("ceph.xml");
+        deployer.addSpringConfig("cephSimulator.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        loader = deployer.getComponentLoader();
+    }
+
+    private List<String> select(CephMonSelector selector, List<Mon> mons) {
+        List<String> names = new ArrayList<String>();
+        for (Mon m : selector.select(mons)) {
+            names.add(m.getSelf().getHostname());
+        }
+        return names;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        String storageUuid = Platform.getUuid();
+        CephMonSelector selector = CephMonSelector.get(storageUuid);
+        int threshold = CephGlobalConfig.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD.value(Integer.class);
+        CephGlobalConfig.MON_CIRCUIT_BREAKER_OPEN_TIME.updateValue(1);
+
+        Mon mon1 = new Mon("mon1");
+        Mon mon2 = new Mon("mon2");
+        Mon mon3 = new Mon("mon3");
+        List<Mon> mons = Arrays.asList(mon1, mon2, mon3);
+
+        selector.record(mon1.getUuid(), 100, true);
+        selector.record(mon2.getUuid(), 10, true);
+        selector.record(mon3.getUuid(), 50, true);
+        Assert.assertEquals(Arrays.asList("mon2", "mon3", "mon1"), select(selector, mons));
+
+        for (int i = 0; i < 5; i++) {
+            selector.record(mon2.getUuid(), 500, true);
+        }
+        Assert.assertEquals(Arrays.asList("mon3", "mon1", "mon2"), select(selector, mons));
+
+        for (int i = 0; i < threshold - 1; i++) {
+            selector.record(mon1.getUuid(), 100, false);
+        }
+        Assert.assertTrue(select(selector, mons).contains("mon1"));
+
+        selector.record(mon1.getUuid(), 100, false);
+        Assert.assertFalse(select(selector, mons).contains("mon1"));
+        Assert.assertEquals(0, mon1.pingCount);
+
+        TimeUnit.MILLISECONDS.sleep(1200);
+        mon1.pingSuccess = false;
+        Assert.assertFalse(select(selector, mons).contains("mon1"));
+        Assert.assertEquals(1, mon1.pingCount);
+        // reopened by the failed probe, not probed again until openTime passes
+        Assert.assertFalse(select(selector, mons).contains("mon1"));
+        Assert.assertEquals(1, mon1.pingCount);
+
+        TimeUnit.MILLISECONDS.sleep(1200);
+        mon1.pingSuccess = true;
+        select(selector, mons);
+        Assert.assertEquals(2, mon1.pingCount);
+        Assert.assertTrue(select(selector, mons).contains("mon1"));
+
+        for (Mon m : mons) {
+            for (int i = 0; i < threshold; i++) {
+                selector.record(m.getUuid(), 100, false);
+            }
+        }
+        Assert.assertEquals(3, select(selector, mons).size());
+
+        CephMonSelector.remove(storageUuid);
+    }
+}
@@ -0,0 +1,113 @@
+package org.zstack.test.storage.primary.nfs;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.vm.VmGlobalConfig;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.header.configuration.InstanceOfferingInventory;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.ImageCacheVO_;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.vm.VmInstanceDeletionPolicyManager.VmInstanceDeletionPolicy;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.simulator.storage.primary.nfs.NfsPrimaryStorageSimulatorConfig;
+import org.zstack.storage.primary.ImageCacheEvictor;
+import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
+import org.zstack.test.*;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. create a vm from an image on the nfs primary storage
+ * 2. make the primary storage 95% used and run the eviction
+ *
+ * confirm the image cache is kept as the root volume is created from it
+ *
+ * 3. destroy the vm and run the eviction again
+ *
+ * confirm the image cache is deleted from the primary storage and the reclaimed bytes are reported
+ */
+public class TestImageCacheEviction {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    NfsPrimaryStorageSimulatorConfig config;
+    ImageCacheEvictor evictor;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/primaryStorage/TestImageCacheMissing.xml", con);
+        deployer.addSpringConfig("SftpBackupStorage.xml");
+        deployer.addSpringConfig("SftpBackupStorageSimulator.xml");
+        deployer.addSpringConfig("Kvm.xml");
+        deployer.addSpringConfig("KVMSimulator.xml");
+        deployer.addSpringConfig("NfsPrimaryStorage.xml");
+        deployer.addSpringConfig("NfsPrimaryStorageSimulator.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(NfsPrimaryStorageSimulatorConfig.class);
+        evictor = loader.getComponent(ImageCacheEvictor.class);
+    }
+
+    private void fillPrimaryStorage(String psUuid) {
+        PrimaryStorageCapacityVO cap = dbf.findByUuid(psUuid, PrimaryStorageCapacityVO.class);
+        cap.setTotalPhysicalCapacity(SizeUnit.GIGABYTE.toByte(100));
+        cap.setAvailablePhysicalCapacity(SizeUnit.GIGABYTE.toByte(5));
+        dbf.update(cap);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        PrimaryStorageGlobalConfig.IMAGE_CACHE_EVICTION_MIN_IDLE_TIME.updateValue(0);
+        VmGlobalConfig.VM_DELETION_POLICY.updateValue(VmInstanceDeletionPolicy.Direct.toString());
+
+        ImageInventory iinv = deployer.images.get("TestImage");
+        InstanceOfferingInventory ioinv = deployer.instanceOfferings.get("TestInstanceOffering");
+        L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network1");
+        PrimaryStorageInventory ps = deployer.primaryStorages.get("nfs");
+
+        VmCreator creator = new VmCreator(api);
+        creator.addL3Network(l3.getUuid());
+        creator.imageUuid = iinv.getUuid();
+        creator.instanceOfferingUuid = ioinv.getUuid();
+        VmInstanceInventory vm = creator.create();
+
+        SimpleQuery<ImageCacheVO> q = dbf.createQuery(ImageCacheVO.class);
+        q.add(ImageCacheVO_.imageUuid, SimpleQuery.Op.EQ, iinv.getUuid());
+        ImageCacheVO cache = q.find();
+        Assert.assertNotNull(cache);
+
+        fillPrimaryStorage(ps.getUuid());
+        evictor.evict();
+        TimeUnit.SECONDS.sleep(2);
+        Assert.assertNotNull(dbf.findById(cache.getId(), ImageCacheVO.class));
+        Assert.assertEquals(0, evictor.getReclaimedBytes(ps.getUuid()));
+
+        api.destroyVmInstance(vm.getUuid());
+        config.deleteCmds.clear();
+        fillPrimaryStorage(ps.getUuid());
+        evictor.evict();
+        TimeUnit.SECONDS.sleep(2);
+
+        Assert.assertNull(dbf.findById(cache.getId(), ImageCacheVO.class));
+        Assert.assertEquals(1, config.deleteCmds.size());
+        Assert.assertEquals(cache.getInstallUrl(), config.deleteCmds.get(0).getInstallPath());
+        Assert.assertEquals(cache.getSize(), evictor.getReclaimedBytes(ps.getUuid()));
+    }
+}
@@ -0,0 +1,112 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.tag.TagInventory;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.tag.PatternedSystemTag;
+import org.zstack.tag.TagGlobalConfig;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. create a patterned system tag and look it up
+ * 2. remove the tag from database behind the tag manager
+ *
+ * confirm the lookup is served from the cache
+ *
+ * 3. disable the cache
+ *
+ * confirm the lookup goes to the database
+ *
+ * 4. enable the cache, create/update/delete the tag by API
+ *
+ * confirm the lookup sees every change
+ *
+ * 5. set the cache size to 1, look up tags of zone1 then zone2, remove the tag of zone1 from database behind
+ *
+ * confirm zone1 is evicted by zone2 and its lookup goes to the database
+ */
+public class TestSystemTagCache {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+
+    @TagDefinition
+    public static class TestSystemTags {
+        public static PatternedSystemTag size = new PatternedSystemTag("size::{size}", ZoneVO.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/tag/TestUserTag.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone1 = deployer.zones.get("Zone1");
+        TagGlobalConfig.SYSTEM_TAG_CACHE.updateValue(true);
+
+        TagInventory tag = api.createSystemTag(zone1.getUuid(), "size::big", ZoneVO.class);
+        Assert.assertEquals("big", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        Assert.assertTrue(TestSystemTags.size.hasTag(zone1.getUuid()));
+
+        dbf.removeByPrimaryKey(tag.getUuid(), SystemTagVO.class);
+        Assert.assertEquals("big", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+
+        TagGlobalConfig.SYSTEM_TAG_CACHE.updateValue(false);
+        Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        Assert.assertFalse(TestSystemTags.size.hasTag(zone1.getUuid()));
+
+        TagGlobalConfig.SYSTEM_TAG_CACHE.updateValue(true);
+        Assert.assertFalse(TestSystemTags.size.hasTag(zone1.getUuid()));
+        tag = api.createSystemTag(zone1.getUuid(), "size::small", ZoneVO.class);
+        Assert.assertEquals("small", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+
+        api.updateSystemTag(tag.getUuid(), "size::medium", null);
+        Assert.assertEquals("medium", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        Map<String, List<String>> tags = TestSystemTags.size.getTags(list(zone1.getUuid()));
+        Assert.assertEquals("size::medium", tags.get(zone1.getUuid()).get(0));
+
+        api.deleteTag(tag.getUuid());
+        Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        Assert.assertTrue(TestSystemTags.size.getTags(list(zone1.getUuid())).isEmpty());
+
+        ZoneInventory zone2 = deployer.zones.get("Zone2");
+        int cacheSize = TagGlobalConfig.SYSTEM_TAG_CACHE_SIZE.value(Integer.class);
+        TagGlobalConfig.SYSTEM_TAG_CACHE_SIZE.updateValue(1);
+        try {
+            tag = api.createSystemTag(zone1.getUuid(), "size::big", ZoneVO.class);
+            api.createSystemTag(zone2.getUuid(), "size::small", ZoneVO.class);
+            Assert.assertEquals("big", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+            Assert.assertEquals("small", TestSystemTags.size.getTokenByResourceUuid(zone2.getUuid(), "size"));
+
+            dbf.removeByPrimaryKey(tag.getUuid(), SystemTagVO.class);
+            Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        } finally {
+            TagGlobalConfig.SYSTEM_TAG_CACHE_SIZE.updateValue(cacheSize);
+        }
+    }
+}